@@ -0,0 +1,241 @@
+package io.repseq.cli;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.milaboratory.cli.Action;
+import com.milaboratory.cli.ActionHelper;
+import com.milaboratory.cli.ActionParameters;
+import com.milaboratory.cli.ActionParametersWithOutput;
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.provider.CachedSequenceProvider;
+import com.milaboratory.core.sequence.provider.SequenceProviderIndexOutOfBoundsException;
+import io.repseq.cli.CLIUtils.GeneFeatureConverter;
+import io.repseq.cli.CLIUtils.GeneFeatureSplitter;
+import io.repseq.cli.CLIUtils.GeneFeatureValidator;
+import io.repseq.cli.CLIUtils.GeneFeatureWithOriginalName;
+import io.repseq.core.BaseSequence;
+import io.repseq.core.VDJCGene;
+import io.repseq.core.VDJCLibrary;
+import io.repseq.core.VDJCLibraryRegistry;
+import io.repseq.seqbase.BundleSequenceResolver;
+import io.repseq.seqbase.MultiSequenceResolver;
+import io.repseq.seqbase.SequenceAddress;
+import io.repseq.seqbase.SequenceBundle;
+import io.repseq.seqbase.SequenceResolver;
+import io.repseq.seqbase.SequenceResolvers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static io.repseq.util.ConcurrentUtils.await;
+
+public class BundleAction implements Action {
+    private static final Logger log = LoggerFactory.getLogger(BundleAction.class);
+    final Params params = new Params();
+
+    @Override
+    public void go(ActionHelper helper) throws Exception {
+        List<GeneFeatureWithOriginalName> features = params.features == null
+                ? Collections.<GeneFeatureWithOriginalName>emptyList()
+                : params.features;
+        bundle(Paths.get(params.getInput()), Paths.get(params.getOutput()), params.surroundings, features,
+                params.threads);
+    }
+
+    @Override
+    public String command() {
+        return "bundle";
+    }
+
+    @Override
+    public ActionParameters params() {
+        return params;
+    }
+
+    public static void bundle(Path source, Path destination, int surroundings,
+                              List<GeneFeatureWithOriginalName> features, int threads) throws IOException {
+        VDJCLibraryRegistry.resetDefaultRegistry();
+
+        VDJCLibraryRegistry reg = VDJCLibraryRegistry.getDefault();
+        reg.registerLibraries(source, "lib");
+
+        // Computing regions required by genes
+        Map<SequenceAddress, List<Range>> required = requiredRegions(reg, surroundings, features);
+
+        // Downloading all required sources at once
+        SequenceResolver resolver = reg.getSequenceResolver();
+        SequenceResolvers.awaitAll(resolver, required.keySet());
+
+        final SequenceBundle.Writer writer = new SequenceBundle.Writer();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Map.Entry<SequenceAddress, List<Range>> entry : required.entrySet())
+                futures.add(executor.submit(new RegionsFetcher(resolver, entry.getKey(), entry.getValue(), writer)));
+            for (Future<?> future : futures)
+                await(future);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        writer.write(destination);
+
+        log.info("{} records bundled into {}.", required.size(), destination);
+    }
+
+    /**
+     * Returns merged regions of all origin sequences required by genes: containing region of each gene expanded by
+     * surroundings, and ranges of specified gene features. For base sequences with regions and / or mutations,
+     * ranges are mapped to the ranges of origin sequence they are built from. Addresses resolving to the same record
+     * (see {@link BundleSequenceResolver#key(SequenceAddress)}) are merged.
+     */
+    static Map<SequenceAddress, List<Range>> requiredRegions(VDJCLibraryRegistry reg, int surroundings,
+                                                            List<GeneFeatureWithOriginalName> features) {
+        Map<String, SequenceAddress> addresses = new HashMap<>();
+        Map<SequenceAddress, List<Range>> regions = new LinkedHashMap<>();
+        for (VDJCLibrary lib : reg.getLoadedLibraries())
+            for (VDJCGene gene : lib.getGenes()) {
+                BaseSequence baseSequence = gene.getData().getBaseSequence();
+                SequenceAddress address = new SequenceAddress(lib.getContext(), baseSequence.getOrigin());
+                String key = BundleSequenceResolver.key(address);
+                if (addresses.containsKey(key))
+                    address = addresses.get(key);
+                else
+                    addresses.put(key, address);
+                List<Range> list = regions.get(address);
+                if (list == null)
+                    regions.put(address, list = new ArrayList<>());
+
+                List<Range> geneRanges = new ArrayList<>();
+                geneRanges.add(gene.getPartitioning().getContainingRegion().expand(surroundings));
+                for (GeneFeatureWithOriginalName feature : features) {
+                    Range[] ranges = gene.getPartitioning().getRanges(feature.feature);
+                    if (ranges != null)
+                        geneRanges.addAll(Arrays.asList(ranges));
+                }
+
+                for (Range geneRange : geneRanges)
+                    for (Range range : baseSequence.getOriginRanges(geneRange.isReverse()
+                            ? geneRange.inverse()
+                            : geneRange))
+                        list.add(range.isReverse() ? range.inverse() : range);
+            }
+
+        for (Map.Entry<SequenceAddress, List<Range>> entry : regions.entrySet())
+            entry.setValue(merge(entry.getValue()));
+        return regions;
+    }
+
+    /**
+     * Merges overlapping and touching ranges, clipping them at zero
+     */
+    static List<Range> merge(List<Range> ranges) {
+        List<Range> sorted = new ArrayList<>(ranges);
+        Collections.sort(sorted, new Comparator<Range>() {
+            @Override
+            public int compare(Range o1, Range o2) {
+                return Integer.compare(o1.getLower(), o2.getLower());
+            }
+        });
+        List<Range> result = new ArrayList<>();
+        for (Range range : sorted) {
+            int from = Math.max(0, range.getLower()), to = Math.max(0, range.getUpper());
+            if (from == to)
+                continue;
+            Range last = result.isEmpty() ? null : result.get(result.size() - 1);
+            if (last != null && last.getUpper() >= from)
+                result.set(result.size() - 1, new Range(last.getLower(), Math.max(last.getUpper(), to)));
+            else
+                result.add(new Range(from, to));
+        }
+        return result;
+    }
+
+    private static final class RegionsFetcher implements Runnable {
+        final SequenceResolver resolver;
+        final SequenceAddress address;
+        final List<Range> regions;
+        final SequenceBundle.Writer writer;
+
+        RegionsFetcher(SequenceResolver resolver, SequenceAddress address, List<Range> regions,
+                       SequenceBundle.Writer writer) {
+            this.resolver = resolver;
+            this.address = address;
+            this.regions = regions;
+            this.writer = writer;
+        }
+
+        @Override
+        public void run() {
+            CachedSequenceProvider<NucleotideSequence> provider = resolver.resolve(address);
+            for (Range region : regions) {
+                NucleotideSequence seq;
+                try {
+                    seq = provider.getRegion(region);
+                } catch (SequenceProviderIndexOutOfBoundsException e) {
+                    // Region exceeds record boundaries
+                    Range available = e.getAvailableRange();
+                    if (available == null) {
+                        log.warn("Region {} is not available for {}.", region, address);
+                        continue;
+                    }
+                    seq = provider.getRegion(region = available);
+                }
+                writer.add(BundleSequenceResolver.key(address), recordSize(provider), region, seq);
+            }
+        }
+
+        private static int recordSize(CachedSequenceProvider<NucleotideSequence> provider) {
+            try {
+                return provider.size();
+            } catch (RuntimeException e) {
+                return -1;
+            }
+        }
+    }
+
+    @Parameters(commandDescription = "Create a sequence bundle with all sequence regions required by genes of a " +
+            "library, to be used without access to original (e.g. remote) sources. Use bundle with " +
+            "\"compile --bundle\", or by setting -Drepseqio.bundles=bundle.rsb.")
+    public static final class Params extends ActionParametersWithOutput {
+        @Parameter(description = "input.json[.gz] output.rsb", arity = 2)
+        public List<String> parameters;
+
+        @Parameter(description = "Number of upstream and downstream nucleotides around V/D/J/C segments to " +
+                "include into the bundle.",
+                names = {"-s", "--surrounding"})
+        public int surroundings = 1000;
+
+        @Parameter(description = "Gene feature(s) to include into the bundle in addition to surroundings of " +
+                "segments (e.g. VTranscript, JRegion(-100, +100), etc...). To specify several features use this " +
+                "option several times or separate multiple regions with commas.",
+                names = {"-g", "--gene-feature"},
+                validateWith = GeneFeatureValidator.class,
+                splitter = GeneFeatureSplitter.class,
+                converter = GeneFeatureConverter.class)
+        public List<GeneFeatureWithOriginalName> features;
+
+        @Parameter(description = "Number of parallel sequence requests.",
+                names = {"-t", "--threads"})
+        public int threads = MultiSequenceResolver.DEFAULT_ASYNC_THREADS;
+
+        public String getInput() {
+            return parameters.get(0);
+        }
+
+        public String getOutput() {
+            return parameters.get(1);
+        }
+
+        @Override
+        protected List<String> getOutputFiles() {
+            return Collections.singletonList(getOutput());
+        }
+    }
+}
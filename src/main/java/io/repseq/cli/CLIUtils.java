@@ -12,6 +12,7 @@ import io.repseq.core.GeneFeature;
 import java.io.*;
 import java.util.Arrays;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 public final class CLIUtils {
     private CLIUtils() {
@@ -21,7 +22,9 @@ public final class CLIUtils {
         return new BufferedReader(new InputStreamReader(
                 fileName.equals(".") ?
                         System.in :
-                        new FileInputStream(fileName)), 128 * 1024);
+                        fileName.endsWith(".gz") ?
+                                new GZIPInputStream(new FileInputStream(fileName), 64 * 1024) :
+                                new FileInputStream(fileName)), 128 * 1024);
     }
 
     public static BufferedOutputStream createBufferedOutputStream(String fileName) throws IOException {
@@ -0,0 +1,121 @@
+package io.repseq.cli;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.beust.jcommander.Parameters;
+import com.milaboratory.cli.Action;
+import com.milaboratory.cli.ActionHelper;
+import com.milaboratory.cli.ActionParameters;
+import io.repseq.seqbase.DownloadCache;
+import io.repseq.seqbase.SequenceResolvers;
+
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+public class CacheAction implements Action {
+    final Params params = new Params();
+
+    @Override
+    public void go(ActionHelper helper) throws Exception {
+        DownloadCache cache = new DownloadCache(params.cacheDir == null
+                ? SequenceResolvers.getDefaultCacheDir()
+                : Paths.get(params.cacheDir));
+
+        switch (params.getCommand()) {
+            case "stats":
+                List<DownloadCache.Entry> entries = cache.entries();
+                System.out.println("Cache directory: " + cache.getDir());
+                System.out.println("Entries: " + entries.size());
+                System.out.println("Total size: " + formatSize(cache.totalSize()) + " (limit " +
+                        formatSize(cache.getMaxSize()) + ")");
+                System.out.println("Incomplete downloads: " + formatSize(cache.downloadsSize()));
+                if (params.verbose) {
+                    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+                    System.out.println();
+                    System.out.println("LastAccess\tSize\tSHA256\tKey");
+                    for (DownloadCache.Entry entry : entries)
+                        System.out.println(format.format(new Date(entry.getLastAccessTime())) + "\t" +
+                                formatSize(entry.getSize()) + "\t" + entry.getSha256() + "\t" + entry.getKey());
+                }
+                break;
+            case "clean":
+                if (params.all) {
+                    cache.clear();
+                    System.out.println("All entries removed.");
+                } else {
+                    long limit = params.maxSize == null ? cache.getMaxSize() : DownloadCache.parseSize(params.maxSize);
+                    int evicted = cache.evict(limit);
+                    System.out.println(evicted + " entries removed, total size " + formatSize(cache.totalSize()) + ".");
+                }
+                break;
+            case "verify":
+                List<String> removed = cache.verify();
+                for (String key : removed)
+                    System.out.println("Corrupted: " + key);
+                System.out.println(removed.size() + " corrupted entries removed.");
+                break;
+        }
+    }
+
+    static String formatSize(long size) {
+        if (size < 1024)
+            return size + "B";
+        int exp = (63 - Long.numberOfLeadingZeros(size)) / 10;
+        return String.format("%.1f%s", size / Math.pow(1024, exp), "KMGTPE".charAt(exp - 1));
+    }
+
+    @Override
+    public String command() {
+        return "cache";
+    }
+
+    @Override
+    public ActionParameters params() {
+        return params;
+    }
+
+    @Parameters(commandDescription = "Manage downloaded sequences cache: print statistics (stats), " +
+            "remove least recently used entries above the size limit (clean), check integrity (verify).")
+    public static final class Params extends ActionParameters {
+        @Parameter(description = "stats|clean|verify", arity = 1)
+        public List<String> parameters;
+
+        @Parameter(description = "Cache directory (default ~/.repseqio/cache).",
+                names = {"--cache-dir"})
+        public String cacheDir;
+
+        @Parameter(description = "Size limit for clean command, e.g. 10G (default " +
+                DownloadCache.MAX_SIZE_PROPERTY + " system property value or 16G).",
+                names = {"-m", "--max-size"})
+        public String maxSize;
+
+        @Parameter(description = "Remove all entries (clean command).",
+                names = {"-a", "--all"})
+        public boolean all = false;
+
+        @Parameter(description = "Print all entries (stats command).",
+                names = {"-v", "--verbose"})
+        public boolean verbose = false;
+
+        public String getCommand() {
+            return parameters.get(0);
+        }
+
+        @Override
+        public void validate() {
+            super.validate();
+            if (parameters == null || parameters.size() != 1 ||
+                    !Arrays.asList("stats", "clean", "verify").contains(getCommand()))
+                throw new ParameterException("Expected one of: stats, clean, verify.");
+            if (maxSize != null)
+                try {
+                    DownloadCache.parseSize(maxSize);
+                } catch (NumberFormatException e) {
+                    throw new ParameterException("Can't parse size: " + maxSize);
+                }
+        }
+    }
+}
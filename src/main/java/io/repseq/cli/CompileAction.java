@@ -15,6 +15,8 @@ import io.repseq.core.VDJCLibraryRegistry;
 import io.repseq.dto.KnownSequenceFragmentData;
 import io.repseq.dto.VDJCDataUtils;
 import io.repseq.dto.VDJCLibraryData;
+import io.repseq.seqbase.SequenceAddress;
+import io.repseq.seqbase.SequenceResolvers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,9 +24,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
 
 public class CompileAction implements Action {
     private static final Logger log = LoggerFactory.getLogger(CompileAction.class);
@@ -32,6 +32,9 @@ public class CompileAction implements Action {
 
     @Override
     public void go(ActionHelper helper) throws Exception {
+        if (params.bundles != null)
+            for (String bundle : params.bundles)
+                SequenceResolvers.addBundle(Paths.get(bundle));
         compile(Paths.get(params.getInput()), Paths.get(params.getOutput()), params.surroundings);
     }
 
@@ -51,6 +54,9 @@ public class CompileAction implements Action {
         VDJCLibraryRegistry reg = VDJCLibraryRegistry.getDefault();
         reg.registerLibraries(source, "lib");
 
+        // Fetching all required remote sequences at once, instead of one request per gene
+        prefetchSequences(reg, surroundings);
+
         List<VDJCLibraryData> result = new ArrayList<>();
 
         for (VDJCLibrary lib : reg.getLoadedLibraries()) {
@@ -85,6 +91,24 @@ public class CompileAction implements Action {
         log.info("{} compiled successfully.", source);
     }
 
+    /**
+     * Fetches base sequences of all genes, which regions are not yet known (e.g. from "sequenceFragments" section),
+     * in parallel and using batch requests where possible.
+     */
+    static void prefetchSequences(VDJCLibraryRegistry reg, int surroundings) {
+        Set<SequenceAddress> addresses = new LinkedHashSet<>();
+        for (VDJCLibrary lib : reg.getLoadedLibraries())
+            for (VDJCGene gene : lib.getGenes()) {
+                Range region = gene.getPartitioning().getContainingRegion().expand(surroundings);
+                if (!SequenceResolvers.isKnown(gene.getSequenceProvider(), region))
+                    addresses.add(new SequenceAddress(lib.getContext(),
+                            gene.getData().getBaseSequence().getOrigin()));
+            }
+
+        if (!addresses.isEmpty())
+            SequenceResolvers.awaitAll(reg.getSequenceResolver(), addresses);
+    }
+
     @Parameters(commandDescription = "Compile a library into self-contained compiled library file, by embedding " +
             "sequence information into \"sequenceFragments\" section.")
     public static final class Params extends ActionParametersWithOutput {
@@ -99,6 +123,11 @@ public class CompileAction implements Action {
                 names = {"-s", "--surrounding"})
         public int surroundings = 30;
 
+        @Parameter(description = "Sequence bundle (created by \"bundle\" action) to resolve sequences from, " +
+                "before accessing original (e.g. remote) sources. Can be specified several times.",
+                names = {"-b", "--bundle"})
+        public List<String> bundles;
+
         public String getInput() {
             return parameters.get(0);
         }
@@ -0,0 +1,87 @@
+package io.repseq.cli;
+
+import cc.redberry.pipe.CUtils;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.beust.jcommander.Parameters;
+import com.milaboratory.cli.Action;
+import com.milaboratory.cli.ActionHelper;
+import com.milaboratory.cli.ActionParameters;
+import com.milaboratory.cli.ActionParametersWithOutput;
+import io.repseq.gen.*;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Collections;
+import java.util.List;
+
+import static io.repseq.cli.CLIUtils.createBufferedOutputStream;
+import static io.repseq.cli.CLIUtils.createBufferedReader;
+
+public class ConvertClonesAction implements Action {
+    final Params params = new Params();
+
+    @Override
+    public void go(ActionHelper helper) throws Exception {
+        if (GRepertoireBinaryReader.isBinary(new File(params.getInput())))
+            try (GRepertoireBinaryReader input = new GRepertoireBinaryReader(
+                    new BufferedInputStream(new FileInputStream(params.getInput()), 128 * 1024));
+                 GRepertoireWriter output = new GRepertoireWriter(createBufferedOutputStream(params.getOutput()),
+                         input.getLibrary())) {
+                for (GClone clone : CUtils.it(input))
+                    output.write(clone);
+            }
+        else
+            try (GRepertoireReader input = new GRepertoireReader(createBufferedReader(params.getInput()));
+                 GRepertoireBinaryWriter output = new GRepertoireBinaryWriter(
+                         createBufferedOutputStream(params.getOutput()), input.getLibrary().getLibraryId(),
+                         input.getLibrary(), params.blockSize)) {
+                for (GClone clone : CUtils.it(input))
+                    output.write(clone);
+            }
+    }
+
+    @Override
+    public String command() {
+        return "convertClones";
+    }
+
+    @Override
+    public ActionParameters params() {
+        return params;
+    }
+
+    @Parameters(commandDescription = "Convert clones from jclns (JSON) format to compact binary format, or from " +
+            "binary format back to jclns (direction is determined by the input file).")
+    public static final class Params extends ActionParametersWithOutput {
+        @Parameter(description = "input output")
+        public List<String> parameters;
+
+        @Parameter(description = "Number of clones in compressed block of binary file.",
+                names = {"--block-size"})
+        public int blockSize = GRepertoireBinaryWriter.DEFAULT_BLOCK_SIZE;
+
+        public String getInput() {
+            return parameters.get(0);
+        }
+
+        public String getOutput() {
+            return parameters.get(1);
+        }
+
+        @Override
+        protected List<String> getOutputFiles() {
+            return Collections.singletonList(getOutput());
+        }
+
+        @Override
+        public void validate() {
+            if (parameters == null || parameters.size() != 2)
+                throw new ParameterException("Wrong number of parameters.");
+            if (blockSize < 1)
+                throw new ParameterException("Wrong block size: " + blockSize);
+            super.validate();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package io.repseq.cli;
+
+import cc.redberry.pipe.OutputPortCloseable;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.beust.jcommander.Parameters;
+import com.milaboratory.cli.Action;
+import com.milaboratory.cli.ActionHelper;
+import com.milaboratory.cli.ActionParameters;
+import com.milaboratory.cli.ActionParametersWithOutput;
+import com.milaboratory.util.GlobalObjectMappers;
+import io.repseq.core.VDJCLibrary;
+import io.repseq.core.VDJCLibraryId;
+import io.repseq.core.VDJCLibraryRegistry;
+import io.repseq.gen.GClone;
+import io.repseq.gen.GCloneTsvReader;
+import io.repseq.gen.GRepertoireBinaryReader;
+import io.repseq.gen.GRepertoireReader;
+import io.repseq.gen.ParallelGRepertoireReader;
+import io.repseq.gen.dist.BasicGCloneModel;
+import io.repseq.gen.dist.GCloneModelFitter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+public class FitModelAction implements Action {
+    final Params params = new Params();
+
+    @Override
+    public void go(ActionHelper helper) throws Exception {
+        VDJCLibrary library;
+        OutputPortCloseable<GClone> clones;
+        if (GRepertoireBinaryReader.isBinary(new File(params.getInput()))) {
+            GRepertoireBinaryReader reader = new GRepertoireBinaryReader(new BufferedInputStream(
+                    new FileInputStream(params.getInput()), 1024 * 1024));
+            library = reader.getLibrary();
+            clones = reader;
+        } else if (params.isTsv()) {
+            library = VDJCLibraryRegistry.getDefault().getLibrary(VDJCLibraryId.decode(params.library));
+            clones = new GCloneTsvReader(input(), library);
+        } else {
+            GRepertoireReader reader = new GRepertoireReader(input());
+            library = reader.getLibrary();
+            clones = params.threads == 1 ? reader : new ParallelGRepertoireReader(reader, params.threads,
+                    ParallelGRepertoireReader.DEFAULT_BATCH_SIZE);
+        }
+        BasicGCloneModel model;
+        try {
+            model = new GCloneModelFitter(library, params.minTrimming, params.maxTrimming, params.maxInsertLength)
+                    .fit(clones, params.threads);
+        } finally {
+            clones.close();
+        }
+        GlobalObjectMappers.PRETTY.writeValue(new File(params.getOutput()), model);
+    }
+
+    private BufferedReader input() throws IOException {
+        InputStream is = new FileInputStream(params.getInput());
+        if (params.getInput().endsWith(".gz"))
+            is = new GZIPInputStream(is, 64 * 1024);
+        return new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8), 1024 * 1024);
+    }
+
+    @Override
+    public String command() {
+        return "fitModel";
+    }
+
+    @Override
+    public ActionParameters params() {
+        return params;
+    }
+
+    @Parameters(commandDescription = "Estimate clone model (usage of genes, trimmings and Markov inserts) from " +
+            "annotated clones in jclns (JSON or binary) format or TSV table, and write it in JSON format.")
+    public static final class Params extends ActionParametersWithOutput {
+        @Parameter(description = "input.jclns|input.tsv output.json")
+        public List<String> parameters;
+
+        @Parameter(description = "Library of genes for TSV input (libraryName:taxonId, e.g. default:9606). TSV " +
+                "columns: chain, v, d, j, c, vTrimming, d5Trimming, d3Trimming, jTrimming, vInsert, djInsert, " +
+                "abundance (d, c, D trimmings, djInsert and abundance are optional).",
+                names = {"-l", "--library"})
+        public String library;
+
+        @Parameter(description = "Minimal trimming (maximal number of deleted nucleotides with minus sign).",
+                names = {"--min-trimming"})
+        public int minTrimming = -30;
+
+        @Parameter(description = "Maximal trimming (maximal length of P-segment).",
+                names = {"--max-trimming"})
+        public int maxTrimming = 15;
+
+        @Parameter(description = "Maximal insert length.",
+                names = {"--max-insert-length"})
+        public int maxInsertLength = 60;
+
+        @Parameter(description = "Number of threads.",
+                names = {"-t", "--threads"})
+        public int threads = Runtime.getRuntime().availableProcessors();
+
+        public String getInput() {
+            return parameters.get(0);
+        }
+
+        public String getOutput() {
+            return parameters.get(1);
+        }
+
+        public boolean isTsv() {
+            return getInput().endsWith(".tsv") || getInput().endsWith(".txt");
+        }
+
+        @Override
+        protected List<String> getOutputFiles() {
+            return Collections.singletonList(getOutput());
+        }
+
+        @Override
+        public void validate() {
+            if (parameters == null || parameters.size() != 2)
+                throw new ParameterException("Wrong number of parameters.");
+            if (isTsv() && library == null)
+                throw new ParameterException("-l / --library is required for TSV input.");
+            if (minTrimming > maxTrimming)
+                throw new ParameterException("Empty range of trimmings.");
+            if (maxInsertLength < 0)
+                throw new ParameterException("Wrong maximal insert length: " + maxInsertLength);
+            if (threads < 1)
+                throw new ParameterException("Wrong number of threads: " + threads);
+            super.validate();
+        }
+    }
+}
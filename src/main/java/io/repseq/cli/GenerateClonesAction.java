@@ -3,31 +3,22 @@ package io.repseq.cli;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.Parameters;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectWriter;
 import com.milaboratory.cli.Action;
 import com.milaboratory.cli.ActionHelper;
 import com.milaboratory.cli.ActionParameters;
 import com.milaboratory.cli.ActionParametersWithOutput;
-import com.milaboratory.core.sequence.AminoAcidSequence;
-import com.milaboratory.core.sequence.NucleotideSequence;
-import com.milaboratory.util.GlobalObjectMappers;
-import io.repseq.core.GeneFeature;
-import io.repseq.core.VDJCGene;
 import io.repseq.core.VDJCLibrary;
 import io.repseq.core.VDJCLibraryRegistry;
-import io.repseq.gen.GClone;
-import io.repseq.gen.GGene;
-import io.repseq.gen.dist.GCloneGenerator;
+import io.repseq.gen.GRepertoireWriter;
 import io.repseq.gen.dist.GCloneModel;
+import io.repseq.gen.dist.GGeneConstraint;
 import io.repseq.gen.dist.GModels;
-import org.apache.commons.io.output.CloseShieldOutputStream;
-import org.apache.commons.math3.random.Well19937c;
+import io.repseq.gen.dist.ParallelGCloneGenerator;
 
 import java.io.BufferedOutputStream;
-import java.io.BufferedWriter;
 import java.io.FileOutputStream;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 
 public class GenerateClonesAction implements Action {
@@ -36,35 +27,17 @@ public class GenerateClonesAction implements Action {
     @Override
     public void go(ActionHelper helper) throws Exception {
         GCloneModel model = GModels.getGCloneModelByName(params.getModelName());
-        GCloneGenerator generator = model.create(new Well19937c(params.getSeed()),
-                VDJCLibraryRegistry.getDefault());
-        VDJCLibrary library = VDJCLibraryRegistry.getDefault().getLibrary(model.libraryId());
-        try (BufferedOutputStream s = new BufferedOutputStream(
+        VDJCLibraryRegistry registry = VDJCLibraryRegistry.getDefault();
+        VDJCLibrary library = registry.getLibrary(model.libraryId());
+        // Constrained clones are sampled directly from conditional distribution, without rejection of complete
+        // clones
+        ParallelGCloneGenerator generator = new ParallelGCloneGenerator(model.compile(registry), params.getSeed(),
+                params.threads, ParallelGCloneGenerator.DEFAULT_BLOCK_SIZE, params.getConstraint(), null);
+        // Blocks are serialized by generator threads, and compressed by threads of the writer
+        try (GRepertoireWriter writer = new GRepertoireWriter(new BufferedOutputStream(
                 params.getOutput().equals(".") ? System.out : new FileOutputStream(params.getOutput()),
-                128 * 1024)) {
-            s.write(GlobalObjectMappers.toOneLine(model.libraryId()).getBytes());
-            s.write('\n');
-            ObjectWriter writer = GlobalObjectMappers.ONE_LINE.writerFor(new TypeReference<GClone>() {
-            }).withAttribute(VDJCGene.JSON_CURRENT_LIBRARY_ATTRIBUTE_KEY, library);
-            OUTER:
-            for (int i = 0; i < params.numberOfClones; i++) {
-                GClone clone = generator.sample();
-                for (GGene g : clone.genes.values()) {
-                    NucleotideSequence cdr3 = g.getFeature(GeneFeature.CDR3);
-                    if (params.isInFrame())
-                        if (cdr3.size() % 3 != 0) {
-                            --i;
-                            continue OUTER;
-                        }
-                    if (params.isNoStops())
-                        if (AminoAcidSequence.translateFromCenter(cdr3).containStops()) {
-                            --i;
-                            continue OUTER;
-                        }
-                }
-                writer.writeValue(new CloseShieldOutputStream(s), clone);
-                s.write('\n');
-            }
+                128 * 1024), model.libraryId(), library, params.isGzip() ? params.threads : 0, params.isGzip())) {
+            generator.generate(params.numberOfClones, writer);
         }
     }
 
@@ -80,7 +53,7 @@ public class GenerateClonesAction implements Action {
 
     @Parameters(commandDescription = "Generate synthetic clonotypes, and write in in jclns format.")
     public static final class Params extends ActionParametersWithOutput {
-        @Parameter(description = "model_name|model_file_name [output.jclns]")
+        @Parameter(description = "model_name|model_file_name [output.jclns[.gz]]")
         public List<String> parameters;
 
         @Parameter(description = "Number of clones to generate.", names = {"-c", "--number-of-clones"}, required = true)
@@ -97,6 +70,28 @@ public class GenerateClonesAction implements Action {
                 names = {"-b", "--no-stops"})
         public Boolean noStops;
 
+        @Parameter(description = "Generate clones only with specified V genes (comma-separated names, e.g. " +
+                "TRBV12-3*01, TRBV12-3 or TRBV12).",
+                names = {"--v-genes"})
+        public List<String> vGenes;
+
+        @Parameter(description = "Generate clones only with specified J genes (comma-separated names).",
+                names = {"--j-genes"})
+        public List<String> jGenes;
+
+        @Parameter(description = "Minimal CDR3 length in nucleotides.",
+                names = {"--min-cdr3-length"})
+        public Integer minCDR3Length;
+
+        @Parameter(description = "Maximal CDR3 length in nucleotides.",
+                names = {"--max-cdr3-length"})
+        public Integer maxCDR3Length;
+
+        @Parameter(description = "Number of threads. Output is the same for a given seed regardless of the " +
+                "number of threads.",
+                names = {"-t", "--threads"})
+        public int threads = Runtime.getRuntime().availableProcessors();
+
         public long getSeed() {
             if (seed == null)
                 return System.nanoTime();
@@ -111,6 +106,10 @@ public class GenerateClonesAction implements Action {
             return parameters.size() == 1 ? "." : parameters.get(1);
         }
 
+        public boolean isGzip() {
+            return getOutput().endsWith(".gz");
+        }
+
         @Override
         protected List<String> getOutputFiles() {
             return Collections.singletonList(getOutput());
@@ -124,12 +123,29 @@ public class GenerateClonesAction implements Action {
             return noStops != null && noStops;
         }
 
+        /**
+         * Returns constraint for generated genes, or null if clones are not constrained
+         */
+        public GGeneConstraint getConstraint() {
+            if (!isInFrame() && vGenes == null && jGenes == null && minCDR3Length == null && maxCDR3Length == null)
+                return null;
+            return new GGeneConstraint(isInFrame(), isNoStops(),
+                    vGenes == null ? null : new HashSet<>(vGenes),
+                    jGenes == null ? null : new HashSet<>(jGenes),
+                    minCDR3Length == null ? 0 : minCDR3Length,
+                    maxCDR3Length == null ? Integer.MAX_VALUE : maxCDR3Length);
+        }
+
         @Override
         public void validate() {
             if (parameters.size() == 0 || parameters.size() > 2)
                 throw new ParameterException("Wring number of parameters.");
             if (isNoStops() && !isInFrame())
                 throw new ParameterException("-b / --no-stops allowed only with -a / --in-frame.");
+            if (minCDR3Length != null && maxCDR3Length != null && minCDR3Length > maxCDR3Length)
+                throw new ParameterException("Empty range of CDR3 lengths.");
+            if (threads < 1)
+                throw new ParameterException("Wrong number of threads: " + threads);
         }
     }
 
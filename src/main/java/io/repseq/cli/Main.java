@@ -8,7 +8,7 @@ import io.repseq.seqbase.SequenceResolvers;
 import sun.misc.Signal;
 import sun.misc.SignalHandler;
 
-import java.nio.file.Path;
+import java.io.File;
 import java.nio.file.Paths;
 
 public class Main {
@@ -21,10 +21,16 @@ public class Main {
         });
 
         if (System.getProperty("localOnly") == null) {
-            Path cachePath = Paths.get(System.getProperty("user.home"), ".repseqio", "cache");
-            SequenceResolvers.initDefaultResolver(cachePath);
+            SequenceResolvers.initDefaultResolver(SequenceResolvers.getDefaultCacheDir());
         }
 
+        // Sequence bundles created by "bundle" action, e.g. to work without network access
+        String bundles = System.getProperty("repseqio.bundles");
+        if (bundles != null)
+            for (String bundle : bundles.split(File.pathSeparator))
+                if (!bundle.isEmpty())
+                    SequenceResolvers.addBundle(Paths.get(bundle));
+
         // Setting up main helper
         JCommanderBasedMain main = new JCommanderBasedMain("repseqio",
                 new ListAction(),
@@ -32,7 +38,10 @@ public class Main {
                 new MergeAction(),
                 new CompileAction(),
                 new GenerateClonesAction(),
+                new ModelStatsAction(),
+                new FitModelAction(),
                 new NormalizeCloneAbundancesAction(),
+                new ConvertClonesAction(),
                 new ExportCloneSequencesAction(),
                 new FastaAction(),
                 new TsvAction(),
@@ -41,7 +50,9 @@ public class Main {
                 new FormatAction(),
                 new StatAction(),
                 new FromFastaAction(),
-                new FromPaddedFastaAction());
+                new FromPaddedFastaAction(),
+                new CacheAction(),
+                new BundleAction());
 
         main.setVersionInfoCallback(new Runnable() {
             @Override
@@ -0,0 +1,106 @@
+package io.repseq.cli;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.beust.jcommander.Parameters;
+import com.milaboratory.cli.Action;
+import com.milaboratory.cli.ActionHelper;
+import com.milaboratory.cli.ActionParameters;
+import com.milaboratory.cli.ActionParametersWithOutput;
+import io.repseq.core.GeneType;
+import io.repseq.core.VDJCGene;
+import io.repseq.core.VDJCLibraryRegistry;
+import io.repseq.gen.dist.BasicGCloneModel;
+import io.repseq.gen.dist.GCloneModel;
+import io.repseq.gen.dist.GGeneStatistics;
+import io.repseq.gen.dist.GModels;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class ModelStatsAction implements Action {
+    final Params params = new Params();
+
+    @Override
+    public void go(ActionHelper helper) throws Exception {
+        GCloneModel model = GModels.getGCloneModelByName(params.getModelName());
+        if (!(model instanceof BasicGCloneModel))
+            throw new ParameterException("Statistics are supported only for basic clone models.");
+        BasicGCloneModel basicModel = (BasicGCloneModel) model;
+        VDJCLibraryRegistry registry = VDJCLibraryRegistry.getDefault();
+
+        try (BufferedWriter writer = new BufferedWriter(
+                new OutputStreamWriter(params.getOutputStream(), StandardCharsets.UTF_8))) {
+            writer.write("Chain\tStatistic\tValue\tProbability\n");
+            for (String chain : basicModel.geneModels.keySet()) {
+                if (params.chains != null && !params.chains.contains(chain))
+                    continue;
+                GGeneStatistics stats = basicModel.statistics(registry, chain, params.threads);
+                for (GeneType type : Arrays.asList(GeneType.Variable, GeneType.Diversity, GeneType.Joining))
+                    for (Map.Entry<VDJCGene, Double> e : stats.usage(type).entrySet())
+                        write(writer, chain, type.getLetter() + "Gene", e.getKey().getName(), e.getValue());
+                for (int length = stats.getMinCDR3Length(); length <= stats.getMaxCDR3Length(); length++)
+                    write(writer, chain, "CDR3Length", String.valueOf(length), stats.cdr3LengthProbability(length));
+                write(writer, chain, "InFrame", "", stats.inFrameProbability());
+                if (stats.noCDR3Probability() != 0)
+                    write(writer, chain, "NoCDR3", "", stats.noCDR3Probability());
+            }
+        }
+    }
+
+    private static void write(Writer writer, String chain, String statistic, String value, double probability)
+            throws IOException {
+        writer.write(chain + "\t" + statistic + "\t" + value + "\t" + probability + "\n");
+    }
+
+    @Override
+    public String command() {
+        return "modelStats";
+    }
+
+    @Override
+    public ActionParameters params() {
+        return params;
+    }
+
+    @Parameters(commandDescription = "Compute exact gene usage and CDR3 length distribution of a clone model, " +
+            "without generation of clones.")
+    public static final class Params extends ActionParametersWithOutput {
+        @Parameter(description = "model_name|model_file_name [output.tsv]")
+        public List<String> parameters;
+
+        @Parameter(description = "Chains (keys of gene models, e.g. TRB) to compute statistics for, all by default.",
+                names = {"-c", "--chain"})
+        public List<String> chains;
+
+        @Parameter(description = "Number of threads.",
+                names = {"-t", "--threads"})
+        public int threads = Runtime.getRuntime().availableProcessors();
+
+        public String getModelName() {
+            return parameters.get(0);
+        }
+
+        public OutputStream getOutputStream() throws FileNotFoundException {
+            return parameters.size() == 1 ? new CloseShieldOutputStream(System.out) :
+                    new FileOutputStream(parameters.get(1), false);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected List<String> getOutputFiles() {
+            return parameters.size() == 1 ? Collections.EMPTY_LIST : Collections.singletonList(parameters.get(1));
+        }
+
+        @Override
+        public void validate() {
+            if (parameters == null || parameters.size() == 0 || parameters.size() > 2)
+                throw new ParameterException("Wrong number of parameters.");
+            if (threads < 1)
+                throw new ParameterException("Wrong number of threads: " + threads);
+            super.validate();
+        }
+    }
+}
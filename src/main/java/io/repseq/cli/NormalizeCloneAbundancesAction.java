@@ -3,20 +3,11 @@ package io.repseq.cli;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.Parameters;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectReader;
-import com.fasterxml.jackson.databind.ObjectWriter;
 import com.milaboratory.cli.*;
-import com.milaboratory.util.GlobalObjectMappers;
-import io.repseq.core.VDJCGene;
-import io.repseq.core.VDJCLibrary;
-import io.repseq.core.VDJCLibraryId;
-import io.repseq.core.VDJCLibraryRegistry;
 import io.repseq.gen.GClone;
 import io.repseq.gen.GRepertoire;
 import io.repseq.gen.GRepertoireReader;
 import io.repseq.gen.GRepertoireWriter;
-import org.apache.commons.io.output.CloseShieldOutputStream;
 
 import java.io.*;
 import java.util.ArrayList;
@@ -33,7 +24,8 @@ public class NormalizeCloneAbundancesAction implements Action {
     @Override
     public void go(ActionHelper helper) throws Exception {
         try (GRepertoireReader input = new GRepertoireReader(createBufferedReader(params.getInput()));
-             GRepertoireWriter output = new GRepertoireWriter(createBufferedOutputStream(params.getOutput()), input.getLibrary())) {
+             GRepertoireWriter output = new GRepertoireWriter(createBufferedOutputStream(params.getOutput()),
+                     input.getLibrary().getLibraryId(), input.getLibrary(), 0, params.getOutput().endsWith(".gz"))) {
             GRepertoire repertoire = input.readeFully();
             for (GClone clone : repertoire.clones)
                 output.write(clone.setAbundance(clone.abundance / repertoire.totalAbundance));
@@ -52,7 +44,7 @@ public class NormalizeCloneAbundancesAction implements Action {
 
     @Parameters(commandDescription = "Normalize clone abundances in jclns file.")
     public static final class Params extends ActionParametersWithOutput {
-        @Parameter(description = "[input.jclns [output.jclns]]")
+        @Parameter(description = "[input.jclns[.gz] [output.jclns[.gz]]]")
         public List<String> parameters = new ArrayList<>();
 
         public String getInput() {
@@ -12,10 +12,8 @@ import com.fasterxml.jackson.databind.type.TypeFactory;
 import com.milaboratory.core.Range;
 import com.milaboratory.core.mutations.Mutations;
 import com.milaboratory.core.sequence.NucleotideSequence;
-import com.milaboratory.core.sequence.SequenceBuilder;
 import com.milaboratory.core.sequence.provider.CachedSequenceProvider;
 import com.milaboratory.core.sequence.provider.SequenceProvider;
-import com.milaboratory.core.sequence.provider.SequenceProviderUtils;
 import io.repseq.seqbase.SequenceAddress;
 import io.repseq.seqbase.SequenceResolver;
 
@@ -23,6 +21,8 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * DTO for BaseSequence
@@ -100,21 +100,10 @@ public class BaseSequence {
      */
     public SequenceProvider<NucleotideSequence> resolve(Path context, SequenceResolver resolver) {
         CachedSequenceProvider<NucleotideSequence> originalProvider = resolver.resolve(new SequenceAddress(context, origin));
-        if (isPureOriginalSequence()) {
+        if (isPureOriginalSequence())
             return originalProvider;
-        } else {
-            // TODO implement more lazy algorithm
-            int length = 0;
-            for (Range region : regions)
-                length += region.length();
-            SequenceBuilder<NucleotideSequence> builder = NucleotideSequence.ALPHABET.createBuilder()
-                    .ensureCapacity(length);
-            for (Range region : regions)
-                builder.append(originalProvider.getRegion(region));
-            NucleotideSequence seq = builder.createAndDestroy();
-            seq = mutations == null ? seq : mutations.mutate(seq);
-            return SequenceProviderUtils.fromSequence(seq);
-        }
+        else
+            return new MutatedSequenceProvider(originalProvider, regions, mutations);
     }
 
     /**
@@ -122,6 +111,20 @@ public class BaseSequence {
      *
      * @return {@literal true} if this object represents original sequence without any modifications
      */
+    /**
+     * Returns ranges of origin sequence required to build specified range of this sequence (see {@link
+     * MutatedSequenceProvider#getOriginalRanges(Range)})
+     *
+     * @param range range of this sequence
+     * @return ranges of origin sequence
+     */
+    public List<Range> getOriginRanges(Range range) {
+        if (isPureOriginalSequence())
+            return Collections.singletonList(range);
+        // Original sequence is not accessed while mapping ranges
+        return new MutatedSequenceProvider(null, regions, mutations).getOriginalRanges(range);
+    }
+
     public boolean isPureOriginalSequence() {
         return regions == null && mutations == null;
     }
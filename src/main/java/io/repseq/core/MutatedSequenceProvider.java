@@ -0,0 +1,218 @@
+package io.repseq.core;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.mutations.Mutation;
+import com.milaboratory.core.mutations.Mutations;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.SequenceBuilder;
+import com.milaboratory.core.sequence.provider.SequenceProvider;
+import com.milaboratory.core.sequence.provider.SequenceProviderIndexOutOfBoundsException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lazy sequence provider for {@link BaseSequence} with regions and / or mutations.
+ *
+ * Instead of assembling the whole mutated sequence at creation time, each {@link #getRegion(Range)} call maps
+ * requested range through mutation positions and region list, and extracts only the required parts of the original
+ * sequence.
+ */
+public final class MutatedSequenceProvider implements SequenceProvider<NucleotideSequence> {
+    /**
+     * Provider of original sequence
+     */
+    final SequenceProvider<NucleotideSequence> original;
+    /**
+     * Regions of original sequence to be concatenated
+     */
+    final Range[] regions;
+    /**
+     * regionOffsets[i] - position of the first nucleotide of i-th region in concatenated sequence, last element is
+     * the length of concatenated sequence
+     */
+    final int[] regionOffsets;
+    /**
+     * Raw mutations relative to concatenated sequence
+     */
+    final int[] mutations;
+    /**
+     * Positions in concatenated (non-mutated) sequence right after application of i-th mutation
+     */
+    final int[] seq1After;
+    /**
+     * Positions in resulting (mutated) sequence right after application of i-th mutation
+     */
+    final int[] seq2After;
+    /**
+     * Size of resulting sequence
+     */
+    final int size;
+
+    /**
+     * Creates lazy provider
+     *
+     * @param original  provider of original sequence
+     * @param regions   regions of original sequence to be extracted and concatenated
+     * @param mutations mutations relative to concatenated sequence, may be null
+     */
+    public MutatedSequenceProvider(SequenceProvider<NucleotideSequence> original, Range[] regions,
+                                   Mutations<NucleotideSequence> mutations) {
+        this.original = original;
+        this.regions = regions;
+
+        this.regionOffsets = new int[regions.length + 1];
+        for (int i = 0; i < regions.length; ++i)
+            regionOffsets[i + 1] = regionOffsets[i] + regions[i].length();
+
+        this.mutations = mutations == null ? new int[0] : mutations.getRAWMutations();
+        this.seq1After = new int[this.mutations.length];
+        this.seq2After = new int[this.mutations.length];
+
+        // The same traversal as in Mutations.mutate(...)
+        int c1 = 0, c2 = 0;
+        for (int i = 0; i < this.mutations.length; ++i) {
+            int mut = this.mutations[i];
+            int position = Mutation.getPosition(mut);
+            if (position > c1) {
+                c2 += position - c1;
+                c1 = position;
+            }
+            if (Mutation.isSubstitution(mut)) {
+                ++c1;
+                ++c2;
+            } else if (Mutation.isDeletion(mut))
+                ++c1;
+            else
+                ++c2;
+            seq1After[i] = c1;
+            seq2After[i] = c2;
+        }
+
+        int seq1Length = regionOffsets[regions.length];
+        if (c1 > seq1Length)
+            throw new IllegalArgumentException("Mutations are out of concatenated regions range.");
+        this.size = c2 + seq1Length - c1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public NucleotideSequence getRegion(Range range) {
+        if (range.isReverse())
+            return getRegion(range.inverse()).getReverseComplement();
+
+        if (range.getUpper() > size)
+            throw new SequenceProviderIndexOutOfBoundsException(range.intersection(new Range(0, size)));
+
+        if (range.isEmpty())
+            return NucleotideSequence.EMPTY;
+
+        SequenceBuilder<NucleotideSequence> builder = NucleotideSequence.ALPHABET.createBuilder()
+                .ensureCapacity(range.length());
+        traverse(range.getFrom(), range.getTo(), builder, null);
+        return builder.createAndDestroy();
+    }
+
+    /**
+     * Returns ranges of original sequence required to build specified range of resulting sequence (the part of the
+     * range outside of resulting sequence is ignored). Returned ranges are in the order of their use and may be
+     * reverse, if regions of base sequence are reverse.
+     *
+     * @param range range of resulting sequence
+     * @return ranges of original sequence
+     */
+    public List<Range> getOriginalRanges(Range range) {
+        List<Range> result = new ArrayList<>();
+        int from = Math.max(0, range.getLower()), to = Math.min(size, range.getUpper());
+        if (from < to)
+            traverse(from, to, null, result);
+        return result;
+    }
+
+    /**
+     * Assembles [from, to) range of resulting sequence with the builder, or (if builder is null) collects ranges of
+     * original sequence it consists of
+     */
+    private void traverse(int from, int to, SequenceBuilder<NucleotideSequence> builder, List<Range> originalRanges) {
+        // Skipping all mutations which effect ends before requested range
+        int i = firstMutationAffecting(from);
+        int c1 = i == 0 ? 0 : seq1After[i - 1];
+        int c2 = i == 0 ? 0 : seq2After[i - 1];
+
+        for (; i < mutations.length && c2 < to; ++i) {
+            int mut = mutations[i];
+            int position = Mutation.getPosition(mut);
+            if (position > c1) {
+                appendUnchanged(builder, originalRanges, c1, position, c2, from, to);
+                c2 += position - c1;
+                c1 = position;
+            }
+            if (Mutation.isDeletion(mut))
+                ++c1;
+            else {
+                if (c2 >= from && c2 < to && builder != null)
+                    builder.append(Mutation.getTo(mut));
+                if (Mutation.isSubstitution(mut))
+                    ++c1;
+                ++c2;
+            }
+        }
+
+        if (c2 < to)
+            appendUnchanged(builder, originalRanges, c1, regionOffsets[regions.length], c2, from, to);
+    }
+
+    /**
+     * Returns index of the first mutation, which effect in resulting sequence ends after specified position
+     */
+    private int firstMutationAffecting(int position) {
+        int low = 0, high = mutations.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (seq2After[mid] <= position)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Appends the part of non-mutated segment [seq1From, seq1To) (starting at seq2From in resulting sequence), that
+     * lies inside [from, to) of resulting sequence
+     */
+    private void appendUnchanged(SequenceBuilder<NucleotideSequence> builder, List<Range> originalRanges,
+                                 int seq1From, int seq1To, int seq2From,
+                                 int from, int to) {
+        int lower = Math.max(from, seq2From);
+        int upper = Math.min(to, seq2From + seq1To - seq1From);
+        if (lower < upper)
+            appendOriginal(builder, originalRanges, seq1From + lower - seq2From, seq1From + upper - seq2From);
+    }
+
+    /**
+     * Appends [from, to) range of concatenated (non-mutated) sequence, or (if builder is null) adds ranges of
+     * original sequence it consists of to the list
+     */
+    private void appendOriginal(SequenceBuilder<NucleotideSequence> builder, List<Range> originalRanges,
+                                int from, int to) {
+        int i = 0;
+        while (regionOffsets[i + 1] <= from)
+            ++i;
+        while (from < to) {
+            int regionTo = Math.min(to, regionOffsets[i + 1]);
+            Range originalRange = regions[i].getAbsoluteRangeFor(
+                    new Range(from - regionOffsets[i], regionTo - regionOffsets[i]));
+            if (builder != null)
+                builder.append(original.getRegion(originalRange));
+            else
+                originalRanges.add(originalRange);
+            from = regionTo;
+            ++i;
+        }
+    }
+}
@@ -63,6 +63,10 @@ public final class VDJCLibraryRegistry {
      * Library name aliases
      */
     final HashMap<String, String> aliases = new HashMap<>();
+    /**
+     * If true, sequence dependencies of libraries are resolved before libraries are registered
+     */
+    volatile boolean awaitSequences = false;
 
     /**
      * Creates new VDJCLibraryRegistry with default sequence resolver
@@ -89,6 +93,18 @@ public final class VDJCLibraryRegistry {
         return sequenceResolver == null ? SequenceResolvers.getDefault() : sequenceResolver;
     }
 
+    /**
+     * If set to true, all sequences required by genes of a library, that are not available from its
+     * "sequenceFragments" section, are resolved (downloaded, indexed, etc.) in parallel before the library is
+     * registered, so gene sequence requests never wait for such operations. Library resolution fails if any of the
+     * sequences can't be resolved.
+     *
+     * @param awaitSequences true to resolve sequence dependencies during library registration
+     */
+    public void setAwaitSequences(boolean awaitSequences) {
+        this.awaitSequences = awaitSequences;
+    }
+
     /**
      * Returns collection of libraries that are currently loaded by this registry.
      *
@@ -470,6 +486,10 @@ public final class VDJCLibraryRegistry {
         for (VDJCGeneData gene : data.getGenes())
             VDJCLibrary.addGene(library, gene);
 
+        // Resolving sequences required by genes, before library is published
+        if (awaitSequences)
+            awaitSequenceDependencies(library);
+
         // Adding common species names
         Long taxonId = data.getTaxonId();
         for (String speciesName : data.getSpeciesNames()) {
@@ -490,6 +510,19 @@ public final class VDJCLibraryRegistry {
         return library;
     }
 
+    private void awaitSequenceDependencies(VDJCLibrary library) {
+        Set<SequenceAddress> addresses = new LinkedHashSet<>();
+        for (VDJCGene gene : library.getGenes()) {
+            BaseSequence baseSequence = gene.getData().getBaseSequence();
+            if (!baseSequence.isPureOriginalSequence() ||
+                    !SequenceResolvers.isKnown(gene.getSequenceProvider(),
+                            gene.getPartitioning().getContainingRegion()))
+                addresses.add(new SequenceAddress(library.getContext(), baseSequence.getOrigin()));
+        }
+        if (!addresses.isEmpty())
+            SequenceResolvers.awaitAll(getSequenceResolver(), addresses);
+    }
+
     /**
      * Register libraries from specific file
      *
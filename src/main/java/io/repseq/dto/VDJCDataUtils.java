@@ -4,6 +4,7 @@ import com.milaboratory.core.Range;
 import com.milaboratory.core.sequence.NucleotideSequence;
 import com.milaboratory.core.sequence.provider.CachedSequenceProvider;
 import com.milaboratory.util.GlobalObjectMappers;
+import io.repseq.util.FragmentedSequence;
 
 import java.io.*;
 import java.net.URI;
@@ -141,24 +142,38 @@ public final class VDJCDataUtils {
         return segments;
     }
 
+    /**
+     * Collects known sequence fragments. Overlapping and adjacent fragments of the same sequence are merged into a
+     * single fragment.
+     */
     public static final class FragmentsBuilder {
-        private final Map<URI, CachedSequenceProvider<NucleotideSequence>> fragmentsMap = new HashMap<>();
+        private final Map<URI, FragmentedSequence> fragmentsMap = new HashMap<>();
 
         public void addRegion(KnownSequenceFragmentData fragment) {
             addRegion(fragment.getUri(), fragment.getRange(), fragment.getSequence());
         }
 
         public void addRegion(URI uri, Range range, NucleotideSequence sequence) {
-            CachedSequenceProvider<NucleotideSequence> frBase = fragmentsMap.get(uri);
+            if (range.length() != sequence.size())
+                throw new IllegalArgumentException("Range and sequence lengths are different: " + range + " / " +
+                        sequence.size());
+            if (range.isReverse()) {
+                range = range.inverse();
+                sequence = sequence.getReverseComplement();
+            }
+            FragmentedSequence frBase = fragmentsMap.get(uri);
             if (frBase == null)
-                fragmentsMap.put(uri, frBase = new CachedSequenceProvider<>(NucleotideSequence.ALPHABET));
-            frBase.setRegion(range, sequence);
+                fragmentsMap.put(uri, frBase = new FragmentedSequence());
+            frBase.put(range.getFrom(), sequence);
         }
 
         public List<KnownSequenceFragmentData> getFragments() {
             List<KnownSequenceFragmentData> fragments = new ArrayList<>();
-            for (Map.Entry<URI, CachedSequenceProvider<NucleotideSequence>> entry : fragmentsMap.entrySet())
-                fragments.addAll(extractFragments(entry.getKey(), entry.getValue()));
+            for (Map.Entry<URI, FragmentedSequence> entry : fragmentsMap.entrySet())
+                for (Map.Entry<Range, NucleotideSequence> fragment : entry.getValue().getMergedFragments())
+                    fragments.add(new KnownSequenceFragmentData(entry.getKey(), fragment.getKey(),
+                            fragment.getValue()));
+            Collections.sort(fragments);
             return fragments;
         }
     }
@@ -0,0 +1,117 @@
+package io.repseq.gen;
+
+import cc.redberry.pipe.OutputPortCloseable;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import io.repseq.core.GeneType;
+import io.repseq.core.VDJCGene;
+import io.repseq.core.VDJCLibrary;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads single-chain clones from tab-separated table with header. Columns (in any order):
+ *
+ * chain, v, d, j, c, vTrimming, d5Trimming, d3Trimming, jTrimming, vInsert, djInsert and abundance.
+ *
+ * Columns d, c, d5Trimming, d3Trimming, djInsert and abundance are optional, empty values of d and c mean absent
+ * genes, abundance is 1 by default. Thread-safe.
+ */
+public final class GCloneTsvReader implements OutputPortCloseable<GClone> {
+    static final String[] REQUIRED = {"chain", "v", "j", "vTrimming", "jTrimming", "vInsert"};
+    final VDJCLibrary library;
+    final BufferedReader reader;
+    final Map<String, Integer> columns = new HashMap<>();
+    int lineNumber = 1;
+
+    public GCloneTsvReader(BufferedReader reader, VDJCLibrary library) throws IOException {
+        this.reader = reader;
+        this.library = library;
+        String header = reader.readLine();
+        if (header == null)
+            throw new IllegalArgumentException("No header.");
+        String[] names = header.split("\t");
+        for (int i = 0; i < names.length; i++)
+            columns.put(names[i].trim(), i);
+        for (String column : REQUIRED)
+            if (!columns.containsKey(column))
+                throw new IllegalArgumentException("No column " + column + ".");
+    }
+
+    public VDJCLibrary getLibrary() {
+        return library;
+    }
+
+    @Override
+    public void close() {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public GClone take() {
+        String line;
+        int number;
+        synchronized (this) {
+            try {
+                do {
+                    line = reader.readLine();
+                    ++lineNumber;
+                } while (line != null && (line.startsWith("#") || line.trim().isEmpty()));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            number = lineNumber;
+        }
+        if (line == null)
+            return null;
+        // Parsing outside of synchronized block
+        try {
+            return parse(line.split("\t", -1));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Line " + number + ": " + e.getMessage(), e);
+        }
+    }
+
+    private GClone parse(String[] fields) {
+        VDJCGene d = gene(fields, "d", GeneType.Diversity);
+        String d5Trimming = get(fields, "d5Trimming"), d3Trimming = get(fields, "d3Trimming");
+        VDJTrimming trimming = d == null
+                ? new VDJTrimming(integer(fields, "vTrimming"), integer(fields, "jTrimming"))
+                : new VDJTrimming(integer(fields, "vTrimming"), integer(fields, "jTrimming"),
+                Integer.parseInt(d5Trimming), Integer.parseInt(d3Trimming));
+        String djInsert = get(fields, "djInsert"), abundance = get(fields, "abundance");
+        GGene gene = new GGene(null,
+                new VDJCGenes(gene(fields, "v", GeneType.Variable), d, gene(fields, "j", GeneType.Joining),
+                        gene(fields, "c", GeneType.Constant)),
+                trimming, new NucleotideSequence(get(fields, "vInsert")),
+                d == null ? null : new NucleotideSequence(djInsert));
+        return new GClone(abundance.isEmpty() ? 1.0 : Double.parseDouble(abundance),
+                Collections.singletonMap(get(fields, "chain"), gene));
+    }
+
+    private VDJCGene gene(String[] fields, String column, GeneType type) {
+        String name = get(fields, column);
+        if (name.isEmpty())
+            return null;
+        VDJCGene gene = library.getSafe(name);
+        if (gene == null || gene.getGeneType() != type)
+            throw new IllegalArgumentException("No " + type + " gene " + name + " in " + library.getLibraryId());
+        return gene;
+    }
+
+    private int integer(String[] fields, String column) {
+        return Integer.parseInt(get(fields, column));
+    }
+
+    private String get(String[] fields, String column) {
+        Integer index = columns.get(column);
+        return index == null || index >= fields.length ? "" : fields[index].trim();
+    }
+}
@@ -0,0 +1,258 @@
+package io.repseq.gen;
+
+import cc.redberry.pipe.CUtils;
+import cc.redberry.pipe.OutputPortCloseable;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.primitivio.PrimitivI;
+import com.milaboratory.util.GlobalObjectMappers;
+import io.repseq.core.GeneFeature;
+import io.repseq.core.VDJCGene;
+import io.repseq.core.VDJCLibrary;
+import io.repseq.core.VDJCLibraryId;
+import io.repseq.core.VDJCLibraryRegistry;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static io.repseq.gen.GRepertoireBinaryWriter.*;
+
+/**
+ * Reads clones written by {@link GRepertoireBinaryWriter}. Thread-safe.
+ */
+public final class GRepertoireBinaryReader implements OutputPortCloseable<GClone> {
+    final VDJCLibrary library;
+    /**
+     * Genes by ordinals, null for genes absent in the library
+     */
+    final VDJCGene[] genes;
+    final String[] geneNames;
+    final Inflater inflater = new Inflater();
+    DataInputStream input;
+    boolean finished = false;
+    // Current block
+    byte[] compressed = new byte[0], raw = new byte[0];
+    PrimitivI blockInput;
+    int remaining = 0;
+    final List<String> chains = new ArrayList<>();
+
+    public GRepertoireBinaryReader(InputStream input) throws IOException {
+        this(input, VDJCLibraryRegistry.getDefault());
+    }
+
+    public GRepertoireBinaryReader(InputStream input, VDJCLibraryRegistry registry) throws IOException {
+        this.input = new DataInputStream(input);
+        byte[] magic = new byte[MAGIC.length];
+        this.input.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC))
+            throw new IllegalArgumentException("Not a binary clones file.");
+        PrimitivI header = new PrimitivI((DataInput) this.input);
+        VDJCLibraryId libraryId = GlobalObjectMappers.ONE_LINE.readValue(header.readUTF(), VDJCLibraryId.class);
+        this.library = registry.getLibrary(libraryId);
+        int count = header.readVarInt();
+        this.genes = new VDJCGene[count + 1];
+        this.geneNames = new String[count + 1];
+        for (int i = 1; i <= count; i++) {
+            geneNames[i] = header.readUTF();
+            genes[i] = library.getSafe(geneNames[i]);
+        }
+    }
+
+    /**
+     * Opens file and skips clones before the block with given index (see {@link Footer#blockOffsets})
+     */
+    public static GRepertoireBinaryReader open(File file, int block, VDJCLibraryRegistry registry) throws IOException {
+        Footer footer = readFooter(file);
+        if (block < 0 || block > footer.blockOffsets.length)
+            throw new IndexOutOfBoundsException();
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            GRepertoireBinaryReader reader = new GRepertoireBinaryReader(new BufferedInputStream(fis), registry);
+            fis.getChannel().position(block == footer.blockOffsets.length
+                    ? footer.footerOffset - 4
+                    : footer.blockOffsets[block]);
+            reader.input = new DataInputStream(new BufferedInputStream(fis, 128 * 1024));
+            return reader;
+        } catch (IOException | RuntimeException e) {
+            fis.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true if file starts with binary clones format signature
+     */
+    public static boolean isBinary(File file) throws IOException {
+        try (InputStream is = new FileInputStream(file)) {
+            byte[] magic = new byte[MAGIC.length];
+            int read = 0, r;
+            while (read < magic.length && (r = is.read(magic, read, magic.length - read)) > 0)
+                read += r;
+            return read == magic.length && Arrays.equals(magic, MAGIC);
+        }
+    }
+
+    /**
+     * Reads index of blocks from the end of file
+     */
+    public static Footer readFooter(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(raf.length() - TAIL_SIZE);
+            long footerOffset = raf.readLong();
+            byte[] magic = new byte[MAGIC.length];
+            raf.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC))
+                throw new IllegalArgumentException("Not a binary clones file or file is truncated.");
+            raf.seek(footerOffset);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(raf.getFD())));
+            int blocks = input.readInt();
+            long[] offsets = new long[blocks];
+            int[] counts = new int[blocks];
+            for (int i = 0; i < blocks; i++) {
+                offsets[i] = input.readLong();
+                counts[i] = input.readInt();
+            }
+            return new Footer(offsets, counts, input.readLong(), footerOffset);
+        }
+    }
+
+    public VDJCLibrary getLibrary() {
+        return library;
+    }
+
+    @Override
+    public void close() {
+        try {
+            inflater.end();
+            input.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized GClone take() {
+        try {
+            if (remaining == 0 && !nextBlock())
+                return null;
+            --remaining;
+            return readClone();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public GRepertoire readFully() {
+        List<GClone> clones = new ArrayList<>();
+        for (GClone clone : CUtils.it(this))
+            clones.add(clone);
+        return new GRepertoire(clones);
+    }
+
+    private boolean nextBlock() throws IOException {
+        if (finished)
+            return false;
+        int count = input.readInt();
+        if (count == 0) {
+            finished = true;
+            return false;
+        }
+        int rawSize = input.readInt(), compressedSize = input.readInt();
+        if (compressed.length < compressedSize)
+            compressed = new byte[compressedSize];
+        if (raw.length < rawSize)
+            raw = new byte[rawSize];
+        input.readFully(compressed, 0, compressedSize);
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedSize);
+        try {
+            if (inflater.inflate(raw, 0, rawSize) != rawSize)
+                throw new IOException("Corrupted block.");
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+        blockInput = new PrimitivI(new ByteArrayInputStream(raw, 0, rawSize));
+        chains.clear();
+        remaining = count;
+        return true;
+    }
+
+    private GClone readClone() {
+        double abundance = blockInput.readDouble();
+        int count = blockInput.readVarInt();
+        Map<String, GGene> genes = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            int chain = blockInput.readVarInt();
+            if (chain == chains.size())
+                chains.add(blockInput.readUTF());
+            genes.put(chains.get(chain), readGene());
+        }
+        return new GClone(abundance, genes);
+    }
+
+    private GGene readGene() {
+        int flags = blockInput.readByte();
+        GeneFeature definedIn = (flags & DEFINED_IN) != 0 ? GeneFeature.parse(blockInput.readUTF()) : null;
+        VDJCGene v = gene(blockInput.readVarInt()),
+                d = (flags & D_GENE) != 0 ? gene(blockInput.readVarInt()) : null,
+                j = gene(blockInput.readVarInt()),
+                c = (flags & C_GENE) != 0 ? gene(blockInput.readVarInt()) : null;
+        int vTrimming = blockInput.readVarIntZigZag(), jTrimming = blockInput.readVarIntZigZag();
+        DTrimming dTrimming = (flags & D_TRIMMING) != 0
+                ? new DTrimming(blockInput.readVarIntZigZag(), blockInput.readVarIntZigZag())
+                : null;
+        NucleotideSequence vInsert = readSequence(blockInput),
+                djInsert = (flags & DJ_INSERT) != 0 ? readSequence(blockInput) : null;
+        return new GGene(definedIn, new VDJCGenes(v, d, j, c), new VDJTrimming(vTrimming, jTrimming, dTrimming),
+                vInsert, djInsert);
+    }
+
+    private VDJCGene gene(int ordinal) {
+        if (ordinal <= 0 || ordinal >= genes.length)
+            throw new IllegalArgumentException("Wrong gene ordinal: " + ordinal);
+        if (genes[ordinal] == null)
+            throw new IllegalArgumentException("Gene " + geneNames[ordinal] + " is absent in " +
+                    library.getLibraryId());
+        return genes[ordinal];
+    }
+
+    static NucleotideSequence readSequence(PrimitivI input) {
+        int header = input.readVarInt(), size = header >>> 1;
+        byte[] codes = new byte[size];
+        if ((header & 1) != 0)
+            for (int i = 0; i < size; i++)
+                codes[i] = input.readByte();
+        else
+            for (int i = 0; i < size; i += 4) {
+                int packed = input.readByte();
+                for (int j = i; j < i + 4 && j < size; j++)
+                    codes[j] = (byte) ((packed >>> ((j - i) << 1)) & 3);
+            }
+        return new NucleotideSequence(codes);
+    }
+
+    /**
+     * Index of blocks
+     */
+    public static final class Footer {
+        /**
+         * Positions of blocks in file
+         */
+        public final long[] blockOffsets;
+        /**
+         * Number of clones in each block
+         */
+        public final int[] blockCounts;
+        public final long numberOfClones;
+        final long footerOffset;
+
+        Footer(long[] blockOffsets, int[] blockCounts, long numberOfClones, long footerOffset) {
+            this.blockOffsets = blockOffsets;
+            this.blockCounts = blockCounts;
+            this.numberOfClones = numberOfClones;
+            this.footerOffset = footerOffset;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package io.repseq.gen;
+
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.primitivio.PrimitivO;
+import com.milaboratory.util.GlobalObjectMappers;
+import io.repseq.core.GeneFeature;
+import io.repseq.core.VDJCGene;
+import io.repseq.core.VDJCLibrary;
+import io.repseq.core.VDJCLibraryId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.Deflater;
+
+/**
+ * Writes clones in compact binary format, binary counterpart of {@link GRepertoireWriter}.
+ *
+ * File layout:
+ *
+ * <pre>
+ * MAGIC
+ * header:  library id (JSON), names of all library genes (gene dictionary)
+ * blocks:  number of clones, raw size, compressed size, deflated clones
+ * 0        (end of blocks)
+ * footer:  number of blocks, offset and number of clones for each block, total number of clones
+ * tail:    footer offset, MAGIC
+ * </pre>
+ *
+ * Inside blocks genes are written as ordinals in gene dictionary, trimmings as var-ints, inserts with 2 bits per
+ * nucleotide. Chain names are written once per block. Each block can be decoded independently of others, see {@link
+ * GRepertoireBinaryReader#readFooter(java.io.File)}.
+ */
+public final class GRepertoireBinaryWriter implements AutoCloseable {
+    static final byte[] MAGIC = "RSQGCLB1".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Size of footer offset and magic at the end of file
+     */
+    static final int TAIL_SIZE = 8 + 8;
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    static final int D_GENE = 1, C_GENE = 2, D_TRIMMING = 4, DJ_INSERT = 8, DEFINED_IN = 16;
+    final DataOutputStream os;
+    final int blockSize;
+    final Map<VDJCGene, Integer> ordinals = new IdentityHashMap<>();
+    final Map<String, Integer> ordinalsByName = new HashMap<>();
+    final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    // Current block
+    final ByteArrayOutputStream block = new ByteArrayOutputStream();
+    final PrimitivO blockOutput = new PrimitivO(block);
+    final Map<String, Integer> chains = new HashMap<>();
+    int blockClones = 0;
+    byte[] compressed = new byte[0];
+    // Index
+    long position;
+    final List<Long> blockOffsets = new ArrayList<>();
+    final List<Integer> blockCounts = new ArrayList<>();
+
+    public GRepertoireBinaryWriter(OutputStream os, VDJCLibrary library) throws IOException {
+        this(os, library.getLibraryId(), library);
+    }
+
+    public GRepertoireBinaryWriter(OutputStream os, VDJCLibraryId libraryId, VDJCLibrary library) throws IOException {
+        this(os, libraryId, library, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param os        output stream
+     * @param libraryId library id to write into the header (e.g. as specified in clone model)
+     * @param library   library genes belong to
+     * @param blockSize number of clones in compressed block
+     */
+    public GRepertoireBinaryWriter(OutputStream os, VDJCLibraryId libraryId, VDJCLibrary library, int blockSize)
+            throws IOException {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("Wrong block size: " + blockSize);
+        this.os = new DataOutputStream(os);
+        this.blockSize = blockSize;
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        PrimitivO headerOutput = new PrimitivO(header);
+        headerOutput.write(MAGIC);
+        headerOutput.writeUTF(GlobalObjectMappers.ONE_LINE.writeValueAsString(libraryId));
+        Collection<VDJCGene> genes = library.getGenes();
+        headerOutput.writeVarInt(genes.size());
+        for (VDJCGene gene : genes) {
+            // Ordinal 0 is reserved for absent genes
+            int ordinal = ordinals.size() + 1;
+            ordinals.put(gene, ordinal);
+            ordinalsByName.put(gene.getName(), ordinal);
+            headerOutput.writeUTF(gene.getName());
+        }
+        write(header.toByteArray());
+    }
+
+    public void write(GClone clone) throws IOException {
+        blockOutput.writeDouble(clone.abundance);
+        blockOutput.writeVarInt(clone.genes.size());
+        for (Map.Entry<String, GGene> entry : clone.genes.entrySet()) {
+            Integer chain = chains.get(entry.getKey());
+            if (chain == null) {
+                // New chain name in this block
+                blockOutput.writeVarInt(chains.size());
+                blockOutput.writeUTF(entry.getKey());
+                chains.put(entry.getKey(), chains.size());
+            } else
+                blockOutput.writeVarInt(chain);
+            writeGene(entry.getValue());
+        }
+        if (++blockClones == blockSize)
+            flushBlock();
+    }
+
+    private void writeGene(GGene gene) {
+        VDJCGenes genes = gene.vdjcGenes;
+        DTrimming dTrimming = gene.vdjTrimming.dTrimming;
+        int flags = (genes.d != null ? D_GENE : 0) | (genes.c != null ? C_GENE : 0) |
+                (dTrimming != null ? D_TRIMMING : 0) | (gene.djInsert != null ? DJ_INSERT : 0) |
+                (gene.definedIn != null ? DEFINED_IN : 0);
+        blockOutput.writeByte(flags);
+        if (gene.definedIn != null)
+            blockOutput.writeUTF(GeneFeature.encode(gene.definedIn));
+        blockOutput.writeVarInt(ordinal(genes.v));
+        if (genes.d != null)
+            blockOutput.writeVarInt(ordinal(genes.d));
+        blockOutput.writeVarInt(ordinal(genes.j));
+        if (genes.c != null)
+            blockOutput.writeVarInt(ordinal(genes.c));
+        blockOutput.writeVarIntZigZag(gene.vdjTrimming.vTrimming);
+        blockOutput.writeVarIntZigZag(gene.vdjTrimming.jTrimming);
+        if (dTrimming != null) {
+            blockOutput.writeVarIntZigZag(dTrimming.d5Trimming);
+            blockOutput.writeVarIntZigZag(dTrimming.d3Trimming);
+        }
+        writeSequence(blockOutput, gene.vInsert);
+        if (gene.djInsert != null)
+            writeSequence(blockOutput, gene.djInsert);
+    }
+
+    private int ordinal(VDJCGene gene) {
+        Integer ordinal = ordinals.get(gene);
+        if (ordinal == null)
+            // Gene from other instance of the same library
+            ordinal = ordinalsByName.get(gene.getName());
+        if (ordinal == null)
+            throw new IllegalArgumentException("Gene " + gene.getName() + " is absent in the library.");
+        return ordinal;
+    }
+
+    /**
+     * Writes sequence of standard nucleotides with 2 bits per letter, sequences with wildcards are written one byte
+     * per letter
+     */
+    static void writeSequence(PrimitivO output, NucleotideSequence sequence) {
+        int size = sequence.size();
+        boolean wildcards = false;
+        for (int i = 0; i < size; i++)
+            if (sequence.codeAt(i) >= 4) {
+                wildcards = true;
+                break;
+            }
+        output.writeVarInt(size << 1 | (wildcards ? 1 : 0));
+        if (wildcards) {
+            for (int i = 0; i < size; i++)
+                output.writeByte(sequence.codeAt(i));
+            return;
+        }
+        for (int i = 0; i < size; i += 4) {
+            int packed = 0;
+            for (int j = i; j < i + 4 && j < size; j++)
+                packed |= sequence.codeAt(j) << ((j - i) << 1);
+            output.writeByte(packed);
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (blockClones == 0)
+            return;
+        byte[] raw = block.toByteArray();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        if (compressed.length < raw.length + 64)
+            compressed = new byte[raw.length + raw.length / 8 + 64];
+        int compressedSize = 0;
+        while (!deflater.finished()) {
+            if (compressedSize == compressed.length)
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            compressedSize += deflater.deflate(compressed, compressedSize, compressed.length - compressedSize);
+        }
+
+        blockOffsets.add(position);
+        blockCounts.add(blockClones);
+        os.writeInt(blockClones);
+        os.writeInt(raw.length);
+        os.writeInt(compressedSize);
+        os.write(compressed, 0, compressedSize);
+        position += 12 + compressedSize;
+
+        block.reset();
+        chains.clear();
+        blockClones = 0;
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        os.write(bytes);
+        position += bytes.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushBlock();
+        deflater.end();
+        // End of blocks
+        os.writeInt(0);
+        position += 4;
+
+        long footerOffset = position;
+        long total = 0;
+        os.writeInt(blockOffsets.size());
+        for (int i = 0; i < blockOffsets.size(); i++) {
+            os.writeLong(blockOffsets.get(i));
+            os.writeInt(blockCounts.get(i));
+            total += blockCounts.get(i);
+        }
+        os.writeLong(total);
+        os.writeLong(footerOffset);
+        os.write(MAGIC);
+        os.close();
+    }
+}
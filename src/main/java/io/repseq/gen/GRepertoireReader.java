@@ -21,10 +21,14 @@ public final class GRepertoireReader implements OutputPortCloseable<GClone> {
     final ObjectReader objectReader;
 
     public GRepertoireReader(BufferedReader reader) throws IOException {
+        this(reader, VDJCLibraryRegistry.getDefault());
+    }
+
+    public GRepertoireReader(BufferedReader reader, VDJCLibraryRegistry registry) throws IOException {
         this.reader = reader;
         String libraryIdStr = reader.readLine();
         VDJCLibraryId libraryId = GlobalObjectMappers.ONE_LINE.readValue(libraryIdStr, VDJCLibraryId.class);
-        this.library = VDJCLibraryRegistry.getDefault().getLibrary(libraryId);
+        this.library = registry.getLibrary(libraryId);
         this.objectReader = GlobalObjectMappers.ONE_LINE.readerFor(new TypeReference<GClone>() {
         }).withAttribute(VDJCGene.JSON_CURRENT_LIBRARY_ATTRIBUTE_KEY, this.library);
     }
@@ -44,18 +48,43 @@ public final class GRepertoireReader implements OutputPortCloseable<GClone> {
 
     @Override
     public synchronized GClone take() {
+        String line = nextLine();
+        return line == null ? null : parse(line);
+    }
+
+    /**
+     * Reads next batch of lines with clones, to be parsed with {@link #parse(String)} (e.g. in other threads)
+     *
+     * @param size maximal number of lines
+     * @return lines, empty list if there are no more clones
+     */
+    synchronized List<String> readLines(int size) {
+        List<String> lines = new ArrayList<>(size);
+        String line;
+        while (lines.size() < size && (line = nextLine()) != null)
+            lines.add(line);
+        return lines;
+    }
+
+    /**
+     * Parses single clone. Thread-safe.
+     */
+    GClone parse(String line) {
+        try {
+            return objectReader.readValue(line);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private String nextLine() {
         try {
-            String line = reader.readLine();
-            if (line == null)
-                return null;
-            else if (line.startsWith("#"))
-                // Skipping comment lines
-                return take(); // tailrec
-            else if (line.trim().length() == 0)
-                // Skipping empty lines
-                return take(); // tailrec
-            else
-                return objectReader.readValue(line);
+            String line;
+            do {
+                line = reader.readLine();
+                // Skipping comment and empty lines
+            } while (line != null && (line.startsWith("#") || line.trim().length() == 0));
+            return line;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
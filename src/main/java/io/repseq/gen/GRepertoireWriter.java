@@ -1,35 +1,267 @@
 package io.repseq.gen;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.milaboratory.util.GlobalObjectMappers;
 import io.repseq.core.VDJCGene;
 import io.repseq.core.VDJCLibrary;
-import org.apache.commons.io.output.CloseShieldOutputStream;
+import io.repseq.core.VDJCLibraryId;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
 
+import static io.repseq.util.ConcurrentUtils.*;
+
+/**
+ * Writes clones in jclns format: library id in the first line, followed by clones in JSON format, one per line.
+ *
+ * Clones are serialized with a single JSON generator into a large reusable buffer. Optionally clones are serialized
+ * in batches by background threads (see {@link #GRepertoireWriter(OutputStream, VDJCLibraryId, VDJCLibrary, int,
+ * boolean)}), and output may be compressed with gzip in independent blocks (i.e. as concatenated gzip members, that
+ * are read by standard gzip tools and {@link java.util.zip.GZIPInputStream}). Not thread-safe, except {@link
+ * #encode(List)}.
+ */
 public final class GRepertoireWriter implements AutoCloseable {
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    /**
+     * Size of buffer flushed to output (or compressed as a single block)
+     */
+    static final int BUFFER_SIZE = 1 << 20;
     final OutputStream os;
     final ObjectWriter writer;
+    final boolean gzip;
+    final int threads;
+    // Serialization in the calling thread
+    final Buffer buffer;
+    final JsonGenerator generator;
+    // Serialization in background threads
+    final ExecutorService workers;
+    /**
+     * Encoded blocks in the output order, size is limited
+     */
+    final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    List<GClone> batch;
+    /**
+     * Per-thread generators for {@link #encode(List)}
+     */
+    private final ThreadLocal<Encoder> encoders = new ThreadLocal<Encoder>() {
+        @Override
+        protected Encoder initialValue() {
+            try {
+                return new Encoder(writer);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
 
     public GRepertoireWriter(OutputStream os, VDJCLibrary library) throws IOException {
+        this(os, library.getLibraryId(), library);
+    }
+
+    /**
+     * @param os        output stream
+     * @param libraryId library id to write into the header (e.g. as specified in clone model)
+     * @param library   library genes belong to
+     */
+    public GRepertoireWriter(OutputStream os, VDJCLibraryId libraryId, VDJCLibrary library) throws IOException {
+        this(os, libraryId, library, 0, false);
+    }
+
+    /**
+     * @param os        output stream
+     * @param libraryId library id to write into the header (e.g. as specified in clone model)
+     * @param library   library genes belong to
+     * @param threads   number of background threads serializing (and compressing) clones in batches, 0 to serialize
+     *                  clones in the calling thread
+     * @param gzip      compress output with gzip
+     */
+    public GRepertoireWriter(OutputStream os, VDJCLibraryId libraryId, VDJCLibrary library, int threads, boolean gzip)
+            throws IOException {
+        if (threads < 0)
+            throw new IllegalArgumentException("Wrong number of threads: " + threads);
         this.os = os;
+        this.gzip = gzip;
+        this.threads = threads;
         this.writer = GlobalObjectMappers.ONE_LINE.writerFor(new TypeReference<GClone>() {
-        }).withAttribute(VDJCGene.JSON_CURRENT_LIBRARY_ATTRIBUTE_KEY, library);
-        os.write(GlobalObjectMappers.ONE_LINE.writeValueAsString(library.getLibraryId()).getBytes());
-        os.write('\n');
+        }).withAttribute(VDJCGene.JSON_CURRENT_LIBRARY_ATTRIBUTE_KEY, library)
+                // Clones are separated by new lines
+                .withRootValueSeparator("")
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        byte[] header = (GlobalObjectMappers.ONE_LINE.writeValueAsString(libraryId) + "\n").getBytes();
+        writeBlock(header);
+        if (threads == 0) {
+            this.buffer = new Buffer();
+            this.generator = createGenerator(writer, buffer);
+            this.workers = null;
+        } else {
+            this.buffer = null;
+            this.generator = null;
+            this.workers = Executors.newFixedThreadPool(threads, new NamedThreadFactory("clone-serializer-"));
+            this.batch = new ArrayList<>(DEFAULT_BATCH_SIZE);
+        }
     }
 
     public void write(GClone clone) throws IOException {
-        writer.writeValue(new CloseShieldOutputStream(os), clone);
-        os.write('\n');
+        if (workers == null) {
+            writer.writeValue(generator, clone);
+            generator.writeRaw('\n');
+            if (buffer.size() >= BUFFER_SIZE)
+                flushBuffer();
+        } else {
+            batch.add(clone);
+            if (batch.size() == DEFAULT_BATCH_SIZE)
+                submitBatch();
+        }
+    }
+
+    /**
+     * Serializes clones to the same representation as {@link #write(GClone)} would produce. Thread-safe, so blocks
+     * of clones may be encoded in parallel and then written in order with {@link #writeEncoded(byte[])}.
+     *
+     * @param clones clones
+     * @return encoded clones
+     */
+    public byte[] encode(List<GClone> clones) throws IOException {
+        return encoders.get().encode(clones);
+    }
+
+    /**
+     * Writes block of clones encoded with {@link #encode(List)}
+     */
+    public void writeEncoded(final byte[] encoded) throws IOException {
+        if (workers == null) {
+            flushBuffer();
+            writeBlock(encoded);
+        } else {
+            submitBatch();
+            enqueue(gzip
+                    ? workers.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return gzip(encoded);
+                }
+            })
+                    : completed(encoded));
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        generator.flush();
+        if (buffer.size() == 0)
+            return;
+        if (gzip)
+            os.write(gzip(buffer.array(), buffer.size()));
+        else
+            buffer.writeTo(os);
+        buffer.reset();
+    }
+
+    private void writeBlock(byte[] bytes) throws IOException {
+        os.write(gzip ? gzip(bytes) : bytes);
+    }
+
+    private void submitBatch() throws IOException {
+        if (batch.isEmpty())
+            return;
+        final List<GClone> clones = batch;
+        batch = new ArrayList<>(DEFAULT_BATCH_SIZE);
+        enqueue(workers.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                byte[] encoded = encode(clones);
+                return gzip ? gzip(encoded) : encoded;
+            }
+        }));
+    }
+
+    private void enqueue(Future<byte[]> block) throws IOException {
+        pending.add(block);
+        if (pending.size() > 2 * threads)
+            os.write(awaitIO(pending.poll()));
     }
 
     @Override
     public void close() throws IOException {
-        os.close();
+        try {
+            if (workers == null) {
+                flushBuffer();
+                generator.close();
+            } else {
+                submitBatch();
+                while (!pending.isEmpty())
+                    os.write(awaitIO(pending.poll()));
+            }
+        } finally {
+            if (workers != null)
+                workers.shutdownNow();
+            os.close();
+        }
+    }
+
+    static byte[] gzip(byte[] bytes) throws IOException {
+        return gzip(bytes, bytes.length);
+    }
+
+    static byte[] gzip(byte[] bytes, int length) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bos, 64 * 1024)) {
+            gzip.write(bytes, 0, length);
+        }
+        return bos.toByteArray();
+    }
+
+    private static JsonGenerator createGenerator(ObjectWriter writer, OutputStream os) throws IOException {
+        JsonGenerator generator = writer.getFactory().createGenerator(os, JsonEncoding.UTF8);
+        // Flushing and closing of the generator must not affect the buffer
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+        return generator;
+    }
+
+    /**
+     * Generator with reusable buffer
+     */
+    private static final class Encoder {
+        final ObjectWriter writer;
+        final Buffer buffer = new Buffer();
+        final JsonGenerator generator;
+
+        Encoder(ObjectWriter writer) throws IOException {
+            this.writer = writer;
+            this.generator = createGenerator(writer, buffer);
+        }
+
+        byte[] encode(List<GClone> clones) throws IOException {
+            buffer.reset();
+            for (GClone clone : clones) {
+                writer.writeValue(generator, clone);
+                generator.writeRaw('\n');
+            }
+            generator.flush();
+            return buffer.toByteArray();
+        }
+    }
+
+    /**
+     * Byte array output stream with access to the underlying array
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(BUFFER_SIZE + 64 * 1024);
+        }
+
+        byte[] array() {
+            return buf;
+        }
     }
 }
@@ -0,0 +1,147 @@
+package io.repseq.gen;
+
+import cc.redberry.pipe.OutputPortCloseable;
+import io.repseq.core.VDJCLibrary;
+import io.repseq.core.VDJCLibraryRegistry;
+import io.repseq.util.ConcurrentUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static io.repseq.util.ConcurrentUtils.*;
+
+/**
+ * Reads clones from jclns file in several threads.
+ *
+ * Single thread splits input into batches of lines, batches are parsed (including assembly of {@link GGene}s) by a
+ * pool of threads, and clones are returned in the original order. Number of batches kept in memory is bounded.
+ * Thread-safe.
+ */
+public final class ParallelGRepertoireReader implements OutputPortCloseable<GClone> {
+    public static final int DEFAULT_BATCH_SIZE = 512;
+    /**
+     * Marks end of input in the queue of batches
+     */
+    private static final Future<List<GClone>> END = completed(null);
+
+    final GRepertoireReader reader;
+    final int batchSize;
+    final ExecutorService workers, splitter;
+    /**
+     * Parsed or pending batches in the original order
+     */
+    final BlockingQueue<Future<List<GClone>>> batches;
+    Iterator<GClone> current = Collections.emptyIterator();
+    boolean finished = false;
+
+    public ParallelGRepertoireReader(BufferedReader reader, int threads) throws IOException {
+        this(new GRepertoireReader(reader), threads, DEFAULT_BATCH_SIZE);
+    }
+
+    public ParallelGRepertoireReader(BufferedReader reader, VDJCLibraryRegistry registry, int threads)
+            throws IOException {
+        this(new GRepertoireReader(reader, registry), threads, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param reader    sequential reader (header is already read)
+     * @param threads   number of parsing threads
+     * @param batchSize number of lines parsed by a single task
+     */
+    public ParallelGRepertoireReader(GRepertoireReader reader, int threads, int batchSize) {
+        if (threads < 1 || batchSize < 1)
+            throw new IllegalArgumentException();
+        this.reader = reader;
+        this.batchSize = batchSize;
+        this.batches = new ArrayBlockingQueue<>(2 * threads);
+        this.workers = Executors.newFixedThreadPool(threads, new NamedThreadFactory("clone-parser-"));
+        this.splitter = Executors.newSingleThreadExecutor(new NamedThreadFactory("clone-reader-"));
+        this.splitter.submit(new Runnable() {
+            @Override
+            public void run() {
+                split();
+            }
+        });
+    }
+
+    public VDJCLibrary getLibrary() {
+        return reader.getLibrary();
+    }
+
+    private void split() {
+        try {
+            try {
+                List<String> lines;
+                while (!(lines = reader.readLines(batchSize)).isEmpty()) {
+                    final List<String> batch = lines;
+                    batches.put(workers.submit(new Callable<List<GClone>>() {
+                        @Override
+                        public List<GClone> call() throws Exception {
+                            GClone[] clones = new GClone[batch.size()];
+                            for (int i = 0; i < clones.length; i++)
+                                clones[i] = reader.parse(batch.get(i));
+                            return Arrays.asList(clones);
+                        }
+                    }));
+                }
+                batches.put(END);
+            } catch (RuntimeException | Error e) {
+                // Error is reported to consumer in place of the next batch
+                batches.put(ConcurrentUtils.<List<GClone>>failed(e));
+            }
+        } catch (InterruptedException e) {
+            // Reader is closed
+        }
+    }
+
+    @Override
+    public synchronized GClone take() {
+        while (!current.hasNext()) {
+            if (finished)
+                return null;
+            List<GClone> batch;
+            try {
+                batch = await(nextBatch());
+            } catch (RuntimeException | Error e) {
+                finish();
+                throw e;
+            }
+            if (batch == null) {
+                finish();
+                return null;
+            }
+            current = batch.iterator();
+        }
+        return current.next();
+    }
+
+    /**
+     * Stops background threads (splitter may be blocked on the full queue after a parse error) and closes input
+     */
+    private void finish() {
+        finished = true;
+        close();
+    }
+
+    private Future<List<GClone>> nextBatch() {
+        try {
+            return batches.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        splitter.shutdownNow();
+        workers.shutdownNow();
+        reader.close();
+    }
+
+}
@@ -0,0 +1,98 @@
+package io.repseq.gen.dist;
+
+import org.apache.commons.math3.exception.MathArithmeticException;
+import org.apache.commons.math3.exception.NotANumberException;
+import org.apache.commons.math3.exception.NotFiniteNumberException;
+import org.apache.commons.math3.exception.NotPositiveException;
+import org.apache.commons.math3.exception.util.LocalizedFormats;
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Walker's alias table (Vose's construction) for sampling of category index in constant time. Immutable, so can be
+ * shared between threads.
+ */
+public final class AliasTable {
+    /**
+     * Probability to return category itself instead of its alias
+     */
+    final double[] probability;
+    final int[] alias;
+
+    /**
+     * @param weights ~ probabilities of categories, will be normalized
+     */
+    public AliasTable(double[] weights) {
+        int n = weights.length;
+        if (n == 0)
+            throw new IllegalArgumentException("No categories.");
+        double sum = 0;
+        for (double w : weights) {
+            if (w < 0)
+                throw new NotPositiveException(w);
+            if (Double.isInfinite(w))
+                throw new NotFiniteNumberException(w);
+            if (Double.isNaN(w))
+                throw new NotANumberException();
+            sum += w;
+        }
+        if (sum == 0)
+            throw new MathArithmeticException(LocalizedFormats.ARRAY_SUMS_TO_ZERO);
+
+        this.probability = new double[n];
+        this.alias = new int[n];
+
+        // Scaled probabilities, average is 1
+        double[] scaled = new double[n];
+        int[] small = new int[n], large = new int[n];
+        int smallSize = 0, largeSize = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / sum;
+            if (scaled[i] < 1.0)
+                small[smallSize++] = i;
+            else
+                large[largeSize++] = i;
+        }
+
+        while (smallSize > 0 && largeSize > 0) {
+            int s = small[--smallSize], l = large[--largeSize];
+            probability[s] = scaled[s];
+            alias[s] = l;
+            scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+            if (scaled[l] < 1.0)
+                small[smallSize++] = l;
+            else
+                large[largeSize++] = l;
+        }
+
+        // Remaining categories have probability 1 up to rounding errors
+        while (largeSize > 0) {
+            int l = large[--largeSize];
+            probability[l] = 1.0;
+            alias[l] = l;
+        }
+        while (smallSize > 0) {
+            int s = small[--smallSize];
+            probability[s] = 1.0;
+            alias[s] = s;
+        }
+    }
+
+    /**
+     * Returns number of categories
+     */
+    public int size() {
+        return probability.length;
+    }
+
+    /**
+     * Samples category index, consumes single random double
+     */
+    public int sample(RandomGenerator random) {
+        double u = random.nextDouble() * probability.length;
+        int i = (int) u;
+        if (i == probability.length) // rounding
+            --i;
+        // Fractional part of u is uniform in [0, 1) and independent of i
+        return u - i < probability[i] ? i : alias[i];
+    }
+}
@@ -5,11 +5,9 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import io.repseq.core.VDJCLibrary;
 import io.repseq.core.VDJCLibraryId;
 import io.repseq.core.VDJCLibraryRegistry;
-import io.repseq.gen.GClone;
-import io.repseq.gen.GGene;
 import org.apache.commons.math3.random.RandomGenerator;
 
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public final class BasicGCloneModel implements GCloneModel {
@@ -32,22 +30,45 @@ public final class BasicGCloneModel implements GCloneModel {
     }
 
     @Override
-    public GCloneGenerator create(RandomGenerator random, VDJCLibraryRegistry registry) {
+    public CompiledGCloneModel compile(VDJCLibraryRegistry registry) {
         VDJCLibrary library = registry.getLibrary(vdjcLibrary);
-        final IndependentRealGenerator abundanceGenerator = abundanceModel.create(random);
-        final Map<String, GGeneGenerator> geneGenerators = new HashMap<>();
+        Map<String, GGeneSampler> geneSamplers = new LinkedHashMap<>();
         for (Map.Entry<String, GGeneModel> e : geneModels.entrySet())
-            geneGenerators.put(e.getKey(), e.getValue().create(random, library));
-        return new GCloneGenerator() {
-            @Override
-            public GClone sample() {
-                double abundance = abundanceGenerator.generate();
-                Map<String, GGene> genes = new HashMap<>();
-                for (Map.Entry<String, GGeneGenerator> e : geneGenerators.entrySet())
-                    genes.put(e.getKey(), e.getValue().generate());
-                return new GClone(abundance, genes);
-            }
-        };
+            geneSamplers.put(e.getKey(), e.getValue().compile(library));
+        return new CompiledGCloneModel(vdjcLibrary, abundanceModel.compile(), geneSamplers);
+    }
+
+    /**
+     * Creates calculator of CDR3 generation probabilities for the chain
+     *
+     * @param registry library registry
+     * @param chain    key of the gene model (e.g. TRB)
+     */
+    public PgenCalculator pgenCalculator(VDJCLibraryRegistry registry, String chain) {
+        return basicGeneModel(chain).pgenCalculator(registry.getLibrary(vdjcLibrary));
+    }
+
+    /**
+     * Computes usage of genes and distribution of CDR3 length for the chain
+     *
+     * @param registry library registry
+     * @param chain    key of the gene model (e.g. TRB)
+     * @param threads  number of threads
+     */
+    public GGeneStatistics statistics(VDJCLibraryRegistry registry, String chain, int threads) {
+        return basicGeneModel(chain).statistics(registry.getLibrary(vdjcLibrary), threads);
+    }
+
+    private BasicGGeneModel basicGeneModel(String chain) {
+        GGeneModel model = geneModels.get(chain);
+        if (!(model instanceof BasicGGeneModel))
+            throw new IllegalArgumentException("No basic gene model for " + chain);
+        return (BasicGGeneModel) model;
+    }
+
+    @Override
+    public GCloneGenerator create(RandomGenerator random, VDJCLibraryRegistry registry) {
+        return compile(registry).create(random);
     }
 
     @Override
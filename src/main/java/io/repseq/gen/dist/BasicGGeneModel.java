@@ -2,7 +2,7 @@ package io.repseq.gen.dist;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.Range;
 import io.repseq.core.GeneType;
 import io.repseq.core.VDJCGene;
 import io.repseq.core.VDJCLibrary;
@@ -10,10 +10,17 @@ import io.repseq.gen.GGene;
 import io.repseq.gen.VDJCGenes;
 import io.repseq.gen.VDJTrimming;
 import org.apache.commons.math3.random.RandomGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public final class BasicGGeneModel implements GGeneModel {
+    private static final Logger log = LoggerFactory.getLogger(BasicGGeneModel.class);
     public final VDJCGenesModel vdjcGenesModel;
     public final VDJTrimmingModel trimmingModel;
     public final InsertModel vInsertModel, djInsertModel;
@@ -30,37 +37,220 @@ public final class BasicGGeneModel implements GGeneModel {
     }
 
     @Override
-    public GGeneGenerator create(RandomGenerator random, VDJCLibrary library) {
-        final VDJCGenesGenerator vdjcGenesGenerator = vdjcGenesModel.create(random, library);
-        List<VDJCGene> vGenes = vdjcGenesGenerator.genes(GeneType.Variable);
-        List<VDJCGene> dGenes = vdjcGenesGenerator.genes(GeneType.Diversity);
-        List<VDJCGene> jGenes = vdjcGenesGenerator.genes(GeneType.Joining);
-        List<VDJCGene> cGenes = vdjcGenesGenerator.genes(GeneType.Constant);
-        final VDJTrimmingGenerator trimmingGenerator = trimmingModel.create(random, vGenes, dGenes, jGenes, cGenes);
-        final InsertGenerator vInsertGenerator = vInsertModel.create(random, true, vGenes, dGenes, jGenes, cGenes);
-        final InsertGenerator djInsertGenerator = dGenes.isEmpty() ? null : djInsertModel.create(random, false, vGenes, dGenes, jGenes, cGenes);
-        return new GGeneGenerator() {
-            @Override
-            public GGene generate() {
-                VDJCGenes vdjcGenes = vdjcGenesGenerator.sample();
-                VDJTrimming trimming = trimmingGenerator.sample(vdjcGenes);
-                assert !vdjcGenes.isDDefined() || (vdjcGenes.isDDefined() && djInsertGenerator != null);
-                NucleotideSequence vInsert;
-                NucleotideSequence djInsert;
-                if (vdjcGenes.isDDefined()) {
-                    assert djInsertGenerator != null;
-                    GGene tempGene = new GGene(null, vdjcGenes, trimming, NucleotideSequence.EMPTY,
-                            NucleotideSequence.EMPTY);
-                    vInsert = vInsertGenerator.generate(tempGene);
-                    djInsert = djInsertGenerator.generate(tempGene);
-                } else {
-                    GGene tempGene = new GGene(null, vdjcGenes, trimming, NucleotideSequence.EMPTY, null);
-                    vInsert = vInsertGenerator.generate(tempGene);
-                    djInsert = null;
+    public GGeneSampler compile(VDJCLibrary library) {
+        Compiled c = new Compiled(library);
+        // Junction nucleotides are computed from germline sequences, see RearrangementAssembler
+        return new Sampler(c.vdjcGenesSampler, c.trimmingSampler, c.vInsertSampler, c.djInsertSampler, c.germlines);
+    }
+
+    /**
+     * Creates calculator of CDR3 generation probabilities for genes from the library
+     */
+    public PgenCalculator pgenCalculator(VDJCLibrary library) {
+        Compiled c = new Compiled(library);
+        return new PgenCalculator(c.vdjcGenesSampler, c.trimmingSampler, c.vInsertSampler, c.djInsertSampler,
+                c.germlines);
+    }
+
+    /**
+     * Computes usage of genes and distribution of CDR3 length for genes from the library
+     *
+     * @param library library
+     * @param threads number of threads
+     */
+    public GGeneStatistics statistics(VDJCLibrary library, int threads) {
+        Compiled c = new Compiled(library);
+        return new GGeneStatistics(c.vdjcGenesSampler, c.trimmingSampler, c.vInsertSampler, c.djInsertSampler,
+                c.germlines, threads);
+    }
+
+    /**
+     * Compiled components of the model
+     */
+    private final class Compiled {
+        final VDJCGenesSampler vdjcGenesSampler;
+        final VDJTrimmingSampler trimmingSampler;
+        final InsertSampler vInsertSampler, djInsertSampler;
+        final Map<VDJCGene, RearrangementAssembler.Germline> germlines;
+
+        Compiled(VDJCLibrary library) {
+            vdjcGenesSampler = vdjcGenesModel.compile(library);
+            List<VDJCGene> vGenes = vdjcGenesSampler.genes(GeneType.Variable);
+            List<VDJCGene> dGenes = vdjcGenesSampler.genes(GeneType.Diversity);
+            List<VDJCGene> jGenes = vdjcGenesSampler.genes(GeneType.Joining);
+            List<VDJCGene> cGenes = vdjcGenesSampler.genes(GeneType.Constant);
+            for (List<VDJCGene> genes : Arrays.asList(vGenes, dGenes, jGenes, cGenes))
+                for (VDJCGene gene : genes)
+                    prefetch(gene);
+            trimmingSampler = trimmingModel.compile(vGenes, dGenes, jGenes, cGenes);
+            vInsertSampler = vInsertModel.compile(true, vGenes, dGenes, jGenes, cGenes);
+            djInsertSampler = dGenes.isEmpty() ? null : djInsertModel.compile(false, vGenes, dGenes, jGenes, cGenes);
+            germlines = RearrangementAssembler.germlines(vGenes, dGenes, jGenes);
+        }
+    }
+
+    private static final class Sampler implements GGeneSampler {
+        final VDJCGenesSampler vdjcGenesSampler;
+        final VDJTrimmingSampler trimmingSampler;
+        final InsertSampler vInsertSampler, djInsertSampler;
+        final ThreadLocal<RearrangementAssembler> assemblers;
+        /**
+         * Probabilities of combinations of insert length residues modulo 3: [required residue of total length of
+         * inserts][residue of V(D/J) insert length], for VJ and VDJ rearrangements
+         */
+        final double[][] vjResidues, vdjResidues;
+        /**
+         * Probabilities of required residues and their maximal values
+         */
+        final double[] vjTotals, vdjTotals;
+        final double vjMax, vdjMax;
+        /**
+         * Distributions of insert lengths conditioned on their residue modulo 3 (null for zero probability)
+         */
+        final CategoricalIntSampler[] vLengths, djLengths;
+        /**
+         * Samplers for constraints on genes and CDR3 length, created on demand
+         */
+        final ConcurrentMap<GGeneConstraint, TargetedGGeneSampler> targeted = new ConcurrentHashMap<>();
+
+        Sampler(VDJCGenesSampler vdjcGenesSampler, VDJTrimmingSampler trimmingSampler,
+                InsertSampler vInsertSampler, InsertSampler djInsertSampler,
+                final Map<VDJCGene, RearrangementAssembler.Germline> germlines) {
+            this.vdjcGenesSampler = vdjcGenesSampler;
+            this.trimmingSampler = trimmingSampler;
+            this.vInsertSampler = vInsertSampler;
+            this.djInsertSampler = djInsertSampler;
+            this.assemblers = new ThreadLocal<RearrangementAssembler>() {
+                @Override
+                protected RearrangementAssembler initialValue() {
+                    return new RearrangementAssembler(germlines);
                 }
-                return new GGene(null, vdjcGenes, trimming, vInsert, djInsert);
+            };
+
+            double[] v = vInsertSampler.lengthDistribution().residueProbabilities(3);
+            double[] dj = djInsertSampler == null ? null
+                    : djInsertSampler.lengthDistribution().residueProbabilities(3);
+            this.vjResidues = new double[3][3];
+            this.vdjResidues = new double[3][3];
+            this.vjTotals = new double[3];
+            this.vdjTotals = new double[3];
+            for (int total = 0; total < 3; total++) {
+                vjResidues[total][total] = v[total];
+                vjTotals[total] = v[total];
+                if (dj != null)
+                    for (int r = 0; r < 3; r++) {
+                        vdjResidues[total][r] = v[r] * dj[(total - r + 3) % 3];
+                        vdjTotals[total] += vdjResidues[total][r];
+                    }
+            }
+            this.vjMax = max(vjTotals);
+            this.vdjMax = max(vdjTotals);
+            this.vLengths = byResidue(vInsertSampler);
+            this.djLengths = djInsertSampler == null ? null : byResidue(djInsertSampler);
+        }
+
+        private static CategoricalIntSampler[] byResidue(InsertSampler sampler) {
+            CategoricalIntSampler[] result = new CategoricalIntSampler[3];
+            for (int r = 0; r < 3; r++)
+                result[r] = sampler.lengthDistribution().withResidue(3, r);
+            return result;
+        }
+
+        @Override
+        public GGene sample(RandomGenerator random) {
+            VDJCGenes vdjcGenes = vdjcGenesSampler.sample(random);
+            VDJTrimming trimming = trimmingSampler.sample(random, vdjcGenes);
+            RearrangementAssembler rearrangement = assemblers.get().reset(vdjcGenes, trimming);
+            rearrangement.vInsert(vInsertSampler.sample(random, rearrangement));
+            if (vdjcGenes.isDDefined()) {
+                assert djInsertSampler != null;
+                rearrangement.djInsert(djInsertSampler.sample(random, rearrangement));
             }
-        };
+            return rearrangement.assemble();
+        }
+
+        @Override
+        public GGene sample(RandomGenerator random, GGeneConstraint constraint) {
+            if (constraint == null || !constraint.inFrame && !constraint.isTargeted())
+                return sample(random);
+            if (constraint.isTargeted())
+                return targeted(constraint).sample(random);
+
+            // Rejection sampling of genes and trimmings with acceptance probability proportional to the probability
+            // of in-frame CDR3 (given genes and trimmings, it depends only on the lengths of inserts), followed by
+            // sampling of inserts from the distribution conditioned on the residue of their total length modulo 3.
+            // Stop codons are checked for each part of CDR3 as soon as it is generated, and the whole gene is
+            // rejected if there is one. Gives the same distribution as rejection of complete genes, without
+            // generation of out-of-frame inserts and construction of GGene for each rejected sample.
+            RearrangementAssembler rearrangement = assemblers.get();
+            while (true) {
+                VDJCGenes vdjcGenes = vdjcGenesSampler.sample(random);
+                VDJTrimming trimming = trimmingSampler.sample(random, vdjcGenes);
+                rearrangement.reset(vdjcGenes, trimming);
+                if (!rearrangement.hasCDR3())
+                    continue;
+
+                boolean vdj = vdjcGenes.isDDefined();
+                int cdr3Begin = rearrangement.cdr3Begin();
+                // Residue of total length of inserts giving in-frame CDR3
+                int total = CategoricalIntSampler.residue(cdr3Begin - rearrangement.cdr3End(), 3);
+                double p = vdj ? vdjTotals[total] : vjTotals[total];
+                if (random.nextDouble() * (vdj ? vdjMax : vjMax) >= p)
+                    continue;
+
+                if (constraint.noStops && rearrangement.germlineStops())
+                    continue;
+
+                int vResidue = vdj ? CategoricalSampler.choose(random, vdjResidues[total], 3, p) : total;
+                rearrangement.vInsert(vInsertSampler.sample(random, rearrangement,
+                        vLengths[vResidue].sample(random)));
+                if (vdj) {
+                    if (constraint.noStops && rearrangement.stopsBeforeDJInsert())
+                        continue;
+                    rearrangement.djInsert(djInsertSampler.sample(random, rearrangement,
+                            djLengths[(total - vResidue + 3) % 3].sample(random)));
+                }
+
+                if (rearrangement.cdr3End() < cdr3Begin)
+                    continue;
+                if (constraint.noStops && rearrangement.cdr3Stops())
+                    continue;
+                return rearrangement.assemble();
+            }
+        }
+
+        private TargetedGGeneSampler targeted(GGeneConstraint constraint) {
+            TargetedGGeneSampler sampler = targeted.get(constraint);
+            if (sampler == null) {
+                sampler = new TargetedGGeneSampler(constraint, vdjcGenesSampler, trimmingSampler,
+                        vInsertSampler, djInsertSampler, assemblers);
+                TargetedGGeneSampler existing = targeted.putIfAbsent(constraint, sampler);
+                if (existing != null)
+                    sampler = existing;
+            }
+            return sampler;
+        }
+
+        private static double max(double[] values) {
+            double max = 0;
+            for (double value : values)
+                max = Math.max(max, value);
+            return max;
+        }
+    }
+
+    /**
+     * Loads sequence of the gene into the cache of its sequence provider, so that sampler, shared between several
+     * threads, only reads from the cache (which is not thread-safe for modifications)
+     */
+    private static void prefetch(VDJCGene gene) {
+        Range region = gene.getPartitioning().getContainingRegion();
+        try {
+            gene.getSequenceProvider().getRegion(region.isReverse() ? region.inverse() : region);
+        } catch (RuntimeException e) {
+            // Only part of the region may be available, such genes will be loaded on demand as before
+            log.debug("Can't prefetch sequence of {}: {}", gene.getName(), e.getMessage());
+        }
     }
 
     @Override
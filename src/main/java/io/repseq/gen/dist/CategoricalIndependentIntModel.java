@@ -2,8 +2,6 @@ package io.repseq.gen.dist;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import org.apache.commons.math3.distribution.EnumeratedIntegerDistribution;
-import org.apache.commons.math3.random.RandomGenerator;
 
 import java.util.Map;
 
@@ -16,7 +14,7 @@ public class CategoricalIndependentIntModel implements IndependentIntModel {
     }
 
     @Override
-    public IndependentIntGenerator create(RandomGenerator random) {
+    public CategoricalIntSampler compile() {
         int[] intValues = new int[distribution.size()];
         double[] weights = new double[distribution.size()]; // ~ probability, will be normalized in distribution constructor
         int i = 0;
@@ -25,13 +23,7 @@ public class CategoricalIndependentIntModel implements IndependentIntModel {
             weights[i] = e.getValue();
             ++i;
         }
-        final EnumeratedIntegerDistribution dist = new EnumeratedIntegerDistribution(random, intValues, weights);
-        return new IndependentIntGenerator() {
-            @Override
-            public int sample() {
-                return dist.sample();
-            }
-        };
+        return new CategoricalIntSampler(intValues, weights);
     }
 
     @Override
@@ -0,0 +1,96 @@
+package io.repseq.gen.dist;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+import java.util.Arrays;
+
+/**
+ * Immutable categorical distribution of integers (see {@link CategoricalSampler}).
+ */
+public final class CategoricalIntSampler implements IndependentIntSampler, GeneTrimmingSampler {
+    final int[] values;
+    final double[] weights;
+    final AliasTable table;
+
+    /**
+     * @param values  values
+     * @param weights ~ probabilities, will be normalized
+     */
+    public CategoricalIntSampler(int[] values, double[] weights) {
+        if (values.length != weights.length)
+            throw new IllegalArgumentException();
+        this.values = values.clone();
+        this.weights = weights.clone();
+        this.table = new AliasTable(weights);
+    }
+
+    @Override
+    public int sample(RandomGenerator random) {
+        return values[table.sample(random)];
+    }
+
+    /**
+     * Returns all values (including values with zero probability)
+     */
+    public int[] values() {
+        return values.clone();
+    }
+
+    /**
+     * Returns probabilities of values, in the same order as {@link #values()}
+     */
+    public double[] probabilities() {
+        return CategoricalSampler.normalize(weights);
+    }
+
+    @Override
+    public CategoricalIntSampler distribution() {
+        return this;
+    }
+
+    /**
+     * Returns probabilities of residues of values, i.e. element {@code r} of the returned array is the probability
+     * that sampled value is equal to {@code r} modulo {@code modulus}
+     *
+     * @param modulus modulus
+     * @return array of {@code modulus} probabilities
+     */
+    public double[] residueProbabilities(int modulus) {
+        double[] result = new double[modulus];
+        double sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            result[residue(values[i], modulus)] += weights[i];
+            sum += weights[i];
+        }
+        for (int r = 0; r < modulus; r++)
+            result[r] /= sum;
+        return result;
+    }
+
+    /**
+     * Returns conditional distribution of values equal to {@code residue} modulo {@code modulus}
+     *
+     * @param modulus modulus
+     * @param residue residue, from 0 to modulus - 1
+     * @return conditional distribution or null if such values have zero probability
+     */
+    public CategoricalIntSampler withResidue(int modulus, int residue) {
+        int[] v = new int[values.length];
+        double[] w = new double[values.length];
+        int size = 0;
+        for (int i = 0; i < values.length; i++)
+            if (weights[i] > 0 && residue(values[i], modulus) == residue) {
+                v[size] = values[i];
+                w[size++] = weights[i];
+            }
+        return size == 0 ? null : new CategoricalIntSampler(Arrays.copyOf(v, size), Arrays.copyOf(w, size));
+    }
+
+    /**
+     * Returns non-negative residue of value modulo modulus
+     */
+    static int residue(int value, int modulus) {
+        int r = value % modulus;
+        return r < 0 ? r + modulus : r;
+    }
+}
@@ -0,0 +1,104 @@
+package io.repseq.gen.dist;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.util.Pair;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable categorical distribution. In contrast to {@link org.apache.commons.math3.distribution.EnumeratedDistribution}
+ * it is not bound to a random generator, so the same instance can be used from several threads. Sampling takes
+ * constant time (see {@link AliasTable}).
+ *
+ * @param <T> type of values
+ */
+public final class CategoricalSampler<T> {
+    final List<T> values;
+    final Object[] valuesArray;
+    final double[] weights;
+    final AliasTable table;
+
+    public CategoricalSampler(List<Pair<T, Double>> pmf) {
+        this(firsts(pmf), seconds(pmf));
+    }
+
+    /**
+     * @param values  values
+     * @param weights ~ probabilities, will be normalized
+     */
+    public CategoricalSampler(List<T> values, double[] weights) {
+        if (values.size() != weights.length)
+            throw new IllegalArgumentException();
+        this.values = Collections.unmodifiableList(new ArrayList<>(values));
+        this.valuesArray = values.toArray();
+        this.weights = weights.clone();
+        this.table = new AliasTable(weights);
+    }
+
+    private static <T> List<T> firsts(List<Pair<T, Double>> pmf) {
+        List<T> values = new ArrayList<>(pmf.size());
+        for (Pair<T, Double> p : pmf)
+            values.add(p.getFirst());
+        return values;
+    }
+
+    private static <T> double[] seconds(List<Pair<T, Double>> pmf) {
+        double[] weights = new double[pmf.size()];
+        for (int i = 0; i < weights.length; i++)
+            weights[i] = pmf.get(i).getSecond();
+        return weights;
+    }
+
+    /**
+     * Returns all values (including values with zero probability), in the same order as in pmf
+     */
+    public List<T> values() {
+        return values;
+    }
+
+    /**
+     * Returns probabilities of values, in the same order as {@link #values()}
+     */
+    public double[] probabilities() {
+        return normalize(weights);
+    }
+
+    static double[] normalize(double[] weights) {
+        double sum = 0;
+        for (double w : weights)
+            sum += w;
+        double[] result = new double[weights.length];
+        for (int i = 0; i < weights.length; i++)
+            result[i] = weights[i] / sum;
+        return result;
+    }
+
+    /**
+     * Samples index of element from the first {@code size} unnormalized probabilities, with linear search (for
+     * distributions computed on the fly)
+     *
+     * @param random  source of random data
+     * @param weights ~ probabilities
+     * @param size    number of elements
+     * @param sum     sum of weights
+     * @return index of element
+     */
+    static int choose(RandomGenerator random, double[] weights, int size, double sum) {
+        double u = random.nextDouble() * sum;
+        for (int i = 0; i < size - 1; i++)
+            if ((u -= weights[i]) < 0)
+                return i;
+        // Rounding errors
+        for (int i = size - 1; i > 0; i--)
+            if (weights[i] > 0)
+                return i;
+        return 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T sample(RandomGenerator random) {
+        return (T) valuesArray[table.sample(random)];
+    }
+}
@@ -4,7 +4,6 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.repseq.core.VDJCGene;
 import io.repseq.gen.DTrimming;
-import org.apache.commons.math3.distribution.EnumeratedDistribution;
 import org.apache.commons.math3.random.RandomGenerator;
 import org.apache.commons.math3.util.Pair;
 
@@ -19,7 +18,7 @@ public final class CommonCategoricalDGeneTrimmingModel implements DTrimmingModel
         this.distribution = distribution;
     }
 
-    public static EnumeratedDistribution<DTrimming> createDistribution(RandomGenerator random, Map<String, Double> probabilities) {
+    public static CategoricalSampler<DTrimming> createDistribution(Map<String, Double> probabilities) {
         ArrayList<Pair<DTrimming, Double>> points = new ArrayList<>(probabilities.size());
         for (Map.Entry<String, Double> p : probabilities.entrySet()) {
             String[] split = p.getKey().split("\\|");
@@ -33,16 +32,24 @@ public final class CommonCategoricalDGeneTrimmingModel implements DTrimmingModel
                 throw new IllegalArgumentException("Exception during parsing " + p.getKey(), e);
             }
         }
-        return new EnumeratedDistribution<>(random, points);
+        return new CategoricalSampler<>(points);
     }
 
     @Override
-    public DTrimmingGenerator create(RandomGenerator random, VDJCGene gene) {
-        final EnumeratedDistribution<DTrimming> dist = createDistribution(random, distribution);
-        return new DTrimmingGenerator() {
+    public DTrimmingSampler compile(VDJCGene gene) {
+        return sampler(createDistribution(distribution));
+    }
+
+    static DTrimmingSampler sampler(final CategoricalSampler<DTrimming> dist) {
+        return new DTrimmingSampler() {
+            @Override
+            public DTrimming sample(RandomGenerator random) {
+                return dist.sample(random);
+            }
+
             @Override
-            public DTrimming sample() {
-                return dist.sample();
+            public CategoricalSampler<DTrimming> distribution() {
+                return dist;
             }
         };
     }
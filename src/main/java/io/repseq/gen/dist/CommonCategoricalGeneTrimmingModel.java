@@ -3,7 +3,6 @@ package io.repseq.gen.dist;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.repseq.core.VDJCGene;
-import org.apache.commons.math3.random.RandomGenerator;
 
 import java.util.Map;
 
@@ -15,13 +14,7 @@ public class CommonCategoricalGeneTrimmingModel extends CategoricalIndependentIn
     }
 
     @Override
-    public GeneTrimmingGenerator create(RandomGenerator random, VDJCGene gene) {
-        final IndependentIntGenerator im = create(random);
-        return new GeneTrimmingGenerator() {
-            @Override
-            public int sample() {
-                return im.sample();
-            }
-        };
+    public GeneTrimmingSampler compile(VDJCGene gene) {
+        return compile();
     }
 }
@@ -6,9 +6,11 @@ import com.fasterxml.jackson.annotation.JsonUnwrapped;
 import io.repseq.core.GeneFeature;
 import io.repseq.core.VDJCGene;
 import io.repseq.gen.DTrimming;
-import org.apache.commons.math3.distribution.EnumeratedIntegerDistribution;
 import org.apache.commons.math3.random.RandomGenerator;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static com.fasterxml.jackson.annotation.JsonProperty.Access.READ_ONLY;
 
 public final class CommonNormalDTrimmingModel implements DTrimmingModel {
@@ -29,24 +31,44 @@ public final class CommonNormalDTrimmingModel implements DTrimmingModel {
     }
 
     @Override
-    public DTrimmingGenerator create(RandomGenerator random, VDJCGene gene) {
+    public DTrimmingSampler compile(VDJCGene gene) {
         final int dLength = gene.getPartitioning().getLength(GeneFeature.DRegion);
-        final EnumeratedIntegerDistribution dist3 = parameters3.truncatedDistribution(random, -dLength,
+        final CategoricalIntSampler dist3 = parameters3.truncatedDistribution(-dLength,
                 Math.min(dLength, maxPLength3));
-        final EnumeratedIntegerDistribution dist5 = parameters5.truncatedDistribution(random, -dLength,
+        final CategoricalIntSampler dist5 = parameters5.truncatedDistribution(-dLength,
                 Math.min(dLength, maxPLength5));
-        return new DTrimmingGenerator() {
+        // Explicit distribution, each pair of 3' and 5' trimmings is a separate category
+        int[] values3 = dist3.values(), values5 = dist5.values();
+        double[] p3 = dist3.probabilities(), p5 = dist5.probabilities();
+        List<DTrimming> trimmings = new ArrayList<>(values3.length * values5.length);
+        double[] weights = new double[values3.length * values5.length];
+        for (int i = 0; i < values3.length; i++)
+            for (int k = 0; k < values5.length; k++) {
+                weights[trimmings.size()] = p3[i] * p5[k];
+                trimmings.add(trimming(values3[i], values5[k], dLength));
+            }
+        final CategoricalSampler<DTrimming> distribution = new CategoricalSampler<>(trimmings, weights);
+        return new DTrimmingSampler() {
             @Override
-            public DTrimming sample() {
-                int trimming3 = dist3.sample();
-                int trimming5 = dist5.sample();
-                if (trimming3 + trimming5 < -dLength) {
-                    int excess = dLength - trimming3 - trimming5;
-                    trimming3 += excess / 2;
-                    trimming5 += excess - (excess / 2);
-                }
-                return new DTrimming(trimming3, trimming5);
+            public DTrimming sample(RandomGenerator random) {
+                int trimming3 = dist3.sample(random);
+                int trimming5 = dist5.sample(random);
+                return trimming(trimming3, trimming5, dLength);
+            }
+
+            @Override
+            public CategoricalSampler<DTrimming> distribution() {
+                return distribution;
             }
         };
     }
+
+    private static DTrimming trimming(int trimming3, int trimming5, int dLength) {
+        if (trimming3 + trimming5 < -dLength) {
+            int excess = dLength - trimming3 - trimming5;
+            trimming3 += excess / 2;
+            trimming5 += excess - (excess / 2);
+        }
+        return new DTrimming(trimming3, trimming5);
+    }
 }
@@ -4,7 +4,6 @@ import com.fasterxml.jackson.annotation.*;
 import io.repseq.core.GeneFeature;
 import io.repseq.core.GeneType;
 import io.repseq.core.VDJCGene;
-import org.apache.commons.math3.random.RandomGenerator;
 
 import static com.fasterxml.jackson.annotation.JsonProperty.Access.READ_ONLY;
 
@@ -34,9 +33,9 @@ public final class CommonNormalGeneTrimmingModel implements GeneTrimmingModel {
     }
 
     @Override
-    public GeneTrimmingGenerator create(RandomGenerator random, VDJCGene gene) {
+    public GeneTrimmingSampler compile(VDJCGene gene) {
         int cdr3PartLength = gene.getPartitioning().getLength(cdr3Part(gene.getGeneType()));
-        return new GeneTrimmingGeneratorEnumerated(parameters.truncatedDistribution(random, -cdr3PartLength, maxPLength));
+        return parameters.truncatedDistribution(-cdr3PartLength, maxPLength);
     }
 
     @Override
@@ -0,0 +1,82 @@
+package io.repseq.gen.dist;
+
+import io.repseq.core.VDJCLibraryId;
+import io.repseq.gen.GClone;
+import io.repseq.gen.GGene;
+import org.apache.commons.math3.random.RandomGenerator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Clone model bound to a library, with all sampling tables built. Immutable, so single instance can be shared between
+ * any number of threads, each using its own random generator (see {@link #create(RandomGenerator)}).
+ */
+public final class CompiledGCloneModel {
+    final VDJCLibraryId libraryId;
+    final IndependentRealSampler abundanceSampler;
+    final String[] geneNames;
+    final GGeneSampler[] geneSamplers;
+
+    /**
+     * @param libraryId        library id
+     * @param abundanceSampler abundance sampler
+     * @param geneSamplers     samplers for each of the clone genes, sampled in the iteration order of the map
+     */
+    public CompiledGCloneModel(VDJCLibraryId libraryId, IndependentRealSampler abundanceSampler,
+                               Map<String, GGeneSampler> geneSamplers) {
+        this.libraryId = libraryId;
+        this.abundanceSampler = abundanceSampler;
+        this.geneNames = new String[geneSamplers.size()];
+        this.geneSamplers = new GGeneSampler[geneSamplers.size()];
+        int i = 0;
+        for (Map.Entry<String, GGeneSampler> e : geneSamplers.entrySet()) {
+            this.geneNames[i] = e.getKey();
+            this.geneSamplers[i] = e.getValue();
+            ++i;
+        }
+    }
+
+    public VDJCLibraryId libraryId() {
+        return libraryId;
+    }
+
+    /**
+     * Samples a clone using provided source of random data
+     */
+    public GClone sample(RandomGenerator random) {
+        return sample(random, null);
+    }
+
+    /**
+     * Samples a clone with all genes satisfying the constraint. As genes of a clone are sampled independently, the
+     * distribution is the same as for rejection of clones with any of genes not accepted by the constraint.
+     *
+     * @param random     source of random data
+     * @param constraint constraint for each of clone genes, null for unconstrained sampling
+     * @return clone
+     */
+    public GClone sample(RandomGenerator random, GGeneConstraint constraint) {
+        double abundance = abundanceSampler.sample(random);
+        Map<String, GGene> genes = new HashMap<>();
+        for (int i = 0; i < geneSamplers.length; i++)
+            genes.put(geneNames[i], constraint == null
+                    ? geneSamplers[i].sample(random)
+                    : geneSamplers[i].sample(random, constraint));
+        return new GClone(abundance, genes);
+    }
+
+    /**
+     * Returns generator drawing clones from this model with provided random generator. Cheap operation, the returned
+     * generator holds only references to this model and random generator; though it is not thread-safe itself (as
+     * random generator is used without synchronization), so each thread should create its own.
+     */
+    public GCloneGenerator create(final RandomGenerator random) {
+        return new GCloneGenerator() {
+            @Override
+            public GClone sample() {
+                return CompiledGCloneModel.this.sample(random);
+            }
+        };
+    }
+}
@@ -6,17 +6,17 @@ import io.repseq.core.GeneType;
 import io.repseq.core.VDJCGene;
 import io.repseq.core.VDJCLibrary;
 import io.repseq.gen.VDJCGenes;
-import org.apache.commons.math3.distribution.EnumeratedDistribution;
 import org.apache.commons.math3.random.RandomGenerator;
 import org.apache.commons.math3.util.Pair;
 
 import java.util.*;
 
+import static io.repseq.gen.dist.IndependentVDJCGenesModel.allowed;
 import static io.repseq.gen.dist.IndependentVDJCGenesModel.geneOrNull;
 import static io.repseq.gen.dist.IndependentVDJCGenesModel.toDistribution;
 
 public final class DJCDependentVDJCGenesModel implements VDJCGenesModel {
-    final Map<String, Double> v, djc;
+    public final Map<String, Double> v, djc;
 
     @JsonCreator
     public DJCDependentVDJCGenesModel(@JsonProperty("v") Map<String, Double> v,
@@ -25,14 +25,13 @@ public final class DJCDependentVDJCGenesModel implements VDJCGenesModel {
         this.djc = djc;
     }
 
-    public static EnumeratedDistribution<VDJCGene3> toDistribution3(RandomGenerator random,
-                                                                    VDJCLibrary library,
-                                                                    Map<String, Double> distMap,
-                                                                    GeneType geneType1, GeneType geneType2,
-                                                                    GeneType geneType3) {
+    public static CategoricalSampler<VDJCGene3> toDistribution3(VDJCLibrary library,
+                                                                Map<String, Double> distMap,
+                                                                GeneType geneType1, GeneType geneType2,
+                                                                GeneType geneType3) {
         List<Pair<VDJCGene3, Double>> ps = new ArrayList<>();
         for (Map.Entry<String, Double> e : distMap.entrySet()) {
-            String[] split = e.getKey().split("\\|");
+            String[] split = e.getKey().split("\\|", -1);
             if (split.length != 3)
                 throw new IllegalArgumentException("Wrong key format (expected single '|' symbol): " + e.getKey());
 
@@ -43,7 +42,7 @@ public final class DJCDependentVDJCGenesModel implements VDJCGenesModel {
                             geneOrNull(library, split[2], geneType3)),
                     e.getValue()));
         }
-        return new EnumeratedDistribution<>(random, ps);
+        return new CategoricalSampler<>(ps);
     }
 
     public static final class VDJCGene3 {
@@ -70,11 +69,40 @@ public final class DJCDependentVDJCGenesModel implements VDJCGenesModel {
     }
 
     @Override
-    public VDJCGenesGenerator create(RandomGenerator random, VDJCLibrary library) {
-        final EnumeratedDistribution<VDJCGene> vDist = toDistribution(random, library, v, GeneType.Variable);
-        final EnumeratedDistribution<VDJCGene3> djcDist = toDistribution3(random, library, djc,
+    public VDJCGenesSampler compile(VDJCLibrary library) {
+        final CategoricalSampler<VDJCGene> vDist = toDistribution(library, v, GeneType.Variable);
+        final CategoricalSampler<VDJCGene3> djcDist = toDistribution3(library, djc,
                 GeneType.Diversity, GeneType.Joining, GeneType.Constant);
-        return new VDJCGenesGenerator() {
+        // Joint probabilities of D and J genes, and conditional distributions of C gene given D and J genes
+        final double[] pdjc = djcDist.probabilities();
+        final Map<VDJCGene, Map<VDJCGene, Double>> djDist = new IdentityHashMap<>();
+        Map<VDJCGene, Map<VDJCGene, List<Pair<VDJCGene, Double>>>> cPmfs = new IdentityHashMap<>();
+        for (int i = 0; i < pdjc.length; i++) {
+            VDJCGene3 g = djcDist.values().get(i);
+            if (g == null || pdjc[i] == 0)
+                continue;
+            Map<VDJCGene, Double> byJ = djDist.get(g.gene1);
+            if (byJ == null)
+                djDist.put(g.gene1, byJ = new IdentityHashMap<>());
+            Double p = byJ.get(g.gene2);
+            byJ.put(g.gene2, (p == null ? 0 : p) + pdjc[i]);
+
+            Map<VDJCGene, List<Pair<VDJCGene, Double>>> cByJ = cPmfs.get(g.gene1);
+            if (cByJ == null)
+                cPmfs.put(g.gene1, cByJ = new IdentityHashMap<>());
+            List<Pair<VDJCGene, Double>> cPmf = cByJ.get(g.gene2);
+            if (cPmf == null)
+                cByJ.put(g.gene2, cPmf = new ArrayList<>());
+            cPmf.add(new Pair<>(g.gene3, pdjc[i]));
+        }
+        final Map<VDJCGene, Map<VDJCGene, CategoricalSampler<VDJCGene>>> cDists = new IdentityHashMap<>();
+        for (Map.Entry<VDJCGene, Map<VDJCGene, List<Pair<VDJCGene, Double>>>> d : cPmfs.entrySet()) {
+            Map<VDJCGene, CategoricalSampler<VDJCGene>> byJ = new IdentityHashMap<>();
+            for (Map.Entry<VDJCGene, List<Pair<VDJCGene, Double>>> j : d.getValue().entrySet())
+                byJ.put(j.getKey(), new CategoricalSampler<>(j.getValue()));
+            cDists.put(d.getKey(), byJ);
+        }
+        return new VDJCGenesSampler() {
             @Override
             public List<VDJCGene> genes(GeneType gt) {
                 switch (gt) {
@@ -91,18 +119,42 @@ public final class DJCDependentVDJCGenesModel implements VDJCGenesModel {
             }
 
             @Override
-            public VDJCGenes sample() {
-                VDJCGene3 djc = djcDist.sample();
-                return new VDJCGenes(vDist.sample(), djc.gene1, djc.gene2, djc.gene3);
+            public VDJCGenes sample(RandomGenerator random) {
+                VDJCGene3 djc = djcDist.sample(random);
+                return new VDJCGenes(vDist.sample(random), djc.gene1, djc.gene2, djc.gene3);
+            }
+
+            @Override
+            public List<Pair<VDJCGenes, Double>> vdjDistribution(Set<VDJCGene> vGenes, Set<VDJCGene> jGenes) {
+                List<Pair<VDJCGenes, Double>> result = new ArrayList<>();
+                double[] pv = vDist.probabilities();
+                for (int v = 0; v < pv.length; v++)
+                    if (pv[v] > 0 && allowed(vDist.values().get(v), vGenes))
+                        for (Map.Entry<VDJCGene, Map<VDJCGene, Double>> d : djDist.entrySet())
+                            for (Map.Entry<VDJCGene, Double> j : d.getValue().entrySet())
+                                if (allowed(j.getKey(), jGenes))
+                                    result.add(new Pair<>(new VDJCGenes(vDist.values().get(v), d.getKey(),
+                                            j.getKey(), null), pv[v] * j.getValue()));
+                return result;
+            }
+
+            @Override
+            public VDJCGene sampleC(RandomGenerator random, VDJCGenes vdjGenes) {
+                Map<VDJCGene, CategoricalSampler<VDJCGene>> byJ = cDists.get(vdjGenes.d);
+                CategoricalSampler<VDJCGene> c = byJ == null ? null : byJ.get(vdjGenes.j);
+                if (c == null)
+                    throw new IllegalArgumentException("Zero probability of D and J genes: " + vdjGenes + ".");
+                return c.sample(random);
             }
         };
     }
 
-    public static List<VDJCGene> genes(EnumeratedDistribution<VDJCGene3> d, int index) {
+    public static List<VDJCGene> genes(CategoricalSampler<VDJCGene3> d, int index) {
         Set<VDJCGene> result = new HashSet<>();
-        for (Pair<VDJCGene3, Double> p : d.getPmf())
-            if (p.getFirst() != null)
-                result.add(p.getFirst().get(index));
+        for (VDJCGene3 genes : d.values())
+            // Absent genes (e.g. no D gene) are not included
+            if (genes != null && genes.get(index) != null)
+                result.add(genes.get(index));
         return new ArrayList<>(result);
     }
 }
@@ -6,17 +6,17 @@ import io.repseq.core.GeneType;
 import io.repseq.core.VDJCGene;
 import io.repseq.core.VDJCLibrary;
 import io.repseq.gen.VDJCGenes;
-import org.apache.commons.math3.distribution.EnumeratedDistribution;
 import org.apache.commons.math3.random.RandomGenerator;
 import org.apache.commons.math3.util.Pair;
 
 import java.util.*;
 
+import static io.repseq.gen.dist.IndependentVDJCGenesModel.allowed;
 import static io.repseq.gen.dist.IndependentVDJCGenesModel.geneOrNull;
 import static io.repseq.gen.dist.IndependentVDJCGenesModel.toDistribution;
 
 public final class DJDependentVDJCGenesModel implements VDJCGenesModel {
-    final Map<String, Double> v, dj, c;
+    public final Map<String, Double> v, dj, c;
 
     @JsonCreator
     public DJDependentVDJCGenesModel(@JsonProperty("v") Map<String, Double> v,
@@ -27,20 +27,19 @@ public final class DJDependentVDJCGenesModel implements VDJCGenesModel {
         this.c = c;
     }
 
-    public static EnumeratedDistribution<VDJCGene2> toDistribution2(RandomGenerator random,
-                                                                    VDJCLibrary library,
-                                                                    Map<String, Double> distMap,
-                                                                    GeneType geneType1, GeneType geneType2) {
+    public static CategoricalSampler<VDJCGene2> toDistribution2(VDJCLibrary library,
+                                                                Map<String, Double> distMap,
+                                                                GeneType geneType1, GeneType geneType2) {
         List<Pair<VDJCGene2, Double>> ps = new ArrayList<>();
         for (Map.Entry<String, Double> e : distMap.entrySet()) {
-            String[] split = e.getKey().split("\\|");
+            String[] split = e.getKey().split("\\|", -1);
             if (split.length != 2)
                 throw new IllegalArgumentException("Wrong key format (expected single '|' symbol): " + e.getKey());
 
             ps.add(new Pair<>(new VDJCGene2(geneOrNull(library, split[0], geneType1),
                     geneOrNull(library, split[1], geneType2)), e.getValue()));
         }
-        return new EnumeratedDistribution<>(random, ps);
+        return new CategoricalSampler<>(ps);
     }
 
     public static final class VDJCGene2 {
@@ -64,12 +63,12 @@ public final class DJDependentVDJCGenesModel implements VDJCGenesModel {
     }
 
     @Override
-    public VDJCGenesGenerator create(RandomGenerator random, VDJCLibrary library) {
-        final EnumeratedDistribution<VDJCGene> vDist = toDistribution(random, library, v, GeneType.Variable);
-        final EnumeratedDistribution<VDJCGene2> djDist = toDistribution2(random, library, dj,
+    public VDJCGenesSampler compile(VDJCLibrary library) {
+        final CategoricalSampler<VDJCGene> vDist = toDistribution(library, v, GeneType.Variable);
+        final CategoricalSampler<VDJCGene2> djDist = toDistribution2(library, dj,
                 GeneType.Diversity, GeneType.Joining);
-        final EnumeratedDistribution<VDJCGene> cDist = toDistribution(random, library, c, GeneType.Constant);
-        return new VDJCGenesGenerator() {
+        final CategoricalSampler<VDJCGene> cDist = toDistribution(library, c, GeneType.Constant);
+        return new VDJCGenesSampler() {
             @Override
             public List<VDJCGene> genes(GeneType gt) {
                 switch (gt) {
@@ -86,18 +85,39 @@ public final class DJDependentVDJCGenesModel implements VDJCGenesModel {
             }
 
             @Override
-            public VDJCGenes sample() {
-                VDJCGene2 dj = djDist.sample();
-                return new VDJCGenes(vDist.sample(), dj.gene1, dj.gene2, cDist.sample());
+            public VDJCGenes sample(RandomGenerator random) {
+                VDJCGene2 dj = djDist.sample(random);
+                return new VDJCGenes(vDist.sample(random), dj.gene1, dj.gene2, cDist.sample(random));
+            }
+
+            @Override
+            public List<Pair<VDJCGenes, Double>> vdjDistribution(Set<VDJCGene> vGenes, Set<VDJCGene> jGenes) {
+                List<Pair<VDJCGenes, Double>> result = new ArrayList<>();
+                double[] pv = vDist.probabilities(), pdj = djDist.probabilities();
+                for (int v = 0; v < pv.length; v++)
+                    if (pv[v] > 0 && allowed(vDist.values().get(v), vGenes))
+                        for (int i = 0; i < pdj.length; i++) {
+                            VDJCGene2 dj = djDist.values().get(i);
+                            if (pdj[i] > 0 && dj != null && allowed(dj.gene2, jGenes))
+                                result.add(new Pair<>(new VDJCGenes(vDist.values().get(v), dj.gene1, dj.gene2,
+                                        null), pv[v] * pdj[i]));
+                        }
+                return result;
+            }
+
+            @Override
+            public VDJCGene sampleC(RandomGenerator random, VDJCGenes vdjGenes) {
+                return cDist.sample(random);
             }
         };
     }
 
-    public static List<VDJCGene> genes(EnumeratedDistribution<VDJCGene2> d, int index) {
+    public static List<VDJCGene> genes(CategoricalSampler<VDJCGene2> d, int index) {
         Set<VDJCGene> result = new HashSet<>();
-        for (Pair<VDJCGene2, Double> p : d.getPmf())
-            if (p.getFirst() != null)
-                result.add(p.getFirst().get(index));
+        for (VDJCGene2 genes : d.values())
+            // Absent genes (e.g. no D gene) are not included
+            if (genes != null && genes.get(index) != null)
+                result.add(genes.get(index));
         return new ArrayList<>(result);
     }
 }
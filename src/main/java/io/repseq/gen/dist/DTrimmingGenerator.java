@@ -1,7 +0,0 @@
-package io.repseq.gen.dist;
-
-import io.repseq.gen.DTrimming;
-
-public interface DTrimmingGenerator {
-    DTrimming sample();
-}
@@ -2,7 +2,6 @@ package io.repseq.gen.dist;
 
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import io.repseq.core.VDJCGene;
-import org.apache.commons.math3.random.RandomGenerator;
 
 @JsonSubTypes({
         @JsonSubTypes.Type(value = CommonNormalDTrimmingModel.class, name = "commonNormal"),
@@ -10,5 +9,5 @@ import org.apache.commons.math3.random.RandomGenerator;
         @JsonSubTypes.Type(value = SeparateCategoricalDGeneTrimmingModel.class, name = "separateCategorical")
 })
 public interface DTrimmingModel extends Model {
-    DTrimmingGenerator create(RandomGenerator random, VDJCGene gene);
+    DTrimmingSampler compile(VDJCGene gene);
 }
@@ -0,0 +1,16 @@
+package io.repseq.gen.dist;
+
+import io.repseq.gen.DTrimming;
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Compiled {@link DTrimmingModel} for a single gene. Implementations are immutable and can be shared between threads.
+ */
+public interface DTrimmingSampler {
+    DTrimming sample(RandomGenerator random);
+
+    /**
+     * Returns distribution of trimmings in explicit form
+     */
+    CategoricalSampler<DTrimming> distribution();
+}
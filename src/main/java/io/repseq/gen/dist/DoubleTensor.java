@@ -1,60 +1,352 @@
 package io.repseq.gen.dist;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
 /**
- * Arbitrary rank dense real-value (double) tensor
+ * Arbitrary rank dense real-value (double) tensor.
+ *
+ * Elements are stored in array with strides, so views (see {@link #slice(int, int)} and {@link #range(int, int,
+ * int)}) share data with the original tensor without copying. Accessors with fixed number of indices don't allocate
+ * arrays.
  */
 public final class DoubleTensor {
+    /**
+     * Minimal number of elements of a part of tensor summed in a separate task, see {@link #sum(ForkJoinPool)}
+     */
+    static final int PARALLEL_THRESHOLD = 1 << 16;
+    private static final int ADD = 0, DIVIDE = 1;
     final int[] dimensions;
+    /**
+     * Distance in data array between elements with adjacent indices, for each axis
+     */
+    final int[] strides;
+    final int offset;
     final double[] data;
+    /**
+     * Number of elements
+     */
+    final int size;
 
     public DoubleTensor(int... dimensions) {
+        this(dimensions.clone(), rowMajorStrides(dimensions), 0, new double[size(dimensions)]);
+    }
+
+    private DoubleTensor(int[] dimensions, int[] strides, int offset, double[] data) {
         this.dimensions = dimensions;
-        int dataLength = 1;
-        for (int d : dimensions)
-            dataLength *= d;
-        this.data = new double[dataLength];
+        this.strides = strides;
+        this.offset = offset;
+        this.data = data;
+        this.size = size(dimensions);
     }
 
     public int getDimension(int index) {
         return dimensions[index];
     }
 
+    public int rank() {
+        return dimensions.length;
+    }
+
+    /**
+     * Returns number of elements
+     */
+    public int size() {
+        return size;
+    }
+
     int idx(int... indices) {
-        return idx(dimensions, indices);
+        if (indices.length != dimensions.length)
+            throw new IllegalArgumentException("Wrong number of indices.");
+        int idx = offset;
+        for (int i = 0; i < dimensions.length; i++) {
+            if (indices[i] < 0 || indices[i] >= dimensions[i])
+                throw new IndexOutOfBoundsException();
+            idx += indices[i] * strides[i];
+        }
+        return idx;
     }
 
-    int[] invIdx(int idx) {
-        return invIdx(dimensions, idx);
+    private int idx(int i) {
+        checkRank(1);
+        checkIndex(i, 0);
+        return offset + i * strides[0];
     }
 
-    public void set(double value, int... indices) {
-        data[idx(indices)] = value;
+    private int idx(int i, int j) {
+        checkRank(2);
+        checkIndex(i, 0);
+        checkIndex(j, 1);
+        return offset + i * strides[0] + j * strides[1];
+    }
+
+    private int idx(int i, int j, int k) {
+        checkRank(3);
+        checkIndex(i, 0);
+        checkIndex(j, 1);
+        checkIndex(k, 2);
+        return offset + i * strides[0] + j * strides[1] + k * strides[2];
+    }
+
+    private void checkRank(int rank) {
+        if (dimensions.length != rank)
+            throw new IllegalArgumentException("Wrong number of indices.");
+    }
+
+    private void checkIndex(int index, int axis) {
+        // Single unsigned comparison, also rejects negative indices
+        if (index + Integer.MIN_VALUE >= dimensions[axis] + Integer.MIN_VALUE)
+            throw new IndexOutOfBoundsException();
+    }
+
+    public double get(int i) {
+        return data[idx(i)];
+    }
+
+    public double get(int i, int j) {
+        return data[idx(i, j)];
+    }
+
+    public double get(int i, int j, int k) {
+        return data[idx(i, j, k)];
     }
 
     public double get(int... indices) {
         return data[idx(indices)];
     }
 
+    public void set(double value, int i) {
+        data[idx(i)] = value;
+    }
+
+    public void set(double value, int i, int j) {
+        data[idx(i, j)] = value;
+    }
+
+    public void set(double value, int i, int j, int k) {
+        data[idx(i, j, k)] = value;
+    }
+
+    public void set(double value, int... indices) {
+        data[idx(indices)] = value;
+    }
+
+    public double add(double value, int i) {
+        return data[idx(i)] += value;
+    }
+
+    public double add(double value, int i, int j) {
+        return data[idx(i, j)] += value;
+    }
+
+    public double add(double value, int i, int j, int k) {
+        return data[idx(i, j, k)] += value;
+    }
+
     public double add(double value, int... indices) {
         return data[idx(indices)] += value;
     }
 
+    /**
+     * Adds values of the tensor with the same dimensions, element-wise
+     */
+    public void add(DoubleTensor other) {
+        combine(other, ADD);
+    }
+
     public double div(double divider, int... indices) {
         return data[idx(indices)] /= divider;
     }
 
     public void divAll(double divider) {
-        for (int i = 0; i < data.length; i++)
-            data[i] /= divider;
+        if (isContiguous())
+            for (int i = offset; i < offset + size; i++)
+                data[i] /= divider;
+        else if (dimensions.length == 1)
+            for (int i = 0; i < dimensions[0]; i++)
+                data[offset + i * strides[0]] /= divider;
+        else
+            for (int i = 0; i < dimensions[0]; i++)
+                slice(0, i).divAll(divider);
     }
 
     public double sum() {
         double sum = 0.0;
-        for (double d : data)
-            sum += d;
+        if (isContiguous())
+            for (int i = offset; i < offset + size; i++)
+                sum += data[i];
+        else if (dimensions.length == 1)
+            for (int i = 0; i < dimensions[0]; i++)
+                sum += data[offset + i * strides[0]];
+        else
+            for (int i = 0; i < dimensions[0]; i++)
+                sum += slice(0, i).sum();
         return sum;
     }
 
+    /**
+     * Computes sum of all elements in parallel, large tensors are split along the first axis
+     */
+    public double sum(ForkJoinPool pool) {
+        return pool.invoke(new SumTask(this));
+    }
+
+    /**
+     * Returns new tensor with sums along the axis (i.e. marginal over the axis), rank of result is less by one
+     */
+    public DoubleTensor sum(int axis) {
+        if (dimensions.length == 1)
+            throw new IllegalArgumentException("Use sum() for tensors of rank 1.");
+        DoubleTensor result = new DoubleTensor(without(dimensions, axis));
+        for (int i = 0; i < dimensions[axis]; i++)
+            result.add(slice(axis, i));
+        return result;
+    }
+
+    /**
+     * Divides all elements by their sum (if it is not zero)
+     */
+    public void normalize() {
+        double sum = sum();
+        if (sum != 0)
+            divAll(sum);
+    }
+
+    /**
+     * Divides elements by their sums along the axis (if they are not zero), e.g. joint distribution becomes
+     * conditional distribution of the axis given other indices
+     */
+    public void normalize(int axis) {
+        if (dimensions.length == 1) {
+            normalize();
+            return;
+        }
+        DoubleTensor sums = sum(axis);
+        for (int i = 0; i < dimensions[axis]; i++)
+            slice(axis, i).combine(sums, DIVIDE);
+    }
+
+    /**
+     * Returns view of elements with fixed index along the axis, rank of the view is less by one
+     */
+    public DoubleTensor slice(int axis, int index) {
+        if (dimensions.length == 1)
+            throw new IllegalArgumentException("Use get(int) for tensors of rank 1.");
+        if (index < 0 || index >= dimensions[axis])
+            throw new IndexOutOfBoundsException();
+        return new DoubleTensor(without(dimensions, axis), without(strides, axis),
+                offset + index * strides[axis], data);
+    }
+
+    /**
+     * Returns view of elements with indices along the axis from {@code from} (inclusive) to {@code to} (exclusive)
+     */
+    public DoubleTensor range(int axis, int from, int to) {
+        if (from < 0 || to > dimensions[axis] || from > to)
+            throw new IndexOutOfBoundsException();
+        int[] dimensions = this.dimensions.clone();
+        dimensions[axis] = to - from;
+        return new DoubleTensor(dimensions, strides, offset + from * strides[axis], data);
+    }
+
+    /**
+     * Returns new tensor with the same values, not sharing data with this tensor
+     */
+    public DoubleTensor copy() {
+        DoubleTensor result = new DoubleTensor(dimensions);
+        result.add(this);
+        return result;
+    }
+
+    /**
+     * Returns true if elements are stored in data array without gaps, in row-major order
+     */
+    boolean isContiguous() {
+        int stride = 1;
+        for (int i = dimensions.length - 1; i >= 0; i--) {
+            if (dimensions[i] != 1 && strides[i] != stride)
+                return false;
+            stride *= dimensions[i];
+        }
+        return true;
+    }
+
+    /**
+     * Applies element-wise operation with other tensor of the same dimensions to this tensor (zero dividers are
+     * skipped)
+     */
+    private void combine(DoubleTensor other, int operation) {
+        if (!Arrays.equals(dimensions, other.dimensions))
+            throw new IllegalArgumentException("Different dimensions.");
+        if (isContiguous() && other.isContiguous()) {
+            int shift = other.offset - offset;
+            for (int i = offset; i < offset + size; i++)
+                apply(operation, i, other.data[i + shift]);
+        } else
+            combine(other, operation, 0, offset, other.offset);
+    }
+
+    private void combine(DoubleTensor other, int operation, int axis, int position, int otherPosition) {
+        int n = dimensions[axis], stride = strides[axis], otherStride = other.strides[axis];
+        if (axis == dimensions.length - 1)
+            for (int i = 0; i < n; i++)
+                apply(operation, position + i * stride, other.data[otherPosition + i * otherStride]);
+        else
+            for (int i = 0; i < n; i++)
+                combine(other, operation, axis + 1, position + i * stride, otherPosition + i * otherStride);
+    }
+
+    private void apply(int operation, int position, double value) {
+        if (operation == ADD)
+            data[position] += value;
+        else if (value != 0)
+            data[position] /= value;
+    }
+
+    private static final class SumTask extends RecursiveTask<Double> {
+        final DoubleTensor tensor;
+
+        SumTask(DoubleTensor tensor) {
+            this.tensor = tensor;
+        }
+
+        @Override
+        protected Double compute() {
+            int n = tensor.dimensions[0];
+            if (tensor.size <= PARALLEL_THRESHOLD || n == 1)
+                return tensor.sum();
+            SumTask left = new SumTask(tensor.range(0, 0, n / 2));
+            left.fork();
+            double right = new SumTask(tensor.range(0, n / 2, n)).compute();
+            return left.join() + right;
+        }
+    }
+
+    private static int size(int[] dimensions) {
+        int size = 1;
+        for (int d : dimensions)
+            size *= d;
+        return size;
+    }
+
+    private static int[] rowMajorStrides(int[] dimensions) {
+        int[] strides = new int[dimensions.length];
+        int stride = 1;
+        for (int i = dimensions.length - 1; i >= 0; i--) {
+            strides[i] = stride;
+            stride *= dimensions[i];
+        }
+        return strides;
+    }
+
+    private static int[] without(int[] array, int index) {
+        int[] result = new int[array.length - 1];
+        System.arraycopy(array, 0, result, 0, index);
+        System.arraycopy(array, index + 1, result, index, result.length - index);
+        return result;
+    }
+
     static int idx(int[] dimensions, int[] indices) {
         if (indices.length != dimensions.length)
             throw new IllegalArgumentException("Wrong number of indices.");
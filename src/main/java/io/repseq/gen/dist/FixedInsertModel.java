@@ -4,9 +4,9 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.milaboratory.core.sequence.NucleotideSequence;
 import io.repseq.core.VDJCGene;
-import io.repseq.gen.GGene;
 import org.apache.commons.math3.random.RandomGenerator;
 
+import java.util.Arrays;
 import java.util.List;
 
 public final class FixedInsertModel implements InsertModel {
@@ -18,13 +18,42 @@ public final class FixedInsertModel implements InsertModel {
     }
 
     @Override
-    public InsertGenerator create(RandomGenerator random, boolean v, List<VDJCGene> vGenes, List<VDJCGene> dGenes,
-                                  List<VDJCGene> jGenes, List<VDJCGene> cGenes) {
-        return new InsertGenerator() {
+    public InsertSampler compile(boolean v, List<VDJCGene> vGenes, List<VDJCGene> dGenes,
+                                 List<VDJCGene> jGenes, List<VDJCGene> cGenes) {
+        return new InsertSampler() {
             @Override
-            public NucleotideSequence generate(GGene gene) {
+            public NucleotideSequence sample(RandomGenerator random, RearrangementAssembler rearrangement) {
                 return sequence;
             }
+
+            @Override
+            public CategoricalIntSampler lengthDistribution() {
+                return new CategoricalIntSampler(new int[]{sequence.size()}, new double[]{1.0});
+            }
+
+            @Override
+            public NucleotideSequence sample(RandomGenerator random, RearrangementAssembler rearrangement,
+                                             int length) {
+                if (sequence.size() != length)
+                    throw new IllegalArgumentException("Fixed insert " + sequence + " has length " +
+                            sequence.size() + ".");
+                return sequence;
+            }
+
+            @Override
+            public void matchProbabilities(byte[] pattern, int size, byte anchor, int maxLength, double[] result) {
+                int length = sequence.size();
+                Arrays.fill(result, 0, (size + 1) * (maxLength + 1), 0.0);
+                if (length > maxLength)
+                    return;
+                for (int from = 0; from + length <= size; from++) {
+                    boolean matches = true;
+                    for (int i = 0; i < length && matches; i++)
+                        matches = PgenCalculator.matches(sequence.codeAt(i), pattern[from + i]);
+                    if (matches)
+                        result[from * (maxLength + 1) + length] = 1.0;
+                }
+            }
         };
     }
 
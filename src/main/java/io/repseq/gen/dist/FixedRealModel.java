@@ -13,10 +13,10 @@ public final class FixedRealModel implements IndependentRealModel {
     }
 
     @Override
-    public IndependentRealGenerator create(RandomGenerator random) {
-        return new IndependentRealGenerator() {
+    public IndependentRealSampler compile() {
+        return new IndependentRealSampler() {
             @Override
-            public double generate() {
+            public double sample(RandomGenerator random) {
                 return value;
             }
         };
@@ -14,5 +14,17 @@ import org.apache.commons.math3.random.RandomGenerator;
 public interface GCloneModel {
     VDJCLibraryId libraryId();
 
+    /**
+     * Builds all sampling tables of the model. Returned object is immutable and can be shared between threads, use
+     * this method instead of {@link #create(RandomGenerator, VDJCLibraryRegistry)} to generate clones in parallel.
+     *
+     * @param registry registry to take library from
+     * @return compiled model
+     */
+    CompiledGCloneModel compile(VDJCLibraryRegistry registry);
+
+    /**
+     * Equivalent to {@code compile(registry).create(random)}.
+     */
     GCloneGenerator create(RandomGenerator random, VDJCLibraryRegistry registry);
 }
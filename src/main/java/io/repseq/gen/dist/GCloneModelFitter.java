@@ -0,0 +1,416 @@
+package io.repseq.gen.dist;
+
+import cc.redberry.pipe.OutputPort;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import io.repseq.core.Chains;
+import io.repseq.core.GeneType;
+import io.repseq.core.VDJCGene;
+import io.repseq.core.VDJCLibrary;
+import io.repseq.gen.GClone;
+import io.repseq.gen.GGene;
+import io.repseq.gen.VDJCGenes;
+import io.repseq.gen.VDJTrimming;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static io.repseq.util.ConcurrentUtils.await;
+
+/**
+ * Estimates parameters of {@link BasicGCloneModel} from annotated clones (genes, trimmings and inserts are known for
+ * each clone), by maximum likelihood, i.e. by normalized counts.
+ *
+ * Fitted model has the same structure as models in GCloneModels.json: V gene usage and joint usage of D, J and C
+ * genes ("v+djc"), separate categorical trimming distributions for each gene, V(D/J) insert generated by 5' Markov
+ * chain and DJ insert generated by 3' Markov chain, and Pareto distribution of clone abundances.
+ *
+ * Clones are counted in several threads, each thread accumulates counts in its own {@link Counts} (set of {@link
+ * DoubleTensor}s), and the counts are merged by parallel pairwise reduction.
+ */
+public final class GCloneModelFitter {
+    final VDJCLibrary library;
+    /**
+     * Range of trimmings (inclusive) and maximal length of inserts, determine dimensions of tensors
+     */
+    final int minTrimming, maxTrimming, maxInsertLength;
+    private final Map<String, ChainGenes> chains = new HashMap<>();
+
+    /**
+     * @param library         library of genes of clones
+     * @param minTrimming     minimal trimming (maximal number of deleted nucleotides with minus sign)
+     * @param maxTrimming     maximal trimming (maximal length of P-segment)
+     * @param maxInsertLength maximal length of inserts
+     */
+    public GCloneModelFitter(VDJCLibrary library, int minTrimming, int maxTrimming, int maxInsertLength) {
+        if (minTrimming > maxTrimming)
+            throw new IllegalArgumentException("Empty range of trimmings: " + minTrimming + ".." + maxTrimming);
+        this.library = library;
+        this.minTrimming = minTrimming;
+        this.maxTrimming = maxTrimming;
+        this.maxInsertLength = maxInsertLength;
+    }
+
+    /**
+     * Counts clones from the input and estimates the model
+     *
+     * @param input   clones, must be thread-safe if threads > 1
+     * @param threads number of threads
+     */
+    public BasicGCloneModel fit(OutputPort<GClone> input, int threads) {
+        return model(count(input, threads));
+    }
+
+    /**
+     * Counts clones from the input in several threads
+     *
+     * @param input   clones, must be thread-safe if threads > 1
+     * @param threads number of threads
+     */
+    public Counts count(final OutputPort<GClone> input, int threads) {
+        if (threads <= 1) {
+            Counts counts = new Counts();
+            GClone clone;
+            while ((clone = input.take()) != null)
+                counts.add(clone);
+            return counts;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Counts>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++)
+                futures.add(executor.submit(new Callable<Counts>() {
+                    @Override
+                    public Counts call() {
+                        Counts counts = new Counts();
+                        GClone clone;
+                        while ((clone = input.take()) != null)
+                            counts.add(clone);
+                        return counts;
+                    }
+                }));
+            List<Counts> counts = new ArrayList<>();
+            for (Future<Counts> future : futures)
+                counts.add(await(future));
+
+            // Pairwise reduction, merges of each round are independent
+            while (counts.size() > 1) {
+                final List<Counts> current = counts;
+                final int half = (current.size() + 1) / 2;
+                List<Future<Counts>> merges = new ArrayList<>();
+                for (int i = 0; i + half < current.size(); i++) {
+                    final int index = i;
+                    merges.add(executor.submit(new Callable<Counts>() {
+                        @Override
+                        public Counts call() {
+                            return current.get(index).merge(current.get(index + half));
+                        }
+                    }));
+                }
+                counts = new ArrayList<>();
+                for (Future<Counts> merge : merges)
+                    counts.add(await(merge));
+                if (current.size() % 2 == 1)
+                    counts.add(current.get(half - 1));
+            }
+            return counts.get(0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Estimates the model from counts
+     */
+    public BasicGCloneModel model(Counts counts) {
+        if (counts.clones == 0)
+            throw new IllegalArgumentException("No clones.");
+        Map<String, GGeneModel> geneModels = new LinkedHashMap<>();
+        for (Map.Entry<String, ChainCounts> e : new TreeMap<>(counts.chains).entrySet())
+            geneModels.put(e.getKey(), e.getValue().model());
+        IndependentRealModel abundanceModel = counts.minAbundance == counts.maxAbundance
+                ? new FixedRealModel(counts.minAbundance)
+                // Maximum likelihood estimate with xm = minimal abundance
+                : new ParetoModel(counts.minAbundance,
+                counts.clones / (counts.sumLogAbundance - counts.clones * Math.log(counts.minAbundance)));
+        return new BasicGCloneModel(library.getLibraryId(), abundanceModel, geneModels);
+    }
+
+    synchronized ChainGenes chainGenes(String chain) {
+        ChainGenes genes = chains.get(chain);
+        if (genes == null)
+            chains.put(chain, genes = new ChainGenes(chain));
+        return genes;
+    }
+
+    /**
+     * Genes of the chain, indexed for tensors. Immutable.
+     */
+    final class ChainGenes {
+        final List<VDJCGene> v, d, j, c;
+        final Map<VDJCGene, Integer> index = new IdentityHashMap<>();
+        final Map<VDJCGene, RearrangementAssembler.Germline> germlines;
+
+        ChainGenes(String chain) {
+            Chains chains = new Chains(chain);
+            v = genes(chains, GeneType.Variable);
+            d = genes(chains, GeneType.Diversity);
+            j = genes(chains, GeneType.Joining);
+            c = genes(chains, GeneType.Constant);
+            germlines = RearrangementAssembler.germlines(v, d, j);
+        }
+
+        private List<VDJCGene> genes(Chains chains, GeneType type) {
+            List<VDJCGene> genes = new ArrayList<>(library.getGenes(chains, type));
+            for (int i = 0; i < genes.size(); i++)
+                index.put(genes.get(i), i);
+            return genes;
+        }
+
+        int index(VDJCGene gene) {
+            Integer i = index.get(gene);
+            if (i == null)
+                throw new IllegalArgumentException("Gene " + gene.getName() + " is not from the library.");
+            return i;
+        }
+    }
+
+    /**
+     * Counts of clones and their parameters. Not thread-safe, each thread uses its own counts.
+     */
+    public final class Counts {
+        final Map<String, ChainCounts> chains = new HashMap<>();
+        long clones;
+        double minAbundance = Double.POSITIVE_INFINITY, maxAbundance = Double.NEGATIVE_INFINITY, sumLogAbundance;
+
+        /**
+         * Adds all genes of the clone and its abundance
+         */
+        public void add(GClone clone) {
+            ++clones;
+            minAbundance = Math.min(minAbundance, clone.abundance);
+            maxAbundance = Math.max(maxAbundance, clone.abundance);
+            sumLogAbundance += Math.log(clone.abundance);
+            for (Map.Entry<String, GGene> e : clone.genes.entrySet()) {
+                GGene gene = e.getValue();
+                add(e.getKey(), gene.vdjcGenes, gene.vdjTrimming, gene.vInsert, gene.djInsert);
+            }
+        }
+
+        /**
+         * Adds rearrangement of the chain
+         */
+        public void add(String chain, VDJCGenes genes, VDJTrimming trimming,
+                        NucleotideSequence vInsert, NucleotideSequence djInsert) {
+            ChainCounts counts = chains.get(chain);
+            if (counts == null)
+                chains.put(chain, counts = new ChainCounts(chainGenes(chain)));
+            counts.add(genes, trimming, vInsert, djInsert);
+        }
+
+        /**
+         * Adds other counts to these counts
+         *
+         * @return this
+         */
+        public Counts merge(Counts other) {
+            clones += other.clones;
+            minAbundance = Math.min(minAbundance, other.minAbundance);
+            maxAbundance = Math.max(maxAbundance, other.maxAbundance);
+            sumLogAbundance += other.sumLogAbundance;
+            for (Map.Entry<String, ChainCounts> e : other.chains.entrySet()) {
+                ChainCounts counts = chains.get(e.getKey());
+                if (counts == null)
+                    chains.put(e.getKey(), e.getValue());
+                else
+                    counts.merge(e.getValue());
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Counts for rearrangements of one chain
+     */
+    final class ChainCounts {
+        static final int NUCLEOTIDES = 4;
+        final ChainGenes genes;
+        final RearrangementAssembler assembler;
+        /**
+         * V genes and joint D, J and C genes (index 0 for absent D and C genes)
+         */
+        final DoubleTensor v, djc;
+        /**
+         * Trimmings by gene, [gene][trimming] for V and J and [gene][d5Trimming][d3Trimming] for D
+         */
+        final DoubleTensor vTrimming, dTrimming, jTrimming;
+        final DoubleTensor vInsertLength, djInsertLength;
+        /**
+         * Transitions of Markov chains, [from][to]
+         */
+        final DoubleTensor vInsertTransitions, djInsertTransitions;
+
+        ChainCounts(ChainGenes genes) {
+            this.genes = genes;
+            this.assembler = new RearrangementAssembler(genes.germlines);
+            int trimmings = maxTrimming - minTrimming + 1;
+            v = new DoubleTensor(genes.v.size());
+            djc = new DoubleTensor(genes.d.size() + 1, genes.j.size(), genes.c.size() + 1);
+            vTrimming = new DoubleTensor(genes.v.size(), trimmings);
+            dTrimming = new DoubleTensor(Math.max(genes.d.size(), 1), trimmings, trimmings);
+            jTrimming = new DoubleTensor(genes.j.size(), trimmings);
+            vInsertLength = new DoubleTensor(maxInsertLength + 1);
+            djInsertLength = new DoubleTensor(maxInsertLength + 1);
+            vInsertTransitions = new DoubleTensor(NUCLEOTIDES, NUCLEOTIDES);
+            djInsertTransitions = new DoubleTensor(NUCLEOTIDES, NUCLEOTIDES);
+        }
+
+        void add(VDJCGenes g, VDJTrimming trimming, NucleotideSequence vInsert, NucleotideSequence djInsert) {
+            if (g.v == null || g.j == null)
+                throw new IllegalArgumentException("V and J genes are required.");
+            int vi = genes.index(g.v), ji = genes.index(g.j);
+            int di = g.d == null ? -1 : genes.index(g.d), ci = g.c == null ? -1 : genes.index(g.c);
+            v.add(1, vi);
+            djc.add(1, di + 1, ji, ci + 1);
+            vTrimming.add(1, vi, trimming(trimming.vTrimming));
+            jTrimming.add(1, ji, trimming(trimming.jTrimming));
+            vInsertLength.add(1, insertLength(vInsert));
+
+            // Anchors of inserts are computed as by samplers, see MarkovInsertModel
+            assembler.reset(g, trimming);
+            transitions(vInsertTransitions, vInsert, true,
+                    assembler.letterAt(MarkovInsertModel.beginPoint(true, true)));
+            if (g.d != null) {
+                dTrimming.add(1, di, trimming(trimming.dTrimming.d5Trimming),
+                        trimming(trimming.dTrimming.d3Trimming));
+                djInsertLength.add(1, insertLength(djInsert));
+                transitions(djInsertTransitions, djInsert, false,
+                        assembler.letterAt(MarkovInsertModel.beginPoint(false, false)));
+            }
+        }
+
+        private int trimming(int trimming) {
+            if (trimming < minTrimming || trimming > maxTrimming)
+                throw new IllegalArgumentException("Trimming " + trimming + " is out of range " + minTrimming +
+                        ".." + maxTrimming + ".");
+            return trimming - minTrimming;
+        }
+
+        private int insertLength(NucleotideSequence insert) {
+            if (insert.size() > maxInsertLength)
+                throw new IllegalArgumentException("Insert " + insert + " is longer than " + maxInsertLength + ".");
+            return insert.size();
+        }
+
+        /**
+         * Counts transitions in the order of generation of insert (transitions from/to wildcards are skipped)
+         */
+        private void transitions(DoubleTensor transitions, NucleotideSequence insert, boolean fromLeft,
+                                 byte anchor) {
+            int previous = anchor;
+            for (int i = 0; i < insert.size(); i++) {
+                byte letter = insert.codeAt(fromLeft ? i : insert.size() - 1 - i);
+                if (previous < NUCLEOTIDES && letter < NUCLEOTIDES)
+                    transitions.add(1, previous, letter);
+                previous = letter;
+            }
+        }
+
+        void merge(ChainCounts other) {
+            v.add(other.v);
+            djc.add(other.djc);
+            vTrimming.add(other.vTrimming);
+            dTrimming.add(other.dTrimming);
+            jTrimming.add(other.jTrimming);
+            vInsertLength.add(other.vInsertLength);
+            djInsertLength.add(other.djInsertLength);
+            vInsertTransitions.add(other.vInsertTransitions);
+            djInsertTransitions.add(other.djInsertTransitions);
+        }
+
+        BasicGGeneModel model() {
+            Map<String, Double> vUsage = new LinkedHashMap<>(), djcUsage = new LinkedHashMap<>();
+            double total = v.sum();
+            for (int i = 0; i < genes.v.size(); i++)
+                if (v.get(i) != 0)
+                    vUsage.put(genes.v.get(i).getName(), v.get(i) / total);
+            boolean hasD = false;
+            for (int d = 0; d <= genes.d.size(); d++)
+                for (int j = 0; j < genes.j.size(); j++)
+                    for (int c = 0; c <= genes.c.size(); c++)
+                        if (djc.get(d, j, c) != 0) {
+                            hasD |= d != 0;
+                            djcUsage.put(name(genes.d, d - 1) + "|" + genes.j.get(j).getName() + "|" +
+                                    name(genes.c, c - 1), djc.get(d, j, c) / total);
+                        }
+
+            Map<String, Map<Integer, Double>> vTrimmings = trimmings(vTrimming, genes.v),
+                    jTrimmings = trimmings(jTrimming, genes.j);
+            Map<String, Map<String, Double>> dTrimmings = new LinkedHashMap<>();
+            for (int d = 0; d < genes.d.size(); d++) {
+                DoubleTensor counts = dTrimming.slice(0, d);
+                double sum = counts.sum();
+                if (sum == 0)
+                    continue;
+                Map<String, Double> distribution = new LinkedHashMap<>();
+                for (int t5 = 0; t5 < counts.getDimension(0); t5++)
+                    for (int t3 = 0; t3 < counts.getDimension(1); t3++)
+                        if (counts.get(t5, t3) != 0)
+                            distribution.put((t5 + minTrimming) + "|" + (t3 + minTrimming),
+                                    counts.get(t5, t3) / sum);
+                dTrimmings.put(genes.d.get(d).getName(), distribution);
+            }
+
+            return new BasicGGeneModel(
+                    new DJCDependentVDJCGenesModel(vUsage, djcUsage),
+                    new IndependentVDJTrimmingModel(
+                            new SeparateCategoricalGeneTrimmingModel(vTrimmings),
+                            hasD ? new SeparateCategoricalDGeneTrimmingModel(dTrimmings) : null,
+                            new SeparateCategoricalGeneTrimmingModel(jTrimmings)),
+                    new MarkovInsertModel.Model5(lengths(vInsertLength), transitions(vInsertTransitions)),
+                    hasD ? new MarkovInsertModel.Model3(lengths(djInsertLength), transitions(djInsertTransitions))
+                            : null);
+        }
+
+        private Map<String, Map<Integer, Double>> trimmings(DoubleTensor counts, List<VDJCGene> genes) {
+            Map<String, Map<Integer, Double>> result = new LinkedHashMap<>();
+            for (int g = 0; g < genes.size(); g++) {
+                DoubleTensor geneCounts = counts.slice(0, g);
+                double sum = geneCounts.sum();
+                if (sum == 0)
+                    continue;
+                Map<Integer, Double> distribution = new LinkedHashMap<>();
+                for (int t = 0; t < geneCounts.getDimension(0); t++)
+                    if (geneCounts.get(t) != 0)
+                        distribution.put(t + minTrimming, geneCounts.get(t) / sum);
+                result.put(genes.get(g).getName(), distribution);
+            }
+            return result;
+        }
+
+        private IndependentIntModel lengths(DoubleTensor counts) {
+            Map<Integer, Double> distribution = new LinkedHashMap<>();
+            double sum = counts.sum();
+            for (int l = 0; l < counts.getDimension(0); l++)
+                if (counts.get(l) != 0)
+                    distribution.put(l, counts.get(l) / sum);
+            return new CategoricalIndependentIntModel(distribution);
+        }
+
+        private Map<String, Double> transitions(DoubleTensor counts) {
+            Map<String, Double> distribution = new LinkedHashMap<>();
+            for (int from = 0; from < NUCLEOTIDES; from++) {
+                double sum = counts.slice(0, from).sum();
+                for (int to = 0; to < NUCLEOTIDES; to++)
+                    // Uniform distribution for letters never preceding inserted nucleotides
+                    distribution.put(NucleotideSequence.ALPHABET.codeToSymbol((byte) from) + ">" +
+                                    NucleotideSequence.ALPHABET.codeToSymbol((byte) to),
+                            sum == 0 ? 1.0 / NUCLEOTIDES : counts.get(from, to) / sum);
+            }
+            return distribution;
+        }
+
+        private String name(List<VDJCGene> genes, int index) {
+            return index < 0 ? "" : genes.get(index).getName();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package io.repseq.gen.dist;
+
+import com.milaboratory.core.sequence.AminoAcidSequence;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import io.repseq.core.GeneFeature;
+import io.repseq.core.VDJCGene;
+import io.repseq.gen.GGene;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Constraint on sampled genes, see {@link GGeneSampler#sample(org.apache.commons.math3.random.RandomGenerator,
+ * GGeneConstraint)}. Immutable.
+ */
+public final class GGeneConstraint {
+    /**
+     * Only genes with CDR3 length multiple of three
+     */
+    public final boolean inFrame;
+    /**
+     * Only genes without stop codons in CDR3 (requires inFrame)
+     */
+    public final boolean noStops;
+    /**
+     * Allowed V and J genes, given by gene names (e.g. TRBV12-3*01), gene names without allele (TRBV12-3) or family
+     * names (TRBV12); null for any gene
+     */
+    public final Set<String> vGenes, jGenes;
+    /**
+     * Range of CDR3 lengths in nucleotides, inclusive
+     */
+    public final int minCDR3Length, maxCDR3Length;
+
+    public GGeneConstraint(boolean inFrame, boolean noStops) {
+        this(inFrame, noStops, null, null, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param inFrame       only genes with CDR3 length multiple of three
+     * @param noStops       only genes without stop codons in CDR3 (requires inFrame)
+     * @param vGenes        allowed V genes (names, gene names or family names), null for any gene
+     * @param jGenes        allowed J genes (names, gene names or family names), null for any gene
+     * @param minCDR3Length minimal length of CDR3 in nucleotides
+     * @param maxCDR3Length maximal length of CDR3 in nucleotides
+     */
+    public GGeneConstraint(boolean inFrame, boolean noStops, Set<String> vGenes, Set<String> jGenes,
+                           int minCDR3Length, int maxCDR3Length) {
+        if (noStops && !inFrame)
+            throw new IllegalArgumentException("No-stops constraint is supported only for in-frame genes.");
+        if (minCDR3Length > maxCDR3Length)
+            throw new IllegalArgumentException("Empty range of CDR3 lengths: " + minCDR3Length + ".." + maxCDR3Length);
+        this.inFrame = inFrame;
+        this.noStops = noStops;
+        this.vGenes = vGenes == null ? null : Collections.unmodifiableSet(new HashSet<>(vGenes));
+        this.jGenes = jGenes == null ? null : Collections.unmodifiableSet(new HashSet<>(jGenes));
+        this.minCDR3Length = minCDR3Length;
+        this.maxCDR3Length = maxCDR3Length;
+    }
+
+    /**
+     * Returns true if the constraint restricts genes or CDR3 length (in addition to in-frame / no-stops)
+     */
+    public boolean isTargeted() {
+        return vGenes != null || jGenes != null || isLengthRestricted();
+    }
+
+    private boolean isLengthRestricted() {
+        return minCDR3Length > 0 || maxCDR3Length != Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns true if V gene is allowed by the constraint
+     */
+    public boolean acceptV(VDJCGene gene) {
+        return matches(vGenes, gene);
+    }
+
+    /**
+     * Returns true if J gene is allowed by the constraint
+     */
+    public boolean acceptJ(VDJCGene gene) {
+        return matches(jGenes, gene);
+    }
+
+    /**
+     * Returns true if CDR3 of the specified length is allowed by the constraint (stop codons are not checked)
+     */
+    public boolean acceptCDR3Length(int length) {
+        return length >= minCDR3Length && length <= maxCDR3Length && (!inFrame || length % 3 == 0);
+    }
+
+    static boolean matches(Set<String> names, VDJCGene gene) {
+        return names == null || gene != null && (names.contains(gene.getName())
+                || names.contains(gene.getGeneName()) || names.contains(gene.getFamilyName()));
+    }
+
+    /**
+     * Returns true if gene satisfies the constraint. Conditional sampling produces the same distribution as
+     * rejection of unconstrained samples with this method.
+     */
+    public boolean accept(GGene gene) {
+        if (!acceptV(gene.vdjcGenes.v) || !acceptJ(gene.vdjcGenes.j))
+            return false;
+        if (!inFrame && !isLengthRestricted())
+            return true;
+        NucleotideSequence cdr3 = gene.getFeature(GeneFeature.CDR3);
+        if (cdr3 == null || !acceptCDR3Length(cdr3.size()))
+            return false;
+        return !noStops || !AminoAcidSequence.translateFromCenter(cdr3).containStops();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof GGeneConstraint)) return false;
+
+        GGeneConstraint that = (GGeneConstraint) o;
+
+        if (inFrame != that.inFrame) return false;
+        if (noStops != that.noStops) return false;
+        if (minCDR3Length != that.minCDR3Length) return false;
+        if (maxCDR3Length != that.maxCDR3Length) return false;
+        if (vGenes != null ? !vGenes.equals(that.vGenes) : that.vGenes != null) return false;
+        return jGenes != null ? jGenes.equals(that.jGenes) : that.jGenes == null;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (inFrame ? 1 : 0);
+        result = 31 * result + (noStops ? 1 : 0);
+        result = 31 * result + (vGenes != null ? vGenes.hashCode() : 0);
+        result = 31 * result + (jGenes != null ? jGenes.hashCode() : 0);
+        result = 31 * result + minCDR3Length;
+        result = 31 * result + maxCDR3Length;
+        return result;
+    }
+}
@@ -1,7 +0,0 @@
-package io.repseq.gen.dist;
-
-import io.repseq.gen.GGene;
-
-public interface GGeneGenerator {
-    GGene generate();
-}
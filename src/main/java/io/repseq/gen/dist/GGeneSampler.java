@@ -0,0 +1,22 @@
+package io.repseq.gen.dist;
+
+import io.repseq.gen.GGene;
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Compiled {@link GGeneModel}. Implementations are immutable and can be shared between threads.
+ */
+public interface GGeneSampler {
+    GGene sample(RandomGenerator random);
+
+    /**
+     * Samples gene from the conditional distribution of genes satisfying the constraint, i.e. from the same
+     * distribution as {@link #sample(RandomGenerator)} followed by rejection of genes not accepted by {@link
+     * GGeneConstraint#accept(GGene)}.
+     *
+     * @param random     source of random data
+     * @param constraint constraint, null for unconstrained sampling
+     * @return gene satisfying the constraint
+     */
+    GGene sample(RandomGenerator random, GGeneConstraint constraint);
+}
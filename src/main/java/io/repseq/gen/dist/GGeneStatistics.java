@@ -0,0 +1,312 @@
+package io.repseq.gen.dist;
+
+import io.repseq.core.GeneType;
+import io.repseq.core.ReferencePoint;
+import io.repseq.core.VDJCGene;
+import io.repseq.gen.DTrimming;
+import io.repseq.gen.VDJCGenes;
+import org.apache.commons.math3.util.Pair;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static io.repseq.util.ConcurrentUtils.await;
+
+/**
+ * Exact marginal distributions of genes sampled from {@link BasicGGeneModel}: usage of V, D and J genes and
+ * distribution of CDR3 length, computed without sampling.
+ *
+ * CDR3 length is the sum of lengths of V gene part, V(D/J) insert, D gene part, DJ insert and J gene part, which are
+ * independent given genes, so its distribution is a convolution of their distributions. Distributions of inserts
+ * are convolved once, and each combination of D and J genes is processed in a separate task. Genes with total
+ * length of CDR3 parts below one (heavily trimmed genes) have no CDR3, as {@link io.repseq.gen.GGene} can't be
+ * assembled for negative lengths and has empty CDR3 for zero length, so this part of the distribution is accounted as
+ * probability of genes without CDR3. Immutable.
+ */
+public final class GGeneStatistics {
+    private final Map<GeneType, Map<VDJCGene, Double>> usage;
+    /**
+     * Probabilities of CDR3 lengths, starting from {@link #minCDR3Length}
+     */
+    private final double[] cdr3Lengths;
+    private final int minCDR3Length;
+    /**
+     * Probability of genes without CDR3 (V or J gene without CDR3 anchor points, or CDR3 length below one)
+     */
+    private final double noCDR3;
+
+    GGeneStatistics(VDJCGenesSampler vdjcGenesSampler, VDJTrimmingSampler trimmingSampler,
+                    InsertSampler vInsertSampler, InsertSampler djInsertSampler,
+                    final Map<VDJCGene, RearrangementAssembler.Germline> germlines, int threads) {
+        List<Pair<VDJCGenes, Double>> distribution = vdjcGenesSampler.vdjDistribution(null, null);
+
+        // Gene usage
+        Map<GeneType, Map<VDJCGene, Double>> usage = new EnumMap<>(GeneType.class);
+        for (GeneType type : Arrays.asList(GeneType.Variable, GeneType.Diversity, GeneType.Joining))
+            usage.put(type, new LinkedHashMap<VDJCGene, Double>());
+        for (Pair<VDJCGenes, Double> p : distribution) {
+            add(usage.get(GeneType.Variable), p.getFirst().v, p.getSecond());
+            if (p.getFirst().d != null)
+                add(usage.get(GeneType.Diversity), p.getFirst().d, p.getSecond());
+            add(usage.get(GeneType.Joining), p.getFirst().j, p.getSecond());
+        }
+        for (Map.Entry<GeneType, Map<VDJCGene, Double>> e : usage.entrySet())
+            e.setValue(Collections.unmodifiableMap(e.getValue()));
+        this.usage = Collections.unmodifiableMap(usage);
+
+        // Distributions of lengths of gene parts and inserts
+        Map<VDJCGene, Distribution> parts = new IdentityHashMap<>();
+        for (Pair<VDJCGenes, Double> p : distribution) {
+            VDJCGenes genes = p.getFirst();
+            if (!parts.containsKey(genes.v))
+                parts.put(genes.v, vPart(germlines.get(genes.v), trimmingSampler.vTrimming(genes.v)));
+            if (genes.d != null && !parts.containsKey(genes.d))
+                parts.put(genes.d, dPart(germlines.get(genes.d), trimmingSampler.dTrimming(genes.d)));
+            if (!parts.containsKey(genes.j))
+                parts.put(genes.j, jPart(germlines.get(genes.j), trimmingSampler.jTrimming(genes.j)));
+        }
+        Distribution vInsert = insert(vInsertSampler);
+        Distribution vdjInserts = djInsertSampler == null ? null : vInsert.convolve(insert(djInsertSampler));
+
+        // V genes with weights grouped by D and J genes
+        final Map<VDJCGene, Map<VDJCGene, Map<VDJCGene, Double>>> groups = new LinkedHashMap<>();
+        double noCDR3 = 0;
+        for (Pair<VDJCGenes, Double> p : distribution) {
+            VDJCGenes genes = p.getFirst();
+            if (parts.get(genes.v) == null || parts.get(genes.j) == null) {
+                noCDR3 += p.getSecond();
+                continue;
+            }
+            Map<VDJCGene, Map<VDJCGene, Double>> byJ = groups.get(genes.d);
+            if (byJ == null)
+                groups.put(genes.d, byJ = new LinkedHashMap<>());
+            Map<VDJCGene, Double> vs = byJ.get(genes.j);
+            if (vs == null)
+                byJ.put(genes.j, vs = new LinkedHashMap<>());
+            add(vs, genes.v, p.getSecond());
+        }
+
+        List<Callable<Distribution>> tasks = new ArrayList<>();
+        for (Map.Entry<VDJCGene, Map<VDJCGene, Map<VDJCGene, Double>>> byD : groups.entrySet())
+            for (Map.Entry<VDJCGene, Map<VDJCGene, Double>> byJ : byD.getValue().entrySet())
+                tasks.add(new GroupTask(byD.getKey() == null ? vInsert : vdjInserts, parts, byD.getKey(),
+                        byJ.getKey(), byJ.getValue()));
+        Distribution cdr3 = Distribution.ZERO;
+        for (Distribution d : execute(tasks, threads))
+            cdr3 = cdr3.add(d);
+
+        // Non-positive lengths (and zero probabilities before the first positive length) are cut off
+        int from = Math.max(0, 1 - cdr3.min);
+        for (int i = 0; i < Math.min(from, cdr3.probabilities.length); i++)
+            noCDR3 += cdr3.probabilities[i];
+        while (from < cdr3.probabilities.length && cdr3.probabilities[from] == 0)
+            from++;
+        this.noCDR3 = noCDR3;
+        this.cdr3Lengths = from >= cdr3.probabilities.length
+                ? new double[0]
+                : Arrays.copyOfRange(cdr3.probabilities, from, cdr3.probabilities.length);
+        this.minCDR3Length = Math.max(1, cdr3.min + from);
+    }
+
+    /**
+     * Returns probabilities of genes of specified type (V, D or J), in the order of genes in the model
+     */
+    public Map<VDJCGene, Double> usage(GeneType geneType) {
+        Map<VDJCGene, Double> result = usage.get(geneType);
+        if (result == null)
+            throw new IllegalArgumentException("No usage for " + geneType);
+        return result;
+    }
+
+    /**
+     * Returns minimal CDR3 length in nucleotides with non-zero probability (at least one)
+     */
+    public int getMinCDR3Length() {
+        return minCDR3Length;
+    }
+
+    /**
+     * Returns maximal CDR3 length in nucleotides with non-zero probability
+     */
+    public int getMaxCDR3Length() {
+        return minCDR3Length + cdr3Lengths.length - 1;
+    }
+
+    /**
+     * Returns probability of CDR3 with length in nucleotides
+     */
+    public double cdr3LengthProbability(int length) {
+        int index = length - minCDR3Length;
+        return index < 0 || index >= cdr3Lengths.length ? 0.0 : cdr3Lengths[index];
+    }
+
+    /**
+     * Returns probability of CDR3 with length multiple of three (genes without CDR3 are not in-frame)
+     */
+    public double inFrameProbability() {
+        double sum = 0;
+        for (int length = getMinCDR3Length(); length <= getMaxCDR3Length(); length++)
+            if (length % 3 == 0)
+                sum += cdr3LengthProbability(length);
+        return sum;
+    }
+
+    /**
+     * Returns probability of genes without CDR3 (V or J genes without CDR3 anchor points, or CDR3 trimmed completely,
+     * i.e. with total length of CDR3 parts below one)
+     */
+    public double noCDR3Probability() {
+        return noCDR3;
+    }
+
+    private static <K> void add(Map<K, Double> map, K key, double value) {
+        Double v = map.get(key);
+        map.put(key, v == null ? value : v + value);
+    }
+
+    private static <T> List<T> execute(List<Callable<T>> tasks, int threads) {
+        List<T> result = new ArrayList<>();
+        if (threads <= 1 || tasks.size() <= 1) {
+            for (Callable<T> task : tasks)
+                try {
+                    result.add(task.call());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            return result;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, tasks.size()));
+        try {
+            List<Future<T>> futures = new ArrayList<>(tasks.size());
+            for (Callable<T> task : tasks)
+                futures.add(executor.submit(task));
+            for (Future<T> future : futures)
+                result.add(await(future));
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    /**
+     * CDR3 lengths for the combination of D (or no D) and J genes, with all V genes
+     */
+    private static final class GroupTask implements Callable<Distribution> {
+        final Distribution inserts;
+        final Map<VDJCGene, Distribution> parts;
+        final VDJCGene d, j;
+        final Map<VDJCGene, Double> vs;
+
+        GroupTask(Distribution inserts, Map<VDJCGene, Distribution> parts, VDJCGene d, VDJCGene j,
+                  Map<VDJCGene, Double> vs) {
+            this.inserts = inserts;
+            this.parts = parts;
+            this.d = d;
+            this.j = j;
+            this.vs = vs;
+        }
+
+        @Override
+        public Distribution call() {
+            Distribution rest = inserts.convolve(parts.get(j));
+            if (d != null)
+                rest = rest.convolve(parts.get(d));
+            // Weighted sum of V part distributions is convolved once
+            Distribution v = Distribution.ZERO;
+            for (Map.Entry<VDJCGene, Double> e : vs.entrySet())
+                v = v.add(parts.get(e.getKey()).multiply(e.getValue()));
+            return v.convolve(rest);
+        }
+    }
+
+    private static Distribution vPart(RearrangementAssembler.Germline germline, CategoricalIntSampler trimmings) {
+        int cdr3Begin = germline.position(ReferencePoint.CDR3Begin), vEnd = germline.position(ReferencePoint.VEnd);
+        if (cdr3Begin < 0 || vEnd < 0)
+            return null;
+        return Distribution.of(trimmings.values(), trimmings.probabilities(), vEnd - cdr3Begin);
+    }
+
+    private static Distribution jPart(RearrangementAssembler.Germline germline, CategoricalIntSampler trimmings) {
+        int jBegin = germline.position(ReferencePoint.JBegin), cdr3End = germline.position(ReferencePoint.CDR3End);
+        if (jBegin < 0 || cdr3End < 0)
+            return null;
+        return Distribution.of(trimmings.values(), trimmings.probabilities(), cdr3End - jBegin);
+    }
+
+    private static Distribution dPart(RearrangementAssembler.Germline germline,
+                                      CategoricalSampler<DTrimming> trimmings) {
+        List<DTrimming> values = trimmings.values();
+        int[] lengths = new int[values.size()];
+        for (int i = 0; i < lengths.length; i++)
+            lengths[i] = germline.dPartLength(values.get(i));
+        return Distribution.of(lengths, trimmings.probabilities(), 0);
+    }
+
+    private static Distribution insert(InsertSampler sampler) {
+        CategoricalIntSampler distribution = sampler.lengthDistribution();
+        return Distribution.of(distribution.values(), distribution.probabilities(), 0);
+    }
+
+    /**
+     * Distribution (or measure) on integers with finite support. Immutable.
+     */
+    static final class Distribution {
+        static final Distribution ZERO = new Distribution(0, new double[0]);
+        final int min;
+        final double[] probabilities;
+
+        Distribution(int min, double[] probabilities) {
+            this.min = min;
+            this.probabilities = probabilities;
+        }
+
+        static Distribution of(int[] values, double[] probabilities, int shift) {
+            int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+            for (int i = 0; i < values.length; i++)
+                if (probabilities[i] > 0) {
+                    min = Math.min(min, values[i]);
+                    max = Math.max(max, values[i]);
+                }
+            if (min > max)
+                return ZERO;
+            double[] result = new double[max - min + 1];
+            for (int i = 0; i < values.length; i++)
+                if (probabilities[i] > 0)
+                    result[values[i] - min] += probabilities[i];
+            return new Distribution(min + shift, result);
+        }
+
+        Distribution convolve(Distribution other) {
+            if (probabilities.length == 0 || other.probabilities.length == 0)
+                return ZERO;
+            double[] result = new double[probabilities.length + other.probabilities.length - 1];
+            for (int i = 0; i < probabilities.length; i++)
+                if (probabilities[i] != 0)
+                    for (int k = 0; k < other.probabilities.length; k++)
+                        result[i + k] += probabilities[i] * other.probabilities[k];
+            return new Distribution(min + other.min, result);
+        }
+
+        Distribution add(Distribution other) {
+            if (probabilities.length == 0)
+                return other;
+            if (other.probabilities.length == 0)
+                return this;
+            int min = Math.min(this.min, other.min),
+                    max = Math.max(this.min + probabilities.length, other.min + other.probabilities.length);
+            double[] result = new double[max - min];
+            for (int i = 0; i < probabilities.length; i++)
+                result[this.min - min + i] += probabilities[i];
+            for (int i = 0; i < other.probabilities.length; i++)
+                result[other.min - min + i] += other.probabilities[i];
+            return new Distribution(min, result);
+        }
+
+        Distribution multiply(double factor) {
+            double[] result = new double[probabilities.length];
+            for (int i = 0; i < result.length; i++)
+                result[i] = factor * probabilities[i];
+            return new Distribution(min, result);
+        }
+    }
+}
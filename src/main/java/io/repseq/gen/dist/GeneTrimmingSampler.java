@@ -0,0 +1,16 @@
+package io.repseq.gen.dist;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Compiled {@link GeneTrimmingModel} for a single gene. Implementations are immutable and can be shared between
+ * threads.
+ */
+public interface GeneTrimmingSampler {
+    int sample(RandomGenerator random);
+
+    /**
+     * Returns distribution of trimmings in explicit form
+     */
+    CategoricalIntSampler distribution();
+}
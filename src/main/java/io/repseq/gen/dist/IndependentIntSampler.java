@@ -0,0 +1,15 @@
+package io.repseq.gen.dist;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Compiled {@link IndependentIntModel}. Implementations are immutable and can be shared between threads.
+ */
+public interface IndependentIntSampler {
+    int sample(RandomGenerator random);
+
+    /**
+     * Returns distribution in explicit form
+     */
+    CategoricalIntSampler distribution();
+}
@@ -1,5 +0,0 @@
-package io.repseq.gen.dist;
-
-public interface IndependentRealGenerator {
-    double generate();
-}
@@ -1,7 +1,6 @@
 package io.repseq.gen.dist;
 
 import com.fasterxml.jackson.annotation.JsonSubTypes;
-import org.apache.commons.math3.random.RandomGenerator;
 
 /**
  * Independent real value distribution.
@@ -11,5 +10,5 @@ import org.apache.commons.math3.random.RandomGenerator;
         @JsonSubTypes.Type(value = FixedRealModel.class, name = "fixed")
 })
 public interface IndependentRealModel extends Model {
-    IndependentRealGenerator create(RandomGenerator random);
+    IndependentRealSampler compile();
 }
\ No newline at end of file
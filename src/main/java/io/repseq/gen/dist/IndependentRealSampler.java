@@ -0,0 +1,10 @@
+package io.repseq.gen.dist;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Compiled {@link IndependentRealModel}. Implementations are immutable and can be shared between threads.
+ */
+public interface IndependentRealSampler {
+    double sample(RandomGenerator random);
+}
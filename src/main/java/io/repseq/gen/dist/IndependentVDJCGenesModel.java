@@ -5,7 +5,6 @@ import io.repseq.core.GeneType;
 import io.repseq.core.VDJCGene;
 import io.repseq.core.VDJCLibrary;
 import io.repseq.gen.VDJCGenes;
-import org.apache.commons.math3.distribution.EnumeratedDistribution;
 import org.apache.commons.math3.random.RandomGenerator;
 import org.apache.commons.math3.util.Pair;
 
@@ -37,32 +36,42 @@ public final class IndependentVDJCGenesModel implements VDJCGenesModel {
         }
     }
 
-    public static EnumeratedDistribution<VDJCGene> toDistribution(RandomGenerator random, VDJCLibrary library,
-                                                                  Map<String, Double> distMap, GeneType geneType) {
+    public static CategoricalSampler<VDJCGene> toDistribution(VDJCLibrary library,
+                                                              Map<String, Double> distMap, GeneType geneType) {
         List<Pair<VDJCGene, Double>> ps = new ArrayList<>();
         if (distMap == null)
             ps.add(new Pair<VDJCGene, Double>(null, 1.0));
         else
             for (Map.Entry<String, Double> e : distMap.entrySet())
                 ps.add(new Pair<>(geneOrNull(library, e.getKey(), geneType), e.getValue()));
-        return new EnumeratedDistribution<>(random, ps);
+        return new CategoricalSampler<>(ps);
     }
 
-    public static List<VDJCGene> genes(EnumeratedDistribution<VDJCGene> d) {
+    /**
+     * Returns true if gene is defined and is one of allowed genes
+     *
+     * @param gene    gene
+     * @param allowed allowed genes, null for any gene
+     */
+    static boolean allowed(VDJCGene gene, Set<VDJCGene> allowed) {
+        return gene != null && (allowed == null || allowed.contains(gene));
+    }
+
+    public static List<VDJCGene> genes(CategoricalSampler<VDJCGene> d) {
         List<VDJCGene> result = new ArrayList<>();
-        for (Pair<VDJCGene, Double> p : d.getPmf())
-            if (p.getFirst() != null)
-                result.add(p.getFirst());
+        for (VDJCGene gene : d.values())
+            if (gene != null)
+                result.add(gene);
         return result;
     }
 
     @Override
-    public VDJCGenesGenerator create(RandomGenerator random, VDJCLibrary library) {
-        final EnumeratedDistribution<VDJCGene> vDist = toDistribution(random, library, v, GeneType.Variable);
-        final EnumeratedDistribution<VDJCGene> dDist = toDistribution(random, library, d, GeneType.Diversity);
-        final EnumeratedDistribution<VDJCGene> jDist = toDistribution(random, library, j, GeneType.Joining);
-        final EnumeratedDistribution<VDJCGene> cDist = toDistribution(random, library, c, GeneType.Constant);
-        return new VDJCGenesGenerator() {
+    public VDJCGenesSampler compile(VDJCLibrary library) {
+        final CategoricalSampler<VDJCGene> vDist = toDistribution(library, v, GeneType.Variable);
+        final CategoricalSampler<VDJCGene> dDist = toDistribution(library, d, GeneType.Diversity);
+        final CategoricalSampler<VDJCGene> jDist = toDistribution(library, j, GeneType.Joining);
+        final CategoricalSampler<VDJCGene> cDist = toDistribution(library, c, GeneType.Constant);
+        return new VDJCGenesSampler() {
             @Override
             public List<VDJCGene> genes(GeneType gt) {
                 switch (gt) {
@@ -79,8 +88,30 @@ public final class IndependentVDJCGenesModel implements VDJCGenesModel {
             }
 
             @Override
-            public VDJCGenes sample() {
-                return new VDJCGenes(vDist.sample(), dDist.sample(), jDist.sample(), cDist.sample());
+            public VDJCGenes sample(RandomGenerator random) {
+                return new VDJCGenes(vDist.sample(random), dDist.sample(random), jDist.sample(random),
+                        cDist.sample(random));
+            }
+
+            @Override
+            public List<Pair<VDJCGenes, Double>> vdjDistribution(Set<VDJCGene> vGenes, Set<VDJCGene> jGenes) {
+                List<Pair<VDJCGenes, Double>> result = new ArrayList<>();
+                double[] pv = vDist.probabilities(), pd = dDist.probabilities(), pj = jDist.probabilities();
+                for (int v = 0; v < pv.length; v++)
+                    if (pv[v] > 0 && allowed(vDist.values().get(v), vGenes))
+                        for (int d = 0; d < pd.length; d++)
+                            if (pd[d] > 0)
+                                for (int j = 0; j < pj.length; j++)
+                                    if (pj[j] > 0 && allowed(jDist.values().get(j), jGenes))
+                                        result.add(new Pair<>(new VDJCGenes(vDist.values().get(v),
+                                                dDist.values().get(d), jDist.values().get(j), null),
+                                                pv[v] * pd[d] * pj[j]));
+                return result;
+            }
+
+            @Override
+            public VDJCGene sampleC(RandomGenerator random, VDJCGenes vdjGenes) {
+                return cDist.sample(random);
             }
         };
     }
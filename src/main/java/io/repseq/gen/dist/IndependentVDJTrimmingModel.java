@@ -3,6 +3,7 @@ package io.repseq.gen.dist;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.repseq.core.VDJCGene;
+import io.repseq.gen.DTrimming;
 import io.repseq.gen.VDJCGenes;
 import io.repseq.gen.VDJTrimming;
 import org.apache.commons.math3.random.RandomGenerator;
@@ -26,30 +27,45 @@ public final class IndependentVDJTrimmingModel implements VDJTrimmingModel {
     }
 
     @Override
-    public VDJTrimmingGenerator create(RandomGenerator random, List<VDJCGene> vGenes, List<VDJCGene> dGenes, List<VDJCGene> jGenes, List<VDJCGene> cGenes) {
-        final Map<VDJCGene, GeneTrimmingGenerator> vGenerators = new HashMap<>();
-        final Map<VDJCGene, DTrimmingGenerator> dGenerators = new HashMap<>();
-        final Map<VDJCGene, GeneTrimmingGenerator> jGenerators = new HashMap<>();
+    public VDJTrimmingSampler compile(List<VDJCGene> vGenes, List<VDJCGene> dGenes, List<VDJCGene> jGenes, List<VDJCGene> cGenes) {
+        final Map<VDJCGene, GeneTrimmingSampler> vSamplers = new HashMap<>();
+        final Map<VDJCGene, DTrimmingSampler> dSamplers = new HashMap<>();
+        final Map<VDJCGene, GeneTrimmingSampler> jSamplers = new HashMap<>();
 
         for (VDJCGene gene : vGenes)
-            vGenerators.put(gene, v.create(random, gene));
+            vSamplers.put(gene, v.compile(gene));
 
         for (VDJCGene gene : dGenes)
-            dGenerators.put(gene, d.create(random, gene));
+            dSamplers.put(gene, d.compile(gene));
 
         for (VDJCGene gene : jGenes)
-            jGenerators.put(gene, j.create(random, gene));
+            jSamplers.put(gene, j.compile(gene));
 
-        return new VDJTrimmingGenerator() {
+        return new VDJTrimmingSampler() {
             @Override
-            public VDJTrimming sample(VDJCGenes genes) {
+            public VDJTrimming sample(RandomGenerator random, VDJCGenes genes) {
                 if (genes.d == null)
                     return new VDJTrimming(
-                            vGenerators.get(genes.v).sample(), jGenerators.get(genes.j).sample());
+                            vSamplers.get(genes.v).sample(random), jSamplers.get(genes.j).sample(random));
                 else
                     return new VDJTrimming(
-                            vGenerators.get(genes.v).sample(), jGenerators.get(genes.j).sample(),
-                            dGenerators.get(genes.d).sample());
+                            vSamplers.get(genes.v).sample(random), jSamplers.get(genes.j).sample(random),
+                            dSamplers.get(genes.d).sample(random));
+            }
+
+            @Override
+            public CategoricalIntSampler vTrimming(VDJCGene v) {
+                return vSamplers.get(v).distribution();
+            }
+
+            @Override
+            public CategoricalSampler<DTrimming> dTrimming(VDJCGene d) {
+                return dSamplers.get(d).distribution();
+            }
+
+            @Override
+            public CategoricalIntSampler jTrimming(VDJCGene j) {
+                return jSamplers.get(j).distribution();
             }
         };
     }
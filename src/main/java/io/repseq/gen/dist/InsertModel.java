@@ -2,7 +2,6 @@ package io.repseq.gen.dist;
 
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import io.repseq.core.VDJCGene;
-import org.apache.commons.math3.random.RandomGenerator;
 
 import java.util.List;
 
@@ -13,13 +12,12 @@ import java.util.List;
 })
 public interface InsertModel extends Model {
     /**
-     * Initialize insert generator
+     * Initialize insert sampler
      *
-     * @param random source of random data
-     * @param v      {@literal true} for V(J/D) insert, {@literal false} for DJ insert
-     * @return insert generator
+     * @param v {@literal true} for V(J/D) insert, {@literal false} for DJ insert
+     * @return insert sampler
      */
-    InsertGenerator create(RandomGenerator random, boolean v,
-                           List<VDJCGene> vGenes, List<VDJCGene> dGenes,
-                           List<VDJCGene> jGenes, List<VDJCGene> cGenes);
+    InsertSampler compile(boolean v,
+                          List<VDJCGene> vGenes, List<VDJCGene> dGenes,
+                          List<VDJCGene> jGenes, List<VDJCGene> cGenes);
 }
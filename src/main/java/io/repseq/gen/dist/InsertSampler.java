@@ -0,0 +1,51 @@
+package io.repseq.gen.dist;
+
+import com.milaboratory.core.sequence.NucleotideSequence;
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Compiled {@link InsertModel}. Implementations are immutable and can be shared between threads.
+ */
+public interface InsertSampler {
+    /**
+     * Generates insert, using information on genes and trimmings of the rearrangement being sampled.
+     *
+     * @param random        source of random data
+     * @param rearrangement rearrangement being sampled (genes and trimmings are already set)
+     * @return insert
+     */
+    NucleotideSequence sample(RandomGenerator random, RearrangementAssembler rearrangement);
+
+    /**
+     * Returns distribution of insert lengths in explicit form
+     */
+    CategoricalIntSampler lengthDistribution();
+
+    /**
+     * Generates insert of specified length, i.e. from the conditional distribution of inserts given their length
+     *
+     * @param random        source of random data
+     * @param rearrangement rearrangement being sampled (genes and trimmings are already set)
+     * @param length        length of insert
+     * @return insert
+     * @throws IllegalArgumentException if inserts of such length have zero probability
+     */
+    NucleotideSequence sample(RandomGenerator random, RearrangementAssembler rearrangement, int length);
+
+    /**
+     * Computes probabilities of inserts to match fragments of a pattern, for computation of generation probabilities
+     * (see {@link PgenCalculator}).
+     *
+     * @param pattern   allowed nucleotides for each position of the pattern, nucleotide with code {@code c} is
+     *                  allowed if bit {@code 1 << c} is set
+     * @param size      number of positions in the pattern
+     * @param anchor    code of the nucleotide of the rearrangement the insert is generated from (i.e. {@link
+     *                  RearrangementAssembler#letterAt(io.repseq.core.ReferencePoint)} for its begin point)
+     * @param maxLength maximal length of inserts
+     * @param result    output array of at least {@code (size + 1) * (maxLength + 1)} elements, element {@code from *
+     *                  (maxLength + 1) + length} is set to the probability that insert of given length matches
+     *                  pattern positions from {@code from} to {@code from + length} (probability of the length
+     *                  itself is not included), or to 0 if the fragment exceeds the pattern
+     */
+    void matchProbabilities(byte[] pattern, int size, byte anchor, int maxLength, double[] result);
+}
@@ -2,20 +2,16 @@ package io.repseq.gen.dist;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.milaboratory.core.Range;
-import com.milaboratory.core.sequence.NucleotideAlphabet;
 import com.milaboratory.core.sequence.NucleotideSequence;
 import com.milaboratory.core.sequence.SequenceBuilder;
-import com.milaboratory.util.ArraysUtils;
 import io.repseq.core.ReferencePoint;
-import io.repseq.core.SequencePartitioning;
 import io.repseq.core.VDJCGene;
-import io.repseq.gen.GGene;
-import org.apache.commons.math3.distribution.EnumeratedDistribution;
+import io.repseq.gen.VDJCGenes;
 import org.apache.commons.math3.random.RandomGenerator;
-import org.apache.commons.math3.util.Pair;
 
-import java.util.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 public abstract class MarkovInsertModel implements InsertModel {
     public final IndependentIntModel lengthDistribution;
@@ -35,7 +31,7 @@ public abstract class MarkovInsertModel implements InsertModel {
         this.fromLeft = fromLeft;
     }
 
-    private static ReferencePoint beginPoint(boolean fromLeft, boolean v) {
+    static ReferencePoint beginPoint(boolean fromLeft, boolean v) {
         if (fromLeft)
             if (v)
                 return ReferencePoint.VEndTrimmed;
@@ -49,10 +45,12 @@ public abstract class MarkovInsertModel implements InsertModel {
     }
 
     @Override
-    public InsertGenerator create(RandomGenerator random, final boolean v,
-                                  List<VDJCGene> vGenes, List<VDJCGene> dGenes,
-                                  List<VDJCGene> jGenes, List<VDJCGene> cGenes) {
-        Map<Byte, List<Pair<Byte, Double>>> distParams = new HashMap<>();
+    public InsertSampler compile(final boolean v,
+                                 List<VDJCGene> vGenes, List<VDJCGene> dGenes,
+                                 List<VDJCGene> jGenes, List<VDJCGene> cGenes) {
+        final int size = NucleotideSequence.ALPHABET.basicSize();
+        double[][] weights = new double[size][size];
+        boolean[] defined = new boolean[size];
         for (Map.Entry<String, Double> s : distribution.entrySet()) {
             String[] split = s.getKey().split(">");
             if (split.length != 2 || split[0].length() != 1 || split[1].length() != 1)
@@ -60,41 +58,103 @@ public abstract class MarkovInsertModel implements InsertModel {
                         "Expected something like \"A>C\"");
             byte codeFrom = NucleotideSequence.ALPHABET.symbolToCode(split[0].charAt(0));
             byte codeTo = NucleotideSequence.ALPHABET.symbolToCode(split[1].charAt(0));
-            if (codeFrom == -1 || codeTo == -1)
+            if (codeFrom < 0 || codeFrom >= size || codeTo < 0 || codeTo >= size)
                 throw new IllegalArgumentException("Illegal nucleotide in: " + s.getKey() + ".");
-            List<Pair<Byte, Double>> pairs = distParams.get(codeFrom);
-            if (pairs == null)
-                distParams.put(codeFrom, pairs = new ArrayList<>());
-            pairs.add(new Pair<>(codeTo, s.getValue()));
+            weights[codeFrom][codeTo] = s.getValue();
+            defined[codeFrom] = true;
         }
-        final Map<Byte, EnumeratedDistribution<Byte>> dists = new HashMap<>();
-        for (byte from = 0; from < NucleotideSequence.ALPHABET.basicSize(); from++) {
-            List<Pair<Byte, Double>> d = distParams.get(from);
-            if (d == null)
+        // Transition tables indexed by previous nucleotide, category index is the code of the next nucleotide
+        final AliasTable[] transitions = new AliasTable[size];
+        // Normalized transition probabilities [previous nucleotide][next nucleotide]
+        final double[][] probabilities = new double[size][];
+        for (byte from = 0; from < size; from++) {
+            if (!defined[from])
                 throw new IllegalArgumentException("No distribution for letter: " +
                         NucleotideSequence.ALPHABET.codeToSymbol(from));
-            dists.put(from, new EnumeratedDistribution<>(random, d));
+            transitions[from] = new AliasTable(weights[from]);
+            probabilities[from] = CategoricalSampler.normalize(weights[from]);
         }
-        final IndependentIntGenerator lengthDist = lengthDistribution.create(random);
-        return new InsertGenerator() {
+        final IndependentIntSampler lengthDist = lengthDistribution.compile();
+        final ReferencePoint beginPoint = beginPoint(fromLeft, v);
+        return new InsertSampler() {
             @Override
-            public NucleotideSequence generate(GGene gene) {
-                ReferencePoint point = beginPoint(fromLeft, v);
-                int pointPosition = gene.getPartitioning().getPosition(point);
-                if (pointPosition == -1)
-                    throw new RuntimeException("Point " + point + " is not available for gene " + gene);
-                byte letter = gene.getSequence(new Range(pointPosition, pointPosition + 1)).codeAt(0);
-                int length = lengthDist.sample();
-                byte[] array = new byte[length];
-                for (int i = 0; i < length; i++) {
-                    byte cLetter = dists.get(letter).sample();
-                    array[i] = cLetter;
-                    letter = cLetter;
+            public NucleotideSequence sample(RandomGenerator random, RearrangementAssembler rearrangement) {
+                byte letter = anchor(rearrangement);
+                return generate(random, letter, lengthDist.sample(random));
+            }
+
+            @Override
+            public CategoricalIntSampler lengthDistribution() {
+                return lengthDist.distribution();
+            }
+
+            @Override
+            public NucleotideSequence sample(RandomGenerator random, RearrangementAssembler rearrangement,
+                                             int length) {
+                if (length < 0)
+                    throw new IllegalArgumentException("Negative insert length: " + length + ".");
+                byte letter = anchor(rearrangement);
+                return generate(random, letter, length);
+            }
+
+            @Override
+            public void matchProbabilities(byte[] pattern, int patternSize, byte anchor, int maxLength, double[] result) {
+                int stride = maxLength + 1;
+                Arrays.fill(result, 0, (patternSize + 1) * stride, 0.0);
+                // Forward algorithm over the letters of insert in the order of generation, starting from anchor
+                double[] current = new double[size], next = new double[size];
+                for (int start = 0; start <= patternSize; start++) {
+                    Arrays.fill(current, 0.0);
+                    current[anchor] = 1.0;
+                    int from = fromLeft ? start : start - 1, step = fromLeft ? 1 : -1;
+                    result[start * stride] = 1.0;
+                    for (int length = 1; length <= maxLength; length++) {
+                        int position = from + step * (length - 1);
+                        if (position < 0 || position >= patternSize)
+                            break;
+                        int mask = pattern[position];
+                        double sum = 0;
+                        for (int to = 0; to < size; to++) {
+                            double p = 0;
+                            if ((mask & 1 << to) != 0)
+                                for (int prev = 0; prev < size; prev++)
+                                    p += current[prev] * probabilities[prev][to];
+                            next[to] = p;
+                            sum += p;
+                        }
+                        double[] t = current;
+                        current = next;
+                        next = t;
+                        // Fragment [start, start + length) for 5' model and [start - length, start) for 3' model
+                        result[(fromLeft ? start : start - length) * stride + length] = sum;
+                    }
+                }
+            }
+
+            private byte anchor(RearrangementAssembler rearrangement) {
+                byte letter = rearrangement.letterAt(beginPoint);
+                if (letter >= size) {
+                    VDJCGenes genes = rearrangement.genes();
+                    throw new RuntimeException("Ambiguous nucleotide at " + beginPoint + " of rearrangement with " +
+                            (genes.d == null ? "" : genes.d.getName() + " and ") + genes.j.getName() + ".");
+                }
+                return letter;
+            }
+
+            private NucleotideSequence generate(RandomGenerator random, byte letter, int length) {
+                SequenceBuilder<NucleotideSequence> builder = NucleotideSequence.ALPHABET.createBuilder()
+                        .ensureCapacity(length);
+                if (fromLeft)
+                    for (int i = 0; i < length; i++)
+                        builder.append(letter = (byte) transitions[letter].sample(random));
+                else {
+                    // Insert is generated from right to left
+                    for (int i = 0; i < length; i++)
+                        builder.append((byte) 0);
+                    for (int i = length - 1; i >= 0; i--)
+                        builder.set(i, letter = (byte) transitions[letter].sample(random));
                 }
-                if (!fromLeft)
-                    ArraysUtils.reverse(array);
-                return NucleotideSequence.ALPHABET
-                        .createBuilder().ensureCapacity(length).append(array).createAndDestroy();
+                return builder.createAndDestroy();
             }
         };
     }
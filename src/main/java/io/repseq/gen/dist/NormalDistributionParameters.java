@@ -3,8 +3,6 @@ package io.repseq.gen.dist;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import org.apache.commons.math3.distribution.EnumeratedIntegerDistribution;
-import org.apache.commons.math3.random.RandomGenerator;
 
 @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.PUBLIC_ONLY,
         isGetterVisibility = JsonAutoDetect.Visibility.NONE,
@@ -22,15 +20,15 @@ public final class NormalDistributionParameters {
     /**
      * Both boundaries are inclusive.
      */
-    public EnumeratedIntegerDistribution truncatedDistribution(RandomGenerator random, int from, int to) {
+    public CategoricalIntSampler truncatedDistribution(int from, int to) {
         int count = to - from + 1;
         int[] values = new int[count];
-        double[] weights = new double[count]; // ~ probability, will be normalized in distribution constructor
+        double[] weights = new double[count]; // ~ probability, will be normalized in sampler constructor
         for (int i = 0, t = from; i < count; i++, t++) {
             values[i] = t;
             weights[i] = Math.exp(-(t - mu) * (t - mu) / (2 * sigma * sigma));
         }
-        return new EnumeratedIntegerDistribution(random, values, weights);
+        return new CategoricalIntSampler(values, weights);
     }
 
     @Override
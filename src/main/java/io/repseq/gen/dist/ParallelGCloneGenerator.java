@@ -0,0 +1,161 @@
+package io.repseq.gen.dist;
+
+import io.repseq.core.VDJCLibraryRegistry;
+import io.repseq.gen.GClone;
+import io.repseq.gen.GRepertoireWriter;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static io.repseq.util.ConcurrentUtils.*;
+
+/**
+ * Generates clones from a model in several threads.
+ *
+ * Clones are generated in blocks of fixed size, each block is sampled from its own random stream, seeded with a
+ * value derived from the global seed and block index. So the output is the same for a given seed regardless of the
+ * number of threads. Blocks are serialized by worker threads and written in order by a dedicated writer thread.
+ */
+public final class ParallelGCloneGenerator {
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    final CompiledGCloneModel model;
+    final long seed;
+    final int threads, blockSize;
+    final GGeneConstraint constraint;
+    final CloneFilter filter;
+    /**
+     * Per-thread random generators (model is shared by all threads, random is re-seeded for each block)
+     */
+    private final ThreadLocal<RandomGenerator> randoms = new ThreadLocal<RandomGenerator>() {
+        @Override
+        protected RandomGenerator initialValue() {
+            return new Well19937c();
+        }
+    };
+
+    public ParallelGCloneGenerator(GCloneModel model, VDJCLibraryRegistry registry, long seed, int threads) {
+        this(model, registry, seed, threads, DEFAULT_BLOCK_SIZE, null);
+    }
+
+    public ParallelGCloneGenerator(GCloneModel model, VDJCLibraryRegistry registry, long seed,
+                                   int threads, int blockSize, CloneFilter filter) {
+        this(model.compile(registry), seed, threads, blockSize, filter);
+    }
+
+    /**
+     * @param model     compiled clone model
+     * @param seed      random seed
+     * @param threads   number of generating threads
+     * @param blockSize number of clones in a block (output depends on this value)
+     * @param filter    only clones accepted by filter will be output (null to output all clones)
+     */
+    public ParallelGCloneGenerator(CompiledGCloneModel model, long seed,
+                                   int threads, int blockSize, CloneFilter filter) {
+        this(model, seed, threads, blockSize, null, filter);
+    }
+
+    /**
+     * @param model      compiled clone model
+     * @param seed       random seed
+     * @param threads    number of generating threads
+     * @param blockSize  number of clones in a block (output depends on this value)
+     * @param constraint constraint for genes of generated clones, applied by conditional sampling (null for
+     *                   unconstrained sampling)
+     * @param filter     only clones accepted by filter will be output (null to output all clones)
+     */
+    public ParallelGCloneGenerator(CompiledGCloneModel model, long seed, int threads, int blockSize,
+                                   GGeneConstraint constraint, CloneFilter filter) {
+        if (threads < 1 || blockSize < 1)
+            throw new IllegalArgumentException();
+        this.model = model;
+        this.seed = seed;
+        this.threads = threads;
+        this.blockSize = blockSize;
+        this.constraint = constraint;
+        this.filter = filter;
+    }
+
+    /**
+     * Returns seed of random stream for the block
+     */
+    public static long blockSeed(long seed, long block) {
+        // SplitMix64 finalizer, so seeds of adjacent blocks are not correlated
+        long z = seed + (block + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Generates clones of a single block
+     *
+     * @param block block index
+     * @param size  number of clones
+     * @return clones
+     */
+    public List<GClone> generateBlock(long block, int size) {
+        RandomGenerator random = randoms.get();
+        random.setSeed(blockSeed(seed, block));
+        List<GClone> clones = new ArrayList<>(size);
+        while (clones.size() < size) {
+            GClone clone = model.sample(random, constraint);
+            if (filter == null || filter.accept(clone))
+                clones.add(clone);
+        }
+        return clones;
+    }
+
+    /**
+     * Generates clones and writes them to the writer
+     *
+     * @param numberOfClones number of clones
+     * @param writer         output
+     */
+    public void generate(long numberOfClones, final GRepertoireWriter writer) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new NamedThreadFactory("clone-generator-"));
+        ExecutorService writerThread = Executors.newSingleThreadExecutor(new NamedThreadFactory("clone-writer-"));
+        // Limits number of blocks kept in memory
+        ArrayDeque<Future<?>> pending = new ArrayDeque<>();
+        try {
+            long blocks = (numberOfClones + blockSize - 1) / blockSize;
+            for (long b = 0; b < blocks; ++b) {
+                final long block = b;
+                final int size = (int) Math.min(blockSize, numberOfClones - b * blockSize);
+                final Future<byte[]> encoded = workers.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return writer.encode(generateBlock(block, size));
+                    }
+                });
+                // Single writer thread executes tasks in submission order
+                pending.add(writerThread.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        writer.writeEncoded(encoded.get());
+                        return null;
+                    }
+                }));
+                if (pending.size() > 2 * threads)
+                    awaitIO(pending.poll());
+            }
+            while (!pending.isEmpty())
+                awaitIO(pending.poll());
+        } finally {
+            workers.shutdownNow();
+            writerThread.shutdownNow();
+        }
+    }
+
+    public interface CloneFilter {
+        boolean accept(GClone clone);
+    }
+}
@@ -2,8 +2,8 @@ package io.repseq.gen.dist;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import org.apache.commons.math3.distribution.ParetoDistribution;
 import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.util.FastMath;
 
 public final class ParetoModel implements IndependentRealModel {
     public final double xm, alpha;
@@ -15,12 +15,15 @@ public final class ParetoModel implements IndependentRealModel {
     }
 
     @Override
-    public IndependentRealGenerator create(RandomGenerator random) {
-        final ParetoDistribution dist = new ParetoDistribution(random, xm, alpha);
-        return new IndependentRealGenerator() {
+    public IndependentRealSampler compile() {
+        if (xm <= 0 || alpha <= 0)
+            throw new IllegalArgumentException("Pareto parameters must be positive: xm = " + xm + ", alpha = " + alpha);
+        final double inverseAlpha = 1.0 / alpha;
+        return new IndependentRealSampler() {
             @Override
-            public double generate() {
-                return dist.sample();
+            public double sample(RandomGenerator random) {
+                // Inverse transform sampling, same as ParetoDistribution.sample()
+                return xm / FastMath.pow(random.nextDouble(), inverseAlpha);
             }
         };
     }
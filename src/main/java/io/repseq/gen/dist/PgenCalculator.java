@@ -0,0 +1,717 @@
+package io.repseq.gen.dist;
+
+import com.milaboratory.core.sequence.AminoAcidSequence;
+import com.milaboratory.core.sequence.GeneticCode;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import io.repseq.core.ReferencePoint;
+import io.repseq.core.VDJCGene;
+import io.repseq.gen.DTrimming;
+import io.repseq.gen.VDJCGenes;
+import org.apache.commons.math3.util.Pair;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static io.repseq.util.ConcurrentUtils.await;
+
+/**
+ * Computes generation probability (Pgen) of CDR3 for {@link BasicGGeneModel}, i.e. probability that gene sampled
+ * from the model has specified nucleotide CDR3, or CDR3 encoding specified amino acid sequence, optionally with
+ * restricted V and J genes.
+ *
+ * Probability is computed exactly by dynamic programming over positions of junctions in CDR3, from J gene to V
+ * gene: DJ insert, D gene part, V(D/J) insert and V gene part. Germline CDR3 parts of genes are computed in advance
+ * for all trimmings, and probabilities of inserts are computed once per query for all positions. Amino acid CDR3 is
+ * split into several patterns of allowed nucleotides (codons of each amino acid are a union of at most two such
+ * patterns), and probabilities of the patterns are summed.
+ *
+ * Like {@link TargetedGGeneSampler}, requires trimmings independent given genes, and insert lengths independent of
+ * genes and trimmings. Immutable, can be shared between threads.
+ */
+public final class PgenCalculator {
+    /**
+     * Mask of the pattern position with any allowed nucleotide
+     */
+    static final byte ANY = 0xF;
+
+    final InsertSampler vInsertSampler, djInsertSampler;
+    final double[] vLengths, djLengths;
+    final Segment[] vSegments, dSegments, jSegments;
+    /**
+     * V genes, grouped by D and J genes
+     */
+    final Group[] groups;
+    /**
+     * Maximal distances from CDR3 boundaries to the ends of V and J gene parts, for trimmings removing CDR3 parts of
+     * genes completely
+     */
+    final int leftMargin, rightMargin;
+    private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace();
+        }
+    };
+
+    PgenCalculator(VDJCGenesSampler vdjcGenesSampler, VDJTrimmingSampler trimmingSampler,
+                   InsertSampler vInsertSampler, InsertSampler djInsertSampler,
+                   Map<VDJCGene, RearrangementAssembler.Germline> germlines) {
+        this.vInsertSampler = vInsertSampler;
+        this.djInsertSampler = djInsertSampler;
+        this.vLengths = lengthProbabilities(vInsertSampler);
+        this.djLengths = djInsertSampler == null ? null : lengthProbabilities(djInsertSampler);
+
+        Map<VDJCGene, Segment> vs = new IdentityHashMap<>(), ds = new IdentityHashMap<>(), js = new IdentityHashMap<>();
+        Map<VDJCGene, Map<VDJCGene, Group>> groups = new IdentityHashMap<>();
+        List<Group> groupList = new ArrayList<>();
+        for (Pair<VDJCGenes, Double> p : vdjcGenesSampler.vdjDistribution(null, null)) {
+            VDJCGenes genes = p.getFirst();
+            Segment v = vs.get(genes.v);
+            if (v == null)
+                vs.put(genes.v, v = vSegment(vs.size(), germlines.get(genes.v),
+                        trimmingSampler.vTrimming(genes.v)));
+            Segment j = js.get(genes.j);
+            if (j == null)
+                js.put(genes.j, j = jSegment(js.size(), germlines.get(genes.j),
+                        trimmingSampler.jTrimming(genes.j)));
+            Segment d = null;
+            if (genes.d != null) {
+                if (djInsertSampler == null)
+                    throw new IllegalArgumentException("No model for DJ insert.");
+                d = ds.get(genes.d);
+                if (d == null)
+                    ds.put(genes.d, d = dSegment(ds.size(), germlines.get(genes.d),
+                            trimmingSampler.dTrimming(genes.d)));
+            }
+            // Genes without CDR3 never produce it
+            if (v == null || j == null)
+                continue;
+
+            Map<VDJCGene, Group> byJ = groups.get(genes.d);
+            if (byJ == null)
+                groups.put(genes.d, byJ = new IdentityHashMap<>());
+            Group group = byJ.get(genes.j);
+            if (group == null) {
+                byJ.put(genes.j, group = new Group(d, j));
+                groupList.add(group);
+            }
+            group.vs.add(v);
+            group.weights.add(p.getSecond());
+        }
+        this.vSegments = toArray(vs);
+        this.dSegments = toArray(ds);
+        this.jSegments = toArray(js);
+        this.groups = groupList.toArray(new Group[groupList.size()]);
+
+        int leftMargin = 0, rightMargin = 0;
+        for (Segment v : vSegments)
+            leftMargin = Math.max(leftMargin, -v.minLength);
+        for (Segment j : jSegments)
+            rightMargin = Math.max(rightMargin, -j.minLength);
+        this.leftMargin = leftMargin;
+        this.rightMargin = rightMargin;
+    }
+
+    /**
+     * Returns Pgen of nucleotide CDR3
+     */
+    public double pgen(NucleotideSequence cdr3) {
+        return pgen(new Query(cdr3, null, null));
+    }
+
+    /**
+     * Returns Pgen of amino acid CDR3, i.e. sum of Pgen of all encoding nucleotide sequences
+     */
+    public double pgen(AminoAcidSequence cdr3) {
+        return pgen(new Query(cdr3, null, null));
+    }
+
+    /**
+     * Returns Pgen of CDR3 together with V and J genes
+     */
+    public double pgen(Query query) {
+        Workspace w = workspaces.get();
+        w.setGenes(query.vGenes, query.jGenes);
+        if (query.nucleotides != null) {
+            NucleotideSequence cdr3 = query.nucleotides;
+            byte[] pattern = w.query(cdr3.size());
+            for (int i = 0; i < cdr3.size(); i++)
+                pattern[i] = (byte) NucleotideSequence.ALPHABET.codeToWildcard(cdr3.codeAt(i)).getBasicMask();
+            return compute(w, cdr3.size());
+        }
+        return aminoAcidPgen(w, query.aminoAcids, 0, w.query(3 * query.aminoAcids.size()));
+    }
+
+    /**
+     * Computes Pgen of queries in several threads
+     *
+     * @param queries queries
+     * @param threads number of threads
+     * @return Pgen for each query
+     */
+    public double[] pgen(final List<Query> queries, int threads) {
+        final double[] result = new double[queries.size()];
+        if (threads <= 1) {
+            for (int i = 0; i < result.length; i++)
+                result[i] = pgen(queries.get(i));
+            return result;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // Several chunks per thread for load balancing
+            int chunk = Math.max(1, (queries.size() + 4 * threads - 1) / (4 * threads));
+            List<Future<?>> futures = new ArrayList<>();
+            for (int from = 0; from < result.length; from += chunk) {
+                final int f = from, t = Math.min(result.length, from + chunk);
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = f; i < t; i++)
+                            result[i] = pgen(queries.get(i));
+                    }
+                }));
+            }
+            for (Future<?> future : futures)
+                await(future);
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    /**
+     * Sums Pgen of patterns of nucleotides encoding amino acid sequence (patterns for amino acids starting from
+     * {@code from} are enumerated recursively)
+     */
+    private double aminoAcidPgen(Workspace w, AminoAcidSequence cdr3, int from, byte[] pattern) {
+        if (from == cdr3.size())
+            return compute(w, 3 * from);
+        double sum = 0;
+        for (byte[] codons : codonPatterns(cdr3.codeAt(from))) {
+            System.arraycopy(codons, 0, pattern, 3 * from, 3);
+            sum += aminoAcidPgen(w, cdr3, from + 1, pattern);
+        }
+        return sum;
+    }
+
+    /**
+     * Computes Pgen of the pattern in {@link Workspace#query}
+     *
+     * @param w      workspace with the query pattern and allowed genes
+     * @param length length of CDR3
+     */
+    private double compute(Workspace w, int length) {
+        w.reset(length);
+        double pgen = 0;
+        for (Group group : groups) {
+            if (!w.jAllowed[group.j.index])
+                continue;
+            boolean any = false;
+            for (Segment v : group.vs)
+                any |= w.vAllowed[v.index];
+            if (!any)
+                continue;
+
+            w.startGroup();
+            if (group.d == null)
+                vjJunctions(w, group.j);
+            else
+                vdjJunctions(w, group.d, group.j);
+
+            for (int i = 0; i < group.vs.size(); i++) {
+                Segment v = group.vs.get(i);
+                if (!w.vAllowed[v.index])
+                    continue;
+                int[] ends = w.vEnds(v);
+                double[] probabilities = w.vProbabilities[v.index];
+                double sum = 0;
+                for (int k = 0; k < w.vCount[v.index]; k++)
+                    sum += probabilities[k] * w.vJunctions(ends[k]);
+                pgen += group.weights.get(i) * sum;
+            }
+        }
+        return pgen;
+    }
+
+    /**
+     * Probabilities of V insert and J gene part starting at each position, for VJ rearrangement
+     */
+    private void vjJunctions(Workspace w, Segment j) {
+        int stride = vLengths.length;
+        double[] result = w.vdj;
+        int[] starts = w.jStarts(j);
+        for (int k = 0; k < w.jCount[j.index]; k++) {
+            int trimming = w.jTrimmings[j.index][k], e = starts[k];
+            byte anchor = j.first[trimming];
+            double[] inserts = w.vInserts(anchor);
+            double p = j.probabilities[trimming];
+            for (int length = 0; length < stride && length <= e; length++)
+                result[e - length] += p * vLengths[length] * inserts[(e - length) * stride + length];
+        }
+        w.vdjComputed = true;
+    }
+
+    /**
+     * Probabilities of D gene part and the rest of CDR3 starting at each position (by the anchor letter of V(D/J)
+     * insert), for VDJ rearrangement
+     */
+    private void vdjJunctions(Workspace w, Segment d, Segment j) {
+        double[][] dj = w.djJunctions(j);
+        double[] djSum = w.djSum[j.index];
+        double[][] result = w.d;
+        int size = w.size;
+        boolean[][] matches = w.dMatches(d);
+        for (int trimming = 0; trimming < d.lengths.length; trimming++) {
+            int length = d.lengths[trimming];
+            double p = d.probabilities[trimming];
+            byte first = d.first[trimming];
+            if (length > 0 && first >= 4)
+                continue;
+            boolean[] m = matches[trimming];
+            for (int begin = 0; begin + length <= size; begin++)
+                if (m[begin]) {
+                    if (length > 0)
+                        result[first][begin] += p * djSum[begin + length];
+                    else
+                        for (int anchor = 0; anchor < 4; anchor++)
+                            result[anchor][begin] += p * dj[anchor][begin];
+                }
+        }
+        w.vdjComputed = false;
+    }
+
+    private static double[] lengthProbabilities(InsertSampler sampler) {
+        CategoricalIntSampler distribution = sampler.lengthDistribution();
+        int[] values = distribution.values();
+        double[] probabilities = distribution.probabilities();
+        int max = 0;
+        for (int i = 0; i < values.length; i++)
+            if (probabilities[i] > 0) {
+                if (values[i] < 0)
+                    throw new IllegalArgumentException("Negative insert length: " + values[i]);
+                max = Math.max(max, values[i]);
+            }
+        double[] result = new double[max + 1];
+        for (int i = 0; i < values.length; i++)
+            if (probabilities[i] > 0)
+                result[values[i]] += probabilities[i];
+        return result;
+    }
+
+    private static Segment vSegment(int index, RearrangementAssembler.Germline germline,
+                                    CategoricalIntSampler trimmings) {
+        int cdr3Begin = germline.position(ReferencePoint.CDR3Begin), vEnd = germline.position(ReferencePoint.VEnd);
+        if (cdr3Begin < 0 || vEnd < 0)
+            return null;
+        int[] values = trimmings.values();
+        double[] probabilities = trimmings.probabilities();
+        int[] lengths = new int[values.length];
+        byte[][] letters = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            // CDR3 part is [-length, 0) relative to VEndTrimmed
+            int length = lengths[i] = vEnd - cdr3Begin + values[i];
+            letters[i] = new byte[Math.max(length, 0)];
+            if (probabilities[i] > 0)
+                for (int k = 0; k < length; k++)
+                    letters[i][k] = germline.vPartLetter(values[i], k - length);
+        }
+        return new Segment(index, lengths, probabilities, letters, new byte[values.length]);
+    }
+
+    private static Segment dSegment(int index, RearrangementAssembler.Germline germline,
+                                    CategoricalSampler<DTrimming> trimmings) {
+        List<DTrimming> values = trimmings.values();
+        double[] probabilities = trimmings.probabilities();
+        int[] lengths = new int[values.size()];
+        byte[][] letters = new byte[values.size()][];
+        byte[] first = new byte[values.size()];
+        for (int i = 0; i < lengths.length; i++) {
+            int length = lengths[i] = germline.dPartLength(values.get(i));
+            letters[i] = new byte[length];
+            if (probabilities[i] > 0)
+                for (int k = 0; k < length; k++)
+                    letters[i][k] = germline.dPartLetter(values.get(i), k);
+            first[i] = length == 0 ? -1 : letters[i][0];
+        }
+        return new Segment(index, lengths, probabilities, letters, first);
+    }
+
+    private static Segment jSegment(int index, RearrangementAssembler.Germline germline,
+                                    CategoricalIntSampler trimmings) {
+        int jBegin = germline.position(ReferencePoint.JBegin), cdr3End = germline.position(ReferencePoint.CDR3End);
+        if (jBegin < 0 || cdr3End < 0)
+            return null;
+        int[] values = trimmings.values();
+        double[] probabilities = trimmings.probabilities();
+        int[] lengths = new int[values.length];
+        byte[][] letters = new byte[values.length][];
+        byte[] first = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            // CDR3 part is [0, length) relative to JBeginTrimmed
+            int length = lengths[i] = cdr3End - jBegin + values[i];
+            letters[i] = new byte[Math.max(length, 0)];
+            if (probabilities[i] > 0) {
+                for (int k = 0; k < length; k++)
+                    letters[i][k] = germline.jPartLetter(values[i], k);
+                first[i] = germline.jPartLetter(values[i], 0);
+            }
+        }
+        return new Segment(index, lengths, probabilities, letters, first);
+    }
+
+    private static Segment[] toArray(Map<VDJCGene, Segment> segments) {
+        Segment[] result = new Segment[segments.size()];
+        for (Map.Entry<VDJCGene, Segment> e : segments.entrySet())
+            if (e.getValue() != null) {
+                e.getValue().gene = e.getKey();
+                result[e.getValue().index] = e.getValue();
+            }
+        return result;
+    }
+
+    /**
+     * Returns true if nucleotide is allowed by the mask of the pattern position (wildcards are allowed only at
+     * positions allowing any nucleotide)
+     */
+    static boolean matches(byte letter, byte mask) {
+        return letter < 4 ? (mask & 1 << letter) != 0 : mask == ANY;
+    }
+
+    private static final byte[][][] CODON_PATTERNS = new byte[AminoAcidSequence.ALPHABET.size()][][];
+
+    /**
+     * Returns disjoint patterns of nucleotides, such that union of codons matching the patterns is the set of codons
+     * encoding the amino acid (or amino acid wildcard)
+     */
+    static byte[][] codonPatterns(byte aminoAcid) {
+        byte[][] result = CODON_PATTERNS[aminoAcid];
+        if (result != null)
+            return result;
+        // Codons grouped by the first two nucleotides, then merged by the first and the second nucleotides
+        List<byte[]> patterns = new ArrayList<>();
+        for (int n0 = 0; n0 < 4; n0++)
+            for (int n1 = 0; n1 < 4; n1++) {
+                byte third = 0;
+                for (int n2 = 0; n2 < 4; n2++)
+                    if (AminoAcidSequence.ALPHABET.codeToWildcard(aminoAcid)
+                            .matches(GeneticCode.getAminoAcid(n0 << 4 | n1 << 2 | n2)))
+                        third |= 1 << n2;
+                if (third != 0)
+                    patterns.add(new byte[]{(byte) (1 << n0), (byte) (1 << n1), third});
+            }
+        for (int position = 0; position < 2; position++)
+            for (int i = 0; i < patterns.size(); i++)
+                for (int k = patterns.size() - 1; k > i; k--) {
+                    byte[] a = patterns.get(i), b = patterns.get(k);
+                    boolean same = true;
+                    for (int p = 0; p < 3; p++)
+                        same &= p == position || a[p] == b[p];
+                    if (same) {
+                        a[position] |= b[position];
+                        patterns.remove(k);
+                    }
+                }
+        result = patterns.toArray(new byte[patterns.size()][]);
+        CODON_PATTERNS[aminoAcid] = result;
+        return result;
+    }
+
+    /**
+     * CDR3 with optional restriction of V and J genes. Immutable.
+     */
+    public static final class Query {
+        final NucleotideSequence nucleotides;
+        final AminoAcidSequence aminoAcids;
+        /**
+         * Allowed V and J genes (names, gene names or family names, as in {@link GGeneConstraint}), null for any
+         */
+        final Set<String> vGenes, jGenes;
+
+        public Query(NucleotideSequence cdr3, Set<String> vGenes, Set<String> jGenes) {
+            this(cdr3, null, vGenes, jGenes);
+        }
+
+        public Query(AminoAcidSequence cdr3, Set<String> vGenes, Set<String> jGenes) {
+            this(null, cdr3, vGenes, jGenes);
+        }
+
+        private Query(NucleotideSequence nucleotides, AminoAcidSequence aminoAcids,
+                      Set<String> vGenes, Set<String> jGenes) {
+            this.nucleotides = nucleotides;
+            this.aminoAcids = aminoAcids;
+            this.vGenes = vGenes;
+            this.jGenes = jGenes;
+        }
+    }
+
+    /**
+     * Germline CDR3 parts of a gene for all its trimmings
+     */
+    static final class Segment {
+        final int index;
+        VDJCGene gene;
+        /**
+         * Lengths of gene parts inside CDR3 (may be negative for V and J genes, if CDR3 starts or ends in insert)
+         */
+        final int[] lengths;
+        final double[] probabilities;
+        /**
+         * Letters of gene parts inside CDR3
+         */
+        final byte[][] letters;
+        /**
+         * First letter of gene part (anchor of the insert before it), -1 for empty D gene part
+         */
+        final byte[] first;
+        final int minLength;
+
+        Segment(int index, int[] lengths, double[] probabilities, byte[][] letters, byte[] first) {
+            this.index = index;
+            this.lengths = lengths;
+            this.probabilities = probabilities;
+            this.letters = letters;
+            this.first = first;
+            int min = 0;
+            for (int i = 0; i < lengths.length; i++)
+                if (probabilities[i] > 0)
+                    min = Math.min(min, lengths[i]);
+            this.minLength = min;
+        }
+    }
+
+    /**
+     * V genes with D and J genes, and joint probabilities of V, D and J genes
+     */
+    static final class Group {
+        final Segment d, j;
+        final List<Segment> vs = new ArrayList<>();
+        final List<Double> weights = new ArrayList<>();
+
+        Group(Segment d, Segment j) {
+            this.d = d;
+            this.j = j;
+        }
+    }
+
+    /**
+     * Per-thread buffers. Values computed for a query are cached and invalidated by incrementing query stamp.
+     *
+     * Positions are indices in the pattern, which is the query with {@link #leftMargin} and {@link #rightMargin}
+     * positions allowing any nucleotide on the sides (letters of inserts outside of CDR3).
+     */
+    final class Workspace {
+        byte[] query = new byte[64], pattern = new byte[64];
+        /**
+         * Length of the pattern
+         */
+        int size, length, stamp;
+        final boolean[] vAllowed = new boolean[vSegments.length], jAllowed = new boolean[jSegments.length];
+        // V gene part ends matching the query: positions and probabilities
+        final int[] vStamp = new int[vSegments.length], vCount = new int[vSegments.length];
+        final int[][] vEnds = new int[vSegments.length][];
+        final double[][] vProbabilities = new double[vSegments.length][];
+        // J gene part starts matching the query: positions and indices of trimmings
+        final int[] jStamp = new int[jSegments.length], jCount = new int[jSegments.length];
+        final int[][] jStarts = new int[jSegments.length][], jTrimmings = new int[jSegments.length][];
+        // DJ insert and J gene part, by anchor of D gene part
+        final int[] djStamp = new int[jSegments.length];
+        final double[][][] dj = new double[jSegments.length][4][];
+        final double[][] djSum = new double[jSegments.length][];
+        // Matching positions of D gene parts
+        final int[] dStamp = new int[dSegments.length];
+        final boolean[][][] dMatches = new boolean[dSegments.length][][];
+        // Probabilities of inserts by anchor
+        final int[] vInsertsStamp = new int[4], djInsertsStamp = new int[4];
+        final double[][] vInserts = new double[4][], djInserts = new double[4][];
+        // Per group: D gene part and the rest (by anchor), V(D/J) insert and the rest (VJ, or lazily for VDJ)
+        double[][] d = new double[4][0];
+        double[] vdj = new double[0];
+        boolean[] vdjDone = new boolean[0];
+        boolean vdjComputed;
+
+        byte[] query(int length) {
+            if (query.length < length)
+                query = new byte[length];
+            return query;
+        }
+
+        void setGenes(Set<String> vGenes, Set<String> jGenes) {
+            for (Segment v : vSegments)
+                vAllowed[v.index] = GGeneConstraint.matches(vGenes, v.gene);
+            for (Segment j : jSegments)
+                jAllowed[j.index] = GGeneConstraint.matches(jGenes, j.gene);
+        }
+
+        void reset(int length) {
+            ++stamp;
+            this.length = length;
+            this.size = leftMargin + length + rightMargin;
+            if (pattern.length < size)
+                pattern = new byte[size];
+            Arrays.fill(pattern, 0, size, ANY);
+            System.arraycopy(query, 0, pattern, leftMargin, length);
+            if (vdj.length < size + 1) {
+                for (int a = 0; a < 4; a++)
+                    d[a] = new double[size + 1];
+                vdj = new double[size + 1];
+                vdjDone = new boolean[size + 1];
+            }
+        }
+
+        void startGroup() {
+            for (int a = 0; a < 4; a++)
+                Arrays.fill(d[a], 0, size + 1, 0.0);
+            Arrays.fill(vdj, 0, size + 1, 0.0);
+            Arrays.fill(vdjDone, 0, size + 1, false);
+        }
+
+        /**
+         * Returns probability of V(D/J) insert and the rest of CDR3 starting at position
+         */
+        double vJunctions(int begin) {
+            if (vdjComputed || vdjDone[begin])
+                return vdj[begin];
+            int stride = vLengths.length;
+            double sum = 0;
+            for (int anchor = 0; anchor < 4; anchor++) {
+                double[] rest = d[anchor];
+                double[] inserts = null;
+                for (int length = 0; length < stride && begin + length <= size; length++)
+                    if (rest[begin + length] != 0 && vLengths[length] != 0) {
+                        if (inserts == null)
+                            inserts = vInserts((byte) anchor);
+                        sum += vLengths[length] * inserts[begin * stride + length] * rest[begin + length];
+                    }
+            }
+            vdjDone[begin] = true;
+            return vdj[begin] = sum;
+        }
+
+        int[] vEnds(Segment v) {
+            int i = v.index;
+            if (vStamp[i] == stamp)
+                return vEnds[i];
+            vStamp[i] = stamp;
+            if (vEnds[i] == null) {
+                vEnds[i] = new int[v.lengths.length];
+                vProbabilities[i] = new double[v.lengths.length];
+            }
+            int count = 0;
+            for (int t = 0; t < v.lengths.length; t++) {
+                int end = leftMargin + v.lengths[t];
+                if (v.probabilities[t] == 0 || end > size || !matches(v.letters[t], leftMargin))
+                    continue;
+                vEnds[i][count] = end;
+                vProbabilities[i][count++] = v.probabilities[t];
+            }
+            vCount[i] = count;
+            return vEnds[i];
+        }
+
+        int[] jStarts(Segment j) {
+            int i = j.index;
+            if (jStamp[i] == stamp)
+                return jStarts[i];
+            jStamp[i] = stamp;
+            if (jStarts[i] == null) {
+                jStarts[i] = new int[j.lengths.length];
+                jTrimmings[i] = new int[j.lengths.length];
+            }
+            int count = 0;
+            for (int t = 0; t < j.lengths.length; t++) {
+                int begin = leftMargin + length - j.lengths[t];
+                if (j.probabilities[t] == 0 || begin < 0 || j.first[t] >= 4 || !matches(j.letters[t], begin))
+                    continue;
+                jStarts[i][count] = begin;
+                jTrimmings[i][count++] = t;
+            }
+            jCount[i] = count;
+            return jStarts[i];
+        }
+
+        /**
+         * Returns probabilities of DJ insert and J gene part starting at each position, by the first letter of J
+         * gene part
+         */
+        double[][] djJunctions(Segment j) {
+            int i = j.index;
+            double[][] result = dj[i];
+            if (djStamp[i] == stamp)
+                return result;
+            djStamp[i] = stamp;
+            if (result[0] == null || result[0].length < size + 1) {
+                for (int a = 0; a < 4; a++)
+                    result[a] = new double[size + 1];
+                djSum[i] = new double[size + 1];
+            }
+            for (int a = 0; a < 4; a++)
+                Arrays.fill(result[a], 0, size + 1, 0.0);
+            int stride = djLengths.length;
+            int[] starts = jStarts(j);
+            for (int k = 0; k < jCount[i]; k++) {
+                int trimming = jTrimmings[i][k], e = starts[k];
+                byte anchor = j.first[trimming];
+                double[] inserts = djInserts(anchor);
+                double p = j.probabilities[trimming];
+                for (int length = 0; length < stride && length <= e; length++)
+                    result[anchor][e - length] += p * djLengths[length] * inserts[(e - length) * stride + length];
+            }
+            double[] sum = djSum[i];
+            for (int position = 0; position <= size; position++)
+                sum[position] = result[0][position] + result[1][position] + result[2][position]
+                        + result[3][position];
+            return result;
+        }
+
+        boolean[][] dMatches(Segment d) {
+            int i = d.index;
+            if (dMatches[i] == null || dMatches[i][0].length < size + 1) {
+                dMatches[i] = new boolean[d.lengths.length][size + 1];
+                dStamp[i] = 0;
+            }
+            if (dStamp[i] == stamp)
+                return dMatches[i];
+            dStamp[i] = stamp;
+            for (int t = 0; t < d.lengths.length; t++) {
+                boolean[] m = dMatches[i][t];
+                Arrays.fill(m, false);
+                if (d.probabilities[t] == 0)
+                    continue;
+                for (int begin = 0; begin + d.lengths[t] <= size; begin++)
+                    m[begin] = matches(d.letters[t], begin);
+            }
+            return dMatches[i];
+        }
+
+        double[] vInserts(byte anchor) {
+            if (vInsertsStamp[anchor] != stamp) {
+                vInsertsStamp[anchor] = stamp;
+                vInserts[anchor] = inserts(vInsertSampler, vInserts[anchor], anchor, vLengths.length - 1);
+            }
+            return vInserts[anchor];
+        }
+
+        double[] djInserts(byte anchor) {
+            if (djInsertsStamp[anchor] != stamp) {
+                djInsertsStamp[anchor] = stamp;
+                djInserts[anchor] = inserts(djInsertSampler, djInserts[anchor], anchor, djLengths.length - 1);
+            }
+            return djInserts[anchor];
+        }
+
+        private double[] inserts(InsertSampler sampler, double[] buffer, byte anchor, int maxLength) {
+            int required = (size + 1) * (maxLength + 1);
+            if (buffer == null || buffer.length < required)
+                buffer = new double[required];
+            sampler.matchProbabilities(pattern, size, anchor, maxLength, buffer);
+            return buffer;
+        }
+
+        private boolean matches(byte[] letters, int from) {
+            for (int k = 0; k < letters.length; k++)
+                if (!PgenCalculator.matches(letters[k], pattern[from + k]))
+                    return false;
+            return true;
+        }
+    }
+}
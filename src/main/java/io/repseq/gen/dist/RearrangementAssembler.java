@@ -0,0 +1,410 @@
+package io.repseq.gen.dist;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.AminoAcidSequence;
+import com.milaboratory.core.sequence.GeneticCode;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.SequenceBuilder;
+import io.repseq.core.ReferencePoint;
+import io.repseq.core.SequenceProviderAndReferencePoints;
+import io.repseq.core.VDJCGene;
+import io.repseq.gen.DTrimming;
+import io.repseq.gen.GGene;
+import io.repseq.gen.VDJCGenes;
+import io.repseq.gen.VDJTrimming;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static com.milaboratory.core.sequence.NucleotideAlphabet.complementCode;
+
+/**
+ * Rearrangement being sampled. Genes and trimmings are set once with {@link #reset(VDJCGenes, VDJTrimming)}, which
+ * also computes junction nucleotides of trimmed segments directly from germline sequences. Insert samplers then read
+ * them from this object, and the final {@link GGene} is constructed once with {@link #assemble()}.
+ *
+ * Positions in the rearrangement are counted from VEndTrimmed, so positions of V gene part are negative, V(D/J)
+ * insert starts at 0 and is followed by D gene part, DJ insert and J gene part. Inserts that are not set yet are
+ * considered empty.
+ *
+ * Mutable and not thread-safe; a single instance can be reused for any number of rearrangements in one thread.
+ */
+public final class RearrangementAssembler {
+    final Map<VDJCGene, Germline> germlines;
+    VDJCGenes genes;
+    VDJTrimming trimming;
+    NucleotideSequence vInsert, djInsert;
+    /**
+     * Germline sequences of current genes, V germline is loaded on demand (see {@link #v()})
+     */
+    Germline v, d, j;
+    /**
+     * Length of D gene part of the rearrangement (with P-segments), -1 if there is no D gene
+     */
+    int dPartLength;
+    /**
+     * Codes of the first nucleotides of D gene part (-1 if it is empty) and J gene part
+     */
+    byte dFirst, jFirst;
+
+    /**
+     * @param germlines germline sequences of genes (see {@link #germlines(Collection[])}), sequences of other genes
+     *                  are loaded on demand
+     */
+    public RearrangementAssembler(Map<VDJCGene, Germline> germlines) {
+        this.germlines = germlines;
+    }
+
+    /**
+     * Creates map of germline sequences of genes, to be shared between assemblers
+     */
+    @SafeVarargs
+    public static Map<VDJCGene, Germline> germlines(Collection<VDJCGene>... genes) {
+        // Genes are looked up by identity, VDJCGene.hashCode() is relatively expensive
+        Map<VDJCGene, Germline> result = new IdentityHashMap<>();
+        for (Collection<VDJCGene> gs : genes)
+            for (VDJCGene gene : gs)
+                if (!result.containsKey(gene))
+                    result.put(gene, new Germline(gene));
+        return result;
+    }
+
+    /**
+     * Starts new rearrangement, inserts are reset to empty
+     *
+     * @param genes    V, D, J, C genes
+     * @param trimming trimmings
+     * @return this
+     */
+    public RearrangementAssembler reset(VDJCGenes genes, VDJTrimming trimming) {
+        this.genes = genes;
+        this.trimming = trimming;
+        this.vInsert = null;
+        this.djInsert = null;
+        this.v = null;
+
+        this.j = germline(genes.j);
+        jFirst = jLetter(0);
+
+        if (genes.d == null) {
+            d = null;
+            dPartLength = -1;
+            dFirst = -1;
+        } else {
+            DTrimming dTrimming = trimming.dTrimming;
+            d = germline(genes.d);
+            dPartLength = d.dPartLength(dTrimming);
+            dFirst = dPartLength == 0 ? -1 : dLetter(0);
+        }
+        return this;
+    }
+
+    /**
+     * Sets V(D/J) insert
+     *
+     * @return this
+     */
+    public RearrangementAssembler vInsert(NucleotideSequence vInsert) {
+        this.vInsert = vInsert;
+        return this;
+    }
+
+    /**
+     * Sets DJ insert (must not be set if there is no D gene)
+     *
+     * @return this
+     */
+    public RearrangementAssembler djInsert(NucleotideSequence djInsert) {
+        this.djInsert = djInsert;
+        return this;
+    }
+
+    public VDJCGenes genes() {
+        return genes;
+    }
+
+    public VDJTrimming trimming() {
+        return trimming;
+    }
+
+    /**
+     * Returns length of D gene part of the rearrangement, including P-segments, or -1 if there is no D gene (D gene
+     * trimmings are expected not to overlap)
+     */
+    public int dPartLength() {
+        return dPartLength;
+    }
+
+    /**
+     * Returns code of the nucleotide at the junction point of the rearrangement with empty inserts, i.e. the same as
+     * {@code gene.getSequence(new Range(p, p + 1)).codeAt(0)}, where p is the position of the point in {@link GGene}
+     * with empty inserts.
+     *
+     * @param point one of VEndTrimmed, DBeginTrimmed, DEndTrimmed and JBeginTrimmed
+     * @return nucleotide code
+     */
+    public byte letterAt(ReferencePoint point) {
+        if (point == ReferencePoint.JBeginTrimmed)
+            return jFirst;
+        if (point == ReferencePoint.VEndTrimmed)
+            return dFirst == -1 ? jFirst : dFirst;
+        if (point == ReferencePoint.DBeginTrimmed || point == ReferencePoint.DEndTrimmed) {
+            if (genes.d == null)
+                throw new RuntimeException("Point " + point + " is not available for rearrangement without D gene");
+            return point == ReferencePoint.DEndTrimmed || dFirst == -1 ? jFirst : dFirst;
+        }
+        throw new IllegalArgumentException("Unsupported point: " + point);
+    }
+
+    /**
+     * Returns position of J gene part (JBeginTrimmed), with current inserts
+     */
+    public int jPartBegin() {
+        return size(vInsert) + Math.max(dPartLength, 0) + size(djInsert);
+    }
+
+    /**
+     * Returns true if both CDR3Begin (in V gene) and CDR3End (in J gene) are defined
+     */
+    public boolean hasCDR3() {
+        return v().position(ReferencePoint.CDR3Begin) >= 0 && j.position(ReferencePoint.CDR3End) >= 0;
+    }
+
+    /**
+     * Returns position of CDR3Begin (see {@link #hasCDR3()})
+     */
+    public int cdr3Begin() {
+        return v().position(ReferencePoint.CDR3Begin) - v().position(ReferencePoint.VEnd) - trimming.vTrimming;
+    }
+
+    /**
+     * Returns position of CDR3End, with current inserts (see {@link #hasCDR3()})
+     */
+    public int cdr3End() {
+        return jPartBegin() + j.position(ReferencePoint.CDR3End) - j.position(ReferencePoint.JBegin)
+                + trimming.jTrimming;
+    }
+
+    /**
+     * Returns code of nucleotide at specified position of the rearrangement, with current inserts
+     *
+     * @param position position relative to VEndTrimmed
+     * @return nucleotide code
+     */
+    public byte letter(int position) {
+        if (position < 0)
+            return vLetter(position);
+        int vInsertSize = size(vInsert);
+        if (position < vInsertSize)
+            return vInsert.codeAt(position);
+        position -= vInsertSize;
+        if (position < dPartLength)
+            return dLetter(position);
+        position -= Math.max(dPartLength, 0);
+        int djInsertSize = size(djInsert);
+        if (position < djInsertSize)
+            return djInsert.codeAt(position);
+        return jLetter(position - djInsertSize);
+    }
+
+    /**
+     * Returns subsequence of the rearrangement, with current inserts
+     *
+     * @param from position of the first nucleotide, inclusive
+     * @param to   position of the last nucleotide, exclusive
+     * @return sequence
+     */
+    public NucleotideSequence sequence(int from, int to) {
+        SequenceBuilder<NucleotideSequence> builder = NucleotideSequence.ALPHABET.createBuilder()
+                .ensureCapacity(to - from);
+        for (int i = from; i < to; i++)
+            builder.append(letter(i));
+        return builder.createAndDestroy();
+    }
+
+    /**
+     * Returns true if there is a stop codon among codons of the rearrangement, with current inserts, starting at
+     * positions from, from + 3, from + 6, etc. and ending before to. Codons with wildcards are not considered as
+     * stops.
+     *
+     * @param from position of the first nucleotide of the first codon
+     * @param to   position after the last nucleotide of the last codon, exclusive
+     * @return true if there is a stop codon in the range
+     */
+    public boolean containsStops(int from, int to) {
+        for (int i = from; i + 3 <= to; i += 3) {
+            byte n0 = letter(i), n1 = letter(i + 1), n2 = letter(i + 2);
+            if (n0 >= 4 || n1 >= 4 || n2 >= 4)
+                continue;
+            // Stop codon is encoded as 0 in amino acid alphabet
+            if (GeneticCode.getAminoAcid(n0 << 4 | n1 << 2 | n2) == 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if germline parts of CDR3 of V and J genes contain stop codons, assuming that CDR3 is in-frame
+     * (codons of J gene part are counted from CDR3End). Only for CDR3 starting in V gene part (see {@link
+     * #hasCDR3()}), returns false otherwise.
+     */
+    public boolean germlineStops() {
+        int cdr3Begin = cdr3Begin();
+        if (cdr3Begin > 0)
+            return false;
+        // Positions of J gene part don't depend on the length of inserts modulo 3
+        int jPartBegin = jPartBegin(), cdr3End = cdr3End();
+        return containsStops(cdr3Begin, Math.min(0, cdr3End))
+                || containsStops(jPartBegin + CategoricalIntSampler.residue(cdr3End - jPartBegin, 3), cdr3End);
+    }
+
+    /**
+     * Returns true if there are stop codons in CDR3 before DJ insert, i.e. in V gene part, V(D/J) insert and D gene
+     * part (DJ insert should not be set yet)
+     */
+    public boolean stopsBeforeDJInsert() {
+        return containsStops(cdr3Begin(), Math.min(jPartBegin(), cdr3End()));
+    }
+
+    /**
+     * Returns true if CDR3 with current inserts contains stop codons, checked exactly as {@code
+     * AminoAcidSequence.translateFromCenter(cdr3).containStops()}
+     */
+    public boolean cdr3Stops() {
+        return AminoAcidSequence.translateFromCenter(sequence(cdr3Begin(), cdr3End())).containStops();
+    }
+
+    /**
+     * Constructs rearranged gene with current inserts (empty V(D/J) insert if it is not set)
+     *
+     * @return rearranged gene
+     */
+    public GGene assemble() {
+        return new GGene(null, genes, trimming, vInsert == null ? NucleotideSequence.EMPTY : vInsert,
+                genes.d == null ? null : djInsert == null ? NucleotideSequence.EMPTY : djInsert);
+    }
+
+    private Germline v() {
+        if (v == null)
+            v = germline(genes.v);
+        return v;
+    }
+
+    /**
+     * Letter of V gene part (with P-segment), position is relative to VEndTrimmed (negative)
+     */
+    private byte vLetter(int position) {
+        return v().vPartLetter(trimming.vTrimming, position);
+    }
+
+    /**
+     * Letter of D gene part (with P-segments), position is relative to DBeginTrimmed
+     */
+    private byte dLetter(int position) {
+        return d.dPartLetter(trimming.dTrimming, position);
+    }
+
+    /**
+     * Letter of J gene part (with P-segment), position is relative to JBeginTrimmed
+     */
+    private byte jLetter(int position) {
+        return j.jPartLetter(trimming.jTrimming, position);
+    }
+
+    private Germline germline(VDJCGene gene) {
+        Germline germline = germlines.get(gene);
+        // Genes outside of the model, e.g. sampled by another gene model
+        return germline == null ? new Germline(gene) : germline;
+    }
+
+    private static int size(NucleotideSequence sequence) {
+        return sequence == null ? 0 : sequence.size();
+    }
+
+    /**
+     * Germline sequence of a gene in the non-reversed orientation (the same as used to assemble {@link GGene})
+     */
+    public static final class Germline {
+        final SequenceProviderAndReferencePoints sprp;
+        final NucleotideSequence sequence;
+        final int offset;
+
+        public Germline(VDJCGene gene) {
+            this.sprp = gene.getSPAndRPs().nonReversedView();
+            Range region = sprp.referencePoints.getContainingRegion();
+            NucleotideSequence sequence = NucleotideSequence.EMPTY;
+            try {
+                sequence = sprp.sequenceProvider.getRegion(region);
+            } catch (RuntimeException e) {
+                // Only part of the region is available, letters will be requested from provider
+            }
+            this.sequence = sequence;
+            this.offset = region.getFrom();
+        }
+
+        int position(ReferencePoint point) {
+            return sprp.referencePoints.getPosition(point);
+        }
+
+        int length(ReferencePoint from, ReferencePoint to) {
+            return position(to) - position(from);
+        }
+
+        byte letter(ReferencePoint point, int shift) {
+            return letterAt(position(point) + shift);
+        }
+
+        byte letterAt(int position) {
+            int index = position - offset;
+            if (index >= 0 && index < sequence.size())
+                return sequence.codeAt(index);
+            return sprp.sequenceProvider.getRegion(new Range(position, position + 1)).codeAt(0);
+        }
+
+        /**
+         * Letter of V gene part (with P-segment), position is relative to VEndTrimmed (negative)
+         */
+        byte vPartLetter(int vTrimming, int position) {
+            int vEnd = position(ReferencePoint.VEnd);
+            if (vTrimming > 0 && position >= -vTrimming)
+                return complementCode(letterAt(vEnd - 1 - position - vTrimming));
+            return letterAt(vEnd + vTrimming + position);
+        }
+
+        /**
+         * Length of D gene part (with P-segments)
+         */
+        int dPartLength(DTrimming dTrimming) {
+            return Math.max(dTrimming.d5Trimming, 0) + Math.max(dBodyLength(dTrimming), 0)
+                    + Math.max(dTrimming.d3Trimming, 0);
+        }
+
+        private int dBodyLength(DTrimming dTrimming) {
+            return length(ReferencePoint.DBegin, ReferencePoint.DEnd)
+                    + Math.min(dTrimming.d5Trimming, 0) + Math.min(dTrimming.d3Trimming, 0);
+        }
+
+        /**
+         * Letter of D gene part (with P-segments), position is relative to DBeginTrimmed
+         */
+        byte dPartLetter(DTrimming dTrimming, int position) {
+            if (position < dTrimming.d5Trimming)
+                return complementCode(letter(ReferencePoint.DBegin, dTrimming.d5Trimming - 1 - position));
+            position -= Math.max(dTrimming.d5Trimming, 0);
+            int bodyLength = dBodyLength(dTrimming);
+            if (position < bodyLength)
+                return letter(ReferencePoint.DBegin, position - Math.min(dTrimming.d5Trimming, 0));
+            return complementCode(letter(ReferencePoint.DEnd, -1 - position + Math.max(bodyLength, 0)));
+        }
+
+        /**
+         * Letter of J gene part (with P-segment), position is relative to JBeginTrimmed
+         */
+        byte jPartLetter(int jTrimming, int position) {
+            if (position < jTrimming)
+                return complementCode(letter(ReferencePoint.JBegin, jTrimming - 1 - position));
+            return letter(ReferencePoint.JBegin, position - jTrimming);
+        }
+    }
+}
@@ -3,9 +3,6 @@ package io.repseq.gen.dist;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.repseq.core.VDJCGene;
-import io.repseq.gen.DTrimming;
-import org.apache.commons.math3.distribution.EnumeratedDistribution;
-import org.apache.commons.math3.random.RandomGenerator;
 
 import java.util.Map;
 
@@ -18,19 +15,12 @@ public final class SeparateCategoricalDGeneTrimmingModel implements DTrimmingMod
     }
 
     @Override
-    public DTrimmingGenerator create(RandomGenerator random, VDJCGene gene) {
+    public DTrimmingSampler compile(VDJCGene gene) {
         Map<String, Double> probs = distributions.get(gene.getName());
         if (probs == null)
             throw new IllegalArgumentException("No distribution for " + gene.getName() + ".");
-        final EnumeratedDistribution<DTrimming> dist =
-                CommonCategoricalDGeneTrimmingModel
-                        .createDistribution(random, probs);
-        return new DTrimmingGenerator() {
-            @Override
-            public DTrimming sample() {
-                return dist.sample();
-            }
-        };
+        return CommonCategoricalDGeneTrimmingModel.sampler(
+                CommonCategoricalDGeneTrimmingModel.createDistribution(probs));
     }
 
     @Override
@@ -3,7 +3,6 @@ package io.repseq.gen.dist;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.repseq.core.VDJCGene;
-import org.apache.commons.math3.random.RandomGenerator;
 
 import java.util.Map;
 
@@ -16,17 +15,11 @@ public final class SeparateCategoricalGeneTrimmingModel implements GeneTrimmingM
     }
 
     @Override
-    public GeneTrimmingGenerator create(RandomGenerator random, VDJCGene gene) {
+    public GeneTrimmingSampler compile(VDJCGene gene) {
         Map<Integer, Double> probs = distributions.get(gene.getName());
         if (probs == null)
             throw new IllegalArgumentException("No trimming distribution for " + gene.getName() + ".");
-        final IndependentIntGenerator gen = new CategoricalIndependentIntModel(probs).create(random);
-        return new GeneTrimmingGenerator() {
-            @Override
-            public int sample() {
-                return gen.sample();
-            }
-        };
+        return new CategoricalIndependentIntModel(probs).compile();
     }
 
     @Override
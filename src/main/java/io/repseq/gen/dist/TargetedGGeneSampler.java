@@ -0,0 +1,329 @@
+package io.repseq.gen.dist;
+
+import io.repseq.core.GeneFeature;
+import io.repseq.core.GeneType;
+import io.repseq.core.ReferencePoint;
+import io.repseq.core.VDJCGene;
+import io.repseq.gen.DTrimming;
+import io.repseq.gen.GGene;
+import io.repseq.gen.VDJCGenes;
+import io.repseq.gen.VDJTrimming;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.util.Pair;
+
+import java.util.*;
+
+/**
+ * Samples genes from the conditional distribution given constraint on V and J genes and CDR3 length (see {@link
+ * GGeneConstraint}).
+ *
+ * Length of CDR3 is the sum of lengths of its parts: V gene part, V(D/J) insert, D gene part, DJ insert and J gene
+ * part, which are independent given genes. So probability of allowed CDR3 length given the first parts is computed
+ * in advance by successive correlation of distributions of the last parts with indicator of allowed lengths. Genes
+ * are sampled with their probabilities multiplied by probability of allowed CDR3 length, and each part is sampled
+ * from its distribution multiplied by probability that the remaining parts complete CDR3 to allowed length. Sampling
+ * takes the same time regardless of prior probability of the constraint. Stop codons are checked by rejection, as
+ * for in-frame sampling.
+ *
+ * Requires trimmings independent given genes, and insert lengths independent of genes and trimmings. Immutable.
+ */
+final class TargetedGGeneSampler {
+    final GGeneConstraint constraint;
+    final VDJCGenesSampler vdjcGenesSampler;
+    final InsertSampler vInsertSampler, djInsertSampler;
+    final ThreadLocal<RearrangementAssembler> assemblers;
+    final Part<Integer> vInserts, djInserts;
+    /**
+     * Indicator of allowed CDR3 length, and probability of allowed length as a function of the total length of all
+     * parts except DJ insert
+     */
+    final Table allowed, djAllowed;
+    final CategoricalSampler<Combination> combinations;
+
+    /**
+     * @throws IllegalArgumentException if genes satisfying the constraint have zero probability
+     */
+    TargetedGGeneSampler(GGeneConstraint constraint, VDJCGenesSampler vdjcGenesSampler,
+                         VDJTrimmingSampler trimmingSampler, InsertSampler vInsertSampler,
+                         InsertSampler djInsertSampler, ThreadLocal<RearrangementAssembler> assemblers) {
+        this.constraint = constraint;
+        this.vdjcGenesSampler = vdjcGenesSampler;
+        this.vInsertSampler = vInsertSampler;
+        this.djInsertSampler = djInsertSampler;
+        this.assemblers = assemblers;
+
+        // Allowed genes with defined CDR3 boundaries
+        Set<VDJCGene> vGenes = Collections.newSetFromMap(new IdentityHashMap<VDJCGene, Boolean>());
+        for (VDJCGene gene : vdjcGenesSampler.genes(GeneType.Variable))
+            if (constraint.acceptV(gene) && length(gene, ReferencePoint.CDR3Begin, ReferencePoint.VEnd) >= 0)
+                vGenes.add(gene);
+        Set<VDJCGene> jGenes = Collections.newSetFromMap(new IdentityHashMap<VDJCGene, Boolean>());
+        for (VDJCGene gene : vdjcGenesSampler.genes(GeneType.Joining))
+            if (constraint.acceptJ(gene) && length(gene, ReferencePoint.JBegin, ReferencePoint.CDR3End) >= 0)
+                jGenes.add(gene);
+        List<Pair<VDJCGenes, Double>> vdj = vdjcGenesSampler.vdjDistribution(vGenes, jGenes);
+
+        // Distributions of lengths of CDR3 parts, min and max lengths of V, D and J gene parts
+        Map<VDJCGene, Part<Integer>> vParts = new IdentityHashMap<>(), jParts = new IdentityHashMap<>();
+        Map<VDJCGene, Part<DTrimming>> dParts = new IdentityHashMap<>();
+        int aMin = Integer.MAX_VALUE, aMax = Integer.MIN_VALUE, cMin = Integer.MAX_VALUE, cMax = Integer.MIN_VALUE;
+        int bMin = 0, bMax = 0;
+        for (Pair<VDJCGenes, Double> p : vdj) {
+            VDJCGenes genes = p.getFirst();
+            Part<Integer> v = vParts.get(genes.v);
+            if (v == null)
+                vParts.put(genes.v, v = trimmingPart(trimmingSampler.vTrimming(genes.v),
+                        length(genes.v, ReferencePoint.CDR3Begin, ReferencePoint.VEnd)));
+            Part<Integer> j = jParts.get(genes.j);
+            if (j == null)
+                jParts.put(genes.j, j = trimmingPart(trimmingSampler.jTrimming(genes.j),
+                        length(genes.j, ReferencePoint.JBegin, ReferencePoint.CDR3End)));
+            aMin = Math.min(aMin, v.min);
+            aMax = Math.max(aMax, v.max);
+            cMin = Math.min(cMin, j.min);
+            cMax = Math.max(cMax, j.max);
+            if (genes.d != null) {
+                Part<DTrimming> d = dParts.get(genes.d);
+                if (d == null)
+                    dParts.put(genes.d, d = dPart(trimmingSampler.dTrimming(genes.d),
+                            length(genes.d, ReferencePoint.DBegin, ReferencePoint.DEnd)));
+                bMin = Math.min(bMin, d.min);
+                bMax = Math.max(bMax, d.max);
+            }
+        }
+        if (vdj.isEmpty())
+            throw new IllegalArgumentException("No genes satisfy the constraint.");
+
+        this.vInserts = lengthPart(vInsertSampler.lengthDistribution());
+        this.djInserts = djInsertSampler == null ? null : lengthPart(djInsertSampler.lengthDistribution());
+
+        // Probabilities of allowed CDR3 length as functions of the total length of sampled parts
+        int sMin = aMin + bMin + cMin, sMax = aMax + bMax + cMax;
+        this.allowed = allowed(constraint, sMin + vInserts.min,
+                sMax + vInserts.max + (djInserts == null ? 0 : djInserts.max));
+        this.djAllowed = djInserts == null ? null
+                : djInserts.correlate(allowed, sMin + vInserts.min, sMax + vInserts.max);
+        Table vjInserts = vInserts.correlate(allowed, sMin, sMax);
+        Table vdjInserts = djAllowed == null ? null : vInserts.correlate(djAllowed, sMin, sMax);
+
+        Map<VDJCGene, Table> vjJ = new IdentityHashMap<>(), vdjJ = new IdentityHashMap<>();
+        Map<VDJCGene, Map<VDJCGene, Table>> dj = new IdentityHashMap<>();
+        List<Combination> values = new ArrayList<>();
+        double[] weights = new double[vdj.size()];
+        for (Pair<VDJCGenes, Double> p : vdj) {
+            VDJCGenes genes = p.getFirst();
+            Part<Integer> v = vParts.get(genes.v), j = jParts.get(genes.j);
+            Part<DTrimming> d = genes.d == null ? null : dParts.get(genes.d);
+            Table inserts = d == null ? vjInserts : vdjInserts;
+            if (inserts == null)
+                throw new IllegalArgumentException("No model for DJ insert.");
+
+            Map<VDJCGene, Table> jTables = d == null ? vjJ : vdjJ;
+            Table jTable = jTables.get(genes.j);
+            if (jTable == null)
+                jTables.put(genes.j, jTable = j.correlate(inserts, aMin + bMin, aMax + bMax));
+
+            Table dTable = jTable;
+            if (d != null) {
+                Map<VDJCGene, Table> dTables = dj.get(genes.d);
+                if (dTables == null)
+                    dj.put(genes.d, dTables = new IdentityHashMap<>());
+                dTable = dTables.get(genes.j);
+                if (dTable == null)
+                    dTables.put(genes.j, dTable = d.correlate(jTable, aMin, aMax));
+            }
+
+            weights[values.size()] = p.getSecond() * v.weight(dTable, 0);
+            values.add(new Combination(genes, v, d, j, dTable, jTable, inserts));
+        }
+        double sum = 0;
+        for (double w : weights)
+            sum += w;
+        if (!(sum > 0))
+            throw new IllegalArgumentException("Genes satisfying the constraint have zero probability.");
+        this.combinations = new CategoricalSampler<>(values, weights);
+    }
+
+    GGene sample(RandomGenerator random) {
+        RearrangementAssembler rearrangement = assemblers.get();
+        while (true) {
+            Combination c = combinations.sample(random);
+            // Each part is sampled given that the sum of all parts is allowed, as CDR3 length
+            int vIndex = c.v.sample(random, c.dTable, 0);
+            int s = c.v.lengths[vIndex];
+            DTrimming dTrimming = null;
+            if (c.d != null) {
+                int dIndex = c.d.sample(random, c.jTable, s);
+                s += c.d.lengths[dIndex];
+                dTrimming = c.d.values.get(dIndex);
+            }
+            int jIndex = c.j.sample(random, c.inserts, s);
+            s += c.j.lengths[jIndex];
+
+            VDJCGenes genes = new VDJCGenes(c.genes.v, c.genes.d, c.genes.j,
+                    vdjcGenesSampler.sampleC(random, c.genes));
+            rearrangement.reset(genes, new VDJTrimming(c.v.values.get(vIndex), c.j.values.get(jIndex), dTrimming));
+            if (constraint.noStops && rearrangement.germlineStops())
+                continue;
+
+            int vInsert = vInserts.values.get(vInserts.sample(random, c.d == null ? allowed : djAllowed, s));
+            rearrangement.vInsert(vInsertSampler.sample(random, rearrangement, vInsert));
+            if (c.d != null) {
+                if (constraint.noStops && rearrangement.stopsBeforeDJInsert())
+                    continue;
+                int djInsert = djInserts.values.get(djInserts.sample(random, allowed, s + vInsert));
+                rearrangement.djInsert(djInsertSampler.sample(random, rearrangement, djInsert));
+            }
+
+            if (constraint.noStops && rearrangement.cdr3Stops())
+                continue;
+            return rearrangement.assemble();
+        }
+    }
+
+    /**
+     * Returns length of the region of the gene, -1 if one of the points is not defined
+     */
+    private static int length(VDJCGene gene, ReferencePoint from, ReferencePoint to) {
+        return gene.getPartitioning().getLength(new GeneFeature(from, to));
+    }
+
+    /**
+     * Returns table of indicator of allowed CDR3 length
+     */
+    private static Table allowed(GGeneConstraint constraint, int from, int to) {
+        double[] values = new double[to - from + 1];
+        for (int i = 0; i < values.length; i++) {
+            int length = from + i;
+            values[i] = length >= 0 && constraint.acceptCDR3Length(length) ? 1 : 0;
+        }
+        return new Table(from, values);
+    }
+
+    private static Part<Integer> trimmingPart(CategoricalIntSampler trimming, int germlineLength) {
+        int[] trimmings = trimming.values();
+        int[] lengths = new int[trimmings.length];
+        List<Integer> values = new ArrayList<>(trimmings.length);
+        for (int i = 0; i < trimmings.length; i++) {
+            lengths[i] = germlineLength + trimmings[i];
+            values.add(trimmings[i]);
+        }
+        return new Part<>(values, lengths, trimming.probabilities());
+    }
+
+    private static Part<Integer> lengthPart(CategoricalIntSampler length) {
+        return trimmingPart(length, 0);
+    }
+
+    private static Part<DTrimming> dPart(CategoricalSampler<DTrimming> trimming, int dLength) {
+        List<DTrimming> values = trimming.values();
+        int[] lengths = new int[values.size()];
+        for (int i = 0; i < lengths.length; i++) {
+            DTrimming t = values.get(i);
+            // See RearrangementAssembler#dPartLength()
+            lengths[i] = Math.max(t.d5Trimming, 0)
+                    + Math.max(dLength + Math.min(t.d5Trimming, 0) + Math.min(t.d3Trimming, 0), 0)
+                    + Math.max(t.d3Trimming, 0);
+        }
+        return new Part<>(values, lengths, trimming.probabilities());
+    }
+
+    /**
+     * V, D, J genes with distributions of lengths of their CDR3 parts and tables of probability of allowed CDR3
+     * length
+     */
+    static final class Combination {
+        final VDJCGenes genes;
+        final Part<Integer> v;
+        final Part<DTrimming> d;
+        final Part<Integer> j;
+        /**
+         * Functions of the length of V gene part, of V and D gene parts, and of all gene parts
+         */
+        final Table dTable, jTable, inserts;
+
+        Combination(VDJCGenes genes, Part<Integer> v, Part<DTrimming> d, Part<Integer> j,
+                    Table dTable, Table jTable, Table inserts) {
+            this.genes = genes;
+            this.v = v;
+            this.d = d;
+            this.j = j;
+            this.dTable = dTable;
+            this.jTable = jTable;
+            this.inserts = inserts;
+        }
+    }
+
+    /**
+     * Distribution of the length of CDR3 part: outcomes (trimmings or insert lengths), corresponding lengths and
+     * probabilities
+     */
+    static final class Part<T> {
+        final List<T> values;
+        final int[] lengths;
+        final double[] probabilities;
+        final int min, max;
+
+        Part(List<T> values, int[] lengths, double[] probabilities) {
+            this.values = values;
+            this.lengths = lengths;
+            this.probabilities = probabilities;
+            int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+            for (int length : lengths) {
+                min = Math.min(min, length);
+                max = Math.max(max, length);
+            }
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * Returns sum over outcomes of {@code p(i) next(s + length(i))}
+         */
+        double weight(Table next, int s) {
+            double sum = 0;
+            for (int i = 0; i < lengths.length; i++)
+                sum += probabilities[i] * next.get(s + lengths[i]);
+            return sum;
+        }
+
+        /**
+         * Returns table of {@link #weight(Table, int)} for s from {@code from} to {@code to}
+         */
+        Table correlate(Table next, int from, int to) {
+            double[] values = new double[to - from + 1];
+            for (int s = from; s <= to; s++)
+                values[s - from] = weight(next, s);
+            return new Table(from, values);
+        }
+
+        /**
+         * Samples index of outcome with probability proportional to {@code p(i) next(s + length(i))}
+         */
+        int sample(RandomGenerator random, Table next, int s) {
+            double[] weights = new double[lengths.length];
+            double sum = 0;
+            for (int i = 0; i < lengths.length; i++)
+                sum += weights[i] = probabilities[i] * next.get(s + lengths[i]);
+            return CategoricalSampler.choose(random, weights, weights.length, sum);
+        }
+    }
+
+    /**
+     * Function of integer argument, zero outside of the range
+     */
+    static final class Table {
+        final int offset;
+        final double[] values;
+
+        Table(int offset, double[] values) {
+            this.offset = offset;
+            this.values = values;
+        }
+
+        double get(int x) {
+            int i = x - offset;
+            return i < 0 || i >= values.length ? 0 : values[i];
+        }
+    }
+}
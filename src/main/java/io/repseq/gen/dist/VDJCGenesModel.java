@@ -5,7 +5,6 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.milaboratory.core.alignment.AffineGapAlignmentScoring;
 import com.milaboratory.core.alignment.LinearGapAlignmentScoring;
 import io.repseq.core.VDJCLibrary;
-import org.apache.commons.math3.random.RandomGenerator;
 
 
 @JsonSubTypes({
@@ -14,5 +13,5 @@ import org.apache.commons.math3.random.RandomGenerator;
         @JsonSubTypes.Type(value = DJCDependentVDJCGenesModel.class, name = "v+djc")
 })
 public interface VDJCGenesModel extends Model {
-    VDJCGenesGenerator create(RandomGenerator random, VDJCLibrary library);
+    VDJCGenesSampler compile(VDJCLibrary library);
 }
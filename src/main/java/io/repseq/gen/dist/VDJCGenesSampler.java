@@ -0,0 +1,39 @@
+package io.repseq.gen.dist;
+
+import io.repseq.core.GeneType;
+import io.repseq.core.VDJCGene;
+import io.repseq.gen.VDJCGenes;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.util.Pair;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compiled {@link VDJCGenesModel}. Implementations are immutable and can be shared between threads.
+ */
+public interface VDJCGenesSampler {
+    List<VDJCGene> genes(GeneType gt);
+
+    VDJCGenes sample(RandomGenerator random);
+
+    /**
+     * Returns joint distribution of V, D and J genes restricted to specified V and J genes. C genes of returned
+     * values are null, see {@link #sampleC(RandomGenerator, VDJCGenes)}. Probabilities are not renormalized after
+     * restriction.
+     *
+     * @param vGenes allowed V genes, null for no restriction
+     * @param jGenes allowed J genes, null for no restriction
+     * @return V, D, J genes with non-zero probability and their probabilities
+     */
+    List<Pair<VDJCGenes, Double>> vdjDistribution(Set<VDJCGene> vGenes, Set<VDJCGene> jGenes);
+
+    /**
+     * Samples C gene from its conditional distribution given V, D and J genes
+     *
+     * @param random   source of random data
+     * @param vdjGenes V, D and J genes
+     * @return C gene
+     */
+    VDJCGene sampleC(RandomGenerator random, VDJCGenes vdjGenes);
+}
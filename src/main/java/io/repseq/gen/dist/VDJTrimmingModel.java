@@ -3,7 +3,6 @@ package io.repseq.gen.dist;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import io.repseq.core.VDJCGene;
-import org.apache.commons.math3.random.RandomGenerator;
 
 import java.util.List;
 
@@ -14,7 +13,6 @@ import java.util.List;
         @JsonSubTypes.Type(value = IndependentVDJTrimmingModel.class, name = "independent")
 })
 public interface VDJTrimmingModel extends Model {
-    VDJTrimmingGenerator create(RandomGenerator random,
-                                List<VDJCGene> vGenes, List<VDJCGene> dGenes,
-                                List<VDJCGene> jGenes, List<VDJCGene> cGenes);
+    VDJTrimmingSampler compile(List<VDJCGene> vGenes, List<VDJCGene> dGenes,
+                               List<VDJCGene> jGenes, List<VDJCGene> cGenes);
 }
@@ -0,0 +1,38 @@
+package io.repseq.gen.dist;
+
+import io.repseq.core.VDJCGene;
+import io.repseq.gen.DTrimming;
+import io.repseq.gen.VDJCGenes;
+import io.repseq.gen.VDJTrimming;
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Compiled {@link VDJTrimmingModel}. Implementations are immutable and can be shared between threads.
+ */
+public interface VDJTrimmingSampler {
+    /**
+     * Generate trimmings, given v, d, j, c genes.
+     *
+     * @param random source of random data
+     * @param genes  v, d, j, c genes
+     * @return trimmings
+     */
+    VDJTrimming sample(RandomGenerator random, VDJCGenes genes);
+
+    /**
+     * Returns distribution of V gene trimmings, given V gene. Trimmings of V, D and J genes are independent given
+     * the genes, so the joint distribution is the product of distributions returned by {@link
+     * #vTrimming(VDJCGene)}, {@link #dTrimming(VDJCGene)} and {@link #jTrimming(VDJCGene)}.
+     */
+    CategoricalIntSampler vTrimming(VDJCGene v);
+
+    /**
+     * Returns distribution of D gene trimmings, given D gene (see {@link #vTrimming(VDJCGene)})
+     */
+    CategoricalSampler<DTrimming> dTrimming(VDJCGene d);
+
+    /**
+     * Returns distribution of J gene trimmings, given J gene (see {@link #vTrimming(VDJCGene)})
+     */
+    CategoricalIntSampler jTrimming(VDJCGene j);
+}
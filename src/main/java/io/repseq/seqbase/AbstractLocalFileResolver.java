@@ -0,0 +1,114 @@
+package io.repseq.seqbase;
+
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.provider.CachedSequenceProvider;
+import com.milaboratory.core.sequence.provider.SequenceProvider;
+import com.milaboratory.core.sequence.provider.SequenceProviderFactory;
+import com.milaboratory.core.sequence.provider.SequenceProviderUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+
+import static io.repseq.util.ConcurrentUtils.await;
+
+/**
+ * Base class for resolvers of records from local files in random-access formats, addressed as
+ * &lt;scheme&gt;://path#record_id (path is absolute or relative to address context).
+ *
+ * @param <R> reader type
+ */
+public abstract class AbstractLocalFileResolver<R> implements OptionalSequenceResolver,
+        PreparableSequenceResolver {
+    /**
+     * File path -> reader (opened or being opened)
+     */
+    final ConcurrentHashMap<Path, FutureTask<R>> readers = new ConcurrentHashMap<>();
+    /**
+     * File path and record id -> sequence provider
+     */
+    final ConcurrentHashMap<String, CachedSequenceProvider<NucleotideSequence>> records = new ConcurrentHashMap<>();
+
+    /**
+     * Opens reader for the file
+     *
+     * @param file file path
+     * @return reader
+     */
+    protected abstract R openReader(Path file) throws Exception;
+
+    /**
+     * Returns provider for the record
+     *
+     * @param reader   reader
+     * @param recordId record id
+     * @return sequence provider
+     */
+    protected abstract SequenceProvider<NucleotideSequence> getSequenceProvider(R reader, String recordId);
+
+    public R resolveReader(final Path file) {
+        return resolveReader(file, new SequenceAddress(file.toUri()));
+    }
+
+    private R resolveReader(final Path file, final SequenceAddress address) {
+        FutureTask<R> task = readers.get(file);
+        if (task == null) {
+            FutureTask<R> newTask = new FutureTask<>(new Callable<R>() {
+                @Override
+                public R call() throws Exception {
+                    long start = System.nanoTime();
+                    R reader = openReader(file);
+                    ResolverMetrics.getDefault().record(ResolverMetrics.Operation.Index, address, start,
+                            Files.size(file));
+                    return reader;
+                }
+            });
+            task = readers.putIfAbsent(file, newTask);
+            if (task == null)
+                (task = newTask).run();
+        }
+
+        try {
+            return await(task);
+        } catch (RuntimeException | Error e) {
+            // Next request will try to open the reader again
+            if (task.isDone())
+                readers.remove(file, task);
+            throw e;
+        }
+    }
+
+    @Override
+    public void prepare(SequenceAddress address) {
+        resolveReader(LocalFileResolver.resolvePath(address), address);
+    }
+
+    @Override
+    public CachedSequenceProvider<NucleotideSequence> resolve(final SequenceAddress address) {
+        final Path file = LocalFileResolver.resolvePath(address);
+        final String recordId = address.getUri().getFragment();
+        if (recordId == null)
+            throw new IllegalArgumentException("No record id specified in: " + address);
+
+        String key = file + "#" + recordId;
+        CachedSequenceProvider<NucleotideSequence> provider = records.get(key);
+        if (provider == null) {
+            provider = new CachedSequenceProvider<>(
+                    NucleotideSequence.ALPHABET,
+                    SequenceProviderUtils.lazyProvider(new SequenceProviderFactory<NucleotideSequence>() {
+                        @Override
+                        public SequenceProvider<NucleotideSequence> create() {
+                            return ResolverMetrics.getDefault().instrument(
+                                    getSequenceProvider(resolveReader(file, address), recordId), address);
+                        }
+                    }));
+            CachedSequenceProvider<NucleotideSequence> existing = records.putIfAbsent(key, provider);
+            if (existing != null)
+                provider = existing;
+        }
+
+        return provider;
+    }
+}
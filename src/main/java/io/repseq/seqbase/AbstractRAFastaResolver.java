@@ -15,9 +15,13 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
 
-public abstract class AbstractRAFastaResolver implements SequenceResolver {
+import static io.repseq.util.ConcurrentUtils.await;
+
+public abstract class AbstractRAFastaResolver implements PreparableSequenceResolver {
     private static final Logger log = LoggerFactory.getLogger(AbstractRAFastaResolver.class);
 
     final boolean deleteOnError;
@@ -27,13 +31,14 @@ public abstract class AbstractRAFastaResolver implements SequenceResolver {
     }
 
     /**
-     * Cache file name to random access reader
+     * Cache file name to random access reader (opened or being opened)
      */
-    final TreeMap<String, RandomAccessFastaReader<NucleotideSequence>> readers = new TreeMap<>();
+    final ConcurrentHashMap<String, FutureTask<RandomAccessFastaReader<NucleotideSequence>>> readers =
+            new ConcurrentHashMap<>();
     /**
      * Full record URI to sequence provider
      */
-    final TreeMap<URI, CachedSequenceProvider<NucleotideSequence>> records = new TreeMap<>();
+    final ConcurrentHashMap<URI, CachedSequenceProvider<NucleotideSequence>> records = new ConcurrentHashMap<>();
 
     /**
      * Extracts record name from original address
@@ -66,14 +71,53 @@ public abstract class AbstractRAFastaResolver implements SequenceResolver {
      */
     protected abstract Path getFASTAFile(SequenceAddress uri);
 
-    public synchronized RandomAccessFastaReader<NucleotideSequence> resolveReader(SequenceAddress address) {
-        for (int retry = 0; retry < 2; ++retry) {
-            // Getting reader key
-            String readerKey = resolveReaderId(address);
+    /**
+     * Removes FASTA file that can't be opened, so it will be re-created on the next {@link
+     * #getFASTAFile(SequenceAddress)} invocation. Invoked only if deleteOnError flag is set.
+     *
+     * @param address original address
+     * @param file    FASTA file
+     */
+    protected void discardFASTAFile(SequenceAddress address, Path file) {
+        try {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(file.resolveSibling(file.getFileName() + RandomAccessFastaIndex.INDEX_SUFFIX));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public RandomAccessFastaReader<NucleotideSequence> resolveReader(final SequenceAddress address) {
+        // Getting reader key
+        String readerKey = resolveReaderId(address);
+
+        // Checking if reader already opened or is being opened by other thread
+        FutureTask<RandomAccessFastaReader<NucleotideSequence>> task = readers.get(readerKey);
+        if (task == null) {
+            FutureTask<RandomAccessFastaReader<NucleotideSequence>> newTask = new FutureTask<>(
+                    new Callable<RandomAccessFastaReader<NucleotideSequence>>() {
+                        @Override
+                        public RandomAccessFastaReader<NucleotideSequence> call() throws Exception {
+                            return openReader(address);
+                        }
+                    });
+            task = readers.putIfAbsent(readerKey, newTask);
+            if (task == null)
+                (task = newTask).run();
+        }
 
-            // Checking if reader already opened
-            RandomAccessFastaReader<NucleotideSequence> reader = readers.get(readerKey);
+        try {
+            return await(task);
+        } catch (RuntimeException | Error e) {
+            // Next request will try to open the reader again
+            if (task.isDone())
+                readers.remove(readerKey, task);
+            throw e;
+        }
+    }
 
+    private RandomAccessFastaReader<NucleotideSequence> openReader(SequenceAddress address) {
+        for (int retry = 0; retry < 2; ++retry) {
             Path file = null;
 
             try {
@@ -82,14 +126,12 @@ public abstract class AbstractRAFastaResolver implements SequenceResolver {
                 file = getFASTAFile(address);
 
                 // Creating or loading index
+                long start = System.nanoTime();
                 RandomAccessFastaIndex index = RandomAccessFastaIndex.index(file, true, getReporter());
+                ResolverMetrics.getDefault().record(ResolverMetrics.Operation.Index, address, start,
+                        Files.size(file));
 
-                // Caching reader
-                readers.put(readerKey, reader =
-                        new RandomAccessFastaReader<>(file, index,
-                                NucleotideSequence.ALPHABET));
-
-                return reader;
+                return new RandomAccessFastaReader<>(file, index, NucleotideSequence.ALPHABET);
             } catch (Exception e) {
                 // Something went wrong with file, removing for re-download.
                 log.warn("Error opening {}." + (deleteOnError ? " Removing." : ""), file, e);
@@ -97,20 +139,17 @@ public abstract class AbstractRAFastaResolver implements SequenceResolver {
                 // If deleteOnError flag is set,
                 // removing source file and index if exists
                 if (deleteOnError && file != null)
-                    try {
-                        Files.delete(file);
-                        Path indexFile = file.resolveSibling(file.getFileName() +
-                                RandomAccessFastaIndex.INDEX_SUFFIX);
-                        if (Files.exists(indexFile))
-                            Files.delete(indexFile);
-                    } catch (IOException e1) {
-                        throw new RuntimeException(e1);
-                    }
+                    discardFASTAFile(address, file);
 
                 // Retry
             }
         }
-        throw new RuntimeException();
+        throw new RuntimeException("Can't open " + address);
+    }
+
+    @Override
+    public void prepare(SequenceAddress address) {
+        resolveReader(address);
     }
 
     @Override
@@ -120,15 +159,19 @@ public abstract class AbstractRAFastaResolver implements SequenceResolver {
         CachedSequenceProvider<NucleotideSequence> provider = records.get(uri);
         if (provider == null) {
             final String recordId = resolveRecordId(uri);
-            records.put(uri, provider = new CachedSequenceProvider<>(
+            provider = new CachedSequenceProvider<>(
                     NucleotideSequence.ALPHABET,
                     SequenceProviderUtils.lazyProvider(new SequenceProviderFactory<NucleotideSequence>() {
                         @Override
                         public SequenceProvider<NucleotideSequence> create() {
                             RandomAccessFastaReader<NucleotideSequence> fasta = resolveReader(address);
-                            return fasta.getSequenceProvider(recordId);
+                            return ResolverMetrics.getDefault().instrument(fasta.getSequenceProvider(recordId),
+                                    address);
                         }
-                    })));
+                    }));
+            CachedSequenceProvider<NucleotideSequence> existing = records.putIfAbsent(uri, provider);
+            if (existing != null)
+                provider = existing;
         }
 
         return provider;
@@ -0,0 +1,30 @@
+package io.repseq.seqbase;
+
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.provider.CachedSequenceProvider;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Resolver able to resolve addresses in background threads.
+ */
+public interface AsyncSequenceResolver extends SequenceResolver {
+    /**
+     * Resolves address in background. Returned future completes after the record is prepared (see {@link
+     * PreparableSequenceResolver}), so calling thread never waits for downloads or indexing.
+     *
+     * @param address address
+     * @return future provider
+     */
+    Future<CachedSequenceProvider<NucleotideSequence>> resolveAsync(SequenceAddress address);
+
+    /**
+     * Resolves several addresses in parallel, making use of batch requests where possible.
+     *
+     * @param addresses addresses
+     * @return future providers, in the same order as addresses
+     */
+    List<Future<CachedSequenceProvider<NucleotideSequence>>> resolveAllAsync(Collection<SequenceAddress> addresses);
+}
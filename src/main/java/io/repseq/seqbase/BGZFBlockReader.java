@@ -0,0 +1,273 @@
+package io.repseq.seqbase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static io.repseq.util.ConcurrentUtils.*;
+
+/**
+ * Random access to uncompressed content of BGZF (blocked GNU zip format, produced by bgzip) files.
+ *
+ * Block offsets are loaded from bgzip index ({@value #GZI_SUFFIX} file), or collected by scanning block headers if
+ * there is no such file. Recently used decompressed blocks are cached, and blocks of long regions are decompressed in
+ * parallel. Instances are thread-safe.
+ */
+public final class BGZFBlockReader implements AutoCloseable {
+    public static final String GZI_SUFFIX = ".gzi";
+    public static final int DEFAULT_CACHE_SIZE = 64;
+    /**
+     * Regions spanning at least this number of blocks are decompressed in parallel
+     */
+    public static final int PARALLEL_THRESHOLD = 8;
+    private static final int HEADER_SIZE = 18;
+    private static final int MAX_BLOCK_SIZE = 65536;
+    /**
+     * Shared executor for parallel decompression, created on first use
+     */
+    private static volatile ExecutorService executor;
+
+    final Path file;
+    final FileChannel channel;
+    /**
+     * Block start positions in compressed file and in uncompressed stream (both arrays are sorted)
+     */
+    final long[] compressedOffsets, uncompressedOffsets;
+    /**
+     * Decompressed blocks cache; block index -> content (access-ordered)
+     */
+    final LinkedHashMap<Integer, byte[]> cache;
+
+    public BGZFBlockReader(Path file) throws IOException {
+        this(file, DEFAULT_CACHE_SIZE);
+    }
+
+    public BGZFBlockReader(Path file, final int cacheSize) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            Path gzi = file.resolveSibling(file.getFileName() + GZI_SUFFIX);
+            long[][] offsets = Files.exists(gzi) ? readGZI(gzi) : scanBlocks();
+            this.compressedOffsets = offsets[0];
+            this.uncompressedOffsets = offsets[1];
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        this.cache = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Returns number of blocks
+     */
+    public int blocks() {
+        return compressedOffsets.length;
+    }
+
+    /**
+     * Reads uncompressed content
+     *
+     * @param from start position in uncompressed stream (inclusive)
+     * @param to   end position in uncompressed stream (exclusive)
+     * @return content; may be shorter than requested if the end of stream was reached
+     */
+    public byte[] read(long from, long to) throws IOException {
+        if (from < 0 || to < from)
+            throw new IllegalArgumentException();
+        if (from == to)
+            return new byte[0];
+
+        int firstBlock = findBlock(from), lastBlock = findBlock(to - 1);
+        int blocksCount = lastBlock - firstBlock + 1;
+
+        List<Future<byte[]>> parallel = null;
+        if (blocksCount >= PARALLEL_THRESHOLD) {
+            // Only boundary blocks are cached, to keep cache content for short requests
+            parallel = new ArrayList<>(blocksCount);
+            for (int i = firstBlock; i <= lastBlock; ++i) {
+                final int block = i;
+                final boolean boundary = i == firstBlock || i == lastBlock;
+                parallel.add(getExecutor().submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return boundary ? getBlock(block) : decompressBlock(block);
+                    }
+                }));
+            }
+        }
+
+        ByteBuffer result = ByteBuffer.allocate((int) Math.min(to - from, Integer.MAX_VALUE - 8));
+        long position = uncompressedOffsets[firstBlock];
+        for (int i = firstBlock; i <= lastBlock && result.hasRemaining(); ++i) {
+            byte[] data = parallel == null ? getBlock(i) : awaitIO(parallel.get(i - firstBlock));
+            int offset = (int) Math.max(0, from - position);
+            if (offset < data.length)
+                result.put(data, offset, Math.min(data.length - offset, result.remaining()));
+            position += data.length;
+        }
+
+        if (!result.hasRemaining())
+            return result.array();
+        byte[] truncated = new byte[result.position()];
+        System.arraycopy(result.array(), 0, truncated, 0, truncated.length);
+        return truncated;
+    }
+
+    /**
+     * Returns index of the last block starting at or before the position
+     */
+    int findBlock(long position) {
+        int index = Arrays.binarySearch(uncompressedOffsets, position);
+        if (index < 0)
+            return -index - 2;
+        // Several (empty) blocks may start at the same position
+        while (index + 1 < uncompressedOffsets.length && uncompressedOffsets[index + 1] == position)
+            ++index;
+        return index;
+    }
+
+    private byte[] getBlock(int block) throws IOException {
+        synchronized (cache) {
+            byte[] data = cache.get(block);
+            if (data != null)
+                return data;
+        }
+        byte[] data = decompressBlock(block);
+        synchronized (cache) {
+            cache.put(block, data);
+        }
+        return data;
+    }
+
+    private byte[] decompressBlock(int block) throws IOException {
+        long offset = compressedOffsets[block];
+        ByteBuffer header = readFully(offset, HEADER_SIZE);
+        int blockSize = blockSize(header, offset);
+        ByteBuffer buffer = readFully(offset, blockSize);
+        int xlen = buffer.getShort(10) & 0xFFFF;
+        int dataStart = 12 + xlen, dataEnd = blockSize - 8;
+        int crc = buffer.getInt(blockSize - 8);
+        int size = buffer.getInt(blockSize - 4);
+
+        byte[] result = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(buffer.array(), dataStart, dataEnd - dataStart);
+            int inflated = 0;
+            while (inflated < size) {
+                int n = inflater.inflate(result, inflated, size - inflated);
+                if (n == 0 && (inflater.finished() || inflater.needsInput()))
+                    break;
+                inflated += n;
+            }
+            if (inflated != size)
+                throw new IOException("Malformed BGZF block at " + offset + " in " + file);
+        } catch (DataFormatException e) {
+            throw new IOException("Malformed BGZF block at " + offset + " in " + file, e);
+        } finally {
+            inflater.end();
+        }
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(result, 0, size);
+        if ((int) crc32.getValue() != crc)
+            throw new IOException("CRC mismatch in BGZF block at " + offset + " in " + file);
+        return result;
+    }
+
+    /**
+     * Extracts total block size from BGZF header ("BC" extra subfield)
+     */
+    private int blockSize(ByteBuffer header, long offset) throws IOException {
+        if ((header.get(0) & 0xFF) != 31 || (header.get(1) & 0xFF) != 139 || header.get(2) != 8 ||
+                (header.get(3) & 4) == 0)
+            throw new IOException("Not a BGZF block at " + offset + " in " + file);
+        int xlen = header.getShort(10) & 0xFFFF;
+        ByteBuffer extra = xlen + 12 <= HEADER_SIZE ? header : readFully(offset, 12 + xlen);
+        for (int p = 12; p + 4 <= 12 + xlen; ) {
+            int slen = extra.getShort(p + 2) & 0xFFFF;
+            if (extra.get(p) == 'B' && extra.get(p + 1) == 'C' && slen == 2)
+                return (extra.getShort(p + 4) & 0xFFFF) + 1;
+            p += 4 + slen;
+        }
+        throw new IOException("No BGZF block size at " + offset + " in " + file);
+    }
+
+    private ByteBuffer readFully(long position, int size) throws IOException {
+        if (size > MAX_BLOCK_SIZE)
+            throw new IOException("Malformed BGZF block at " + position + " in " + file);
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of file " + file);
+        return buffer;
+    }
+
+    /**
+     * Reads bgzip index: number of entries followed by (compressed offset, uncompressed offset) pairs, all little
+     * endian 64-bit integers; the first block (0, 0) is implicit
+     */
+    private static long[][] readGZI(Path gzi) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(gzi)).order(ByteOrder.LITTLE_ENDIAN);
+        int count = (int) buffer.getLong();
+        long[] compressed = new long[count + 1], uncompressed = new long[count + 1];
+        for (int i = 1; i <= count; ++i) {
+            compressed[i] = buffer.getLong();
+            uncompressed[i] = buffer.getLong();
+        }
+        return new long[][]{compressed, uncompressed};
+    }
+
+    private long[][] scanBlocks() throws IOException {
+        long size = channel.size();
+        long[] compressed = new long[1024], uncompressed = new long[1024];
+        int count = 0;
+        long compressedOffset = 0, uncompressedOffset = 0;
+        while (compressedOffset < size) {
+            if (count == compressed.length) {
+                compressed = Arrays.copyOf(compressed, count * 2);
+                uncompressed = Arrays.copyOf(uncompressed, count * 2);
+            }
+            compressed[count] = compressedOffset;
+            uncompressed[count] = uncompressedOffset;
+            ++count;
+            int blockSize = blockSize(readFully(compressedOffset, HEADER_SIZE), compressedOffset);
+            uncompressedOffset += readFully(compressedOffset + blockSize - 4, 4).getInt(0) & 0xFFFFFFFFL;
+            compressedOffset += blockSize;
+        }
+        return new long[][]{Arrays.copyOf(compressed, count), Arrays.copyOf(uncompressed, count)};
+    }
+
+    private static ExecutorService getExecutor() {
+        if (executor == null)
+            synchronized (BGZFBlockReader.class) {
+                if (executor == null)
+                    executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                            new NamedThreadFactory("bgzf-"));
+            }
+        return executor;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
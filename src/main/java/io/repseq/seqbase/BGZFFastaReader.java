@@ -0,0 +1,119 @@
+package io.repseq.seqbase;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.SequenceBuilder;
+import com.milaboratory.core.sequence.provider.SequenceProvider;
+import com.milaboratory.core.sequence.provider.SequenceProviderIndexOutOfBoundsException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Random access reader for bgzip-compressed FASTA files indexed with samtools faidx ({@value #FAI_SUFFIX} file; bgzip
+ * index, {@value BGZFBlockReader#GZI_SUFFIX} file, is optional). Instances are thread-safe.
+ */
+public final class BGZFFastaReader implements AutoCloseable {
+    public static final String FAI_SUFFIX = ".fai";
+    final BGZFBlockReader blocks;
+    /**
+     * Record name -> faidx record
+     */
+    final Map<String, FaiRecord> records;
+
+    public BGZFFastaReader(Path file) throws IOException {
+        Path fai = file.resolveSibling(file.getFileName() + FAI_SUFFIX);
+        if (!Files.exists(fai))
+            throw new IllegalArgumentException("No index found for " + file + " (use samtools faidx to create one).");
+        this.records = readFai(fai);
+        this.blocks = new BGZFBlockReader(file);
+    }
+
+    public SequenceProvider<NucleotideSequence> getSequenceProvider(String id) {
+        final FaiRecord record = records.get(id);
+        if (record == null)
+            throw new IllegalArgumentException("No record with id: " + id);
+        return new SequenceProvider<NucleotideSequence>() {
+            @Override
+            public int size() {
+                return (int) record.length;
+            }
+
+            @Override
+            public NucleotideSequence getRegion(Range range) {
+                return read(record, range);
+            }
+        };
+    }
+
+    NucleotideSequence read(FaiRecord record, Range range) {
+        if (range.getUpper() > record.length)
+            throw new SequenceProviderIndexOutOfBoundsException(range.intersection(new Range(0, (int) record.length)));
+
+        if (range.isEmpty())
+            return NucleotideSequence.EMPTY;
+
+        byte[] data;
+        try {
+            data = blocks.read(record.position(range.getLower()), record.position(range.getUpper() - 1) + 1);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        SequenceBuilder<NucleotideSequence> builder = NucleotideSequence.ALPHABET.createBuilder()
+                .ensureCapacity(range.length());
+        for (byte b : data)
+            if (b != '\n' && b != '\r')
+                builder.append(NucleotideSequence.ALPHABET.symbolToCode((char) b));
+        if (builder.size() != range.length())
+            throw new RuntimeException("Malformed FASTA index for " + blocks.file);
+        NucleotideSequence seq = builder.createAndDestroy();
+        return range.isReverse() ? seq.getReverseComplement() : seq;
+    }
+
+    private static Map<String, FaiRecord> readFai(Path fai) throws IOException {
+        Map<String, FaiRecord> result = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(fai, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty())
+                    continue;
+                String[] fields = line.split("\t");
+                if (fields.length < 5)
+                    throw new IOException("Malformed line in " + fai + ": " + line);
+                result.put(fields[0], new FaiRecord(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                        Integer.parseInt(fields[3]), Integer.parseInt(fields[4])));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        blocks.close();
+    }
+
+    static final class FaiRecord {
+        final long length, offset;
+        final int lineBases, lineWidth;
+
+        FaiRecord(long length, long offset, int lineBases, int lineWidth) {
+            this.length = length;
+            this.offset = offset;
+            this.lineBases = lineBases;
+            this.lineWidth = lineWidth;
+        }
+
+        /**
+         * Position of the letter in uncompressed file
+         */
+        long position(long letter) {
+            return offset + letter / lineBases * lineWidth + letter % lineBases;
+        }
+    }
+}
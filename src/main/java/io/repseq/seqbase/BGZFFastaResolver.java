@@ -0,0 +1,34 @@
+package io.repseq.seqbase;
+
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.provider.SequenceProvider;
+
+import java.nio.file.Path;
+
+/**
+ * Resolves records from local bgzip-compressed FASTA files, indexed with samtools faidx.
+ *
+ * bgzf:///path/genome.fa.gz#chr1 or file:///path/genome.fa.gz#chr1 (file addresses ending with .gz or .bgz)
+ */
+public final class BGZFFastaResolver extends AbstractLocalFileResolver<BGZFFastaReader> {
+    @Override
+    public boolean canResolve(SequenceAddress address) {
+        String scheme = address.getUri().getScheme();
+        if ("bgzf".equalsIgnoreCase(scheme))
+            return true;
+        if (!"file".equalsIgnoreCase(scheme))
+            return false;
+        String path = address.getUri().getRawSchemeSpecificPart().toLowerCase();
+        return path.endsWith(".gz") || path.endsWith(".bgz");
+    }
+
+    @Override
+    protected BGZFFastaReader openReader(Path file) throws Exception {
+        return new BGZFFastaReader(file);
+    }
+
+    @Override
+    protected SequenceProvider<NucleotideSequence> getSequenceProvider(BGZFFastaReader reader, String recordId) {
+        return reader.getSequenceProvider(recordId);
+    }
+}
@@ -0,0 +1,17 @@
+package io.repseq.seqbase;
+
+import java.util.Collection;
+
+/**
+ * Resolver which can fetch data for several addresses at once more efficiently than one by one (e.g. using a single
+ * request to remote service for a batch of records)
+ */
+public interface BatchSequenceResolver {
+    /**
+     * Fetches data for all addresses this resolver can handle, so subsequent {@link SequenceResolver#resolve(SequenceAddress)}
+     * calls for them will not require additional remote requests. Addresses this resolver can't handle are ignored.
+     *
+     * @param addresses addresses
+     */
+    void prefetch(Collection<SequenceAddress> addresses);
+}
@@ -0,0 +1,81 @@
+package io.repseq.seqbase;
+
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.provider.CachedSequenceProvider;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves addresses contained in a {@link SequenceBundle} file (e.g. created by "repseqio bundle"), without access
+ * to original sources. Addresses are matched by {@link #key(SequenceAddress)}, so relative addresses of local files
+ * are matched by the absolute path they resolve to.
+ */
+public final class BundleSequenceResolver implements OptionalSequenceResolver, AutoCloseable {
+    final SequenceBundle bundle;
+    /**
+     * Address -> sequence provider
+     */
+    final ConcurrentHashMap<String, CachedSequenceProvider<NucleotideSequence>> records = new ConcurrentHashMap<>();
+
+    public BundleSequenceResolver(SequenceBundle bundle) {
+        this.bundle = bundle;
+    }
+
+    public BundleSequenceResolver(Path file) {
+        try {
+            this.bundle = SequenceBundle.open(file);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public SequenceBundle getBundle() {
+        return bundle;
+    }
+
+    @Override
+    public boolean canResolve(SequenceAddress address) {
+        return bundle.contains(key(address));
+    }
+
+    @Override
+    public CachedSequenceProvider<NucleotideSequence> resolve(SequenceAddress address) {
+        String key = key(address);
+        CachedSequenceProvider<NucleotideSequence> provider = records.get(key);
+        if (provider == null) {
+            provider = new CachedSequenceProvider<>(NucleotideSequence.ALPHABET,
+                    ResolverMetrics.getDefault().instrument(bundle.getSequenceProvider(key), address));
+            CachedSequenceProvider<NucleotideSequence> existing = records.putIfAbsent(key, provider);
+            if (existing != null)
+                provider = existing;
+        }
+        return provider;
+    }
+
+    /**
+     * Returns bundle record key for the address: addresses of local files (file, bgzf and twobit schemes, or without
+     * scheme) are resolved to absolute paths (against address context, or working directory for addresses without
+     * context, see {@link LocalFileResolver#resolvePath(SequenceAddress)}), other addresses are used as is
+     *
+     * @param address sequence address
+     * @return bundle record key
+     */
+    public static String key(SequenceAddress address) {
+        URI uri = address.getUri();
+        String scheme = uri.getScheme();
+        if (!(scheme == null || "file".equalsIgnoreCase(scheme) ||
+                "bgzf".equalsIgnoreCase(scheme) || "twobit".equalsIgnoreCase(scheme)))
+            return uri.toString();
+        Path path = LocalFileResolver.resolvePath(address).toAbsolutePath();
+        String fragment = uri.getRawFragment();
+        return (scheme == null ? "" : scheme + "://") + path + (fragment == null ? "" : "#" + fragment);
+    }
+
+    @Override
+    public void close() throws IOException {
+        bundle.close();
+    }
+}
@@ -0,0 +1,675 @@
+package io.repseq.seqbase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Managed storage for downloaded files.
+ *
+ * Files are stored under names derived from SHA-256 of their content ({@value #OBJECTS_DIR}/&lt;sha256&gt;), and the
+ * manifest ({@value #MANIFEST_FILE}) maps arbitrary keys (e.g. source URLs) to content checksum, size, modification
+ * and last access time. Entry is re-checked against its checksum if file size or modification time differs from the
+ * recorded one. When total size of stored files exceeds the quota, least recently accessed entries are evicted.
+ * Files created next to stored files (e.g. FASTA indices, {@code <sha256>.<suffix>}) are accounted to the entry and
+ * removed together with it.
+ *
+ * Entries accessed by this instance are never evicted by it, so the size limit is not enforced within a session: if
+ * entries used by a single instance exceed the limit, the cache grows beyond it (a warning is logged) until they are
+ * evicted by another instance (e.g. by {@code repseqio cache clean}).
+ *
+ * All manifest operations are performed under an exclusive file lock ({@value #LOCK_FILE}), so the same cache
+ * directory can be safely shared between several processes. Repeated access to an entry already verified by this
+ * instance doesn't take the lock; its access time is recorded in memory and written to the manifest with the next
+ * manifest update, by {@link #flush()}, or once the recorded time is older than {@value
+ * #ACCESS_TIME_RESOLUTION} ms.
+ */
+public final class DownloadCache {
+    private static final Logger log = LoggerFactory.getLogger(DownloadCache.class);
+    public static final String MANIFEST_FILE = "manifest.tsv";
+    public static final String LOCK_FILE = ".lock";
+    public static final String OBJECTS_DIR = "objects";
+    public static final String DOWNLOADS_DIR = "downloads";
+    public static final String MAX_SIZE_PROPERTY = "repseqio.cache.maxSize";
+    public static final long DEFAULT_MAX_SIZE = 16L * 1024 * 1024 * 1024;
+    /**
+     * Maximal age of access time recorded in manifest for entries in use (ms)
+     */
+    public static final long ACCESS_TIME_RESOLUTION = 60_000;
+    private static final String MANIFEST_HEADER = "#key\tsha256\tsize\tmodified\taccessed";
+
+    final Path dir;
+    final long maxSize;
+    /**
+     * Keys accessed or stored by this instance, such entries are not evicted by this instance
+     */
+    final Set<String> pinned = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /**
+     * Entries verified by this instance, as recorded in manifest; key -> entry
+     */
+    final ConcurrentHashMap<String, Entry> verified = new ConcurrentHashMap<>();
+    /**
+     * Access times not yet written to manifest; key -> time
+     */
+    final ConcurrentHashMap<String, Long> accessed = new ConcurrentHashMap<>();
+
+    public DownloadCache(Path dir) {
+        this(dir, defaultMaxSize());
+    }
+
+    public DownloadCache(Path dir, long maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException();
+        this.dir = dir.toAbsolutePath().normalize();
+        this.maxSize = maxSize;
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns stored file for the key or null if there is no such entry (or the entry was found to be corrupted and
+     * was removed). Marks the entry as recently used.
+     *
+     * @param key entry key
+     * @return stored file or null
+     */
+    public Path get(String key) {
+        try {
+            long now = System.currentTimeMillis();
+            Entry known = verified.get(key);
+            if (known != null) {
+                Path file = objectFile(known.sha256);
+                if (Files.exists(file) && Files.size(file) == known.size &&
+                        Files.getLastModifiedTime(file).toMillis() == known.modified) {
+                    accessed.put(key, now);
+                    if (now - known.accessed >= ACCESS_TIME_RESOLUTION)
+                        flush();
+                    return file;
+                }
+            }
+
+            try (Transaction t = begin()) {
+                Entry entry = t.entries.get(key);
+                if (entry == null)
+                    return null;
+                if (!t.check(entry, false)) {
+                    t.remove(key);
+                    return null;
+                }
+                entry.accessed = now;
+                t.modified = true;
+                pinned.add(key);
+                verified.put(key, entry.copy());
+                return objectFile(entry.sha256);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes access times of entries accessed by this instance to manifest
+     */
+    public void flush() {
+        if (accessed.isEmpty())
+            return;
+        try (Transaction t = begin()) {
+            // Access times are applied on the beginning of the transaction
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns true if cache contains entry for the key. Does not change access time or verify file content.
+     */
+    public boolean contains(String key) {
+        try (Transaction t = begin()) {
+            Entry entry = t.entries.get(key);
+            return entry != null && Files.exists(objectFile(entry.sha256));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Moves file into cache and associates it with the key. If cache already contains file with the same content,
+     * source file is deleted.
+     *
+     * @param key    entry key
+     * @param source file to store (e.g. file located in {@link #downloadFile(String)})
+     * @return stored file
+     */
+    public Path put(String key, Path source) {
+        try {
+            // Checksum is calculated outside the lock, as it may take a while for large files
+            String sha256 = Files.exists(source) ? sha256(source) : null;
+
+            try (Transaction t = begin()) {
+                if (sha256 == null) {
+                    // Concurrent put of the same file by other thread or process
+                    Entry existing = t.entries.get(key);
+                    if (existing != null && Files.exists(objectFile(existing.sha256))) {
+                        pinned.add(key);
+                        return objectFile(existing.sha256);
+                    }
+                    throw new NoSuchFileException(source.toString());
+                }
+
+                Files.createDirectories(dir.resolve(OBJECTS_DIR));
+                Path target = objectFile(sha256);
+                if (Files.exists(target) && Files.size(target) == Files.size(source))
+                    Files.delete(source);
+                else
+                    HTTPDownloader.moveAtomically(source, target);
+
+                Entry entry = new Entry(key, sha256, Files.size(target),
+                        Files.getLastModifiedTime(target).toMillis(), System.currentTimeMillis());
+                Entry previous = t.entries.put(key, entry);
+                if (previous != null && !previous.sha256.equals(sha256))
+                    t.deleteIfUnreferenced(previous.sha256);
+                t.modified = true;
+                pinned.add(key);
+                verified.put(key, entry.copy());
+
+                t.evict(maxSize);
+                return target;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Removes entry (e.g. if stored file can't be parsed)
+     *
+     * @param key entry key
+     */
+    public void invalidate(String key) {
+        try (Transaction t = begin()) {
+            t.remove(key);
+            pinned.remove(key);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns location to download file for the key into, before passing it to {@link #put(String, Path)}. Location
+     * is the same for the same key, so interrupted downloads can be resumed.
+     *
+     * @param key entry key
+     * @return download location
+     */
+    public Path downloadFile(String key) {
+        try {
+            Path downloads = dir.resolve(DOWNLOADS_DIR);
+            Files.createDirectories(downloads);
+            return downloads.resolve(hex(digest("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8))));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns snapshot of all entries sorted by last access time (most recent first)
+     */
+    public List<Entry> entries() {
+        try (Transaction t = begin()) {
+            List<Entry> result = new ArrayList<>();
+            for (Entry entry : t.entries.values())
+                result.add(entry.copy());
+            Collections.sort(result, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry o1, Entry o2) {
+                    return Long.compare(o2.accessed, o1.accessed);
+                }
+            });
+            return result;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns total size of stored files, including files accounted to entries (e.g. indices)
+     */
+    public long totalSize() {
+        try (Transaction t = begin()) {
+            return t.totalSize();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns total size of incomplete downloads
+     */
+    public long downloadsSize() {
+        return directorySize(dir.resolve(DOWNLOADS_DIR));
+    }
+
+    /**
+     * Evicts least recently used entries until total size is not greater than the limit
+     *
+     * @param limit size limit in bytes
+     * @return number of evicted entries
+     */
+    public int evict(long limit) {
+        try (Transaction t = begin()) {
+            return t.evict(limit);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Checks content of all stored files against recorded checksums, and removes corrupted entries
+     *
+     * @return keys of removed entries
+     */
+    public List<String> verify() {
+        try (Transaction t = begin()) {
+            List<String> removed = new ArrayList<>();
+            for (Entry entry : new ArrayList<>(t.entries.values()))
+                if (!t.check(entry, true)) {
+                    t.remove(entry.key);
+                    removed.add(entry.key);
+                }
+            // Removing files not referenced from manifest
+            for (Path file : list(dir.resolve(OBJECTS_DIR)))
+                if (!t.referenced(file.getFileName().toString().split("\\.", 2)[0]))
+                    Files.deleteIfExists(file);
+            return removed;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Removes all entries and incomplete downloads
+     */
+    public void clear() {
+        try (Transaction t = begin()) {
+            for (String key : new ArrayList<>(t.entries.keySet()))
+                t.remove(key);
+            for (Path file : list(dir.resolve(OBJECTS_DIR)))
+                Files.deleteIfExists(file);
+            for (Path file : list(dir.resolve(DOWNLOADS_DIR)))
+                Files.deleteIfExists(file);
+            pinned.clear();
+            verified.clear();
+            accessed.clear();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    Path objectFile(String sha256) {
+        return dir.resolve(OBJECTS_DIR).resolve(sha256);
+    }
+
+    /**
+     * Stored file and all files accounted to it
+     */
+    List<Path> objectFiles(String sha256) throws IOException {
+        List<Path> result = new ArrayList<>();
+        for (Path file : list(dir.resolve(OBJECTS_DIR))) {
+            String name = file.getFileName().toString();
+            if (name.equals(sha256) || name.startsWith(sha256 + "."))
+                result.add(file);
+        }
+        return result;
+    }
+
+    private Transaction begin() throws IOException {
+        Files.createDirectories(dir);
+        ExclusiveFileLock lock = ExclusiveFileLock.lock(dir.resolve(LOCK_FILE));
+        try {
+            return new Transaction(lock);
+        } catch (IOException | RuntimeException e) {
+            lock.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Manifest loaded under exclusive lock; written back on close if modified
+     */
+    private final class Transaction implements AutoCloseable {
+        final ExclusiveFileLock lock;
+        final Map<String, Entry> entries;
+        boolean modified = false;
+
+        Transaction(ExclusiveFileLock lock) throws IOException {
+            this.lock = lock;
+            this.entries = readManifest();
+            applyAccessTimes();
+        }
+
+        /**
+         * Moves access times recorded in memory to manifest entries
+         */
+        void applyAccessTimes() {
+            for (String key : new ArrayList<>(accessed.keySet())) {
+                Long time = accessed.remove(key);
+                Entry entry = entries.get(key);
+                if (time == null || entry == null || entry.accessed >= time)
+                    continue;
+                entry.accessed = time;
+                modified = true;
+                Entry known = verified.get(key);
+                if (known != null)
+                    known.accessed = time;
+            }
+        }
+
+        /**
+         * Checks that stored file exists and has expected content; full check is performed only if file size or
+         * modification time differs from the recorded, or if forced
+         */
+        boolean check(Entry entry, boolean force) throws IOException {
+            Path file = objectFile(entry.sha256);
+            if (!Files.exists(file)) {
+                log.warn("Cached file for {} is missing.", entry.key);
+                return false;
+            }
+            long size = Files.size(file), modified = Files.getLastModifiedTime(file).toMillis();
+            if (!force && size == entry.size && modified == entry.modified)
+                return true;
+            if (size != entry.size || !sha256(file).equals(entry.sha256)) {
+                log.warn("Cached file for {} is corrupted.", entry.key);
+                return false;
+            }
+            entry.modified = modified;
+            this.modified = true;
+            Entry known = verified.get(entry.key);
+            if (known != null)
+                known.modified = modified;
+            return true;
+        }
+
+        boolean referenced(String sha256) {
+            for (Entry entry : entries.values())
+                if (entry.sha256.equals(sha256))
+                    return true;
+            return false;
+        }
+
+        void remove(String key) throws IOException {
+            verified.remove(key);
+            accessed.remove(key);
+            Entry entry = entries.remove(key);
+            if (entry == null)
+                return;
+            modified = true;
+            deleteIfUnreferenced(entry.sha256);
+        }
+
+        void deleteIfUnreferenced(String sha256) throws IOException {
+            if (referenced(sha256))
+                return;
+            for (Path file : objectFiles(sha256))
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    // E.g. file is opened by other process on Windows
+                    log.warn("Can't delete " + file, e);
+                }
+        }
+
+        /**
+         * Sizes of stored files; sha256 -> size of the file and all files accounted to it
+         */
+        Map<String, Long> objectSizes() throws IOException {
+            Map<String, Long> sizes = new HashMap<>();
+            for (Path file : list(dir.resolve(OBJECTS_DIR))) {
+                String sha256 = file.getFileName().toString().split("\\.", 2)[0];
+                Long size = sizes.get(sha256);
+                sizes.put(sha256, (size == null ? 0 : size) + Files.size(file));
+            }
+            return sizes;
+        }
+
+        long totalSize() throws IOException {
+            long total = 0;
+            for (Long size : objectSizes().values())
+                total += size;
+            return total;
+        }
+
+        int evict(long limit) throws IOException {
+            Map<String, Long> sizes = objectSizes();
+            long total = 0;
+            for (Long size : sizes.values())
+                total += size;
+            if (total <= limit)
+                return 0;
+
+            List<Entry> lru = new ArrayList<>(entries.values());
+            Collections.sort(lru, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry o1, Entry o2) {
+                    return Long.compare(o1.accessed, o2.accessed);
+                }
+            });
+
+            int evicted = 0;
+            for (Entry entry : lru) {
+                if (total <= limit)
+                    break;
+                if (pinned.contains(entry.key))
+                    continue;
+                remove(entry.key);
+                ++evicted;
+                if (!referenced(entry.sha256)) {
+                    Long size = sizes.remove(entry.sha256);
+                    if (size != null)
+                        total -= size;
+                }
+            }
+            if (total > limit)
+                log.warn("Cache size ({} bytes) exceeds the limit ({} bytes), remaining entries are in use.", total,
+                        limit);
+            return evicted;
+        }
+
+        private Map<String, Entry> readManifest() throws IOException {
+            Map<String, Entry> result = new LinkedHashMap<>();
+            Path manifest = dir.resolve(MANIFEST_FILE);
+            if (!Files.exists(manifest))
+                return result;
+            try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty() || line.startsWith("#"))
+                        continue;
+                    String[] fields = line.split("\t");
+                    if (fields.length != 5) {
+                        log.warn("Malformed cache manifest line: {}", line);
+                        continue;
+                    }
+                    result.put(fields[0], new Entry(fields[0], fields[1], Long.parseLong(fields[2]),
+                            Long.parseLong(fields[3]), Long.parseLong(fields[4])));
+                }
+            }
+            return result;
+        }
+
+        private void writeManifest() throws IOException {
+            Path manifest = dir.resolve(MANIFEST_FILE);
+            Path tmp = HTTPDownloader.sibling(manifest, HTTPDownloader.TMP_SUFFIX);
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                writer.write(MANIFEST_HEADER);
+                writer.write("\n");
+                for (Entry entry : entries.values()) {
+                    writer.write(entry.key + "\t" + entry.sha256 + "\t" + entry.size + "\t" + entry.modified + "\t" +
+                            entry.accessed);
+                    writer.write("\n");
+                }
+            }
+            HTTPDownloader.moveAtomically(tmp, manifest);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (modified)
+                    writeManifest();
+            } finally {
+                lock.close();
+            }
+        }
+    }
+
+    /**
+     * Cache manifest entry
+     */
+    public static final class Entry {
+        final String key;
+        final String sha256;
+        final long size;
+        // Modified concurrently with reading of entries verified by the cache instance
+        volatile long modified;
+        volatile long accessed;
+
+        Entry(String key, String sha256, long size, long modified, long accessed) {
+            this.key = key;
+            this.sha256 = sha256;
+            this.size = size;
+            this.modified = modified;
+            this.accessed = accessed;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastAccessTime() {
+            return accessed;
+        }
+
+        Entry copy() {
+            return new Entry(key, sha256, size, modified, accessed);
+        }
+    }
+
+    /**
+     * Returns size limit set with {@value #MAX_SIZE_PROPERTY} system property, or {@link #DEFAULT_MAX_SIZE}
+     */
+    public static long defaultMaxSize() {
+        String value = System.getProperty(MAX_SIZE_PROPERTY);
+        return value == null ? DEFAULT_MAX_SIZE : parseSize(value);
+    }
+
+    /**
+     * Parses size with optional K, M, G or T suffix (e.g. "512M")
+     */
+    public static long parseSize(String value) {
+        value = value.trim().toUpperCase();
+        if (value.endsWith("B"))
+            value = value.substring(0, value.length() - 1);
+        int shift = 0;
+        if (!value.isEmpty())
+            switch (value.charAt(value.length() - 1)) {
+                case 'K':
+                    shift = 10;
+                    break;
+                case 'M':
+                    shift = 20;
+                    break;
+                case 'G':
+                    shift = 30;
+                    break;
+                case 'T':
+                    shift = 40;
+                    break;
+            }
+        if (shift != 0)
+            value = value.substring(0, value.length() - 1);
+        return Long.parseLong(value.trim()) << shift;
+    }
+
+    static String sha256(Path file) throws IOException {
+        MessageDigest digest = digest("SHA-256");
+        ByteBuffer buffer = ByteBuffer.allocate(HTTPDownloader.CHUNK_SIZE * 8);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    private static MessageDigest digest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> result = new ArrayList<>();
+        if (!Files.isDirectory(directory))
+            return result;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream)
+                result.add(file);
+        }
+        return result;
+    }
+
+    private static long directorySize(Path directory) {
+        final long[] size = {0};
+        if (!Files.isDirectory(directory))
+            return 0;
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    size[0] += attrs.size();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return size[0];
+    }
+}
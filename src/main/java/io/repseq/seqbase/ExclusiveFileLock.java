@@ -0,0 +1,100 @@
+package io.repseq.seqbase;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock of a file, held by a single thread of all processes using the file.
+ *
+ * File locks are held by the whole JVM, so threads of the same process are serialized by in-process locks. In-process
+ * locks are created on demand and removed once no thread holds or waits for them.
+ */
+final class ExclusiveFileLock implements AutoCloseable {
+    /**
+     * In-process locks; lock file -> lock (guarded by itself)
+     */
+    private static final Map<Path, ProcessLock> locks = new HashMap<>();
+
+    final Path file;
+    private final ProcessLock processLock;
+    private final FileChannel channel;
+    private final FileLock fileLock;
+
+    private ExclusiveFileLock(Path file, ProcessLock processLock, FileChannel channel, FileLock fileLock) {
+        this.file = file;
+        this.processLock = processLock;
+        this.channel = channel;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Blocks until exclusive lock of the file is acquired; file is created if it doesn't exist
+     *
+     * @param file lock file
+     * @return acquired lock, must be closed by the same thread
+     */
+    static ExclusiveFileLock lock(Path file) throws IOException {
+        file = file.toAbsolutePath().normalize();
+        ProcessLock processLock;
+        synchronized (locks) {
+            processLock = locks.get(file);
+            if (processLock == null)
+                locks.put(file, processLock = new ProcessLock());
+            ++processLock.users;
+        }
+        processLock.lock.lock();
+        try {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                return new ExclusiveFileLock(file, processLock, channel, channel.lock());
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            release(file, processLock);
+            throw e;
+        }
+    }
+
+    /**
+     * Number of files with in-process locks held or awaited (for tests)
+     */
+    static int lockedFiles() {
+        synchronized (locks) {
+            return locks.size();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            fileLock.release();
+            channel.close();
+        } finally {
+            release(file, processLock);
+        }
+    }
+
+    private static void release(Path file, ProcessLock processLock) {
+        processLock.lock.unlock();
+        synchronized (locks) {
+            if (--processLock.users == 0)
+                locks.remove(file);
+        }
+    }
+
+    private static final class ProcessLock {
+        final ReentrantLock lock = new ReentrantLock();
+        /**
+         * Number of threads holding or waiting for the lock (guarded by {@link #locks})
+         */
+        int users;
+    }
+}
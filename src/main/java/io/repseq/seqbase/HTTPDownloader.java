@@ -0,0 +1,518 @@
+package io.repseq.seqbase;
+
+import com.milaboratory.util.LongProcess;
+import com.milaboratory.util.LongProcessReporter;
+import com.milaboratory.util.TimeUtils;
+import io.repseq.util.ConcurrentUtils;
+import io.repseq.util.ConcurrentUtils.NamedThreadFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import static io.repseq.util.ConcurrentUtils.awaitIO;
+
+/**
+ * Downloads remote files into local cache directory.
+ *
+ * Content is first written to temporary ({@value #PART_SUFFIX}) files and then atomically moved to the target
+ * location, so existence of the target file always means that the download was completed. If the server reports file
+ * size and supports range requests, file is downloaded in several segments in parallel, and interrupted segments are
+ * resumed from the last received byte (also across JVM restarts). Segments are resumed only if the server reports a
+ * validator (strong ETag or Last-Modified) equal to the one recorded when the segments were started ({@value
+ * #PART_SUFFIX}{@value #VALIDATOR_SUFFIX} file), and resumed requests are sent with {@code If-Range}, so parts of
+ * different versions of the remote file are never joined: if the file has changed, the download is restarted.
+ *
+ * Concurrent requests for the same target file are served by a single download. Downloads are performed under an
+ * exclusive lock of {@code <target>}{@value #LOCK_SUFFIX} file, so the same target may be requested by several
+ * processes; the lock file is removed once the target is downloaded.
+ */
+public final class HTTPDownloader {
+    private static final Logger log = LoggerFactory.getLogger(HTTPDownloader.class);
+    public static final int CHUNK_SIZE = 32768;
+    public static final String PART_SUFFIX = ".part";
+    public static final String TMP_SUFFIX = ".tmp";
+    public static final String LOCK_SUFFIX = ".lock";
+    public static final String VALIDATOR_SUFFIX = ".validator";
+    public static final int DEFAULT_THREADS = 4;
+    public static final long DEFAULT_MIN_SEGMENT_SIZE = 4L * 1024 * 1024;
+    public static final int DEFAULT_ATTEMPTS = 5;
+
+    final HttpClient httpClient;
+    /**
+     * Maximal number of segments downloaded in parallel for a single file
+     */
+    final int threads;
+    /**
+     * Files smaller than this value are downloaded in a single segment
+     */
+    final long minSegmentSize;
+    /**
+     * Number of attempts to download a segment (each subsequent attempt resumes the previous one)
+     */
+    final int attempts;
+    /**
+     * Downloads in progress; target file -> download
+     */
+    final ConcurrentHashMap<Path, FutureTask<Path>> inProgress = new ConcurrentHashMap<>();
+    /**
+     * Executor for segment downloads, created on first use
+     */
+    private volatile ExecutorService executor;
+
+    public HTTPDownloader(HttpClient httpClient) {
+        this(httpClient, DEFAULT_THREADS, DEFAULT_MIN_SEGMENT_SIZE, DEFAULT_ATTEMPTS);
+    }
+
+    public HTTPDownloader(HttpClient httpClient, int threads, long minSegmentSize, int attempts) {
+        if (threads < 1 || minSegmentSize < 1 || attempts < 1)
+            throw new IllegalArgumentException();
+        this.httpClient = httpClient;
+        this.threads = threads;
+        this.minSegmentSize = minSegmentSize;
+        this.attempts = attempts;
+    }
+
+    /**
+     * Downloads remote file if it is not yet present in the local file system, blocks until the download is
+     * completed.
+     *
+     * @param uri      remote file address
+     * @param file     target file
+     * @param unGZIP   if true, downloaded content will be decompressed
+     * @param reporter progress reporter
+     * @return target file
+     */
+    public Path download(final URI uri, final Path file, final boolean unGZIP, final LongProcessReporter reporter) {
+        if (Files.exists(file))
+            return file;
+
+        FutureTask<Path> task = inProgress.get(file);
+        if (task == null) {
+            FutureTask<Path> newTask = new FutureTask<>(new Callable<Path>() {
+                @Override
+                public Path call() throws Exception {
+                    doDownload(uri, file, unGZIP, reporter);
+                    return file;
+                }
+            });
+            task = inProgress.putIfAbsent(file, newTask);
+            if (task == null) {
+                task = newTask;
+                try {
+                    task.run();
+                } finally {
+                    inProgress.remove(file, task);
+                }
+            }
+        }
+
+        try {
+            return awaitIO(task);
+        } catch (IOException e) {
+            throw new RuntimeException("Error downloading " + uri, e);
+        }
+    }
+
+    private void doDownload(URI uri, Path file, boolean unGZIP, LongProcessReporter reporter) throws IOException {
+        // Download may be already completed by other thread
+        if (Files.exists(file))
+            return;
+
+        Path lockFile = sibling(file, LOCK_SUFFIX);
+        try (ExclusiveFileLock lock = ExclusiveFileLock.lock(lockFile)) {
+            // Download may be already completed by other process
+            if (!Files.exists(file))
+                doDownloadLocked(uri, file, unGZIP, reporter);
+            // Target exists, so processes still waiting for the removed lock file will find the download completed
+            try {
+                Files.deleteIfExists(lockFile);
+            } catch (IOException e) {
+                log.debug("Can't remove lock file {}.", lockFile, e);
+            }
+        }
+    }
+
+    private void doDownloadLocked(URI uri, Path file, boolean unGZIP, LongProcessReporter reporter)
+            throws IOException {
+        // Raw (possibly compressed) content
+        Path raw = unGZIP ? sibling(file, ".gz") : file;
+
+        if (!Files.exists(raw)) {
+            log.debug("Downloading " + uri + " into " + raw);
+            long startTimestamp = System.nanoTime();
+            try (LongProcess lp = reporter.start("Downloading " + uri)) {
+                fetch(uri, raw, lp);
+            }
+            log.debug(uri + " downloaded in " + TimeUtils.nanoTimeToString(System.nanoTime() - startTimestamp));
+        }
+
+        if (unGZIP) {
+            Path tmp = sibling(file, TMP_SUFFIX);
+            try (InputStream is = new GZIPInputStream(new BufferedInputStream(new FileInputStream(raw.toFile()),
+                    CHUNK_SIZE));
+                 OutputStream os = new FileOutputStream(tmp.toFile())) {
+                copy(is, os, Long.MAX_VALUE, null, null, 0);
+            } catch (IOException e) {
+                // Something wrong with downloaded archive, removing it for re-download
+                Files.deleteIfExists(raw);
+                throw e;
+            }
+            moveAtomically(tmp, file);
+            Files.delete(raw);
+        }
+    }
+
+    private void fetch(URI uri, Path target, LongProcess lp) throws IOException {
+        for (int attempt = 1; ; ++attempt) {
+            RemoteFileInfo info = probe(uri);
+
+            if (info.size >= 0 && info.acceptRanges)
+                try {
+                    fetchSegmented(uri, target, info, lp);
+                    return;
+                } catch (ContentChangedException e) {
+                    deleteStaleParts(target);
+                    if (attempt >= attempts)
+                        throw e;
+                    log.debug("Remote file " + uri + " has changed, restarting download.");
+                    continue;
+                } catch (RangeNotSupportedException e) {
+                    deleteStaleParts(target);
+                    log.debug("Server ignored range request for " + uri + ", downloading in a single stream.");
+                }
+
+            fetchSingle(uri, target, lp);
+            return;
+        }
+    }
+
+    private void fetchSingle(URI uri, Path target, LongProcess lp) throws IOException {
+        Path part = sibling(target, PART_SUFFIX);
+        IOException error = null;
+        for (int attempt = 0; attempt < attempts; ++attempt) {
+            HttpGet request = new HttpGet(uri);
+            try {
+                HttpResponse resp = httpClient.execute(request);
+                checkStatus(uri, resp, 200);
+                long contentLength = resp.getEntity().getContentLength();
+                try (InputStream is = resp.getEntity().getContent();
+                     OutputStream os = new FileOutputStream(part.toFile())) {
+                    long done = copy(is, os, Long.MAX_VALUE, lp, new AtomicLong(), contentLength);
+                    if (contentLength >= 0 && done != contentLength)
+                        throw new EOFException("Premature end of stream: " + uri);
+                }
+                moveAtomically(part, target);
+                deleteStaleParts(target);
+                return;
+            } catch (UnexpectedStatusException e) {
+                if (!e.isRetryable())
+                    throw e;
+                log.warn("Error downloading " + uri + " (attempt " + (attempt + 1) + " of " + attempts + ").", e);
+                error = e;
+            } catch (IOException e) {
+                log.warn("Error downloading " + uri + " (attempt " + (attempt + 1) + " of " + attempts + ").", e);
+                error = e;
+            } finally {
+                request.releaseConnection();
+            }
+        }
+        throw error;
+    }
+
+    private void fetchSegmented(final URI uri, Path target, RemoteFileInfo info, final LongProcess lp)
+            throws IOException {
+        final long size = info.size;
+        final String validator = info.validator;
+
+        // Parts received for other (or unknown) version of the remote file can't be resumed
+        Path validatorFile = sibling(target, PART_SUFFIX + VALIDATOR_SUFFIX);
+        String stored = Files.exists(validatorFile)
+                ? new String(Files.readAllBytes(validatorFile), StandardCharsets.UTF_8)
+                : null;
+        if (validator == null || !validator.equals(stored)) {
+            deleteStaleParts(target);
+            if (validator != null)
+                Files.write(validatorFile, validator.getBytes(StandardCharsets.UTF_8));
+        }
+
+        int segmentsCount = (int) Math.max(1, Math.min(threads, size / minSegmentSize));
+
+        final List<Path> parts = new ArrayList<>();
+        final long[] bounds = new long[segmentsCount + 1];
+        for (int i = 0; i <= segmentsCount; ++i)
+            bounds[i] = size * i / segmentsCount;
+        for (int i = 0; i < segmentsCount; ++i)
+            parts.add(sibling(target, PART_SUFFIX + "." + bounds[i] + "-" + bounds[i + 1]));
+
+        final AtomicLong done = new AtomicLong();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 1; i < segmentsCount; ++i) {
+            final int segment = i;
+            futures.add(getExecutor().submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    fetchSegment(uri, validator, parts.get(segment), bounds[segment], bounds[segment + 1], lp,
+                            done, size);
+                    return null;
+                }
+            }));
+        }
+
+        // First segment is downloaded in the current thread
+        IOException error = null;
+        try {
+            fetchSegment(uri, validator, parts.get(0), bounds[0], bounds[1], lp, done, size);
+        } catch (IOException e) {
+            error = e;
+        }
+
+        // Waiting for all segments, even if some of them failed, to leave part files in a consistent state
+        for (Future<?> future : futures)
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                Throwable cause = ConcurrentUtils.cause(e);
+                if (error == null)
+                    error = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+
+        if (error != null)
+            throw error;
+
+        // Assembling segments
+        if (segmentsCount == 1)
+            moveAtomically(parts.get(0), target);
+        else {
+            Path tmp = sibling(target, TMP_SUFFIX);
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (Path part : parts)
+                    try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+                        long position = 0, partSize = in.size();
+                        while (position < partSize)
+                            position += in.transferTo(position, partSize - position, out);
+                    }
+            }
+            moveAtomically(tmp, target);
+        }
+        deleteStaleParts(target);
+    }
+
+    private void fetchSegment(URI uri, String validator, Path part, long from, long to, LongProcess lp,
+                              AtomicLong done, long total) throws IOException {
+        long length = to - from;
+        boolean firstAttempt = true;
+        IOException error = null;
+        for (int attempt = 0; attempt < attempts; ++attempt) {
+            long existing = Files.exists(part) ? Files.size(part) : 0;
+            if (existing > length) {
+                // Corrupted part file
+                Files.delete(part);
+                existing = 0;
+            }
+            if (firstAttempt) {
+                report(lp, done.addAndGet(existing), total);
+                firstAttempt = false;
+            }
+            if (existing == length)
+                return;
+
+            HttpGet request = new HttpGet(uri);
+            request.setHeader("Range", "bytes=" + (from + existing) + "-" + (to - 1));
+            request.setHeader("Accept-Encoding", "identity");
+            // Remaining part is sent only if the file was not changed since the part was started
+            boolean conditional = existing > 0 && validator != null;
+            if (conditional)
+                request.setHeader("If-Range", validator);
+            try {
+                HttpResponse resp = httpClient.execute(request);
+                int status = resp.getStatusLine().getStatusCode();
+                if (status == 200) {
+                    if (conditional)
+                        throw new ContentChangedException();
+                    throw new RangeNotSupportedException();
+                }
+                checkStatus(uri, resp, 206);
+                String actual = validator(resp);
+                if (validator != null && actual != null && !validator.equals(actual))
+                    throw new ContentChangedException();
+                try (InputStream is = resp.getEntity().getContent();
+                     OutputStream os = new FileOutputStream(part.toFile(), true)) {
+                    long received = copy(is, os, length - existing, lp, done, total);
+                    if (received != length - existing)
+                        throw new EOFException("Premature end of stream: " + uri);
+                }
+                return;
+            } catch (RangeNotSupportedException | ContentChangedException e) {
+                throw e;
+            } catch (UnexpectedStatusException e) {
+                if (!e.isRetryable())
+                    throw e;
+                log.warn("Error downloading " + uri + " [" + from + ", " + to + ") (attempt " + (attempt + 1) +
+                        " of " + attempts + ").", e);
+                error = e;
+            } catch (IOException e) {
+                log.warn("Error downloading " + uri + " [" + from + ", " + to + ") (attempt " + (attempt + 1) +
+                        " of " + attempts + ").", e);
+                error = e;
+            } finally {
+                request.releaseConnection();
+            }
+        }
+        throw error;
+    }
+
+    private RemoteFileInfo probe(URI uri) {
+        HttpHead request = new HttpHead(uri);
+        request.setHeader("Accept-Encoding", "identity");
+        try {
+            HttpResponse resp = httpClient.execute(request);
+            if (resp.getStatusLine().getStatusCode() != 200)
+                return RemoteFileInfo.UNKNOWN;
+            Header contentLength = resp.getFirstHeader("Content-Length");
+            Header acceptRanges = resp.getFirstHeader("Accept-Ranges");
+            Header contentEncoding = resp.getFirstHeader("Content-Encoding");
+            if (contentLength == null || contentEncoding != null)
+                return RemoteFileInfo.UNKNOWN;
+            return new RemoteFileInfo(Long.parseLong(contentLength.getValue().trim()),
+                    acceptRanges != null && "bytes".equalsIgnoreCase(acceptRanges.getValue().trim()),
+                    validator(resp));
+        } catch (IOException | NumberFormatException e) {
+            log.debug("Can't get info for " + uri, e);
+            return RemoteFileInfo.UNKNOWN;
+        } finally {
+            request.releaseConnection();
+        }
+    }
+
+    /**
+     * Returns strong ETag or Last-Modified value of the response (usable in If-Range header), or null
+     */
+    private static String validator(HttpResponse resp) {
+        Header eTag = resp.getFirstHeader("ETag");
+        if (eTag != null && !eTag.getValue().trim().startsWith("W/"))
+            return eTag.getValue().trim();
+        Header lastModified = resp.getFirstHeader("Last-Modified");
+        return lastModified == null ? null : lastModified.getValue().trim();
+    }
+
+    private ExecutorService getExecutor() {
+        if (executor == null)
+            synchronized (this) {
+                if (executor == null)
+                    executor = Executors.newCachedThreadPool(new NamedThreadFactory("http-download-"));
+            }
+        return executor;
+    }
+
+    private static long copy(InputStream is, OutputStream os, long limit,
+                             LongProcess lp, AtomicLong done, long total) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        long copied = 0;
+        int read;
+        while (copied < limit && (read = is.read(buffer, 0, (int) Math.min(buffer.length, limit - copied))) > 0) {
+            os.write(buffer, 0, read);
+            copied += read;
+            if (lp != null)
+                report(lp, done.addAndGet(read), total);
+        }
+        return copied;
+    }
+
+    private static void report(LongProcess lp, long done, long total) {
+        if (total > 0)
+            synchronized (lp) {
+                lp.reportStatus(1.0 * done / total);
+            }
+    }
+
+    private static void checkStatus(URI uri, HttpResponse resp, int expected) throws IOException {
+        int status = resp.getStatusLine().getStatusCode();
+        if (status != expected)
+            throw new UnexpectedStatusException(status, "Unexpected response for " + uri + ": " +
+                    resp.getStatusLine());
+    }
+
+    /**
+     * Removes part files left by downloads with different segmentation
+     */
+    private static void deleteStaleParts(Path target) throws IOException {
+        String prefix = target.getFileName() + PART_SUFFIX;
+        try (DirectoryStream<Path> siblings = Files.newDirectoryStream(target.toAbsolutePath().getParent())) {
+            for (Path sibling : siblings)
+                if (sibling.getFileName().toString().startsWith(prefix))
+                    Files.deleteIfExists(sibling);
+        }
+    }
+
+    static Path sibling(Path file, String suffix) {
+        return file.resolveSibling(file.getFileName() + suffix);
+    }
+
+    static void moveAtomically(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static final class RemoteFileInfo {
+        static final RemoteFileInfo UNKNOWN = new RemoteFileInfo(-1, false, null);
+        final long size;
+        final boolean acceptRanges;
+        /**
+         * Strong ETag or Last-Modified value, null if not reported
+         */
+        final String validator;
+
+        RemoteFileInfo(long size, boolean acceptRanges, String validator) {
+            this.size = size;
+            this.acceptRanges = acceptRanges;
+            this.validator = validator;
+        }
+    }
+
+    private static final class RangeNotSupportedException extends IOException {
+    }
+
+    private static final class ContentChangedException extends IOException {
+        ContentChangedException() {
+            super("Remote file has changed during download.");
+        }
+    }
+
+    private static final class UnexpectedStatusException extends IOException {
+        final int status;
+
+        UnexpectedStatusException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        /**
+         * Client errors (4xx) will not disappear on retry
+         */
+        boolean isRetryable() {
+            return status < 400 || status >= 500;
+        }
+    }
+}
@@ -1,24 +1,16 @@
 package io.repseq.seqbase;
 
-import com.milaboratory.util.LongProcess;
+import com.milaboratory.core.io.sequence.fasta.RandomAccessFastaIndex;
 import com.milaboratory.util.LongProcessReporter;
-import com.milaboratory.util.TimeUtils;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.io.*;
+
+import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.zip.GZIPInputStream;
 
 public abstract class HTTPFastaSequenceResolver extends AbstractRAFastaResolver
         implements OptionalSequenceResolver {
-    private static final Logger log = LoggerFactory.getLogger(HTTPFastaSequenceResolver.class);
-    public static final int CHUNK_SIZE = 32768;
+    public static final int CHUNK_SIZE = HTTPDownloader.CHUNK_SIZE;
     /**
      * Local reporter
      */
@@ -55,7 +47,18 @@ public abstract class HTTPFastaSequenceResolver extends AbstractRAFastaResolver
     protected abstract URI resolveHTTPAddress(URI address);
 
     /**
-     * Resolves HTTP address to file name
+     * Resolves address to the key of downloaded file in {@link DownloadCache}
+     *
+     * @param address initialAddress
+     * @return cache key
+     */
+    protected String resolveCacheKey(URI address) {
+        return resolveHTTPAddress(address).toString();
+    }
+
+    /**
+     * Resolves HTTP address to file name. Used as reader id, and to find files downloaded into cache directory by
+     * previous versions (before {@link DownloadCache} was introduced).
      *
      * @param address initialAddress
      * @return file name
@@ -76,58 +79,49 @@ public abstract class HTTPFastaSequenceResolver extends AbstractRAFastaResolver
     }
 
     @Override
-    protected synchronized Path getFASTAFile(SequenceAddress address) {
+    protected Path getFASTAFile(SequenceAddress address) {
         final URI uri = address.getUri();
+        final DownloadCache cache = context.getCache();
 
-        // Resolving address to cache file name
-        String cacheFileName = resolveCacheFileName(uri);
-
-        // Checking existence of cache directory
-        ensureCacheDirExist();
-
-        // Checking file cache
-        Path file = getCacheDir().resolve(cacheFileName);
+        // Resolving address to cache key
+        String key = resolveCacheKey(uri);
 
-        // If file is already in cache directory,
-        // return it's path
-        if (Files.exists(file))
+        // Checking file cache (files appear in cache only after successful download)
+        Path file = cache.get(key);
+        if (file != null)
             return file;
 
+        // Importing file downloaded by previous versions
+        ensureCacheDirExist();
+        Path legacyFile = getCacheDir().resolve(resolveCacheFileName(uri));
+        if (Files.exists(legacyFile))
+            try {
+                Files.deleteIfExists(legacyFile.resolveSibling(legacyFile.getFileName() +
+                        RandomAccessFastaIndex.INDEX_SUFFIX));
+                return cache.put(key, legacyFile);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+
         // Resolving address to http(s) link
         URI httpURI = resolveHTTPAddress(uri);
 
-        // Downloading file
-        HttpGet request = new HttpGet(httpURI);
-        boolean unGZIP = httpURI.getPath().endsWith(".gz");
-        log.debug("Downloading " + httpURI + " into " + file);
-        try {
-            HttpResponse resp = context.getHttpClient().execute(request);
-            HttpEntity entity = resp.getEntity();
-            long contentLength = entity.getContentLength();
-            try (LongProcess lp = reporter.start("Downloading " + httpURI);
-                 InputStream istream = unGZIP ?
-                         new GZIPInputStream(new BufferedInputStream(entity.getContent())) :
-                         new BufferedInputStream(entity.getContent());
-                 OutputStream ostream = new FileOutputStream(file.toFile())) {
-                long startTimestamp = System.nanoTime();
-                byte[] buffer = new byte[CHUNK_SIZE];
-                int read;
-                long done = 0;
-                while ((read = istream.read(buffer)) > 0) {
-                    ostream.write(buffer, 0, read);
-                    if (contentLength >= 0)
-                        lp.reportStatus(1.0 * (done += read) / contentLength);
-                }
-                log.debug(httpURI + " downloaded in " +
-                        TimeUtils.nanoTimeToString(System.nanoTime() - startTimestamp));
-            }
+        // Downloading file (concurrent requests for the same file are served by a single download)
+        long start = System.nanoTime();
+        Path downloaded = context.getDownloader().download(httpURI, cache.downloadFile(key),
+                httpURI.getPath().endsWith(".gz"), reporter);
 
-            return file;
+        try {
+            ResolverMetrics.getDefault().record(ResolverMetrics.Operation.Download, address, start,
+                    Files.size(downloaded));
+            return cache.put(key, downloaded);
         } catch (IOException e) {
             throw new RuntimeException(e);
-        } finally {
-            if (request != null)
-                request.releaseConnection();
         }
     }
+
+    @Override
+    protected void discardFASTAFile(SequenceAddress address, Path file) {
+        context.getCache().invalidate(resolveCacheKey(address.getUri()));
+    }
 }
@@ -2,31 +2,58 @@ package io.repseq.seqbase;
 
 import com.milaboratory.core.sequence.NucleotideSequence;
 import com.milaboratory.core.sequence.provider.CachedSequenceProvider;
-import org.apache.commons.io.FileUtils;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.net.URI;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicReference;
 
-public abstract class HTTPRedirectSequenceResolver implements OptionalSequenceResolver, ParentAwareResolver {
-    private static final Charset cahceCharset = StandardCharsets.UTF_8;
+import static io.repseq.util.ConcurrentUtils.await;
+
+/**
+ * Resolver converting addresses to other addresses, resolved by parent resolver.
+ *
+ * Conversion results are cached in memory and in the cache directory (one file per address, written atomically), so
+ * each address is converted at most once, and concurrent requests for the same address are served by a single
+ * conversion. Failed conversions are cached in memory for {@link #negativeTTL} milliseconds.
+ */
+public abstract class HTTPRedirectSequenceResolver implements OptionalSequenceResolver, ParentAwareResolver,
+        PreparableSequenceResolver {
+    private static final Charset cacheCharset = StandardCharsets.UTF_8;
+    public static final long DEFAULT_NEGATIVE_TTL = 60000;
     /**
      * Resolver context
      */
     final HTTPResolversContext context;
+    /**
+     * Time in milliseconds for which failed conversion is not retried
+     */
+    final long negativeTTL;
     /**
      * Link to parent resolver
      */
     private final AtomicReference<SequenceResolver> parent = new AtomicReference<>();
-    private final HashMap<URI, URI> cache = new HashMap<>();
+    /**
+     * Input address -> converted address (or conversion in progress)
+     */
+    private final ConcurrentHashMap<URI, FutureTask<URI>> cache = new ConcurrentHashMap<>();
+    /**
+     * Input address -> recent conversion failure
+     */
+    private final ConcurrentHashMap<URI, Failure> failures = new ConcurrentHashMap<>();
 
     public HTTPRedirectSequenceResolver(HTTPResolversContext context) {
+        this(context, DEFAULT_NEGATIVE_TTL);
+    }
+
+    public HTTPRedirectSequenceResolver(HTTPResolversContext context, long negativeTTL) {
         this.context = context;
+        this.negativeTTL = negativeTTL;
     }
 
     public SequenceResolver getParent() {
@@ -72,31 +99,84 @@ public abstract class HTTPRedirectSequenceResolver implements OptionalSequenceRe
 
     protected abstract URI convertUrl(URI inputUrl);
 
-    private synchronized URI convert1(URI inputURI) {
+    private URI convert1(final URI inputURI) {
+        FutureTask<URI> task = cache.get(inputURI);
+        if (task == null) {
+            // Recently failed conversions are not retried
+            Failure failure = failures.get(inputURI);
+            if (failure != null) {
+                if (System.currentTimeMillis() < failure.expires)
+                    throw new RuntimeException("Can't convert " + inputURI + " (cached failure).", failure.error);
+                failures.remove(inputURI, failure);
+            }
+
+            FutureTask<URI> newTask = new FutureTask<>(new Callable<URI>() {
+                @Override
+                public URI call() throws Exception {
+                    return loadOrConvert(inputURI);
+                }
+            });
+            task = cache.putIfAbsent(inputURI, newTask);
+            if (task == null)
+                (task = newTask).run();
+        }
+
         try {
-            URI newURI = cache.get(inputURI);
-            if (newURI != null)
-                return newURI;
+            return await(task);
+        } catch (RuntimeException | Error e) {
+            // Conversion failed (not interrupted)
+            if (task.isDone() && cache.remove(inputURI, task) && negativeTTL > 0)
+                failures.put(inputURI, new Failure(e, System.currentTimeMillis() + negativeTTL));
+            throw e;
+        }
+    }
 
-            Path cachePath = getCacheDir()
-                    .resolve(resolveCacheFileName(inputURI));
+    private URI loadOrConvert(URI inputURI) throws IOException {
+        ensureCacheDirExist();
+        Path cachePath = getCacheDir().resolve(resolveCacheFileName(inputURI));
 
-            if (Files.exists(cachePath))
-                return URI.create(FileUtils.readFileToString(
-                        cachePath.toFile(),
-                        cahceCharset));
+        if (Files.exists(cachePath))
+            return URI.create(new String(Files.readAllBytes(cachePath), cacheCharset).trim());
 
-            newURI = convertUrl(inputURI);
-            FileUtils.writeStringToFile(cachePath.toFile(), newURI.toString(), cahceCharset);
+        long start = System.nanoTime();
+        URI newURI = convertUrl(inputURI);
+        ResolverMetrics.getDefault().record(ResolverMetrics.Operation.Redirect, new SequenceAddress(inputURI),
+                start, 0);
 
-            return newURI;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        // Writing to a unique temporary file first, so other processes never see partially written records
+        Path tmp = Files.createTempFile(getCacheDir(), cachePath.getFileName().toString(), HTTPDownloader.TMP_SUFFIX);
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp, cacheCharset)) {
+                writer.write(newURI.toString());
+            }
+            HTTPDownloader.moveAtomically(tmp, cachePath);
+        } finally {
+            Files.deleteIfExists(tmp);
         }
+
+        return newURI;
     }
 
     @Override
     public CachedSequenceProvider<NucleotideSequence> resolve(SequenceAddress address) {
         return getParent().resolve(new SequenceAddress(address.getContext(), convert1(address.getUri())));
     }
+
+    @Override
+    public void prepare(SequenceAddress address) {
+        SequenceResolver parent = getParent();
+        URI converted = convert1(address.getUri());
+        if (parent instanceof PreparableSequenceResolver)
+            ((PreparableSequenceResolver) parent).prepare(new SequenceAddress(address.getContext(), converted));
+    }
+
+    private static final class Failure {
+        final Throwable error;
+        final long expires;
+
+        Failure(Throwable error, long expires) {
+            this.error = error;
+            this.expires = expires;
+        }
+    }
 }
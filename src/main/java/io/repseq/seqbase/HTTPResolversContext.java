@@ -6,15 +6,28 @@ import org.apache.http.client.HttpClient;
 import java.nio.file.Path;
 
 /**
- * Shared HTTP client and cache directory for HTTP sequence resolvers
+ * Shared HTTP client, downloader and cache for HTTP sequence resolvers
  */
 public class HTTPResolversContext {
     private final Path cacheDir;
     private final HttpClient httpClient;
+    private final HTTPDownloader downloader;
+    private final DownloadCache cache;
 
     public HTTPResolversContext(Path cacheDir, HttpClient httpClient) {
+        this(cacheDir, httpClient, new HTTPDownloader(httpClient));
+    }
+
+    public HTTPResolversContext(Path cacheDir, HttpClient httpClient, HTTPDownloader downloader) {
+        this(cacheDir, httpClient, downloader, new DownloadCache(cacheDir));
+    }
+
+    public HTTPResolversContext(Path cacheDir, HttpClient httpClient, HTTPDownloader downloader,
+                                DownloadCache cache) {
         this.cacheDir = cacheDir;
         this.httpClient = httpClient;
+        this.downloader = downloader;
+        this.cache = cache;
     }
 
     public Path getCacheDir() {
@@ -25,6 +38,14 @@ public class HTTPResolversContext {
         return httpClient;
     }
 
+    public HTTPDownloader getDownloader() {
+        return downloader;
+    }
+
+    public DownloadCache getCache() {
+        return cache;
+    }
+
     public LongProcessReporter getReporter(Class<?> clazz) {
         return LongProcessReporter.DefaultLongProcessReporter.INSTANCE;
     }
@@ -1,7 +1,19 @@
 package io.repseq.seqbase;
 
+import com.milaboratory.core.io.sequence.fasta.RandomAccessFastaIndex;
+import com.milaboratory.util.LongProcessReporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
 
 public final class HTTPSequenceResolvers {
     private HTTPSequenceResolvers() {
@@ -42,26 +54,59 @@ public final class HTTPSequenceResolvers {
 
     /**
      * nuccore://568815591
+     *
+     * Supports batch prefetching: {@link #prefetch(Collection)} fetches records for many addresses using multi-id
+     * efetch requests, and splits multi-FASTA responses into the same per-record cache files single requests produce.
      */
-    public static class NucCoreResolver extends HTTPFastaSequenceResolver {
+    public static class NucCoreResolver extends HTTPFastaSequenceResolver implements BatchSequenceResolver {
+        private static final Logger log = LoggerFactory.getLogger(NucCoreResolver.class);
+        public static final String DEFAULT_EUTILS_URL = "https://eutils.ncbi.nlm.nih.gov/entrez/eutils/";
+        public static final int DEFAULT_BATCH_SIZE = 100;
+        /**
+         * E-utilities base address
+         */
+        final String eutilsURL;
+        /**
+         * Maximal number of ids in a single efetch request
+         */
+        final int batchSize;
+
         public NucCoreResolver(HTTPResolversContext context) {
+            this(context, DEFAULT_EUTILS_URL, DEFAULT_BATCH_SIZE);
+        }
+
+        public NucCoreResolver(HTTPResolversContext context, String eutilsURL, int batchSize) {
             super(context);
+            if (batchSize < 1)
+                throw new IllegalArgumentException();
+            this.eutilsURL = eutilsURL.endsWith("/") ? eutilsURL : eutilsURL + "/";
+            this.batchSize = batchSize;
         }
 
         private String extractId(URI address) {
             return address.getAuthority();
         }
 
+        private String cacheFileName(String id) {
+            return "nuccore_" + id;
+        }
+
+        private String cacheKey(String id) {
+            return efetchAddress(id).toString();
+        }
+
+        private URI efetchAddress(String ids) {
+            return URI.create(eutilsURL + "efetch.fcgi?db=nuccore&id=" + ids + "&rettype=fasta&retmode=text");
+        }
+
         @Override
         protected String resolveCacheFileName(URI address) {
-            return "nuccore_" + extractId(address);
+            return cacheFileName(extractId(address));
         }
 
         @Override
         protected URI resolveHTTPAddress(URI address) {
-            return URI.create("https://eutils.ncbi.nlm.nih.gov/entrez/eutils/efetch.fcgi?db=nuccore&id=" +
-                    extractId(address) +
-                    "&rettype=fasta&retmode=text");
+            return efetchAddress(extractId(address));
         }
 
         @Override
@@ -73,5 +118,146 @@ public final class HTTPSequenceResolvers {
         public boolean canResolve(SequenceAddress address) {
             return "nuccore".equalsIgnoreCase(address.uri.getScheme()) && address.uri.getAuthority() != null;
         }
+
+        @Override
+        public void prefetch(Collection<SequenceAddress> addresses) {
+            ensureCacheDirExist();
+
+            // Collecting ids of records not yet present in cache
+            Set<String> ids = new LinkedHashSet<>();
+            for (SequenceAddress address : addresses)
+                if (canResolve(address)) {
+                    String id = extractId(address.getUri());
+                    if (!context.getCache().contains(cacheKey(id)))
+                        ids.add(id);
+                }
+
+            List<String> batch = new ArrayList<>();
+            for (String id : ids) {
+                batch.add(id);
+                if (batch.size() == batchSize) {
+                    fetchBatch(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty())
+                fetchBatch(batch);
+        }
+
+        private void fetchBatch(List<String> ids) {
+            StringBuilder sb = new StringBuilder();
+            for (String id : ids)
+                sb.append(sb.length() == 0 ? "" : ",").append(id);
+            String joinedIds = sb.toString();
+            Path batchFile = context.getCache().downloadFile(efetchAddress(joinedIds).toString());
+            try {
+                context.getDownloader().download(efetchAddress(joinedIds), batchFile, false, reporter);
+                splitBatch(batchFile, ids);
+            } catch (RuntimeException | IOException e) {
+                // Records will be fetched one by one on first access
+                log.warn("Error fetching batch of " + ids.size() + " nuccore records.", e);
+            } finally {
+                try {
+                    Files.deleteIfExists(batchFile);
+                } catch (IOException e) {
+                    log.warn("Can't delete " + batchFile, e);
+                }
+            }
+        }
+
+        /**
+         * Splits multi-FASTA response into per-record cache files and creates index for each of them
+         */
+        private void splitBatch(Path batchFile, List<String> ids) throws IOException {
+            // Records in the response are matched to requested ids by header, or by position if all records are
+            // present in the response
+            List<String> headers = new ArrayList<>();
+            try (BufferedReader reader = Files.newBufferedReader(batchFile, StandardCharsets.US_ASCII)) {
+                String line;
+                while ((line = reader.readLine()) != null)
+                    if (line.startsWith(">"))
+                        headers.add(line);
+            }
+
+            Set<String> notMatched = new HashSet<>(ids);
+            String[] recordIds = new String[headers.size()];
+            for (int i = 0; i < headers.size(); ++i)
+                if ((recordIds[i] = matchId(headers.get(i), notMatched)) != null)
+                    notMatched.remove(recordIds[i]);
+            if (headers.size() == ids.size())
+                for (int i = 0; i < headers.size(); ++i)
+                    if (recordIds[i] == null && notMatched.remove(ids.get(i)))
+                        recordIds[i] = ids.get(i);
+
+            try (BufferedReader reader = Files.newBufferedReader(batchFile, StandardCharsets.US_ASCII)) {
+                String line;
+                int recordIndex = -1;
+                Path tmp = null;
+                String key = null;
+                Writer writer = null;
+                try {
+                    while ((line = reader.readLine()) != null) {
+                        if (line.startsWith(">")) {
+                            if (writer != null) {
+                                writer.close();
+                                writer = null;
+                                publish(tmp, key);
+                            }
+
+                            String id = recordIds[++recordIndex];
+                            if (id == null)
+                                continue;
+
+                            key = cacheKey(id);
+                            tmp = HTTPDownloader.sibling(context.getCache().downloadFile(key),
+                                    HTTPDownloader.TMP_SUFFIX);
+                            writer = Files.newBufferedWriter(tmp, StandardCharsets.US_ASCII);
+                            // Record id must be the first word of the header
+                            String header = line.substring(1);
+                            if (!header.equals(id) && !header.startsWith(id + " "))
+                                header = id + " " + header;
+                            writer.write(">" + header + "\n");
+                        } else if (writer != null)
+                            writer.write(line + "\n");
+                    }
+                    if (writer != null) {
+                        writer.close();
+                        writer = null;
+                        publish(tmp, key);
+                    }
+                } finally {
+                    if (writer != null)
+                        writer.close();
+                }
+            }
+
+            if (!notMatched.isEmpty())
+                log.warn("Records not found in batch response: " + notMatched);
+        }
+
+        private void publish(Path tmp, String key) {
+            Path file = context.getCache().put(key, tmp);
+            RandomAccessFastaIndex.index(file, true, LongProcessReporter.NULL);
+        }
+
+        /**
+         * Returns requested id matching FASTA header or null if there is no such id
+         */
+        static String matchId(String header, Set<String> ids) {
+            String firstWord = header.substring(1).split("\\s", 2)[0];
+            List<String> candidates = new ArrayList<>();
+            candidates.add(firstWord);
+            // Legacy format: >gi|568815591|gb|KF684985.1|
+            candidates.addAll(Arrays.asList(firstWord.split("\\|")));
+            for (String candidate : candidates) {
+                if (ids.contains(candidate))
+                    return candidate;
+                // Request without version (e.g. EU877942 for EU877942.1)
+                int dot = candidate.lastIndexOf('.');
+                if (dot > 0 && ids.contains(candidate.substring(0, dot)))
+                    return candidate.substring(0, dot);
+            }
+            return null;
+        }
     }
 }
@@ -31,9 +31,19 @@ public final class LocalFileResolver extends AbstractRAFastaResolver implements
 
     @Override
     protected Path getFASTAFile(SequenceAddress address) {
+        return resolvePath(address);
+    }
+
+    /**
+     * Resolves local file address (absolute, or relative to address context, or to working directory for addresses
+     * without context) to file path
+     */
+    static Path resolvePath(SequenceAddress address) {
         Path path = Paths.get(address.getUri().getRawSchemeSpecificPart().replaceAll("^//", "")).normalize();
         if (path.isAbsolute())
             return path;
+        else if (address.getContext() == null)
+            return path.toAbsolutePath().normalize();
         else
             return address.getContext().resolve(path).normalize();
     }
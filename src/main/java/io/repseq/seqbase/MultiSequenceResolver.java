@@ -2,19 +2,129 @@ package io.repseq.seqbase;
 
 import com.milaboratory.core.sequence.NucleotideSequence;
 import com.milaboratory.core.sequence.provider.CachedSequenceProvider;
+import io.repseq.util.ConcurrentUtils.NamedThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class MultiSequenceResolver implements AsyncSequenceResolver, PreparableSequenceResolver,
+        BatchSequenceResolver {
+    public static final int DEFAULT_ASYNC_THREADS = 8;
+    /**
+     * Shared executor for background resolution, created on first use
+     */
+    private static volatile ExecutorService defaultExecutor;
 
-public class MultiSequenceResolver implements SequenceResolver {
     final OptionalSequenceResolver[] resolvers;
+    /**
+     * Executor for background resolution (null to use shared default executor)
+     */
+    final ExecutorService executor;
 
     public MultiSequenceResolver(OptionalSequenceResolver... resolvers) {
+        this(null, resolvers);
+    }
+
+    public MultiSequenceResolver(ExecutorService executor, OptionalSequenceResolver... resolvers) {
+        this.executor = executor;
         this.resolvers = resolvers;
     }
 
-    @Override
-    public CachedSequenceProvider<NucleotideSequence> resolve(SequenceAddress address) {
+    private OptionalSequenceResolver getResolver(SequenceAddress address) {
         for (OptionalSequenceResolver resolver : resolvers)
             if (resolver.canResolve(address))
-                return resolver.resolve(address);
+                return resolver;
         throw new IllegalArgumentException("Can't resolve address: " + address);
     }
+
+    @Override
+    public CachedSequenceProvider<NucleotideSequence> resolve(SequenceAddress address) {
+        long start = System.nanoTime();
+        CachedSequenceProvider<NucleotideSequence> provider = getResolver(address).resolve(address);
+        ResolverMetrics.getDefault().record(ResolverMetrics.Operation.Resolve, address, start, 0);
+        return provider;
+    }
+
+    @Override
+    public void prepare(SequenceAddress address) {
+        OptionalSequenceResolver resolver = getResolver(address);
+        if (resolver instanceof PreparableSequenceResolver)
+            ((PreparableSequenceResolver) resolver).prepare(address);
+    }
+
+    @Override
+    public Future<CachedSequenceProvider<NucleotideSequence>> resolveAsync(SequenceAddress address) {
+        FutureTask<CachedSequenceProvider<NucleotideSequence>> task = resolveTask(address);
+        getExecutor().execute(task);
+        return task;
+    }
+
+    private FutureTask<CachedSequenceProvider<NucleotideSequence>> resolveTask(final SequenceAddress address) {
+        return new FutureTask<>(new Callable<CachedSequenceProvider<NucleotideSequence>>() {
+            @Override
+            public CachedSequenceProvider<NucleotideSequence> call() throws Exception {
+                CachedSequenceProvider<NucleotideSequence> provider = resolve(address);
+                prepare(address);
+                return provider;
+            }
+        });
+    }
+
+    @Override
+    public List<Future<CachedSequenceProvider<NucleotideSequence>>> resolveAllAsync(
+            final Collection<SequenceAddress> addresses) {
+        final List<FutureTask<CachedSequenceProvider<NucleotideSequence>>> tasks = new ArrayList<>(addresses.size());
+        for (SequenceAddress address : addresses)
+            tasks.add(resolveTask(address));
+
+        // Batch requests are performed before individual ones; individual requests are submitted on completion of
+        // the batch request (even if it failed, then records are requested one by one), so no worker waits for
+        // another task of the same executor
+        FutureTask<Void> prefetch = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                prefetch(addresses);
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                for (FutureTask<CachedSequenceProvider<NucleotideSequence>> task : tasks)
+                    getExecutor().execute(task);
+            }
+        };
+        getExecutor().execute(prefetch);
+
+        return new ArrayList<Future<CachedSequenceProvider<NucleotideSequence>>>(tasks);
+    }
+
+    @Override
+    public void prefetch(Collection<SequenceAddress> addresses) {
+        // Grouping addresses by resolver that will handle them
+        List<List<SequenceAddress>> groups = new ArrayList<>();
+        for (OptionalSequenceResolver resolver : resolvers)
+            groups.add(new ArrayList<SequenceAddress>());
+        for (SequenceAddress address : addresses)
+            for (int i = 0; i < resolvers.length; ++i)
+                if (resolvers[i].canResolve(address)) {
+                    groups.get(i).add(address);
+                    break;
+                }
+
+        for (int i = 0; i < resolvers.length; ++i)
+            if (resolvers[i] instanceof BatchSequenceResolver && !groups.get(i).isEmpty())
+                ((BatchSequenceResolver) resolvers[i]).prefetch(groups.get(i));
+    }
+
+    private ExecutorService getExecutor() {
+        if (executor != null)
+            return executor;
+        if (defaultExecutor == null)
+            synchronized (MultiSequenceResolver.class) {
+                if (defaultExecutor == null)
+                    defaultExecutor = Executors.newFixedThreadPool(DEFAULT_ASYNC_THREADS, new NamedThreadFactory("sequence-resolver-"));
+            }
+        return defaultExecutor;
+    }
 }
@@ -0,0 +1,16 @@
+package io.repseq.seqbase;
+
+/**
+ * Resolver performing potentially long operations (e.g. downloading or indexing of files) on the first access to a
+ * record.
+ */
+public interface PreparableSequenceResolver extends SequenceResolver {
+    /**
+     * Performs all potentially long operations required to access the record and blocks until they are completed, so
+     * that subsequent {@code getRegion} calls on the provider returned by {@link #resolve(SequenceAddress)} don't
+     * wait for them.
+     *
+     * @param address address
+     */
+    void prepare(SequenceAddress address);
+}
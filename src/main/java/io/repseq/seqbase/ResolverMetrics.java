@@ -0,0 +1,268 @@
+package io.repseq.seqbase;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.provider.SequenceProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timing and byte counters of sequence resolver operations, broken down by address scheme and by address.
+ *
+ * Addresses are identified by {@link BundleSequenceResolver#key(SequenceAddress)}, so relative addresses of the same
+ * local file share counters. Counters are kept for at most {@link #getMaxAddresses()} addresses (system property
+ * "repseqio.resolver.maxAddresses", 1000 by default); operations with other addresses are accounted in scheme
+ * counters only.
+ *
+ * Operations taking longer than {@link #getSlowThreshold()} milliseconds (system property
+ * "repseqio.resolver.slowThreshold", 1000 by default) are reported to listeners as slow operations, and logged with
+ * debug level.
+ */
+public final class ResolverMetrics {
+    private static final Logger log = LoggerFactory.getLogger(ResolverMetrics.class);
+    public static final String SLOW_THRESHOLD_PROPERTY = "repseqio.resolver.slowThreshold";
+    public static final long DEFAULT_SLOW_THRESHOLD = 1000;
+    public static final String MAX_ADDRESSES_PROPERTY = "repseqio.resolver.maxAddresses";
+    public static final int DEFAULT_MAX_ADDRESSES = 1000;
+    private static final ResolverMetrics defaultMetrics = new ResolverMetrics(
+            Long.getLong(SLOW_THRESHOLD_PROPERTY, DEFAULT_SLOW_THRESHOLD),
+            Integer.getInteger(MAX_ADDRESSES_PROPERTY, DEFAULT_MAX_ADDRESSES));
+
+    public enum Operation {
+        /**
+         * Creation of sequence provider for the address
+         */
+        Resolve,
+        /**
+         * Reading region of a sequence from the underlying source (bytes = number of nucleotides)
+         */
+        Read,
+        /**
+         * Loading or building of random access index (bytes = indexed file size)
+         */
+        Index,
+        /**
+         * Downloading of a remote file (bytes = downloaded file size)
+         */
+        Download,
+        /**
+         * Conversion of address to another address
+         */
+        Redirect
+    }
+
+    /**
+     * Scheme -> counters (one per operation)
+     */
+    private final ConcurrentHashMap<String, Counter[]> byScheme = new ConcurrentHashMap<>();
+    /**
+     * Address key -> counters (one per operation)
+     */
+    private final ConcurrentHashMap<String, Counter[]> byAddress = new ConcurrentHashMap<>();
+    private final int maxAddresses;
+    private final List<ResolverMetricsListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile long slowThresholdNanos;
+
+    public ResolverMetrics(long slowThreshold) {
+        this(slowThreshold, DEFAULT_MAX_ADDRESSES);
+    }
+
+    public ResolverMetrics(long slowThreshold, int maxAddresses) {
+        setSlowThreshold(slowThreshold);
+        this.maxAddresses = maxAddresses;
+    }
+
+    /**
+     * Returns instance used by default resolvers
+     */
+    public static ResolverMetrics getDefault() {
+        return defaultMetrics;
+    }
+
+    /**
+     * Returns threshold in milliseconds, operations taking longer are reported as slow
+     */
+    public long getSlowThreshold() {
+        return slowThresholdNanos / 1000000;
+    }
+
+    public void setSlowThreshold(long slowThreshold) {
+        this.slowThresholdNanos = slowThreshold * 1000000;
+    }
+
+    /**
+     * Returns maximal number of addresses with individual counters
+     */
+    public int getMaxAddresses() {
+        return maxAddresses;
+    }
+
+    public void addListener(ResolverMetricsListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ResolverMetricsListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Records completed operation
+     *
+     * @param operation operation type
+     * @param address   address
+     * @param start     operation start time, as returned by {@link System#nanoTime()}
+     * @param bytes     number of bytes served by operation
+     */
+    public void record(Operation operation, SequenceAddress address, long start, long bytes) {
+        record(operation, address, BundleSequenceResolver.key(address), start, bytes);
+    }
+
+    private void record(Operation operation, SequenceAddress address, String key, long start, long bytes) {
+        long nanos = System.nanoTime() - start;
+        String scheme = address.getUri().getScheme();
+        getCounters(byScheme, scheme == null ? "" : scheme.toLowerCase())[operation.ordinal()].add(nanos, bytes);
+        Counter[] addressCounters = byAddress.get(key);
+        // New addresses are not tracked once the limit is reached (limit may be slightly exceeded by concurrent calls)
+        if (addressCounters == null && byAddress.size() < maxAddresses)
+            addressCounters = getCounters(byAddress, key);
+        if (addressCounters != null)
+            addressCounters[operation.ordinal()].add(nanos, bytes);
+
+        for (ResolverMetricsListener listener : listeners)
+            listener.operationCompleted(operation, address, nanos, bytes);
+
+        if (nanos > slowThresholdNanos) {
+            log.debug("Slow {} of {}: {} ms", operation, address, nanos / 1000000);
+            for (ResolverMetricsListener listener : listeners)
+                listener.slowOperation(operation, address, nanos);
+        }
+    }
+
+    /**
+     * Wraps provider, so that all reads are recorded as {@link Operation#Read} operations for the address
+     *
+     * @param provider provider reading from the underlying source
+     * @param address  address
+     * @return instrumented provider
+     */
+    public SequenceProvider<NucleotideSequence> instrument(final SequenceProvider<NucleotideSequence> provider,
+                                                           final SequenceAddress address) {
+        final String key = BundleSequenceResolver.key(address);
+        return new SequenceProvider<NucleotideSequence>() {
+            @Override
+            public int size() {
+                return provider.size();
+            }
+
+            @Override
+            public NucleotideSequence getRegion(Range range) {
+                long start = System.nanoTime();
+                NucleotideSequence result = provider.getRegion(range);
+                record(Operation.Read, address, key, start, result.size());
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Returns schemes with recorded operations
+     */
+    public Set<String> getSchemes() {
+        return new TreeSet<>(byScheme.keySet());
+    }
+
+    /**
+     * Returns keys of addresses with individual counters (see {@link BundleSequenceResolver#key(SequenceAddress)})
+     */
+    public Set<String> getAddresses() {
+        return new TreeSet<>(byAddress.keySet());
+    }
+
+    /**
+     * Returns counter for all addresses with a given scheme
+     */
+    public Counter getByScheme(String scheme, Operation operation) {
+        Counter[] counters = byScheme.get(scheme.toLowerCase());
+        return counters == null ? new Counter() : counters[operation.ordinal()];
+    }
+
+    /**
+     * Returns counter for the address (empty counter if the address is not tracked)
+     */
+    public Counter getByAddress(SequenceAddress address, Operation operation) {
+        Counter[] counters = byAddress.get(BundleSequenceResolver.key(address));
+        return counters == null ? new Counter() : counters[operation.ordinal()];
+    }
+
+    /**
+     * Removes all recorded values
+     */
+    public void reset() {
+        byScheme.clear();
+        byAddress.clear();
+    }
+
+    private static Counter[] getCounters(ConcurrentHashMap<String, Counter[]> map, String key) {
+        Counter[] counters = map.get(key);
+        if (counters == null) {
+            Counter[] newCounters = new Counter[Operation.values().length];
+            for (int i = 0; i < newCounters.length; ++i)
+                newCounters[i] = new Counter();
+            counters = map.putIfAbsent(key, newCounters);
+            if (counters == null)
+                counters = newCounters;
+        }
+        return counters;
+    }
+
+    /**
+     * Thread-safe operation counter
+     */
+    public static final class Counter {
+        private final AtomicLong count = new AtomicLong(), nanos = new AtomicLong(),
+                maxNanos = new AtomicLong(), bytes = new AtomicLong();
+
+        void add(long nanos, long bytes) {
+            this.count.incrementAndGet();
+            this.nanos.addAndGet(nanos);
+            this.bytes.addAndGet(bytes);
+            long max;
+            while ((max = maxNanos.get()) < nanos)
+                if (maxNanos.compareAndSet(max, nanos))
+                    break;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Returns total time of all operations in nanoseconds
+         */
+        public long getNanos() {
+            return nanos.get();
+        }
+
+        /**
+         * Returns time of the longest operation in nanoseconds
+         */
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount() + ", time=" + getNanos() / 1000000 + "ms, max=" + getMaxNanos() / 1000000 +
+                    "ms, bytes=" + getBytes();
+        }
+    }
+}
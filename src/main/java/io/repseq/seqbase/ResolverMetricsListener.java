@@ -0,0 +1,29 @@
+package io.repseq.seqbase;
+
+/**
+ * Receives events on sequence resolver operations, see {@link ResolverMetrics#addListener(ResolverMetricsListener)}.
+ *
+ * Methods are invoked synchronously from the thread that performed the operation, so implementations must be
+ * thread-safe and fast.
+ */
+public interface ResolverMetricsListener {
+    /**
+     * Invoked after each completed operation
+     *
+     * @param operation operation type
+     * @param address   address the operation was performed for
+     * @param nanos     operation time in nanoseconds
+     * @param bytes     number of bytes (nucleotides for reads) served, downloaded or indexed by the operation
+     */
+    void operationCompleted(ResolverMetrics.Operation operation, SequenceAddress address, long nanos, long bytes);
+
+    /**
+     * Invoked (after {@link #operationCompleted(ResolverMetrics.Operation, SequenceAddress, long, long)}) for
+     * operations that took longer than {@link ResolverMetrics#getSlowThreshold()} milliseconds
+     *
+     * @param operation operation type
+     * @param address   address the operation was performed for
+     * @param nanos     operation time in nanoseconds
+     */
+    void slowOperation(ResolverMetrics.Operation operation, SequenceAddress address, long nanos);
+}
@@ -0,0 +1,303 @@
+package io.repseq.seqbase;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.SequenceBuilder;
+import com.milaboratory.core.sequence.provider.SequenceProvider;
+import com.milaboratory.core.sequence.provider.SequenceProviderIndexOutOfBoundsException;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Single-file bundle of sequence regions, used to resolve addresses without access to the original sources (see
+ * {@link BundleSequenceResolver}).
+ *
+ * File layout: magic, number of records, index (for each record: address, record size or -1 if unknown, number of
+ * regions, and for each region its bounds and offset in data section), data section with nucleotide letters of all
+ * regions. Data section is memory-mapped, regions are decoded on request. Instances are thread-safe.
+ */
+public final class SequenceBundle implements AutoCloseable {
+    static final byte[] MAGIC = "RSQBNDL1".getBytes(StandardCharsets.US_ASCII);
+    static final Comparator<Range> RANGE_COMPARATOR = new Comparator<Range>() {
+        @Override
+        public int compare(Range o1, Range o2) {
+            return Integer.compare(o1.getLower(), o2.getLower());
+        }
+    };
+
+    final Path file;
+    final FileChannel channel;
+    final MappedByteBuffer data;
+    /**
+     * Address -> record
+     */
+    final Map<String, Record> records;
+
+    private SequenceBundle(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            CountingInputStream counter = new CountingInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel)));
+            DataInputStream in = new DataInputStream(counter);
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC))
+                throw new IOException("Not a sequence bundle: " + file);
+
+            int count = in.readInt();
+            Map<String, Record> records = new HashMap<>();
+            for (int i = 0; i < count; ++i) {
+                String address = in.readUTF();
+                int size = in.readInt();
+                int regions = in.readInt();
+                Range[] ranges = new Range[regions];
+                long[] offsets = new long[regions];
+                for (int j = 0; j < regions; ++j) {
+                    int from = in.readInt(), to = in.readInt();
+                    ranges[j] = new Range(from, to);
+                    offsets[j] = in.readLong();
+                }
+                records.put(address, new Record(address, size, ranges, offsets));
+            }
+            this.records = Collections.unmodifiableMap(records);
+
+            long dataSize = channel.size() - counter.position;
+            if (dataSize > Integer.MAX_VALUE)
+                throw new IOException("Bundle is too large: " + file);
+            this.data = channel.map(FileChannel.MapMode.READ_ONLY, counter.position, dataSize);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens bundle file
+     *
+     * @param file bundle file
+     * @return bundle
+     */
+    public static SequenceBundle open(Path file) throws IOException {
+        return new SequenceBundle(file);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns all addresses contained in the bundle
+     */
+    public Set<String> getAddresses() {
+        return new TreeSet<>(records.keySet());
+    }
+
+    public boolean contains(String address) {
+        return records.containsKey(address);
+    }
+
+    /**
+     * Returns regions of the record stored in the bundle, sorted and non-overlapping
+     */
+    public List<Range> getRegions(String address) {
+        return Collections.unmodifiableList(Arrays.asList(getRecord(address).ranges));
+    }
+
+    /**
+     * Returns provider for the record. Only regions contained in bundle regions are available, requests for other
+     * regions result in {@link SequenceProviderIndexOutOfBoundsException}.
+     *
+     * @param address address
+     * @return sequence provider
+     */
+    public SequenceProvider<NucleotideSequence> getSequenceProvider(String address) {
+        final Record record = getRecord(address);
+        return new SequenceProvider<NucleotideSequence>() {
+            @Override
+            public int size() {
+                return record.size >= 0 ? record.size : record.ranges[record.ranges.length - 1].getUpper();
+            }
+
+            @Override
+            public NucleotideSequence getRegion(Range range) {
+                return read(record, range);
+            }
+        };
+    }
+
+    private Record getRecord(String address) {
+        Record record = records.get(address);
+        if (record == null)
+            throw new IllegalArgumentException("No record in bundle " + file + ": " + address);
+        return record;
+    }
+
+    NucleotideSequence read(Record record, Range range) {
+        Range direct = range.isReverse() ? range.inverse() : range;
+
+        // Last region starting before or at range start
+        int i = Arrays.binarySearch(record.lowers, direct.getLower());
+        if (i < 0)
+            i = -i - 2;
+        if (i < 0 || !record.ranges[i].contains(direct)) {
+            Range available = i < 0 ? null : record.ranges[i].intersection(direct);
+            if (available == null && i + 1 < record.ranges.length)
+                available = record.ranges[i + 1].intersection(direct);
+            throw new SequenceProviderIndexOutOfBoundsException(available);
+        }
+
+        int offset = (int) (record.offsets[i] + direct.getLower() - record.ranges[i].getLower());
+        SequenceBuilder<NucleotideSequence> builder = NucleotideSequence.ALPHABET.createBuilder()
+                .ensureCapacity(direct.length());
+        for (int j = 0; j < direct.length(); ++j)
+            builder.append(NucleotideSequence.ALPHABET.symbolToCode((char) data.get(offset + j)));
+        NucleotideSequence seq = builder.createAndDestroy();
+        return range.isReverse() ? seq.getReverseComplement() : seq;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    static final class Record {
+        final String address;
+        final int size;
+        final Range[] ranges;
+        final int[] lowers;
+        final long[] offsets;
+
+        Record(String address, int size, Range[] ranges, long[] offsets) {
+            this.address = address;
+            this.size = size;
+            this.ranges = ranges;
+            this.offsets = offsets;
+            this.lowers = new int[ranges.length];
+            for (int i = 0; i < ranges.length; ++i)
+                lowers[i] = ranges[i].getLower();
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long position = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                ++position;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int r = super.read(b, off, len);
+            if (r > 0)
+                position += r;
+            return r;
+        }
+    }
+
+    /**
+     * Collects regions and writes bundle file. Overlapping and touching regions of the same record are merged.
+     */
+    public static final class Writer {
+        /**
+         * Address -> record size (or -1)
+         */
+        final Map<String, Integer> sizes = new TreeMap<>();
+        /**
+         * Address -> region -> sequence
+         */
+        final Map<String, TreeMap<Range, NucleotideSequence>> regions = new TreeMap<>();
+
+        /**
+         * Adds region of the record
+         *
+         * @param address    address
+         * @param recordSize full size of the record or -1 if unknown
+         * @param range      region (direct)
+         * @param sequence   sequence of the region
+         */
+        public synchronized void add(String address, int recordSize, Range range, NucleotideSequence sequence) {
+            if (range.isReverse())
+                throw new IllegalArgumentException("Reverse ranges are not supported.");
+            if (range.length() != sequence.size())
+                throw new IllegalArgumentException("Sequence size doesn't match range length.");
+            if (range.isEmpty())
+                return;
+
+            Integer size = sizes.get(address);
+            if (size == null || size < 0)
+                sizes.put(address, recordSize);
+
+            TreeMap<Range, NucleotideSequence> map = regions.get(address);
+            if (map == null)
+                regions.put(address, map = new TreeMap<>(RANGE_COMPARATOR));
+
+            // Merging with overlapping or touching regions
+            Iterator<Map.Entry<Range, NucleotideSequence>> it = map.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Range, NucleotideSequence> e = it.next();
+                Range r = e.getKey();
+                if (r.getUpper() < range.getLower() || range.getUpper() < r.getLower())
+                    continue;
+                Range merged = new Range(Math.min(r.getLower(), range.getLower()),
+                        Math.max(r.getUpper(), range.getUpper()));
+                SequenceBuilder<NucleotideSequence> builder = NucleotideSequence.ALPHABET.createBuilder()
+                        .ensureCapacity(merged.length());
+                if (r.getLower() < range.getLower())
+                    builder.append(e.getValue().getRange(0, range.getLower() - r.getLower()));
+                builder.append(sequence);
+                if (r.getUpper() > range.getUpper())
+                    builder.append(e.getValue().getRange(range.getUpper() - r.getLower(), r.length()));
+                range = merged;
+                sequence = builder.createAndDestroy();
+                it.remove();
+            }
+            map.put(range, sequence);
+        }
+
+        public synchronized void write(Path file) throws IOException {
+            Path tmp = file.resolveSibling(file.getFileName() + HTTPDownloader.TMP_SUFFIX);
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(tmp)))) {
+                    out.write(MAGIC);
+                    out.writeInt(regions.size());
+                    long offset = 0;
+                    for (Map.Entry<String, TreeMap<Range, NucleotideSequence>> record : regions.entrySet()) {
+                        out.writeUTF(record.getKey());
+                        out.writeInt(sizes.get(record.getKey()));
+                        out.writeInt(record.getValue().size());
+                        for (Range range : record.getValue().keySet()) {
+                            out.writeInt(range.getFrom());
+                            out.writeInt(range.getTo());
+                            out.writeLong(offset);
+                            offset += range.length();
+                        }
+                    }
+                    for (TreeMap<Range, NucleotideSequence> record : regions.values())
+                        for (NucleotideSequence seq : record.values())
+                            out.write(seq.toString().getBytes(StandardCharsets.US_ASCII));
+                }
+                HTTPDownloader.moveAtomically(tmp, file);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+}
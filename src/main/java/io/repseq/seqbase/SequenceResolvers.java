@@ -1,16 +1,39 @@
 package io.repseq.seqbase;
 
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.provider.CachedSequenceProvider;
+import com.milaboratory.core.sequence.provider.SequenceProvider;
+import io.repseq.util.ConcurrentUtils;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class SequenceResolvers {
-    private static volatile SequenceResolver defaultResolver = new MultiSequenceResolver(new LocalFileResolver(), new AnySequenceResolver());
+    private static volatile SequenceResolver defaultResolver = new MultiSequenceResolver(new BGZFFastaResolver(),
+            new TwoBitResolver(), new LocalFileResolver(), new AnySequenceResolver());
+
+    /**
+     * Returns default location of downloaded files cache (~/.repseqio/cache)
+     */
+    public static Path getDefaultCacheDir() {
+        return Paths.get(System.getProperty("user.home"), ".repseqio", "cache");
+    }
 
     public static void initDefaultResolver(Path cacheFolderPath) {
         PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
+        // Allowing parallel segment downloads from the same host
+        cm.setDefaultMaxPerRoute(4 * HTTPDownloader.DEFAULT_THREADS);
+        cm.setMaxTotal(8 * HTTPDownloader.DEFAULT_THREADS);
         CloseableHttpClient httpClient = HttpClients.custom()
                 .disableCookieManagement()
                 .setConnectionManager(cm)
@@ -23,6 +46,8 @@ public class SequenceResolvers {
 
     public static void initDefaultResolver(HTTPResolversContext context) {
         defaultResolver = new MultiSequenceResolver(
+                new BGZFFastaResolver(),
+                new TwoBitResolver(),
                 new LocalFileResolver(),
                 new HTTPSequenceResolvers.NucCoreResolver(context),
                 new HTTPSequenceResolvers.RAWHTTPResolver(context),
@@ -32,4 +57,80 @@ public class SequenceResolvers {
     public static SequenceResolver getDefault() {
         return defaultResolver;
     }
+
+    /**
+     * Adds resolver for addresses contained in the sequence bundle to the default resolver. Such addresses are
+     * resolved from the bundle in preference to all other sources.
+     *
+     * @param bundleFile bundle file (see {@link SequenceBundle})
+     */
+    public static synchronized void addBundle(Path bundleFile) {
+        BundleSequenceResolver bundleResolver = new BundleSequenceResolver(bundleFile);
+        SequenceResolver current = defaultResolver;
+        if (!(current instanceof MultiSequenceResolver))
+            throw new IllegalStateException("Unsupported default resolver: " + current);
+        MultiSequenceResolver multi = (MultiSequenceResolver) current;
+        OptionalSequenceResolver[] resolvers = new OptionalSequenceResolver[multi.resolvers.length + 1];
+        resolvers[0] = bundleResolver;
+        System.arraycopy(multi.resolvers, 0, resolvers, 1, multi.resolvers.length);
+        defaultResolver = new MultiSequenceResolver(multi.executor, resolvers);
+    }
+
+    /**
+     * Resolves and prepares (see {@link PreparableSequenceResolver}) all addresses, in parallel if resolver supports
+     * asynchronous requests, and blocks until all of them are completed.
+     *
+     * @param resolver  resolver
+     * @param addresses addresses
+     * @return providers, in the same order as addresses
+     * @throws RuntimeException if any of addresses can't be resolved (after all requests are completed)
+     */
+    public static List<CachedSequenceProvider<NucleotideSequence>> awaitAll(SequenceResolver resolver,
+                                                                           Collection<SequenceAddress> addresses) {
+        List<CachedSequenceProvider<NucleotideSequence>> result = new ArrayList<>(addresses.size());
+        if (!(resolver instanceof AsyncSequenceResolver)) {
+            if (resolver instanceof BatchSequenceResolver)
+                ((BatchSequenceResolver) resolver).prefetch(addresses);
+            for (SequenceAddress address : addresses) {
+                result.add(resolver.resolve(address));
+                if (resolver instanceof PreparableSequenceResolver)
+                    ((PreparableSequenceResolver) resolver).prepare(address);
+            }
+            return result;
+        }
+
+        RuntimeException error = null;
+        for (Future<CachedSequenceProvider<NucleotideSequence>> future :
+                ((AsyncSequenceResolver) resolver).resolveAllAsync(addresses))
+            try {
+                result.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = ConcurrentUtils.cause(e);
+                if (error == null)
+                    error = ConcurrentUtils.unchecked(cause);
+                else if (error != cause)
+                    error.addSuppressed(cause);
+                result.add(null);
+            }
+        if (error != null)
+            throw error;
+        return result;
+    }
+
+    /**
+     * Returns true if provider already contains the whole region (e.g. from "sequenceFragments" section of library),
+     * so it can be retrieved without access to the underlying source
+     */
+    public static boolean isKnown(SequenceProvider<NucleotideSequence> provider, Range region) {
+        if (!(provider instanceof CachedSequenceProvider))
+            return false;
+        for (Map.Entry<Range, NucleotideSequence> entry : ((CachedSequenceProvider<NucleotideSequence>) provider)
+                .entrySet())
+            if (entry.getKey().contains(region))
+                return true;
+        return false;
+    }
 }
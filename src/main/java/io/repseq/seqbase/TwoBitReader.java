@@ -0,0 +1,223 @@
+package io.repseq.seqbase;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.SequenceBuilder;
+import com.milaboratory.core.sequence.provider.SequenceProvider;
+import com.milaboratory.core.sequence.provider.SequenceProviderIndexOutOfBoundsException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Random access reader for UCSC .2bit files.
+ *
+ * Packed bases of each record are memory-mapped on first access, and only the requested bases are unpacked. N-blocks
+ * are applied to unpacked bases; mask (soft-masking) blocks are available via {@link #getMaskBlocks(String)}.
+ * Instances are thread-safe.
+ */
+public final class TwoBitReader implements AutoCloseable {
+    public static final int SIGNATURE = 0x1A412743;
+    /**
+     * Packed byte -> four nucleotide codes (2bit encoding is T=0, C=1, A=2, G=3, first base in the most significant
+     * bits)
+     */
+    private static final byte[][] UNPACK = new byte[256][4];
+
+    static {
+        byte[] codes = {NucleotideSequence.ALPHABET.symbolToCode('T'), NucleotideSequence.ALPHABET.symbolToCode('C'),
+                NucleotideSequence.ALPHABET.symbolToCode('A'), NucleotideSequence.ALPHABET.symbolToCode('G')};
+        for (int b = 0; b < 256; ++b)
+            for (int i = 0; i < 4; ++i)
+                UNPACK[b][i] = codes[(b >> (6 - 2 * i)) & 3];
+    }
+
+    final Path file;
+    final FileChannel channel;
+    final ByteOrder byteOrder;
+    /**
+     * True for version 1 files (64-bit record offsets)
+     */
+    final boolean longOffsets;
+    /**
+     * Record name -> record (header is loaded on first access)
+     */
+    final Map<String, Record> records;
+
+    public TwoBitReader(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = read(0, 16, ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) == SIGNATURE)
+                byteOrder = ByteOrder.LITTLE_ENDIAN;
+            else if (Integer.reverseBytes(header.getInt(0)) == SIGNATURE)
+                byteOrder = ByteOrder.BIG_ENDIAN;
+            else
+                throw new IOException("Not a .2bit file: " + file);
+            header.order(byteOrder);
+            int version = header.getInt(4);
+            if (version != 0 && version != 1)
+                throw new IOException("Unsupported .2bit version " + version + ": " + file);
+            this.longOffsets = version == 1;
+            this.records = readIndex(header.getInt(8));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns names of all records in file order
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(records.keySet());
+    }
+
+    public SequenceProvider<NucleotideSequence> getSequenceProvider(String name) {
+        final Record record = getRecord(name);
+        return new SequenceProvider<NucleotideSequence>() {
+            @Override
+            public int size() {
+                return record.size;
+            }
+
+            @Override
+            public NucleotideSequence getRegion(Range range) {
+                return read(record, range);
+            }
+        };
+    }
+
+    /**
+     * Returns soft-masked (lower-case) regions of the record
+     */
+    public List<Range> getMaskBlocks(String name) {
+        Record record = getRecord(name);
+        List<Range> result = new ArrayList<>(record.maskStarts.length);
+        for (int i = 0; i < record.maskStarts.length; ++i)
+            result.add(new Range(record.maskStarts[i], record.maskStarts[i] + record.maskSizes[i]));
+        return result;
+    }
+
+    private Record getRecord(String name) {
+        Record record = records.get(name);
+        if (record == null)
+            throw new IllegalArgumentException("No record with id: " + name);
+        try {
+            record.load();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return record;
+    }
+
+    NucleotideSequence read(Record record, Range range) {
+        if (range.getUpper() > record.size)
+            throw new SequenceProviderIndexOutOfBoundsException(range.intersection(new Range(0, record.size)));
+
+        int from = range.getLower(), to = range.getUpper();
+        byte[] codes = new byte[to - from];
+        MappedByteBuffer packed = record.packed;
+        for (int i = from; i < to; ) {
+            byte[] unpacked = UNPACK[packed.get(i >> 2) & 0xFF];
+            for (int j = i & 3; j < 4 && i < to; ++j, ++i)
+                codes[i - from] = unpacked[j];
+        }
+
+        // Applying N-blocks, starting from the last one starting before the region
+        int nBlock = Arrays.binarySearch(record.nStarts, from);
+        if (nBlock < 0)
+            nBlock = Math.max(0, -nBlock - 2);
+        for (; nBlock < record.nStarts.length && record.nStarts[nBlock] < to; ++nBlock)
+            for (int i = Math.max(from, record.nStarts[nBlock]),
+                 end = Math.min(to, record.nStarts[nBlock] + record.nSizes[nBlock]); i < end; ++i)
+                codes[i - from] = NucleotideSequence.ALPHABET.symbolToCode('N');
+
+        SequenceBuilder<NucleotideSequence> builder = NucleotideSequence.ALPHABET.createBuilder()
+                .ensureCapacity(codes.length);
+        for (byte code : codes)
+            builder.append(code);
+        NucleotideSequence seq = builder.createAndDestroy();
+        return range.isReverse() ? seq.getReverseComplement() : seq;
+    }
+
+    private Map<String, Record> readIndex(int count) throws IOException {
+        Map<String, Record> result = new LinkedHashMap<>();
+        long position = 16;
+        for (int i = 0; i < count; ++i) {
+            int nameSize = read(position, 1, byteOrder).get(0) & 0xFF;
+            ByteBuffer entry = read(position + 1, nameSize + (longOffsets ? 8 : 4), byteOrder);
+            String name = new String(entry.array(), 0, nameSize, StandardCharsets.US_ASCII);
+            long offset = longOffsets ? entry.getLong(nameSize) : entry.getInt(nameSize) & 0xFFFFFFFFL;
+            result.put(name, new Record(offset));
+            position += 1 + entry.capacity();
+        }
+        return result;
+    }
+
+    private ByteBuffer read(long position, int size, ByteOrder order) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(order);
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of file " + file);
+        buffer.flip();
+        return buffer;
+    }
+
+    private int[] readInts(long position, int count) throws IOException {
+        ByteBuffer buffer = read(position, 4 * count, byteOrder);
+        int[] result = new int[count];
+        buffer.asIntBuffer().get(result);
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    final class Record {
+        final long offset;
+        volatile boolean loaded = false;
+        int size;
+        int[] nStarts, nSizes, maskStarts, maskSizes;
+        MappedByteBuffer packed;
+
+        Record(long offset) {
+            this.offset = offset;
+        }
+
+        void load() throws IOException {
+            if (loaded)
+                return;
+            synchronized (this) {
+                if (loaded)
+                    return;
+                long position = offset;
+                ByteBuffer header = read(position, 8, byteOrder);
+                size = header.getInt(0);
+                int nBlocks = header.getInt(4);
+                position += 8;
+                nStarts = readInts(position, nBlocks);
+                nSizes = readInts(position + 4L * nBlocks, nBlocks);
+                position += 8L * nBlocks;
+                int maskBlocks = read(position, 4, byteOrder).getInt(0);
+                position += 4;
+                maskStarts = readInts(position, maskBlocks);
+                maskSizes = readInts(position + 4L * maskBlocks, maskBlocks);
+                // Skipping reserved field
+                position += 8L * maskBlocks + 4;
+                packed = channel.map(FileChannel.MapMode.READ_ONLY, position, (size + 3) / 4);
+                loaded = true;
+            }
+        }
+    }
+}
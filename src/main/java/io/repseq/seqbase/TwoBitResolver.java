@@ -0,0 +1,32 @@
+package io.repseq.seqbase;
+
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.provider.SequenceProvider;
+
+import java.nio.file.Path;
+
+/**
+ * Resolves records from local UCSC .2bit files.
+ *
+ * twobit:///path/hg38.2bit#chr1 or file:///path/hg38.2bit#chr1 (file addresses ending with .2bit)
+ */
+public final class TwoBitResolver extends AbstractLocalFileResolver<TwoBitReader> {
+    @Override
+    public boolean canResolve(SequenceAddress address) {
+        String scheme = address.getUri().getScheme();
+        if ("twobit".equalsIgnoreCase(scheme))
+            return true;
+        return "file".equalsIgnoreCase(scheme) &&
+                address.getUri().getRawSchemeSpecificPart().toLowerCase().endsWith(".2bit");
+    }
+
+    @Override
+    protected TwoBitReader openReader(Path file) throws Exception {
+        return new TwoBitReader(file);
+    }
+
+    @Override
+    protected SequenceProvider<NucleotideSequence> getSequenceProvider(TwoBitReader reader, String recordId) {
+        return reader.getSequenceProvider(recordId);
+    }
+}
@@ -0,0 +1,134 @@
+package io.repseq.util;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Helpers shared by parallel tasks: waiting for results with unwrapping of task errors, completed futures and thread
+ * factory for daemon worker threads
+ */
+public final class ConcurrentUtils {
+    private ConcurrentUtils() {
+    }
+
+    /**
+     * Waits for the result of the task. Errors of the task are rethrown as is (checked exceptions are wrapped in
+     * {@link RuntimeException}), interruption of the waiting thread is reported as {@link RuntimeException} with
+     * interrupted flag restored.
+     *
+     * @param future task
+     * @return result of the task
+     */
+    public static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw unchecked(cause(e));
+        }
+    }
+
+    /**
+     * Same as {@link #await(Future)}, but {@link IOException} thrown by the task is rethrown as is
+     *
+     * @param future task
+     * @return result of the task
+     * @throws IOException if task failed with IOException
+     */
+    public static <T> T awaitIO(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = cause(e);
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw unchecked(cause);
+        }
+    }
+
+    /**
+     * Returns the original error of the task (tasks waiting for other tasks may wrap their errors several times)
+     *
+     * @param e error thrown by {@link Future#get()}
+     * @return original error of the task
+     */
+    public static Throwable cause(ExecutionException e) {
+        Throwable cause = e.getCause();
+        while (cause instanceof ExecutionException && cause.getCause() != null)
+            cause = cause.getCause();
+        return cause;
+    }
+
+    /**
+     * Returns the error itself if it is a {@link RuntimeException}, wraps checked exceptions, throws {@link Error}s
+     *
+     * @param error error
+     * @return unchecked exception to throw
+     */
+    public static RuntimeException unchecked(Throwable error) {
+        if (error instanceof RuntimeException)
+            return (RuntimeException) error;
+        if (error instanceof Error)
+            throw (Error) error;
+        return new RuntimeException(error);
+    }
+
+    /**
+     * Returns future completed with the value
+     */
+    public static <T> Future<T> completed(final T value) {
+        FutureTask<T> future = new FutureTask<>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return value;
+            }
+        });
+        future.run();
+        return future;
+    }
+
+    /**
+     * Returns future completed with the error
+     */
+    public static <T> Future<T> failed(final Throwable error) {
+        FutureTask<T> future = new FutureTask<>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                if (error instanceof Error)
+                    throw (Error) error;
+                throw (Exception) error;
+            }
+        });
+        future.run();
+        return future;
+    }
+
+    /**
+     * Creates daemon threads with names starting with the prefix
+     */
+    public static final class NamedThreadFactory implements ThreadFactory {
+        final String prefix;
+        final AtomicInteger counter = new AtomicInteger();
+
+        public NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
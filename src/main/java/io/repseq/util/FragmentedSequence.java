@@ -0,0 +1,201 @@
+package io.repseq.util;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.SequenceBuilder;
+
+import java.util.*;
+
+/**
+ * Storage of known fragments of a single sequence (e.g. of a single accession).
+ *
+ * Overlapping fragments are checked for consistency and only their uncovered parts are stored, as a set of disjoint
+ * pieces, so each added nucleotide is copied at most once. Bounds of contiguous runs of pieces are maintained on each
+ * put by joining with the neighbouring runs only. Requested regions are assembled from the pieces they consist of,
+ * and the whole sequence of a run is assembled once (on first request) and cached until the run is modified.
+ */
+public final class FragmentedSequence {
+    /**
+     * Disjoint pieces of known sequence; begin -> sequence
+     */
+    private final TreeMap<Integer, NucleotideSequence> pieces = new TreeMap<>();
+    /**
+     * Disjoint and non-touching contiguous runs of pieces; begin -> run
+     */
+    private final TreeMap<Integer, Run> runs = new TreeMap<>();
+
+    /**
+     * Adds sequence fragment
+     *
+     * @param begin    position of the first nucleotide of the fragment
+     * @param sequence fragment sequence
+     * @throws IllegalArgumentException if fragment is inconsistent with already added fragments
+     */
+    public void put(int begin, NucleotideSequence sequence) {
+        int end = begin + sequence.size();
+        if (begin == end)
+            return;
+
+        // All pieces intersecting with [begin, end) (first one may end before begin)
+        Integer first = pieces.floorKey(begin);
+        NavigableMap<Integer, NucleotideSequence> intersecting = pieces.subMap(first == null ? begin : first, true,
+                end, false);
+
+        // Checking consistency of the new fragment with all overlapping pieces, and collecting uncovered gaps
+        List<Range> gaps = new ArrayList<>();
+        int cursor = begin;
+        for (Map.Entry<Integer, NucleotideSequence> piece : intersecting.entrySet()) {
+            int pieceBegin = piece.getKey();
+            NucleotideSequence pieceSequence = piece.getValue();
+            int pieceEnd = pieceBegin + pieceSequence.size();
+
+            int from = Math.max(begin, pieceBegin), to = Math.min(end, pieceEnd);
+            for (int i = from; i < to; ++i)
+                if (pieceSequence.codeAt(i - pieceBegin) != sequence.codeAt(i - begin))
+                    throw new IllegalArgumentException("Inconsistent sequence fragments at position " + i + ".");
+
+            if (pieceBegin > cursor)
+                gaps.add(new Range(cursor, pieceBegin));
+            cursor = Math.max(cursor, pieceEnd);
+        }
+        if (cursor < end)
+            gaps.add(new Range(cursor, end));
+
+        // Fragment is already known
+        if (gaps.isEmpty())
+            return;
+
+        // Adding uncovered parts of the fragment
+        for (Range gap : gaps)
+            pieces.put(gap.getFrom(), gap.length() == sequence.size()
+                    ? sequence
+                    : sequence.getRange(gap.move(-begin)));
+
+        // Joining runs intersecting or touching [begin, end); only the first one may start before begin
+        Map.Entry<Integer, Run> floor = runs.floorEntry(begin);
+        int runBegin = floor != null && floor.getValue().end >= begin ? floor.getKey() : begin;
+        NavigableMap<Integer, Run> neighbours = runs.subMap(runBegin, true, end, true);
+        int runEnd = end;
+        if (!neighbours.isEmpty()) {
+            runBegin = Math.min(begin, neighbours.firstKey());
+            runEnd = Math.max(end, neighbours.lastEntry().getValue().end);
+            neighbours.clear();
+        }
+        runs.put(runBegin, new Run(runEnd));
+    }
+
+    /**
+     * Returns sequence of specified region or null if not all nucleotides of the region are known
+     *
+     * @param range region
+     * @return sequence of specified region or null if not all nucleotides of the region are known
+     */
+    public NucleotideSequence get(Range range) {
+        Map.Entry<Integer, Run> entry = findRun(range);
+        if (entry == null)
+            return null;
+        int runBegin = entry.getKey();
+        Run run = entry.getValue();
+        if (run.sequence != null || (range.getLower() == runBegin && range.getUpper() == run.end))
+            return sequence(runBegin, run).getRange(range.move(-runBegin));
+
+        // Assembling only the requested part of the run
+        int lower = range.getLower(), upper = range.getUpper();
+        if (lower == upper)
+            return NucleotideSequence.EMPTY;
+        Map.Entry<Integer, NucleotideSequence> firstPiece = pieces.floorEntry(lower);
+        if (firstPiece.getKey() + firstPiece.getValue().size() >= upper)
+            return orient(firstPiece.getValue().getRange(lower - firstPiece.getKey(), upper - firstPiece.getKey()),
+                    range);
+        SequenceBuilder<NucleotideSequence> builder = NucleotideSequence.ALPHABET.createBuilder()
+                .ensureCapacity(upper - lower);
+        for (Map.Entry<Integer, NucleotideSequence> piece :
+                pieces.subMap(firstPiece.getKey(), true, upper, false).entrySet()) {
+            int pieceBegin = piece.getKey(), pieceEnd = pieceBegin + piece.getValue().size();
+            builder.append(piece.getValue().getRange(Math.max(lower, pieceBegin) - pieceBegin,
+                    Math.min(upper, pieceEnd) - pieceBegin));
+        }
+        return orient(builder.createAndDestroy(), range);
+    }
+
+    /**
+     * Returns the whole contiguous region of known sequence containing specified range or null if not all nucleotides
+     * of the range are known
+     *
+     * @param range range
+     * @return the whole contiguous region of known sequence containing specified range or null
+     */
+    public Range getAvailableRange(Range range) {
+        Map.Entry<Integer, Run> entry = findRun(range);
+        if (entry == null)
+            return null;
+        return new Range(entry.getKey(), entry.getValue().end);
+    }
+
+    /**
+     * Returns true if no fragments were added
+     *
+     * @return true if no fragments were added
+     */
+    public boolean isEmpty() {
+        return pieces.isEmpty();
+    }
+
+    /**
+     * Returns all merged (contiguous) regions of known sequence, sorted by position
+     *
+     * @return all merged (contiguous) regions of known sequence, sorted by position
+     */
+    public List<Map.Entry<Range, NucleotideSequence>> getMergedFragments() {
+        List<Map.Entry<Range, NucleotideSequence>> result = new ArrayList<>();
+        for (Map.Entry<Integer, Run> run : runs.entrySet())
+            result.add(new AbstractMap.SimpleImmutableEntry<>(new Range(run.getKey(), run.getValue().end),
+                    sequence(run.getKey(), run.getValue())));
+        return result;
+    }
+
+    /**
+     * Returns run containing the range, or null if there is no such run
+     */
+    private Map.Entry<Integer, Run> findRun(Range range) {
+        Map.Entry<Integer, Run> entry = runs.floorEntry(range.getLower());
+        if (entry == null || entry.getValue().end < range.getUpper())
+            return null;
+        return entry;
+    }
+
+    /**
+     * Returns the whole sequence of the run, assembling it from pieces if it is not cached
+     */
+    private NucleotideSequence sequence(int runBegin, Run run) {
+        if (run.sequence != null)
+            return run.sequence;
+        NavigableMap<Integer, NucleotideSequence> runPieces = pieces.subMap(runBegin, true, run.end, false);
+        if (runPieces.size() == 1)
+            return run.sequence = runPieces.firstEntry().getValue();
+        SequenceBuilder<NucleotideSequence> builder = NucleotideSequence.ALPHABET.createBuilder()
+                .ensureCapacity(run.end - runBegin);
+        for (NucleotideSequence piece : runPieces.values())
+            builder.append(piece);
+        return run.sequence = builder.createAndDestroy();
+    }
+
+    private static NucleotideSequence orient(NucleotideSequence sequence, Range range) {
+        return range.isReverse() ? sequence.getReverseComplement() : sequence;
+    }
+
+    /**
+     * Contiguous run of pieces
+     */
+    private static final class Run {
+        final int end;
+        /**
+         * Whole sequence of the run, assembled on first request
+         */
+        NucleotideSequence sequence;
+
+        Run(int end) {
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package io.repseq.cli;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.mutations.Mutations;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.provider.SequenceProviderUtils;
+import com.milaboratory.test.TestUtil;
+import com.milaboratory.util.TempFileManager;
+import io.repseq.core.BaseSequence;
+import io.repseq.core.GeneFeature;
+import io.repseq.core.MutatedSequenceProvider;
+import io.repseq.seqbase.*;
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class BundleActionTest {
+    @Test
+    public void bundleLocalLibrary() throws Exception {
+        Path dir = TempFileManager.getTempDir().toPath();
+        NucleotideSequence seq = TestUtil.randomSequence(NucleotideSequence.ALPHABET, new Well19937c(123),
+                20000, 20000);
+        Path fasta = dir.resolve("bundle_source.fasta");
+        Files.write(fasta, (">chr0\n" + seq + "\n").getBytes(StandardCharsets.US_ASCII));
+
+        String address = "file://" + fasta + "#chr0";
+        Path library = dir.resolve("bundle_library.json");
+        Files.write(library, ("[{\"taxonId\": 9606, \"speciesNames\": [\"hs\"], \"genes\": [" +
+                "{\"baseSequence\": \"" + address + "\", \"name\": \"TRBV1*00\", \"geneType\": \"V\", " +
+                "\"isFunctional\": true, \"chains\": [\"TRB\"], " +
+                "\"anchorPoints\": {\"FR3Begin\": 10000, \"CDR3Begin\": 10100, \"VEnd\": 10120}}]}]")
+                .getBytes(StandardCharsets.US_ASCII));
+
+        Path bundleFile = dir.resolve("bundle.rsb");
+        BundleAction.bundle(library, bundleFile, 100,
+                Collections.singletonList(new CLIUtils.GeneFeatureWithOriginalName(
+                        GeneFeature.parse("VEnd(0, +2000)"), "VEnd(0, +2000)")), 2);
+
+        try (SequenceBundle bundle = SequenceBundle.open(bundleFile)) {
+            Assert.assertEquals(Collections.singleton(address), bundle.getAddresses());
+            Assert.assertEquals(Arrays.asList(new Range(9900, 12120)), bundle.getRegions(address));
+
+            SequenceResolver resolver = new MultiSequenceResolver(new BundleSequenceResolver(bundle),
+                    new AnySequenceResolver());
+            Assert.assertEquals(seq.getRange(9950, 12000),
+                    resolver.resolve(new SequenceAddress(address)).getRegion(new Range(9950, 12000)));
+        }
+    }
+
+    @Test
+    public void bundleRelativeMutatedSequence() throws Exception {
+        Path dir = TempFileManager.getTempDir().toPath().toAbsolutePath().normalize();
+        NucleotideSequence seq = TestUtil.randomSequence(NucleotideSequence.ALPHABET, new Well19937c(321),
+                20000, 20000);
+        Path fasta = dir.resolve("bundle_relative_source.fasta");
+        Files.write(fasta, (">chr0\n" + seq + "\n").getBytes(StandardCharsets.US_ASCII));
+
+        // Insertion shifts positions of the gene by one, deletion is outside of required region
+        String relativeAddress = "file://bundle_relative_source.fasta#chr0";
+        Range[] regions = {new Range(5000, 5500), new Range(6000, 6500)};
+        String mutations = "I100G,D" + seq.symbolAt(6200) + "700";
+        Path library = dir.resolve("bundle_relative_library.json");
+        Files.write(library, ("[{\"taxonId\": 9606, \"speciesNames\": [\"hs\"], \"genes\": [" +
+                "{\"baseSequence\": {\"origin\": \"" + relativeAddress + "\", \"regions\": [" +
+                "{\"from\": 5000, \"to\": 5500}, {\"from\": 6000, \"to\": 6500}], " +
+                "\"mutations\": \"" + mutations + "\"}, \"name\": \"TRBV1*01\", \"geneType\": \"V\", " +
+                "\"isFunctional\": true, \"chains\": [\"TRB\"], " +
+                "\"anchorPoints\": {\"FR3Begin\": 300, \"CDR3Begin\": 400, \"VEnd\": 450}}]}]")
+                .getBytes(StandardCharsets.US_ASCII));
+
+        Path bundleFile = dir.resolve("bundle_relative.rsb");
+        BundleAction.bundle(library, bundleFile, 100, Collections.<CLIUtils.GeneFeatureWithOriginalName>emptyList(),
+                2);
+
+        try (SequenceBundle bundle = SequenceBundle.open(bundleFile)) {
+            // Relative address is stored as the absolute one
+            String absoluteAddress = "file://" + fasta + "#chr0";
+            Assert.assertEquals(Collections.singleton(absoluteAddress), bundle.getAddresses());
+            // [200, 550) of mutated sequence is built from [199, 549) of concatenated regions
+            Assert.assertEquals(Arrays.asList(new Range(5199, 5500), new Range(6000, 6049)),
+                    bundle.getRegions(absoluteAddress));
+
+            BundleSequenceResolver bundleResolver = new BundleSequenceResolver(bundle);
+            Assert.assertTrue(bundleResolver.canResolve(new SequenceAddress(dir, relativeAddress)));
+            Assert.assertFalse(bundleResolver.canResolve(new SequenceAddress(dir.resolve("other"),
+                    relativeAddress)));
+
+            BaseSequence baseSequence = new BaseSequence(URI.create(relativeAddress), regions,
+                    Mutations.decode(mutations, NucleotideSequence.ALPHABET));
+            MutatedSequenceProvider expected = new MutatedSequenceProvider(SequenceProviderUtils.fromSequence(seq),
+                    regions, Mutations.decode(mutations, NucleotideSequence.ALPHABET));
+            Assert.assertEquals(expected.getRegion(new Range(200, 550)),
+                    baseSequence.resolve(dir, new MultiSequenceResolver(bundleResolver))
+                            .getRegion(new Range(200, 550)));
+        }
+    }
+}
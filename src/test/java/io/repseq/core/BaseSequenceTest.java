@@ -2,8 +2,20 @@ package io.repseq.core;
 
 import com.milaboratory.core.Range;
 import com.milaboratory.core.mutations.Mutations;
+import com.milaboratory.core.mutations.generator.MutationModels;
+import com.milaboratory.core.mutations.generator.MutationsGenerator;
+import com.milaboratory.core.mutations.generator.NucleotideMutationModel;
 import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.SequenceBuilder;
+import com.milaboratory.core.sequence.provider.CachedSequenceProvider;
+import com.milaboratory.core.sequence.provider.SequenceProvider;
+import com.milaboratory.core.sequence.provider.SequenceProviderUtils;
 import com.milaboratory.test.TestUtil;
+import io.repseq.seqbase.SequenceAddress;
+import io.repseq.seqbase.SequenceResolver;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.net.URI;
@@ -47,4 +59,49 @@ public class BaseSequenceTest {
                 Mutations.decode("DC2SG5T", NucleotideSequence.ALPHABET));
         TestUtil.assertJson(seq, sout);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void lazyMutatedProviderTest() throws Exception {
+        RandomGenerator rg = new Well19937c(1234);
+        NucleotideMutationModel model = MutationModels.getEmpiricalNucleotideMutationModel()
+                .multiplyProbabilities(20);
+        model.reseed(1234);
+        for (int t = 0; t < 300; ++t) {
+            NucleotideSequence original = TestUtil.randomSequence(NucleotideSequence.ALPHABET, rg, 100, 300);
+            final CachedSequenceProvider<NucleotideSequence> originalProvider =
+                    new CachedSequenceProvider<>(NucleotideSequence.ALPHABET,
+                            SequenceProviderUtils.fromSequence(original));
+            SequenceResolver resolver = new SequenceResolver() {
+                @Override
+                public CachedSequenceProvider<NucleotideSequence> resolve(SequenceAddress address) {
+                    return originalProvider;
+                }
+            };
+
+            Range[] regions = new Range[1 + rg.nextInt(4)];
+            for (int i = 0; i < regions.length; ++i) {
+                int a = rg.nextInt(original.size() + 1), b = rg.nextInt(original.size() + 1);
+                regions[i] = new Range(a, b);
+            }
+
+            SequenceBuilder<NucleotideSequence> builder = NucleotideSequence.ALPHABET.createBuilder();
+            for (Range region : regions)
+                builder.append(original.getRange(region));
+            NucleotideSequence concatenated = builder.createAndDestroy();
+
+            Mutations<NucleotideSequence> mutations = MutationsGenerator.generateMutations(concatenated, model);
+            NucleotideSequence expected = mutations.mutate(concatenated);
+
+            SequenceProvider<NucleotideSequence> provider = new BaseSequence(URI.create("file://some_fasta.fasta#1"),
+                    regions, mutations).resolve(null, resolver);
+
+            Assert.assertEquals(expected.size(), provider.size());
+            Assert.assertEquals(expected, provider.getRegion(new Range(0, expected.size())));
+            for (int i = 0; i < 20; ++i) {
+                int a = rg.nextInt(expected.size() + 1), b = rg.nextInt(expected.size() + 1);
+                Range range = new Range(a, b);
+                Assert.assertEquals(expected.getRange(range), provider.getRegion(range));
+            }
+        }
+    }
+}
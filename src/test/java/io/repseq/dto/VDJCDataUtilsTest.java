@@ -1,8 +1,13 @@
 package io.repseq.dto;
 
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.NucleotideSequence;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.net.URI;
+import java.util.List;
+
 public class VDJCDataUtilsTest {
     @Test
     public void test1() throws Exception {
@@ -17,6 +22,28 @@ public class VDJCDataUtilsTest {
         smartCompareAssert("A123ZZZ12d", "AZZZ12");
     }
 
+    @Test
+    public void fragmentsBuilderMergesAdjacentFragments() throws Exception {
+        URI uri1 = URI.create("nuccore://A1"), uri2 = URI.create("nuccore://A2");
+        VDJCDataUtils.FragmentsBuilder builder = new VDJCDataUtils.FragmentsBuilder();
+        builder.addRegion(uri1, new Range(10, 14), new NucleotideSequence("ATTA"));
+        builder.addRegion(uri1, new Range(14, 18), new NucleotideSequence("GACA"));
+        // Reverse range
+        builder.addRegion(uri1, new Range(20, 18), new NucleotideSequence("GG"));
+        builder.addRegion(uri1, new Range(30, 32), new NucleotideSequence("TT"));
+        // Same positions of other sequence
+        builder.addRegion(uri2, new Range(14, 18), new NucleotideSequence("GACA"));
+
+        List<KnownSequenceFragmentData> fragments = builder.getFragments();
+        Assert.assertEquals(3, fragments.size());
+        Assert.assertEquals(new KnownSequenceFragmentData(uri1, new Range(10, 20),
+                new NucleotideSequence("ATTAGACACC")), fragments.get(0));
+        Assert.assertEquals(new KnownSequenceFragmentData(uri1, new Range(30, 32),
+                new NucleotideSequence("TT")), fragments.get(1));
+        Assert.assertEquals(new KnownSequenceFragmentData(uri2, new Range(14, 18),
+                new NucleotideSequence("GACA")), fragments.get(2));
+    }
+
     public void smartCompareAssert(String lower, String higher) {
         Assert.assertTrue(lower + " < " + higher, VDJCDataUtils.smartCompare(lower, higher) < 0);
         Assert.assertTrue(higher + " > " + lower, VDJCDataUtils.smartCompare(higher, lower) > 0);
@@ -0,0 +1,101 @@
+package io.repseq.gen;
+
+import cc.redberry.pipe.CUtils;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import io.repseq.core.GeneFeature;
+import io.repseq.core.VDJCLibrary;
+import io.repseq.core.VDJCLibraryRegistry;
+import io.repseq.gen.dist.GCloneGenerator;
+import io.repseq.gen.dist.SyntheticLibrary;
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class GRepertoireBinaryTest {
+    @Test
+    public void roundTrip() throws Exception {
+        VDJCLibraryRegistry registry = SyntheticLibrary.registry();
+        VDJCLibrary library = registry.getLibrary(SyntheticLibrary.ID);
+        List<GClone> clones = sample(registry, 1000);
+        // Inserts with wildcards, empty inserts and gene feature
+        GGene gene = clones.get(0).genes.get("TRB");
+        clones.add(new GClone(0.5, Collections.singletonMap("TRB", new GGene(GeneFeature.VDJRegion,
+                gene.vdjcGenes, gene.vdjTrimming, new NucleotideSequence("ACNGTWA"), new NucleotideSequence("")))));
+        clones.add(new GClone(1.5, Collections.singletonMap("TRA", new GGene(null,
+                new VDJCGenes(gene.vdjcGenes.v, null, gene.vdjcGenes.j, null),
+                new VDJTrimming(-3, 2), new NucleotideSequence("ACGTA"), null))));
+
+        ByteArrayOutputStream binary = new ByteArrayOutputStream(), json = new ByteArrayOutputStream();
+        try (GRepertoireBinaryWriter writer = new GRepertoireBinaryWriter(binary, library.getLibraryId(), library,
+                100);
+             GRepertoireWriter jsonWriter = new GRepertoireWriter(json, library)) {
+            for (GClone clone : clones) {
+                writer.write(clone);
+                jsonWriter.write(clone);
+            }
+        }
+        Assert.assertTrue(binary.size() * 5 < json.size());
+
+        GRepertoireBinaryReader reader = new GRepertoireBinaryReader(
+                new ByteArrayInputStream(binary.toByteArray()), registry);
+        Assert.assertSame(library, reader.getLibrary());
+        Assert.assertEquals(clones, reader.readFully().clones);
+        Assert.assertNull(reader.take());
+    }
+
+    @Test
+    public void footer() throws Exception {
+        VDJCLibraryRegistry registry = SyntheticLibrary.registry();
+        VDJCLibrary library = registry.getLibrary(SyntheticLibrary.ID);
+        List<GClone> clones = sample(registry, 1050);
+        File file = Files.createTempFile("clones", ".bin").toFile();
+        try {
+            try (GRepertoireBinaryWriter writer = new GRepertoireBinaryWriter(new BufferedOutputStream(
+                    new FileOutputStream(file)), library.getLibraryId(), library, 100)) {
+                for (GClone clone : clones)
+                    writer.write(clone);
+            }
+            Assert.assertTrue(GRepertoireBinaryReader.isBinary(file));
+            GRepertoireBinaryReader.Footer footer = GRepertoireBinaryReader.readFooter(file);
+            Assert.assertEquals(1050, footer.numberOfClones);
+            Assert.assertEquals(11, footer.blockOffsets.length);
+            Assert.assertEquals(50, footer.blockCounts[10]);
+
+            try (GRepertoireBinaryReader reader = GRepertoireBinaryReader.open(file, 7, registry)) {
+                List<GClone> tail = new ArrayList<>();
+                for (GClone clone : CUtils.it(reader))
+                    tail.add(clone);
+                Assert.assertEquals(clones.subList(700, 1050), tail);
+            }
+            try (GRepertoireBinaryReader reader = GRepertoireBinaryReader.open(file, 11, registry)) {
+                Assert.assertNull(reader.take());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void emptyFile() throws Exception {
+        VDJCLibraryRegistry registry = SyntheticLibrary.registry();
+        VDJCLibrary library = registry.getLibrary(SyntheticLibrary.ID);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new GRepertoireBinaryWriter(bos, library).close();
+        Assert.assertNull(new GRepertoireBinaryReader(new ByteArrayInputStream(bos.toByteArray()), registry)
+                .take());
+    }
+
+    private static List<GClone> sample(VDJCLibraryRegistry registry, int count) {
+        GCloneGenerator generator = SyntheticLibrary.model().create(new Well19937c(1), registry);
+        List<GClone> clones = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            clones.add(generator.sample());
+        return clones;
+    }
+}
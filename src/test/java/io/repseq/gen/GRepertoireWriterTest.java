@@ -0,0 +1,136 @@
+package io.repseq.gen;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.milaboratory.util.GlobalObjectMappers;
+import io.repseq.core.VDJCGene;
+import io.repseq.core.VDJCLibrary;
+import io.repseq.core.VDJCLibraryRegistry;
+import io.repseq.gen.dist.GCloneGenerator;
+import io.repseq.gen.dist.SyntheticLibrary;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+public class GRepertoireWriterTest {
+    @Test
+    public void sameOutputInAllModes() throws Exception {
+        VDJCLibraryRegistry registry = SyntheticLibrary.registry();
+        VDJCLibrary library = registry.getLibrary(SyntheticLibrary.ID);
+        // More than a single buffer and several batches
+        List<GClone> clones = sample(registry, 5000);
+        byte[] expected = perCloneSerialization(library, clones);
+
+        for (int threads = 0; threads <= 3; threads++) {
+            Assert.assertArrayEquals(expected, write(library, clones, threads, false));
+            byte[] compressed = write(library, clones, threads, true);
+            Assert.assertTrue(compressed.length < expected.length / 3);
+            Assert.assertArrayEquals(expected, IOUtils.toByteArray(
+                    new GZIPInputStream(new ByteArrayInputStream(compressed))));
+        }
+
+        GRepertoireReader reader = new GRepertoireReader(new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(write(library, clones, 2, true))))), registry);
+        Assert.assertEquals(clones, reader.readeFully().clones);
+    }
+
+    @Test
+    public void encodedBlocks() throws Exception {
+        VDJCLibraryRegistry registry = SyntheticLibrary.registry();
+        VDJCLibrary library = registry.getLibrary(SyntheticLibrary.ID);
+        List<GClone> clones = sample(registry, 3000);
+        byte[] expected = perCloneSerialization(library, clones);
+        for (int threads = 0; threads <= 2; threads++)
+            for (boolean gzip : new boolean[]{false, true}) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                try (GRepertoireWriter writer = new GRepertoireWriter(bos, library.getLibraryId(), library,
+                        threads, gzip)) {
+                    // Encoded blocks mixed with single clones
+                    writer.writeEncoded(writer.encode(clones.subList(0, 1000)));
+                    for (GClone clone : clones.subList(1000, 1500))
+                        writer.write(clone);
+                    writer.writeEncoded(writer.encode(clones.subList(1500, 3000)));
+                }
+                byte[] actual = gzip
+                        ? IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(bos.toByteArray())))
+                        : bos.toByteArray();
+                Assert.assertArrayEquals(expected, actual);
+            }
+    }
+
+    @Ignore
+    @Test
+    public void benchmark() throws Exception {
+        VDJCLibraryRegistry registry = SyntheticLibrary.registry();
+        VDJCLibrary library = registry.getLibrary(SyntheticLibrary.ID);
+        List<GClone> clones = sample(registry, 100000);
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            perCloneSerialization(library, clones);
+            System.out.println("Writer per clone: " + rate(clones, start));
+
+            start = System.nanoTime();
+            write(library, clones, 0, false);
+            System.out.println("Single generator: " + rate(clones, start));
+
+            start = System.nanoTime();
+            write(library, clones, threads, false);
+            System.out.println("Background (" + threads + " threads): " + rate(clones, start));
+
+            start = System.nanoTime();
+            write(library, clones, 0, true);
+            System.out.println("Single generator, gzip: " + rate(clones, start));
+
+            start = System.nanoTime();
+            write(library, clones, threads, true);
+            System.out.println("Background (" + threads + " threads), gzip: " + rate(clones, start));
+        }
+    }
+
+    private static String rate(List<GClone> clones, long start) {
+        return (long) (clones.size() / ((System.nanoTime() - start) / 1E9)) + " clones/s";
+    }
+
+    private static byte[] write(VDJCLibrary library, List<GClone> clones, int threads, boolean gzip)
+            throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (GRepertoireWriter writer = new GRepertoireWriter(bos, library.getLibraryId(), library, threads, gzip)) {
+            for (GClone clone : clones)
+                writer.write(clone);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Serialization with new JSON generator for each clone
+     */
+    private static byte[] perCloneSerialization(VDJCLibrary library, List<GClone> clones) throws Exception {
+        ObjectWriter writer = GlobalObjectMappers.ONE_LINE.writerFor(new TypeReference<GClone>() {
+        }).withAttribute(VDJCGene.JSON_CURRENT_LIBRARY_ATTRIBUTE_KEY, library);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write(GlobalObjectMappers.ONE_LINE.writeValueAsString(library.getLibraryId()).getBytes());
+        bos.write('\n');
+        for (GClone clone : clones) {
+            writer.writeValue(new CloseShieldOutputStream(bos), clone);
+            bos.write('\n');
+        }
+        return bos.toByteArray();
+    }
+
+    private static List<GClone> sample(VDJCLibraryRegistry registry, int count) {
+        GCloneGenerator generator = SyntheticLibrary.model().create(new Well19937c(1), registry);
+        List<GClone> clones = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            clones.add(generator.sample());
+        return clones;
+    }
+}
@@ -0,0 +1,146 @@
+package io.repseq.gen;
+
+import cc.redberry.pipe.CUtils;
+import cc.redberry.pipe.OutputPort;
+import io.repseq.core.VDJCLibraryRegistry;
+import io.repseq.gen.dist.GCloneGenerator;
+import io.repseq.gen.dist.SyntheticLibrary;
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class ParallelGRepertoireReaderTest {
+    @Test
+    public void order() throws Exception {
+        VDJCLibraryRegistry registry = SyntheticLibrary.registry();
+        List<GClone> clones = sample(registry, 3000);
+        String jclns = write(registry, clones);
+        // Comments and empty lines are skipped
+        int split = jclns.indexOf('\n', jclns.length() / 2) + 1;
+        jclns = jclns.substring(0, split) + "# comment\n\n" + jclns.substring(split);
+        for (int threads = 1; threads <= 4; threads++) {
+            ParallelGRepertoireReader reader = new ParallelGRepertoireReader(
+                    new GRepertoireReader(new BufferedReader(new StringReader(jclns)), registry), threads, 7);
+            Assert.assertSame(registry.getLibrary(SyntheticLibrary.ID), reader.getLibrary());
+            Assert.assertEquals(clones, read(reader));
+            Assert.assertNull(reader.take());
+            reader.close();
+        }
+    }
+
+    @Test
+    public void error() throws Exception {
+        VDJCLibraryRegistry registry = SyntheticLibrary.registry();
+        String jclns = write(registry, sample(registry, 100)) + "{\"abundance\":\n";
+        ParallelGRepertoireReader reader = new ParallelGRepertoireReader(
+                new GRepertoireReader(new BufferedReader(new StringReader(jclns)), registry), 3, 10);
+        int read = 0;
+        try {
+            while (reader.take() != null)
+                ++read;
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertEquals(100, read);
+        }
+        Assert.assertNull(reader.take());
+        // Background threads are stopped without close()
+        Assert.assertTrue(reader.splitter.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertTrue(reader.workers.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void errorWithFullQueue() throws Exception {
+        VDJCLibraryRegistry registry = SyntheticLibrary.registry();
+        // Broken clone in the first batch, followed by enough batches to fill the queue
+        String jclns = write(registry, sample(registry, 500));
+        int split = jclns.indexOf('\n', jclns.indexOf('\n') + 1) + 1;
+        jclns = jclns.substring(0, split) + "{\"abundance\":\n" + jclns.substring(split);
+        ParallelGRepertoireReader reader = new ParallelGRepertoireReader(
+                new GRepertoireReader(new BufferedReader(new StringReader(jclns)), registry), 1, 5);
+        try {
+            while (reader.take() != null) ;
+            Assert.fail();
+        } catch (RuntimeException e) {
+        }
+        Assert.assertTrue(reader.splitter.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertTrue(reader.workers.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void endOfInput() throws Exception {
+        VDJCLibraryRegistry registry = SyntheticLibrary.registry();
+        ParallelGRepertoireReader reader = new ParallelGRepertoireReader(new GRepertoireReader(
+                new BufferedReader(new StringReader(write(registry, sample(registry, 50)))), registry), 2, 10);
+        Assert.assertEquals(50, read(reader).size());
+        Assert.assertTrue(reader.splitter.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertTrue(reader.workers.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void closeBeforeEnd() throws Exception {
+        VDJCLibraryRegistry registry = SyntheticLibrary.registry();
+        String jclns = write(registry, sample(registry, 2000));
+        ParallelGRepertoireReader reader = new ParallelGRepertoireReader(
+                new GRepertoireReader(new BufferedReader(new StringReader(jclns)), registry), 2, 10);
+        Assert.assertNotNull(reader.take());
+        reader.close();
+    }
+
+    @Ignore
+    @Test
+    public void benchmark() throws Exception {
+        VDJCLibraryRegistry registry = SyntheticLibrary.registry();
+        List<GClone> clones = sample(registry, 200000);
+        String jclns = write(registry, clones);
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            GRepertoireReader sequential = new GRepertoireReader(new BufferedReader(new StringReader(jclns)),
+                    registry);
+            int count = read(sequential).size();
+            double sequentialRate = count / ((System.nanoTime() - start) / 1E9);
+
+            start = System.nanoTime();
+            ParallelGRepertoireReader parallel = new ParallelGRepertoireReader(
+                    new BufferedReader(new StringReader(jclns)), registry, threads);
+            count = read(parallel).size();
+            double parallelRate = count / ((System.nanoTime() - start) / 1E9);
+            parallel.close();
+            System.out.println("Sequential: " + (long) sequentialRate + " clones/s; parallel (" + threads +
+                    " threads): " + (long) parallelRate + " clones/s");
+        }
+    }
+
+    private static List<GClone> read(OutputPort<GClone> port) {
+        List<GClone> clones = new ArrayList<>();
+        for (GClone clone : CUtils.it(port))
+            clones.add(clone);
+        return clones;
+    }
+
+    private static String write(VDJCLibraryRegistry registry, List<GClone> clones) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (GRepertoireWriter writer = new GRepertoireWriter(bos, registry.getLibrary(SyntheticLibrary.ID))) {
+            for (GClone clone : clones)
+                writer.write(clone);
+        }
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static List<GClone> sample(VDJCLibraryRegistry registry, int count) {
+        GCloneGenerator generator = SyntheticLibrary.model().create(new Well19937c(1), registry);
+        List<GClone> clones = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            clones.add(generator.sample());
+        return clones;
+    }
+}
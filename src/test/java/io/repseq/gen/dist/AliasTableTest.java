@@ -0,0 +1,91 @@
+package io.repseq.gen.dist;
+
+import io.repseq.core.VDJCLibraryRegistry;
+import org.apache.commons.math3.distribution.EnumeratedIntegerDistribution;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class AliasTableTest {
+    @Test
+    public void frequencies() throws Exception {
+        double[] weights = {0.1, 0.0, 2.5, 1.3, 0.7, 0.0001, 3.0};
+        double sum = 0;
+        for (double w : weights)
+            sum += w;
+        AliasTable table = new AliasTable(weights);
+        RandomGenerator random = new Well19937c(1);
+        int n = 1000000;
+        int[] counts = new int[weights.length];
+        for (int i = 0; i < n; i++)
+            ++counts[table.sample(random)];
+        for (int i = 0; i < weights.length; i++)
+            Assert.assertEquals(weights[i] / sum, 1.0 * counts[i] / n, 0.002);
+        Assert.assertEquals(0, counts[1]);
+    }
+
+    @Test
+    public void singleCategory() throws Exception {
+        AliasTable table = new AliasTable(new double[]{0.3});
+        RandomGenerator random = new Well19937c(1);
+        for (int i = 0; i < 100; i++)
+            Assert.assertEquals(0, table.sample(random));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeWeight() throws Exception {
+        new AliasTable(new double[]{0.3, -0.1});
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void zeroWeights() throws Exception {
+        new AliasTable(new double[]{0.0, 0.0});
+    }
+
+    /**
+     * Compares cost of categorical draws with commons-math distribution and alias table, and prints cost of sampling
+     * of a single clone
+     */
+    @Ignore
+    @Test
+    public void benchmark() throws Exception {
+        int categories = 60, draws = 10000000;
+        int[] values = new int[categories];
+        double[] weights = new double[categories];
+        RandomGenerator random = new Well19937c(1);
+        for (int i = 0; i < categories; i++) {
+            values[i] = i;
+            weights[i] = random.nextDouble();
+        }
+
+        for (int round = 0; round < 3; round++) {
+            EnumeratedIntegerDistribution enumerated = new EnumeratedIntegerDistribution(random, values, weights);
+            long start = System.nanoTime(), sum = 0;
+            for (int i = 0; i < draws; i++)
+                sum += enumerated.sample();
+            long enumeratedTime = System.nanoTime() - start;
+
+            CategoricalIntSampler sampler = new CategoricalIntSampler(values, weights);
+            start = System.nanoTime();
+            for (int i = 0; i < draws; i++)
+                sum += sampler.sample(random);
+            long aliasTime = System.nanoTime() - start;
+
+            System.out.println("Categorical draw (" + categories + " categories): EnumeratedIntegerDistribution " +
+                    (1.0 * enumeratedTime / draws) + " ns, alias " + (1.0 * aliasTime / draws) + " ns  (" + sum + ")");
+        }
+
+        VDJCLibraryRegistry registry = SyntheticLibrary.registry();
+        CompiledGCloneModel compiled = SyntheticLibrary.model().compile(registry);
+        int clones = 1000000;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime(), sum = 0;
+            for (int i = 0; i < clones; i++)
+                sum += compiled.sample(random).genes.size();
+            long time = System.nanoTime() - start;
+            System.out.println("Clone: " + (1.0 * time / clones) + " ns  (" + sum + ")");
+        }
+    }
+}
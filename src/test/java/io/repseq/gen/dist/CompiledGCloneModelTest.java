@@ -0,0 +1,68 @@
+package io.repseq.gen.dist;
+
+import io.repseq.core.GeneFeature;
+import io.repseq.gen.GClone;
+import io.repseq.gen.GGene;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class CompiledGCloneModelTest {
+    @Test
+    public void sharedBetweenThreads() throws Exception {
+        final CompiledGCloneModel compiled = SyntheticLibrary.model().compile(SyntheticLibrary.registry());
+        int tasks = 16;
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < tasks; i++)
+            expected.add(sample(compiled, i));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < tasks; i++) {
+                final int seed = i;
+                futures.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return sample(compiled, seed);
+                    }
+                }));
+            }
+            for (int i = 0; i < tasks; i++)
+                Assert.assertEquals(expected.get(i), futures.get(i).get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void sameAsGenerator() throws Exception {
+        BasicGCloneModel model = SyntheticLibrary.model();
+        CompiledGCloneModel compiled = model.compile(SyntheticLibrary.registry());
+        GCloneGenerator generator = model.create(new Well19937c(17), SyntheticLibrary.registry());
+        RandomGenerator random = new Well19937c(17);
+        for (int i = 0; i < 100; i++)
+            Assert.assertEquals(toString(generator.sample()), toString(compiled.sample(random)));
+    }
+
+    static String sample(CompiledGCloneModel compiled, long seed) {
+        RandomGenerator random = new Well19937c(seed);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++)
+            sb.append(toString(compiled.sample(random))).append('\n');
+        return sb.toString();
+    }
+
+    static String toString(GClone clone) {
+        StringBuilder sb = new StringBuilder().append(clone.abundance);
+        for (GGene gene : clone.genes.values())
+            sb.append(' ').append(gene.getFeature(GeneFeature.VDJRegion));
+        return sb.toString();
+    }
+}
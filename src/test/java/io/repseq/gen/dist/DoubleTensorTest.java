@@ -1,8 +1,13 @@
 package io.repseq.gen.dist;
 
 import org.apache.commons.math3.random.RandomDataGenerator;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.Ignore;
 import org.junit.Test;
 
+import java.util.concurrent.ForkJoinPool;
+
 import static org.junit.Assert.*;
 
 public class DoubleTensorTest {
@@ -21,4 +26,173 @@ public class DoubleTensorTest {
         for (int i = 0; i < 12 * 4 * 3 * 17; i++)
             assertEquals(i, DoubleTensor.idx(dims, DoubleTensor.invIdx(dims, i)));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void fixedArity() throws Exception {
+        DoubleTensor t = random(new Well19937c(1), 3, 4, 5);
+        for (int i = 0; i < 3; i++)
+            for (int j = 0; j < 4; j++)
+                for (int k = 0; k < 5; k++) {
+                    assertEquals(t.get(new int[]{i, j, k}), t.get(i, j, k), 0.0);
+                    assertEquals(t.get(i, j, k), t.slice(0, i).get(j, k), 0.0);
+                    assertEquals(t.get(i, j, k), t.slice(0, i).slice(1, k).get(j), 0.0);
+                }
+        t.set(17, 2, 3, 4);
+        t.add(1, 2, 3, 4);
+        assertEquals(18.0, t.data[t.data.length - 1], 0.0);
+    }
+
+    @Test
+    public void views() throws Exception {
+        DoubleTensor t = random(new Well19937c(2), 4, 5, 6);
+        DoubleTensor view = t.range(1, 1, 4).slice(2, 3);
+        assertEquals(4, view.getDimension(0));
+        assertEquals(3, view.getDimension(1));
+        assertFalse(view.isContiguous());
+        view.set(-1, 2, 1);
+        assertEquals(-1.0, t.get(2, 2, 3), 0.0);
+        double sum = 0;
+        for (int i = 0; i < 4; i++)
+            for (int j = 1; j < 4; j++)
+                sum += t.get(i, j, 3);
+        assertEquals(sum, view.sum(), 1E-12);
+        DoubleTensor copy = view.copy();
+        assertTrue(copy.isContiguous());
+        copy.set(0, 2, 1);
+        assertEquals(-1.0, t.get(2, 2, 3), 0.0);
+        view.divAll(2);
+        assertEquals(-0.5, t.get(2, 2, 3), 0.0);
+        assertEquals(sum / 2, view.sum(), 1E-12);
+        assertTrue(t.range(0, 1, 3).isContiguous());
+    }
+
+    @Test
+    public void axisSumAndNormalize() throws Exception {
+        DoubleTensor t = random(new Well19937c(3), 3, 4, 5);
+        for (int axis = 0; axis < 3; axis++) {
+            DoubleTensor marginal = t.sum(axis);
+            assertEquals(2, marginal.rank());
+            assertEquals(t.sum(), marginal.sum(), 1E-10);
+        }
+        DoubleTensor marginal = t.sum(1);
+        double expected = 0;
+        for (int j = 0; j < 4; j++)
+            expected += t.get(2, j, 3);
+        assertEquals(expected, marginal.get(2, 3), 1E-12);
+
+        t.set(0, 1, 0, 2);
+        t.set(0, 1, 1, 2);
+        t.set(0, 1, 2, 2);
+        t.set(0, 1, 3, 2);
+        DoubleTensor conditional = t.copy();
+        conditional.normalize(1);
+        for (int i = 0; i < 3; i++)
+            for (int k = 0; k < 5; k++)
+                assertEquals(i == 1 && k == 2 ? 0.0 : 1.0, conditional.slice(0, i).slice(1, k).sum(), 1E-12);
+        assertEquals(t.get(2, 1, 3) / expected, conditional.get(2, 1, 3), 1E-12);
+
+        t.normalize();
+        assertEquals(1.0, t.sum(), 1E-12);
+    }
+
+    @Test
+    public void parallelSum() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            DoubleTensor t = random(new Well19937c(4), 100, 30, 50);
+            assertEquals(t.sum(), t.sum(pool), 1E-8);
+            DoubleTensor view = t.range(2, 5, 45);
+            assertEquals(view.sum(), view.sum(pool), 1E-8);
+            DoubleTensor small = random(new Well19937c(5), 7, 3);
+            assertEquals(small.sum(), small.sum(pool), 0.0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void fixedArityBounds() throws Exception {
+        // Would address element (1, 2) without the check
+        new DoubleTensor(3, 3).get(0, 5);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void fixedArityNegativeIndex() throws Exception {
+        new DoubleTensor(3, 3, 3).add(1, 1, -1, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fixedArityRank() throws Exception {
+        new DoubleTensor(3, 3, 3).get(1, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void differentDimensions() throws Exception {
+        new DoubleTensor(2, 3).add(new DoubleTensor(3, 2));
+    }
+
+    @Ignore
+    @Test
+    public void benchmark() throws Exception {
+        RandomGenerator random = new Well19937c(6);
+        int n = 60, iterations = 20;
+        DoubleTensor t = random(random, n, n, n);
+        double blackHole = 0;
+        for (int warmUp = 0; warmUp < 2; warmUp++) {
+            long start = System.nanoTime();
+            for (int it = 0; it < iterations; it++)
+                for (int i = 0; i < n; i++)
+                    for (int j = 0; j < n; j++)
+                        for (int k = 0; k < n; k++)
+                            blackHole += t.get(new int[]{i, j, k});
+            long varargs = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int it = 0; it < iterations; it++)
+                for (int i = 0; i < n; i++)
+                    for (int j = 0; j < n; j++)
+                        for (int k = 0; k < n; k++)
+                            blackHole += t.get(i, j, k);
+            long fixed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int it = 0; it < iterations; it++)
+                for (int axis = 0; axis < 3; axis++)
+                    blackHole += t.sum(axis).get(0, 0);
+            long axisSums = System.nanoTime() - start;
+
+            double accesses = (double) iterations * n * n * n;
+            System.out.println("Varargs get: " + varargs / accesses + " ns/access");
+            System.out.println("Fixed arity get: " + fixed / accesses + " ns/access");
+            System.out.println("Axis sum: " + axisSums / (3.0 * iterations) / 1E6 + " ms/sum");
+        }
+
+        DoubleTensor large = random(random, 400, 400, 100);
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            for (int warmUp = 0; warmUp < 3; warmUp++) {
+                long start = System.nanoTime();
+                for (int it = 0; it < iterations; it++)
+                    blackHole += large.sum();
+                long sequential = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int it = 0; it < iterations; it++)
+                    blackHole += large.sum(pool);
+                long parallel = System.nanoTime() - start;
+                System.out.println("Sum of " + large.size() + " elements: sequential " +
+                        sequential / iterations / 1E6 + " ms, parallel (" + pool.getParallelism() + " threads) " +
+                        parallel / iterations / 1E6 + " ms");
+            }
+        } finally {
+            pool.shutdown();
+        }
+        System.out.println(blackHole);
+    }
+
+    private static DoubleTensor random(RandomGenerator random, int... dimensions) {
+        DoubleTensor t = new DoubleTensor(dimensions);
+        for (int i = 0; i < t.data.length; i++)
+            t.data[i] = random.nextDouble();
+        return t;
+    }
+}
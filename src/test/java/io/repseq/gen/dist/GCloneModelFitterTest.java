@@ -0,0 +1,127 @@
+package io.repseq.gen.dist;
+
+import cc.redberry.pipe.OutputPort;
+import com.milaboratory.util.GlobalObjectMappers;
+import io.repseq.core.VDJCLibrary;
+import io.repseq.core.VDJCLibraryRegistry;
+import io.repseq.gen.GClone;
+import io.repseq.gen.GCloneTsvReader;
+import io.repseq.gen.GGene;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class GCloneModelFitterTest {
+    @Test
+    public void fitSyntheticModel() throws Exception {
+        VDJCLibraryRegistry registry = SyntheticLibrary.registry();
+        VDJCLibrary library = registry.getLibrary(SyntheticLibrary.ID);
+        List<GClone> clones = sample(registry, 50000);
+        BasicGCloneModel model = new GCloneModelFitter(library, -20, 10, 20).fit(port(clones), 3);
+
+        BasicGGeneModel gene = (BasicGGeneModel) model.geneModels.get("TRB");
+        DJCDependentVDJCGenesModel genes = (DJCDependentVDJCGenesModel) gene.vdjcGenesModel;
+        Assert.assertEquals(0.7, genes.v.get("TRBV1*00"), 0.01);
+        Assert.assertEquals(0.3, genes.v.get("TRBV2*00"), 0.01);
+        Assert.assertEquals(0.4, genes.djc.get("TRBD1*00|TRBJ1*00|TRBC1*00"), 0.01);
+        Assert.assertEquals(0.6, genes.djc.get("TRBD1*00|TRBJ2*00|TRBC1*00"), 0.01);
+
+        IndependentVDJTrimmingModel trimming = (IndependentVDJTrimmingModel) gene.trimmingModel;
+        Map<Integer, Double> vTrimming = ((SeparateCategoricalGeneTrimmingModel) trimming.v).distributions
+                .get("TRBV2*00");
+        Assert.assertEquals(0.3, vTrimming.get(-3), 0.02);
+        Assert.assertEquals(0.2, vTrimming.get(2), 0.02);
+        Assert.assertEquals(0.5, ((SeparateCategoricalGeneTrimmingModel) trimming.j).distributions
+                .get("TRBJ1*00").get(-4), 0.02);
+        Assert.assertEquals(0.3, ((SeparateCategoricalDGeneTrimmingModel) trimming.d).distributions
+                .get("TRBD1*00").get("0|-1"), 0.02);
+
+        MarkovInsertModel vInsert = (MarkovInsertModel) gene.vInsertModel,
+                djInsert = (MarkovInsertModel) gene.djInsertModel;
+        Assert.assertTrue(vInsert instanceof MarkovInsertModel.Model5);
+        Assert.assertTrue(djInsert instanceof MarkovInsertModel.Model3);
+        Assert.assertEquals(0.3, ((CategoricalIndependentIntModel) vInsert.lengthDistribution)
+                .distribution.get(3), 0.02);
+        Assert.assertEquals(0.3, ((CategoricalIndependentIntModel) djInsert.lengthDistribution)
+                .distribution.get(4), 0.02);
+        // Transitions of synthetic model have weights 1 + from + 2 * to (ACGT order)
+        String letters = "ACGT";
+        for (int from = 0; from < 4; from++)
+            for (int to = 0; to < 4; to++) {
+                String key = letters.charAt(from) + ">" + letters.charAt(to);
+                double expected = (1.0 + from + 2 * to) / (4 * (1 + from) + 12);
+                Assert.assertEquals(key, expected, vInsert.distribution.get(key), 0.02);
+                Assert.assertEquals(key, expected, djInsert.distribution.get(key), 0.02);
+            }
+
+        ParetoModel abundance = (ParetoModel) model.abundanceModel;
+        Assert.assertEquals(0.9, abundance.xm, 0.01);
+        Assert.assertEquals(1.3, abundance.alpha, 0.05);
+
+        // Fitted model can be serialized and used for generation
+        GCloneModel deserialized = GlobalObjectMappers.ONE_LINE.readValue(
+                GlobalObjectMappers.PRETTY.writeValueAsString(model), GCloneModel.class);
+        deserialized.create(new Well19937c(1), registry).sample();
+    }
+
+    @Test
+    public void threads() throws Exception {
+        VDJCLibraryRegistry registry = SyntheticLibrary.registry();
+        VDJCLibrary library = registry.getLibrary(SyntheticLibrary.ID);
+        List<GClone> clones = sample(registry, 5000);
+        GCloneModelFitter fitter = new GCloneModelFitter(library, -20, 10, 20);
+        String single = GlobalObjectMappers.ONE_LINE.writeValueAsString(
+                fitter.fit(port(clones), 1).geneModels);
+        for (int threads = 2; threads <= 5; threads++)
+            Assert.assertEquals(single, GlobalObjectMappers.ONE_LINE.writeValueAsString(
+                    fitter.fit(port(clones), threads).geneModels));
+    }
+
+    @Test
+    public void tsv() throws Exception {
+        VDJCLibrary library = SyntheticLibrary.registry().getLibrary(SyntheticLibrary.ID);
+        String tsv = "chain\tv\td\tj\tc\tvTrimming\td5Trimming\td3Trimming\tjTrimming\tvInsert\tdjInsert\n" +
+                "TRB\tTRBV1*00\tTRBD1*00\tTRBJ1*00\tTRBC1*00\t-2\t-1\t0\t-3\tACG\tTT\n" +
+                "# comment\n" +
+                "TRB\tTRBV2*00\tTRBD1*00\tTRBJ2*00\t\t1\t-1\t-2\t0\t\tA\n";
+        GCloneTsvReader reader = new GCloneTsvReader(new BufferedReader(new StringReader(tsv)), library);
+        BasicGCloneModel model = new GCloneModelFitter(library, -20, 10, 20).fit(reader, 1);
+        BasicGGeneModel gene = (BasicGGeneModel) model.geneModels.get("TRB");
+        DJCDependentVDJCGenesModel genes = (DJCDependentVDJCGenesModel) gene.vdjcGenesModel;
+        Assert.assertEquals(0.5, genes.djc.get("TRBD1*00|TRBJ2*00|"), 0.0);
+        Assert.assertEquals(0.5, ((CategoricalIndependentIntModel) ((MarkovInsertModel) gene.vInsertModel)
+                .lengthDistribution).distribution.get(0), 0.0);
+        Assert.assertEquals(1.0, ((FixedRealModel) model.abundanceModel).value, 0.0);
+        // Model with absent C gene can be compiled
+        gene.compile(library);
+    }
+
+    private static List<GClone> sample(VDJCLibraryRegistry registry, int count) {
+        GCloneGenerator generator = SyntheticLibrary.model().create(new Well19937c(1), registry);
+        List<GClone> clones = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            clones.add(generator.sample());
+        return clones;
+    }
+
+    /**
+     * Thread-safe port over clones
+     */
+    private static OutputPort<GClone> port(final List<GClone> clones) {
+        return new OutputPort<GClone>() {
+            int next = 0;
+
+            @Override
+            public synchronized GClone take() {
+                return next < clones.size() ? clones.get(next++) : null;
+            }
+        };
+    }
+}
@@ -0,0 +1,158 @@
+package io.repseq.gen.dist;
+
+import io.repseq.core.GeneFeature;
+import io.repseq.core.VDJCLibrary;
+import io.repseq.gen.GGene;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static io.repseq.gen.dist.BasicGCloneModelTest.b;
+
+public class GGeneConstraintTest {
+    @Test
+    public void inFrame() throws Exception {
+        assertSameDistribution(SyntheticLibrary.model().geneModels.get("TRB"), new GGeneConstraint(true, false));
+        assertSameDistribution(skewedModel(), new GGeneConstraint(true, false));
+    }
+
+    @Test
+    public void inFrameNoStops() throws Exception {
+        assertSameDistribution(SyntheticLibrary.model().geneModels.get("TRB"), new GGeneConstraint(true, true));
+        assertSameDistribution(skewedModel(), new GGeneConstraint(true, true));
+    }
+
+    @Test
+    public void targeted() throws Exception {
+        Set<String> v = Collections.singleton("TRBV2*00"), j = Collections.singleton("TRBJ1");
+        GGeneModel model = SyntheticLibrary.model().geneModels.get("TRB");
+        assertSameDistribution(model, new GGeneConstraint(false, false, v, j, 0, Integer.MAX_VALUE));
+        assertSameDistribution(model, new GGeneConstraint(false, false, null, null, 47, 50));
+        assertSameDistribution(skewedModel(), new GGeneConstraint(true, false, null, j, 40, 52));
+        assertSameDistribution(skewedModel(), new GGeneConstraint(true, true, v, null, 44, 60));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void impossibleConstraint() throws Exception {
+        VDJCLibrary library = SyntheticLibrary.registry().getLibrary(SyntheticLibrary.ID);
+        GGeneSampler sampler = SyntheticLibrary.model().geneModels.get("TRB").compile(library);
+        sampler.sample(new Well19937c(1), new GGeneConstraint(false, false, null, null, 0, 5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noStopsRequiresInFrame() throws Exception {
+        new GGeneConstraint(false, true);
+    }
+
+    @Ignore
+    @Test
+    public void benchmark() throws Exception {
+        VDJCLibrary library = SyntheticLibrary.registry().getLibrary(SyntheticLibrary.ID);
+        GGeneSampler sampler = SyntheticLibrary.model().geneModels.get("TRB").compile(library);
+        RandomGenerator random = new Well19937c(1);
+        int genes = 500000;
+        GGeneConstraint[] constraints = {
+                new GGeneConstraint(true, false),
+                new GGeneConstraint(true, true),
+                new GGeneConstraint(true, true, Collections.singleton("TRBV2*00"), null, 42, 54),
+                // Rare clones (~0.2%)
+                new GGeneConstraint(true, false, Collections.singleton("TRBV2*00"), null, 57, 57)
+        };
+        for (GGeneConstraint constraint : constraints) {
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime(), sum = 0;
+                for (int i = 0; i < genes; ) {
+                    GGene gene = sampler.sample(random);
+                    if (constraint.accept(gene)) {
+                        sum += gene.vInsert.size();
+                        ++i;
+                    }
+                }
+                long rejectionTime = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < genes; i++)
+                    sum += sampler.sample(random, constraint).vInsert.size();
+                long conditionalTime = System.nanoTime() - start;
+
+                System.out.println("V " + constraint.vGenes + ", CDR3 " + constraint.minCDR3Length + ".." +
+                        constraint.maxCDR3Length + ", no stops " + constraint.noStops + ": rejection " +
+                        (1.0 * rejectionTime / genes) + " ns, conditional " + (1.0 * conditionalTime / genes) +
+                        " ns  (" + sum + ")");
+            }
+        }
+    }
+
+    /**
+     * Compares distributions of gene parameters for conditional sampling and rejection sampling
+     */
+    static void assertSameDistribution(GGeneModel model, GGeneConstraint constraint) {
+        VDJCLibrary library = SyntheticLibrary.registry().getLibrary(SyntheticLibrary.ID);
+        GGeneSampler sampler = model.compile(library);
+        RandomGenerator random = new Well19937c(123);
+        int n = 20000;
+
+        Map<String, Integer> conditional = new HashMap<>(), rejection = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            GGene gene = sampler.sample(random, constraint);
+            Assert.assertTrue(constraint.accept(gene));
+            count(conditional, gene);
+        }
+        for (int i = 0; i < n; ) {
+            GGene gene = sampler.sample(random);
+            if (constraint.accept(gene)) {
+                count(rejection, gene);
+                ++i;
+            }
+        }
+
+        Set<String> keys = new HashSet<>(conditional.keySet());
+        keys.addAll(rejection.keySet());
+        for (String key : keys) {
+            double p1 = get(conditional, key) / n, p2 = get(rejection, key) / n;
+            double p = (p1 + p2) / 2;
+            // ~5 standard deviations of the difference
+            Assert.assertTrue(key + ": " + p1 + " vs " + p2,
+                    Math.abs(p1 - p2) <= 5 * Math.sqrt(2 * p * (1 - p) / n) + 1.0 / n);
+        }
+    }
+
+    /**
+     * Model with residues of insert lengths far from uniform
+     */
+    static GGeneModel skewedModel() {
+        return SyntheticLibrary.geneModel(
+                new CategoricalIndependentIntModel(b(0, 0.7).put(4, 0.1).put(6, 0.1).put(8, 0.1).get()),
+                new CategoricalIndependentIntModel(b(3, 0.8).put(1, 0.1).put(5, 0.1).get()));
+    }
+
+    private static void count(Map<String, Integer> counts, GGene gene) {
+        String[] keys = {
+                "V " + gene.vdjcGenes.v.getName(),
+                "J " + gene.vdjcGenes.j.getName(),
+                "VTrimming " + gene.vdjTrimming.vTrimming,
+                "JTrimming " + gene.vdjTrimming.jTrimming,
+                "DTrimming " + gene.vdjTrimming.dTrimming.d5Trimming + "|" + gene.vdjTrimming.dTrimming.d3Trimming,
+                "VInsert " + gene.vInsert.size(),
+                "DJInsert " + gene.djInsert.size(),
+                "CDR3 " + gene.getFeature(GeneFeature.CDR3).size()
+        };
+        for (String key : keys) {
+            Integer c = counts.get(key);
+            counts.put(key, c == null ? 1 : c + 1);
+        }
+    }
+
+    private static double get(Map<String, Integer> counts, String key) {
+        Integer c = counts.get(key);
+        return c == null ? 0 : c;
+    }
+}
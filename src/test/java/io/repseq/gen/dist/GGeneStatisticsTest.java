@@ -0,0 +1,198 @@
+package io.repseq.gen.dist;
+
+import com.milaboratory.core.sequence.NucleotideSequence;
+import io.repseq.core.GeneFeature;
+import io.repseq.core.GeneType;
+import io.repseq.core.VDJCGene;
+import io.repseq.core.VDJCLibrary;
+import io.repseq.gen.GGene;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static io.repseq.gen.dist.BasicGCloneModelTest.b;
+
+public class GGeneStatisticsTest {
+    @Test
+    public void matchesSampling() throws Exception {
+        assertMatchesSampling((BasicGGeneModel) SyntheticLibrary.model().geneModels.get("TRB"));
+        assertMatchesSampling(SyntheticLibrary.geneModel(
+                new CategoricalIndependentIntModel(b(0, 0.7).put(4, 0.1).put(6, 0.1).put(8, 0.1).get()),
+                new CategoricalIndependentIntModel(b(3, 0.8).put(1, 0.1).put(5, 0.1).get())));
+    }
+
+    @Test
+    public void fixedModel() throws Exception {
+        BasicGGeneModel model = new BasicGGeneModel(
+                new IndependentVDJCGenesModel(
+                        b("TRBV1*00", 0.7).put("TRBV2*00", 0.3).get(),
+                        b("TRBD1*00", 1.0).get(),
+                        b("TRBJ1*00", 0.4).put("TRBJ2*00", 0.6).get(),
+                        b("TRBC1*00", 1.0).get()),
+                new IndependentVDJTrimmingModel(
+                        new CommonCategoricalGeneTrimmingModel(b(-2, 1.0).get()),
+                        new CommonCategoricalDGeneTrimmingModel(b("-1|-2", 0.5).put("0|0", 0.5).get()),
+                        new CommonCategoricalGeneTrimmingModel(b(-1, 1.0).get())),
+                new FixedInsertModel(new NucleotideSequence("ACG")),
+                new FixedInsertModel(new NucleotideSequence("TTAG")));
+        GGeneStatistics stats = model.statistics(SyntheticLibrary.registry().getLibrary(SyntheticLibrary.ID), 1);
+        // V part 11 - 2, V insert 3, D part 14 - 3 or 14, DJ insert 4, J part 18 - 1
+        Assert.assertEquals(44, stats.getMinCDR3Length());
+        Assert.assertEquals(47, stats.getMaxCDR3Length());
+        Assert.assertEquals(0.5, stats.cdr3LengthProbability(44), 1e-12);
+        Assert.assertEquals(0.0, stats.cdr3LengthProbability(45), 0.0);
+        Assert.assertEquals(0.5, stats.cdr3LengthProbability(47), 1e-12);
+        Assert.assertEquals(0.0, stats.cdr3LengthProbability(100), 0.0);
+        Assert.assertEquals(0.0, stats.inFrameProbability(), 0.0);
+        Assert.assertEquals(0.0, stats.noCDR3Probability(), 0.0);
+        Map<String, Double> v = names(stats.usage(GeneType.Variable));
+        Assert.assertEquals(0.7, v.get("TRBV1*00"), 1e-12);
+        Assert.assertEquals(0.3, v.get("TRBV2*00"), 1e-12);
+        Assert.assertEquals(1.0, names(stats.usage(GeneType.Diversity)).get("TRBD1*00"), 1e-12);
+        Assert.assertEquals(0.6, names(stats.usage(GeneType.Joining)).get("TRBJ2*00"), 1e-12);
+    }
+
+    @Test
+    public void heavyTrimming() throws Exception {
+        VDJCLibrary library = SyntheticLibrary.registry().getLibrary(SyntheticLibrary.ID);
+        // V part 11, D part 14, J part 18: CDR3 may be trimmed completely (empty)
+        BasicGGeneModel model = trimmingModel(
+                new CommonCategoricalGeneTrimmingModel(b(-11, 0.4).put(-9, 0.3).put(-5, 0.3).get()),
+                new CommonCategoricalDGeneTrimmingModel(b("-7|-7", 0.5).put("-6|-6", 0.2).put("0|0", 0.3).get()),
+                new CommonCategoricalGeneTrimmingModel(b(-18, 0.5).put(-16, 0.2).put(-10, 0.3).get()));
+        GGeneStatistics stats = model.statistics(library, 1);
+        Assert.assertEquals(2, stats.getMinCDR3Length());
+        Assert.assertEquals(0.4 * 0.5 * 0.5, stats.noCDR3Probability(), 1e-12);
+
+        GGeneSampler sampler = model.compile(library);
+        RandomGenerator random = new Well19937c(123);
+        int n = 100000, noCDR3 = 0, inFrame = 0;
+        Map<Integer, Integer> lengths = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            NucleotideSequence cdr3 = sampler.sample(random).getFeature(GeneFeature.CDR3);
+            if (cdr3 == null || cdr3.size() == 0)
+                ++noCDR3;
+            else {
+                count(lengths, cdr3.size());
+                if (cdr3.size() % 3 == 0)
+                    ++inFrame;
+            }
+        }
+        assertFrequency("no CDR3", noCDR3, n, stats.noCDR3Probability());
+        assertFrequency("in-frame", inFrame, n, stats.inFrameProbability());
+        for (int length = 1; length <= stats.getMaxCDR3Length() + 3; length++)
+            assertFrequency("CDR3 length " + length, get(lengths, length), n, stats.cdr3LengthProbability(length));
+
+        // Negative lengths (genes can't be assembled, so not compared with sampling)
+        stats = trimmingModel(
+                new CommonCategoricalGeneTrimmingModel(b(-13, 0.5).put(-5, 0.5).get()),
+                new CommonCategoricalDGeneTrimmingModel(b("-7|-7", 1.0).get()),
+                new CommonCategoricalGeneTrimmingModel(b(-18, 1.0).get())).statistics(library, 1);
+        Assert.assertEquals(0.5, stats.noCDR3Probability(), 1e-12);
+        Assert.assertEquals(6, stats.getMinCDR3Length());
+        Assert.assertEquals(6, stats.getMaxCDR3Length());
+        Assert.assertEquals(0.5, stats.inFrameProbability(), 1e-12);
+    }
+
+    @Test
+    public void threads() throws Exception {
+        VDJCLibrary library = SyntheticLibrary.registry().getLibrary(SyntheticLibrary.ID);
+        BasicGGeneModel model = (BasicGGeneModel) SyntheticLibrary.model().geneModels.get("TRB");
+        GGeneStatistics single = model.statistics(library, 1), parallel = model.statistics(library, 4);
+        Assert.assertEquals(single.getMinCDR3Length(), parallel.getMinCDR3Length());
+        Assert.assertEquals(single.getMaxCDR3Length(), parallel.getMaxCDR3Length());
+        double sum = 0;
+        for (int length = single.getMinCDR3Length(); length <= single.getMaxCDR3Length(); length++) {
+            Assert.assertEquals(single.cdr3LengthProbability(length), parallel.cdr3LengthProbability(length), 1e-15);
+            sum += single.cdr3LengthProbability(length);
+        }
+        Assert.assertEquals(1.0, sum, 1e-12);
+    }
+
+    @Ignore
+    @Test
+    public void benchmark() throws Exception {
+        VDJCLibrary library = SyntheticLibrary.registry().getLibrary(SyntheticLibrary.ID);
+        BasicGGeneModel model = (BasicGGeneModel) SyntheticLibrary.model().geneModels.get("TRB");
+        GGeneSampler sampler = model.compile(library);
+        RandomGenerator random = new Well19937c(1);
+        int genes = 1000000;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            GGeneStatistics stats = model.statistics(library, Runtime.getRuntime().availableProcessors());
+            long analytic = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long sum = 0;
+            for (int i = 0; i < genes; i++)
+                sum += sampler.sample(random).getFeature(GeneFeature.CDR3).size();
+            long sampling = System.nanoTime() - start;
+
+            System.out.println("Analytic: " + (analytic / 1000) + " us, sampling of " + genes + " genes: " +
+                    (sampling / 1000000) + " ms  (" + stats.inFrameProbability() + ", " + sum + ")");
+        }
+    }
+
+    private static void assertMatchesSampling(BasicGGeneModel model) {
+        VDJCLibrary library = SyntheticLibrary.registry().getLibrary(SyntheticLibrary.ID);
+        GGeneStatistics stats = model.statistics(library, 2);
+        GGeneSampler sampler = model.compile(library);
+        RandomGenerator random = new Well19937c(123);
+        int n = 100000;
+        Map<Integer, Integer> lengths = new HashMap<>();
+        Map<String, Integer> vs = new HashMap<>(), js = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            GGene gene = sampler.sample(random);
+            count(lengths, gene.getFeature(GeneFeature.CDR3).size());
+            count(vs, gene.vdjcGenes.v.getName());
+            count(js, gene.vdjcGenes.j.getName());
+        }
+        for (int length = stats.getMinCDR3Length() - 3; length <= stats.getMaxCDR3Length() + 3; length++)
+            assertFrequency("CDR3 length " + length, get(lengths, length), n, stats.cdr3LengthProbability(length));
+        for (Map.Entry<String, Double> e : names(stats.usage(GeneType.Variable)).entrySet())
+            assertFrequency(e.getKey(), get(vs, e.getKey()), n, e.getValue());
+        for (Map.Entry<String, Double> e : names(stats.usage(GeneType.Joining)).entrySet())
+            assertFrequency(e.getKey(), get(js, e.getKey()), n, e.getValue());
+    }
+
+    private static BasicGGeneModel trimmingModel(GeneTrimmingModel vTrimming, DTrimmingModel dTrimming,
+                                                 GeneTrimmingModel jTrimming) {
+        return new BasicGGeneModel(
+                new IndependentVDJCGenesModel(
+                        b("TRBV1*00", 0.7).put("TRBV2*00", 0.3).get(),
+                        b("TRBD1*00", 1.0).get(),
+                        b("TRBJ1*00", 0.4).put("TRBJ2*00", 0.6).get(),
+                        b("TRBC1*00", 1.0).get()),
+                new IndependentVDJTrimmingModel(vTrimming, dTrimming, jTrimming),
+                new FixedInsertModel(NucleotideSequence.EMPTY),
+                new FixedInsertModel(NucleotideSequence.EMPTY));
+    }
+
+    private static void assertFrequency(String key, int count, int n, double p) {
+        // ~5 standard deviations
+        Assert.assertTrue(key + ": " + (1.0 * count / n) + " vs " + p,
+                Math.abs(1.0 * count / n - p) <= 5 * Math.sqrt(p * (1 - p) / n) + 1.0 / n);
+    }
+
+    private static Map<String, Double> names(Map<VDJCGene, Double> usage) {
+        Map<String, Double> result = new HashMap<>();
+        for (Map.Entry<VDJCGene, Double> e : usage.entrySet())
+            result.put(e.getKey().getName(), e.getValue());
+        return result;
+    }
+
+    private static <T> void count(Map<T, Integer> counts, T key) {
+        Integer c = counts.get(key);
+        counts.put(key, c == null ? 1 : c + 1);
+    }
+
+    private static <T> int get(Map<T, Integer> counts, T key) {
+        Integer c = counts.get(key);
+        return c == null ? 0 : c;
+    }
+}
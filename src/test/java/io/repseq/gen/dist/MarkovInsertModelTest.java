@@ -0,0 +1,74 @@
+package io.repseq.gen.dist;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import io.repseq.core.ReferencePoint;
+import io.repseq.core.VDJCGene;
+import io.repseq.core.VDJCLibrary;
+import io.repseq.gen.GGene;
+import io.repseq.gen.VDJCGenes;
+import io.repseq.gen.VDJTrimming;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.repseq.gen.dist.BasicGCloneModelTest.b;
+
+public class MarkovInsertModelTest {
+    @Test
+    public void transitions() throws Exception {
+        VDJCLibrary library = SyntheticLibrary.registry().getLibrary(SyntheticLibrary.ID);
+        VDJCGene v = library.get("TRBV1*00"), d = library.get("TRBD1*00"), j = library.get("TRBJ1*00");
+        List<VDJCGene> vs = Collections.singletonList(v), ds = Collections.singletonList(d),
+                js = Collections.singletonList(j), cs = Collections.emptyList();
+        // Deterministic cycle A > G > C > T > A
+        Map<String, Double> cycle = new HashMap<>();
+        cycle.put("A>G", 1.0);
+        cycle.put("G>C", 1.0);
+        cycle.put("C>T", 1.0);
+        cycle.put("T>A", 1.0);
+        cycle.put("T>C", 0.0);
+        IndependentIntModel length = new CategoricalIndependentIntModel(b(8, 1.0).get());
+        InsertSampler insert5 = new MarkovInsertModel.Model5(length, cycle).compile(true, vs, ds, js, cs);
+        InsertSampler insert3 = new MarkovInsertModel.Model3(length, cycle).compile(false, vs, ds, js, cs);
+
+        RandomGenerator random = new Well19937c(1);
+        RearrangementAssembler rearrangement = new RearrangementAssembler(
+                Collections.<VDJCGene, RearrangementAssembler.Germline>emptyMap());
+        String order = "AGCT";
+        for (int d5 = -3; d5 <= 2; d5++) {
+            VDJCGenes genes = new VDJCGenes(v, d, j, null);
+            VDJTrimming trimming = new VDJTrimming(-2, -1, d5, -1);
+            GGene gene = new GGene(null, genes, trimming, NucleotideSequence.EMPTY, NucleotideSequence.EMPTY);
+            rearrangement.reset(genes, trimming);
+
+            int p = gene.getPartitioning().getPosition(ReferencePoint.VEndTrimmed);
+            int anchor = order.indexOf(gene.getSequence(new Range(p, p + 1)).toString());
+            String expected = "";
+            for (int i = 1; i <= 8; i++)
+                expected += order.charAt((anchor + i) % 4);
+            Assert.assertEquals(expected, insert5.sample(random, rearrangement).toString());
+
+            p = gene.getPartitioning().getPosition(ReferencePoint.JBeginTrimmed);
+            anchor = order.indexOf(gene.getSequence(new Range(p, p + 1)).toString());
+            expected = "";
+            for (int i = 1; i <= 8; i++)
+                expected = order.charAt((anchor + i) % 4) + expected;
+            Assert.assertEquals(expected, insert3.sample(random, rearrangement).toString());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingLetter() throws Exception {
+        new MarkovInsertModel.Model5(new CategoricalIndependentIntModel(b(1, 1.0).get()),
+                b("A>A", 1.0).put("C>A", 1.0).put("G>A", 1.0).get())
+                .compile(true, Collections.<VDJCGene>emptyList(), Collections.<VDJCGene>emptyList(),
+                        Collections.<VDJCGene>emptyList(), Collections.<VDJCGene>emptyList());
+    }
+}
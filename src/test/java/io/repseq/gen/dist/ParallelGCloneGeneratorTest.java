@@ -0,0 +1,54 @@
+package io.repseq.gen.dist;
+
+import io.repseq.core.GeneFeature;
+import io.repseq.core.VDJCLibraryRegistry;
+import io.repseq.gen.GClone;
+import io.repseq.gen.GGene;
+import io.repseq.gen.GRepertoireWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+public class ParallelGCloneGeneratorTest {
+    @Test
+    public void sameOutputForAnyNumberOfThreads() throws Exception {
+        VDJCLibraryRegistry registry = SyntheticLibrary.registry();
+        BasicGCloneModel model = SyntheticLibrary.model();
+        ParallelGCloneGenerator.CloneFilter inFrame = new ParallelGCloneGenerator.CloneFilter() {
+            @Override
+            public boolean accept(GClone clone) {
+                for (GGene gene : clone.genes.values())
+                    if (gene.getFeature(GeneFeature.CDR3).size() % 3 != 0)
+                        return false;
+                return true;
+            }
+        };
+
+        byte[] expected = generate(registry, model, 1, null);
+        String[] lines = new String(expected, StandardCharsets.UTF_8).split("\n");
+        // Header + clones
+        Assert.assertEquals(1 + 2345, lines.length);
+        Assert.assertArrayEquals(expected, generate(registry, model, 4, null));
+        Assert.assertArrayEquals(expected, generate(registry, model, 7, null));
+
+        byte[] expectedFiltered = generate(registry, model, 1, inFrame);
+        Assert.assertArrayEquals(expectedFiltered, generate(registry, model, 3, inFrame));
+    }
+
+    @Test
+    public void blockSeeds() throws Exception {
+        Assert.assertTrue(ParallelGCloneGenerator.blockSeed(1, 0) != ParallelGCloneGenerator.blockSeed(1, 1));
+        Assert.assertTrue(ParallelGCloneGenerator.blockSeed(1, 1) != ParallelGCloneGenerator.blockSeed(2, 0));
+    }
+
+    static byte[] generate(VDJCLibraryRegistry registry, GCloneModel model, int threads,
+                           ParallelGCloneGenerator.CloneFilter filter) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (GRepertoireWriter writer = new GRepertoireWriter(bos, registry.getLibrary(model.libraryId()))) {
+            new ParallelGCloneGenerator(model, registry, 42, threads, 100, filter).generate(2345, writer);
+        }
+        return bos.toByteArray();
+    }
+}
@@ -0,0 +1,215 @@
+package io.repseq.gen.dist;
+
+import com.milaboratory.core.sequence.AminoAcidSequence;
+import com.milaboratory.core.sequence.GeneticCode;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import io.repseq.core.GeneFeature;
+import io.repseq.core.VDJCLibrary;
+import io.repseq.gen.GGene;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.*;
+
+import static io.repseq.gen.dist.BasicGCloneModelTest.b;
+
+public class PgenCalculatorTest {
+    @Test
+    public void codonPatterns() throws Exception {
+        for (byte aa = 0; aa < AminoAcidSequence.ALPHABET.basicSize(); aa++) {
+            int codons = 0;
+            for (byte[] pattern : PgenCalculator.codonPatterns(aa))
+                codons += Integer.bitCount(pattern[0]) * Integer.bitCount(pattern[1]) * Integer.bitCount(pattern[2]);
+            int expected = 0;
+            for (int codon = 0; codon < 64; codon++)
+                if (GeneticCode.getAminoAcid(codon) == aa)
+                    ++expected;
+            Assert.assertEquals(expected, codons);
+            Assert.assertTrue(PgenCalculator.codonPatterns(aa).length <= 2);
+        }
+    }
+
+    @Test
+    public void monteCarlo() throws Exception {
+        assertMatchesSampling(SyntheticLibrary.model().geneModels.get("TRB"));
+    }
+
+    @Test
+    public void cdr3PartsInsideInserts() throws Exception {
+        // CDR3 starts with V(D/J) insert or ends with DJ insert for some trimmings, inserts strongly depend on
+        // anchor nucleotides
+        BasicGGeneModel model = (BasicGGeneModel) SyntheticLibrary.model().geneModels.get("TRB");
+        Map<String, Double> markov = new HashMap<>();
+        String letters = "ACGT";
+        for (int i = 0; i < 4; ++i)
+            for (int j = 0; j < 4; ++j)
+                markov.put(letters.charAt(i) + ">" + letters.charAt(j), i == j ? 20.0 : 1.0);
+        assertMatchesSampling(new BasicGGeneModel(model.vdjcGenesModel,
+                new IndependentVDJTrimmingModel(
+                        new CommonCategoricalGeneTrimmingModel(b(-11, 0.5).put(-1, 0.5).get()),
+                        new CommonCategoricalDGeneTrimmingModel(b("-2|-3", 0.5).put("0|-1", 0.5).get()),
+                        new CommonCategoricalGeneTrimmingModel(b(-18, 0.4).put(1, 0.6).get())),
+                new MarkovInsertModel.Model5(((MarkovInsertModel) model.vInsertModel).lengthDistribution, markov),
+                new MarkovInsertModel.Model3(((MarkovInsertModel) model.djInsertModel).lengthDistribution,
+                        markov)));
+    }
+
+    @Test
+    public void fixedModel() throws Exception {
+        BasicGGeneModel model = new BasicGGeneModel(
+                new IndependentVDJCGenesModel(
+                        b("TRBV1*00", 0.7).put("TRBV2*00", 0.3).get(),
+                        b("TRBD1*00", 1.0).get(),
+                        b("TRBJ1*00", 0.4).put("TRBJ2*00", 0.6).get(),
+                        b("TRBC1*00", 1.0).get()),
+                new IndependentVDJTrimmingModel(
+                        new CommonCategoricalGeneTrimmingModel(b(-2, 1.0).get()),
+                        new CommonCategoricalDGeneTrimmingModel(b("-1|-2", 1.0).get()),
+                        new CommonCategoricalGeneTrimmingModel(b(-1, 1.0).get())),
+                new FixedInsertModel(new NucleotideSequence("ACG")),
+                new FixedInsertModel(new NucleotideSequence("TTAG")));
+        VDJCLibrary library = SyntheticLibrary.registry().getLibrary(SyntheticLibrary.ID);
+        GGeneSampler sampler = model.compile(library);
+        PgenCalculator calculator = model.pgenCalculator(library);
+        RandomGenerator random = new Well19937c(1);
+        for (int i = 0; i < 20; i++) {
+            GGene gene = sampler.sample(random);
+            NucleotideSequence cdr3 = gene.getFeature(GeneFeature.CDR3);
+            double expected = (gene.vdjcGenes.v.getName().equals("TRBV1*00") ? 0.7 : 0.3)
+                    * (gene.vdjcGenes.j.getName().equals("TRBJ1*00") ? 0.4 : 0.6);
+            Assert.assertEquals(expected, calculator.pgen(cdr3), 1e-12);
+            if (cdr3.size() % 3 == 0)
+                Assert.assertEquals(expected, calculator.pgen(AminoAcidSequence.translate(cdr3)), 1e-12);
+            Set<String> v = Collections.singleton(gene.vdjcGenes.v.getGeneName());
+            Assert.assertEquals(expected, calculator.pgen(new PgenCalculator.Query(cdr3, v, null)), 1e-12);
+            Assert.assertEquals(0.0, calculator.pgen(new PgenCalculator.Query(cdr3, null,
+                    Collections.singleton("TRBJ3"))), 0.0);
+            Assert.assertEquals(0.0, calculator.pgen(cdr3.concatenate(new NucleotideSequence("A"))), 0.0);
+        }
+    }
+
+    @Test
+    public void batch() throws Exception {
+        VDJCLibrary library = SyntheticLibrary.registry().getLibrary(SyntheticLibrary.ID);
+        BasicGGeneModel model = (BasicGGeneModel) SyntheticLibrary.model().geneModels.get("TRB");
+        List<PgenCalculator.Query> queries = queries(model.compile(library), 500);
+        PgenCalculator calculator = model.pgenCalculator(library);
+        double[] expected = new double[queries.size()];
+        for (int i = 0; i < expected.length; i++)
+            expected[i] = calculator.pgen(queries.get(i));
+        Assert.assertArrayEquals(expected, calculator.pgen(queries, 4), 0.0);
+    }
+
+    @Ignore
+    @Test
+    public void benchmark() throws Exception {
+        VDJCLibrary library = SyntheticLibrary.registry().getLibrary(SyntheticLibrary.ID);
+        BasicGGeneModel model = (BasicGGeneModel) SyntheticLibrary.model().geneModels.get("TRB");
+        List<PgenCalculator.Query> queries = queries(model.compile(library), 20000);
+        PgenCalculator calculator = model.pgenCalculator(library);
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            double sum = 0;
+            for (PgenCalculator.Query query : queries)
+                sum += calculator.pgen(query);
+            long single = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (double p : calculator.pgen(queries, threads))
+                sum += p;
+            long batch = System.nanoTime() - start;
+
+            System.out.println("1 thread: " + (long) (1E9 * queries.size() / single) + " queries/s, " + threads +
+                    " threads: " + (long) (1E9 * queries.size() / batch) + " queries/s  (" + sum + ")");
+        }
+    }
+
+    /**
+     * Mix of nucleotide, amino acid and V-restricted queries for CDR3 of sampled genes
+     */
+    private static List<PgenCalculator.Query> queries(GGeneSampler sampler, int count) {
+        RandomGenerator random = new Well19937c(1);
+        List<PgenCalculator.Query> queries = new ArrayList<>();
+        while (queries.size() < count) {
+            GGene gene = sampler.sample(random);
+            NucleotideSequence cdr3 = gene.getFeature(GeneFeature.CDR3);
+            if (cdr3 == null)
+                continue;
+            switch (queries.size() % 3) {
+                case 0:
+                    queries.add(new PgenCalculator.Query(cdr3, null, null));
+                    break;
+                case 1:
+                    queries.add(new PgenCalculator.Query(cdr3,
+                            Collections.singleton(gene.vdjcGenes.v.getName()), null));
+                    break;
+                default:
+                    if (cdr3.size() % 3 == 0)
+                        queries.add(new PgenCalculator.Query(AminoAcidSequence.translate(cdr3), null, null));
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Compares Pgen with frequencies of the most frequent CDR3s in sampled genes
+     */
+    private static void assertMatchesSampling(GGeneModel model) {
+        VDJCLibrary library = SyntheticLibrary.registry().getLibrary(SyntheticLibrary.ID);
+        GGeneSampler sampler = model.compile(library);
+        PgenCalculator calculator = ((BasicGGeneModel) model).pgenCalculator(library);
+        RandomGenerator random = new Well19937c(123);
+        int n = 200000;
+
+        Map<NucleotideSequence, Integer> nucleotides = new HashMap<>();
+        Map<AminoAcidSequence, Integer> aminoAcids = new HashMap<>();
+        Map<NucleotideSequence, Integer> withV = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            GGene gene = sampler.sample(random);
+            NucleotideSequence cdr3 = gene.getFeature(GeneFeature.CDR3);
+            if (cdr3 == null)
+                continue;
+            count(nucleotides, cdr3);
+            if (cdr3.size() % 3 == 0)
+                count(aminoAcids, AminoAcidSequence.translate(cdr3));
+            if (gene.vdjcGenes.v.getName().equals("TRBV2*00"))
+                count(withV, cdr3);
+        }
+
+        Set<String> v = Collections.singleton("TRBV2");
+        for (NucleotideSequence cdr3 : top(nucleotides, 20)) {
+            assertFrequency(cdr3.toString(), nucleotides.get(cdr3), n, calculator.pgen(cdr3));
+            Integer c = withV.get(cdr3);
+            assertFrequency("V2 " + cdr3, c == null ? 0 : c, n,
+                    calculator.pgen(new PgenCalculator.Query(cdr3, v, null)));
+        }
+        for (AminoAcidSequence cdr3 : top(aminoAcids, 20))
+            assertFrequency(cdr3.toString(), aminoAcids.get(cdr3), n, calculator.pgen(cdr3));
+    }
+
+    private static void assertFrequency(String key, int count, int n, double p) {
+        // ~5 standard deviations
+        Assert.assertTrue(key + ": " + (1.0 * count / n) + " vs " + p,
+                Math.abs(1.0 * count / n - p) <= 5 * Math.sqrt(p * (1 - p) / n) + 1.0 / n);
+    }
+
+    private static <T> void count(Map<T, Integer> counts, T key) {
+        Integer c = counts.get(key);
+        counts.put(key, c == null ? 1 : c + 1);
+    }
+
+    private static <T> List<T> top(final Map<T, Integer> counts, int size) {
+        List<T> keys = new ArrayList<>(counts.keySet());
+        Collections.sort(keys, new Comparator<T>() {
+            @Override
+            public int compare(T o1, T o2) {
+                return Integer.compare(counts.get(o2), counts.get(o1));
+            }
+        });
+        return keys.subList(0, Math.min(size, keys.size()));
+    }
+}
@@ -0,0 +1,125 @@
+package io.repseq.gen.dist;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.AminoAcidSequence;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import io.repseq.core.GeneFeature;
+import io.repseq.core.ReferencePoint;
+import io.repseq.core.VDJCGene;
+import io.repseq.core.VDJCLibrary;
+import io.repseq.gen.GGene;
+import io.repseq.gen.VDJCGenes;
+import io.repseq.gen.VDJTrimming;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class RearrangementAssemblerTest {
+    static final ReferencePoint[] JUNCTION_POINTS = {ReferencePoint.VEndTrimmed, ReferencePoint.DBeginTrimmed,
+            ReferencePoint.DEndTrimmed, ReferencePoint.JBeginTrimmed};
+
+    @Test
+    public void junctionLetters() throws Exception {
+        VDJCLibrary library = SyntheticLibrary.registry().getLibrary(SyntheticLibrary.ID);
+        VDJCGene v = library.get("TRBV1*00"), d = library.get("TRBD1*00"), j = library.get("TRBJ1*00");
+        RearrangementAssembler assembler = new RearrangementAssembler(RearrangementAssembler.germlines(
+                Collections.singletonList(d), Collections.singletonList(j)));
+        int dLength = 14;
+        for (int d5 = -dLength; d5 <= 3; d5++)
+            for (int d3 = -dLength - d5; d3 <= 3; d3++)
+                for (int jTrimming = -5; jTrimming <= 3; jTrimming++) {
+                    VDJCGenes genes = new VDJCGenes(v, d, j, null);
+                    VDJTrimming trimming = new VDJTrimming(-2, jTrimming, d5, d3);
+                    GGene gene = new GGene(null, genes, trimming, NucleotideSequence.EMPTY, NucleotideSequence.EMPTY);
+                    assembler.reset(genes, trimming);
+                    for (ReferencePoint point : JUNCTION_POINTS) {
+                        int position = gene.getPartitioning().getPosition(point);
+                        Assert.assertEquals(gene.getSequence(new Range(position, position + 1)).codeAt(0),
+                                assembler.letterAt(point));
+                    }
+                    // Trimmings of D gene don't overlap
+                    if (dLength + Math.min(d5, 0) + Math.min(d3, 0) >= 0)
+                        Assert.assertEquals(gene.getPartitioning().getPosition(ReferencePoint.DEndTrimmed)
+                                        - gene.getPartitioning().getPosition(ReferencePoint.DBeginTrimmed),
+                                assembler.dPartLength());
+                }
+
+        // VJ rearrangement, germline sequences loaded on demand
+        assembler = new RearrangementAssembler(Collections.<VDJCGene, RearrangementAssembler.Germline>emptyMap());
+        for (int jTrimming = -5; jTrimming <= 3; jTrimming++) {
+            VDJCGenes genes = new VDJCGenes(v, null, j, null);
+            VDJTrimming trimming = new VDJTrimming(1, jTrimming);
+            GGene gene = new GGene(null, genes, trimming, NucleotideSequence.EMPTY, null);
+            assembler.reset(genes, trimming);
+            for (ReferencePoint point : new ReferencePoint[]{ReferencePoint.VEndTrimmed,
+                    ReferencePoint.JBeginTrimmed}) {
+                int position = gene.getPartitioning().getPosition(point);
+                Assert.assertEquals(gene.getSequence(new Range(position, position + 1)).codeAt(0),
+                        assembler.letterAt(point));
+            }
+            Assert.assertEquals(-1, assembler.dPartLength());
+        }
+    }
+
+    @Test
+    public void assemble() throws Exception {
+        VDJCLibrary library = SyntheticLibrary.registry().getLibrary(SyntheticLibrary.ID);
+        VDJCGenes genes = new VDJCGenes(library.get("TRBV2*00"), library.get("TRBD1*00"),
+                library.get("TRBJ2*00"), library.get("TRBC1*00"));
+        VDJTrimming trimming = new VDJTrimming(-3, 2, 1, -4);
+        NucleotideSequence vInsert = new NucleotideSequence("ACGTT"), djInsert = new NucleotideSequence("GGA");
+        GGene expected = new GGene(null, genes, trimming, vInsert, djInsert);
+        GGene actual = new RearrangementAssembler(
+                Collections.<VDJCGene, RearrangementAssembler.Germline>emptyMap())
+                .reset(genes, trimming).vInsert(vInsert).djInsert(djInsert).assemble();
+        Assert.assertEquals(expected.getFeature(GeneFeature.VDJTranscript),
+                actual.getFeature(GeneFeature.VDJTranscript));
+        Assert.assertEquals(expected.getPartitioning().getPosition(ReferencePoint.CDR3End),
+                actual.getPartitioning().getPosition(ReferencePoint.CDR3End));
+    }
+
+    @Test
+    public void lettersAndCDR3() throws Exception {
+        VDJCLibrary library = SyntheticLibrary.registry().getLibrary(SyntheticLibrary.ID);
+        VDJCGene v = library.get("TRBV1*00"), d = library.get("TRBD1*00"), j = library.get("TRBJ2*00");
+        RearrangementAssembler assembler = new RearrangementAssembler(RearrangementAssembler.germlines(
+                Collections.singletonList(v), Collections.singletonList(d), Collections.singletonList(j)));
+        NucleotideSequence vInsert = new NucleotideSequence("TTGCA"), djInsert = new NucleotideSequence("CCAG");
+        for (int vTrimming = -4; vTrimming <= 3; vTrimming++)
+            for (int d5 = -3; d5 <= 2; d5++)
+                for (int jTrimming = -4; jTrimming <= 3; jTrimming++) {
+                    VDJTrimming trimming = new VDJTrimming(vTrimming, jTrimming, d5, 1 - d5);
+                    for (boolean vdj : new boolean[]{true, false}) {
+                        VDJCGenes genes = new VDJCGenes(v, vdj ? d : null, j, null);
+                        GGene gene = new GGene(null, genes, trimming, vInsert, vdj ? djInsert : null);
+                        assembler.reset(genes, trimming).vInsert(vInsert);
+                        if (vdj)
+                            assembler.djInsert(djInsert);
+                        int offset = gene.getPartitioning().getPosition(ReferencePoint.VEndTrimmed);
+                        Assert.assertEquals(gene.getPartitioning().getPosition(ReferencePoint.JBeginTrimmed) - offset,
+                                assembler.jPartBegin());
+                        Assert.assertEquals(gene.getSequence(new Range(offset - 30, offset + 50)),
+                                assembler.sequence(-30, 50));
+
+                        Assert.assertTrue(assembler.hasCDR3());
+                        NucleotideSequence cdr3 = gene.getFeature(GeneFeature.CDR3);
+                        Assert.assertEquals(gene.getPartitioning().getPosition(ReferencePoint.CDR3Begin) - offset,
+                                assembler.cdr3Begin());
+                        Assert.assertEquals(cdr3, assembler.sequence(assembler.cdr3Begin(), assembler.cdr3End()));
+                        if (cdr3.size() % 3 == 0)
+                            Assert.assertEquals(AminoAcidSequence.translateFromCenter(cdr3).containStops(),
+                                    assembler.containsStops(assembler.cdr3Begin(), assembler.cdr3End()));
+                    }
+                }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void noDGene() throws Exception {
+        VDJCLibrary library = SyntheticLibrary.registry().getLibrary(SyntheticLibrary.ID);
+        new RearrangementAssembler(Collections.<VDJCGene, RearrangementAssembler.Germline>emptyMap())
+                .reset(new VDJCGenes(library.get("TRBV1*00"), null, library.get("TRBJ1*00"), null),
+                        new VDJTrimming(0, 0))
+                .letterAt(ReferencePoint.DBeginTrimmed);
+    }
+}
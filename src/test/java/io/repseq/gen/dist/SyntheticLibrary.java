@@ -0,0 +1,102 @@
+package io.repseq.gen.dist;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.test.TestUtil;
+import io.repseq.core.*;
+import io.repseq.dto.KnownSequenceFragmentData;
+import io.repseq.dto.VDJCGeneData;
+import io.repseq.dto.VDJCLibraryData;
+import io.repseq.seqbase.AnySequenceResolver;
+import io.repseq.seqbase.MultiSequenceResolver;
+import org.apache.commons.math3.random.Well19937c;
+
+import java.net.URI;
+import java.util.*;
+
+import static io.repseq.gen.dist.BasicGCloneModelTest.b;
+
+/**
+ * Small self-contained TRB library (embedded sequences) and clone model for tests that can't rely on built-in
+ * libraries
+ */
+public final class SyntheticLibrary {
+    public static final VDJCLibraryId ID = new VDJCLibraryId("synthetic", 9606);
+
+    private SyntheticLibrary() {
+    }
+
+    /**
+     * Returns new registry with synthetic library registered
+     */
+    public static VDJCLibraryRegistry registry() {
+        Well19937c random = new Well19937c(12345);
+        List<VDJCGeneData> genes = new ArrayList<>();
+        List<KnownSequenceFragmentData> fragments = new ArrayList<>();
+
+        for (int i = 1; i <= 2; ++i)
+            addGene(genes, fragments, random, "TRBV" + i + "*00", GeneType.Variable, 500,
+                    ReferencePoint.UTR5Begin, 0, ReferencePoint.L1Begin, 20, ReferencePoint.VIntronBegin, 65,
+                    ReferencePoint.L2Begin, 150, ReferencePoint.FR1Begin, 160, ReferencePoint.CDR1Begin, 235,
+                    ReferencePoint.FR2Begin, 250, ReferencePoint.CDR2Begin, 301, ReferencePoint.FR3Begin, 322,
+                    ReferencePoint.CDR3Begin, 436, ReferencePoint.VEnd, 447);
+        addGene(genes, fragments, random, "TRBD1*00", GeneType.Diversity, 40,
+                ReferencePoint.DBegin, 10, ReferencePoint.DEnd, 24);
+        for (int i = 1; i <= 2; ++i)
+            addGene(genes, fragments, random, "TRBJ" + i + "*00", GeneType.Joining, 100,
+                    ReferencePoint.JBegin, 20, ReferencePoint.FR4Begin, 38, ReferencePoint.FR4End, 68);
+        addGene(genes, fragments, random, "TRBC1*00", GeneType.Constant, 200,
+                ReferencePoint.CBegin, 10, ReferencePoint.CExon1End, 190);
+
+        VDJCLibraryRegistry registry = new VDJCLibraryRegistry(new MultiSequenceResolver(new AnySequenceResolver()));
+        registry.registerLibrary(null, ID.getLibraryName(), new VDJCLibraryData(ID.getTaxonId(),
+                Collections.singletonList("hs"), genes, null, fragments));
+        return registry;
+    }
+
+    private static void addGene(List<VDJCGeneData> genes, List<KnownSequenceFragmentData> fragments,
+                                Well19937c random, String name, GeneType type, int length, Object... points) {
+        URI uri = URI.create("embedded://synthetic/" + name.replace("*", "_"));
+        NucleotideSequence seq = TestUtil.randomSequence(NucleotideSequence.ALPHABET, random, length, length);
+        fragments.add(new KnownSequenceFragmentData(uri, new Range(0, length), seq));
+        TreeMap<ReferencePoint, Long> anchorPoints = new TreeMap<>();
+        for (int i = 0; i < points.length; i += 2)
+            anchorPoints.put((ReferencePoint) points[i], (long) (Integer) points[i + 1]);
+        genes.add(new VDJCGeneData(new BaseSequence(uri), name, type, true, Chains.TRB,
+                new TreeMap<String, SortedSet<String>>(), anchorPoints));
+    }
+
+    /**
+     * Returns clone model for synthetic library, with non-trivial distributions of all parameters
+     */
+    public static BasicGCloneModel model() {
+        GGeneModel geneModel = geneModel(
+                new CategoricalIndependentIntModel(b(0, 0.1).put(1, 0.2).put(3, 0.3).put(5, 0.2).put(8, 0.2).get()),
+                new CategoricalIndependentIntModel(b(0, 0.2).put(2, 0.3).put(4, 0.3).put(7, 0.2).get()));
+        return new BasicGCloneModel(ID, new ParetoModel(0.9, 1.3), b("TRB", geneModel).get());
+    }
+
+    /**
+     * Returns gene model for synthetic library with specified distributions of insert lengths
+     */
+    public static BasicGGeneModel geneModel(IndependentIntModel vInsertLength, IndependentIntModel djInsertLength) {
+        Map<String, Double> markov = new HashMap<>();
+        String letters = "ACGT";
+        for (int i = 0; i < 4; ++i)
+            for (int j = 0; j < 4; ++j)
+                markov.put(letters.charAt(i) + ">" + letters.charAt(j), 1.0 + i + 2 * j);
+        return new BasicGGeneModel(
+                new IndependentVDJCGenesModel(
+                        b("TRBV1*00", 0.7).put("TRBV2*00", 0.3).get(),
+                        b("TRBD1*00", 1.0).get(),
+                        b("TRBJ1*00", 0.4).put("TRBJ2*00", 0.6).get(),
+                        b("TRBC1*00", 1.0).get()),
+                new IndependentVDJTrimmingModel(
+                        new CommonCategoricalGeneTrimmingModel(b(-3, 0.3).put(-1, 0.3).put(0, 0.2).put(2, 0.2).get()),
+                        new CommonCategoricalDGeneTrimmingModel(b("-2|-3", 0.5).put("0|-1", 0.3).put("1|0", 0.2)
+                                .get()),
+                        new CommonCategoricalGeneTrimmingModel(b(-4, 0.5).put(-2, 0.3).put(1, 0.2).get())),
+                new MarkovInsertModel.Model5(vInsertLength, markov),
+                new MarkovInsertModel.Model3(djInsertLength, markov));
+    }
+}
@@ -0,0 +1,142 @@
+package io.repseq.seqbase;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.provider.CachedSequenceProvider;
+import com.milaboratory.core.sequence.provider.SequenceProviderUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncSequenceResolverTest {
+    @Test
+    public void parallelPreparation() throws Exception {
+        SlowResolver slow = new SlowResolver();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            MultiSequenceResolver resolver = new MultiSequenceResolver(executor, slow);
+            List<SequenceAddress> addresses = new ArrayList<>();
+            for (int i = 0; i < 8; ++i)
+                addresses.add(new SequenceAddress("slow://record" + i));
+
+            List<Future<CachedSequenceProvider<NucleotideSequence>>> futures = resolver.resolveAllAsync(addresses);
+            Assert.assertEquals(addresses.size(), futures.size());
+            for (Future<CachedSequenceProvider<NucleotideSequence>> future : futures)
+                Assert.assertEquals(new NucleotideSequence("ATTA"), future.get().getRegion(new Range(0, 4)));
+
+            Assert.assertEquals(8, slow.prepared.get());
+            Assert.assertEquals(1, slow.batches.get());
+            // Records are prepared in parallel (checked without timing, which is unreliable on loaded machines)
+            Assert.assertTrue("Max concurrency " + slow.maxActive.get(), slow.maxActive.get() > 1);
+
+            // Blocking variant preserves order of addresses
+            Assert.assertEquals(8, SequenceResolvers.awaitAll(resolver, addresses).size());
+            Assert.assertEquals(16, slow.prepared.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void lifoExecutor() throws Exception {
+        // Single thread executing the most recently submitted task first
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingDeque<Runnable>() {
+                    @Override
+                    public boolean offer(Runnable runnable) {
+                        return offerFirst(runnable);
+                    }
+                });
+        try {
+            // Batch request is queued, not started immediately
+            final CountDownLatch latch = new CountDownLatch(1);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+
+            SlowResolver slow = new SlowResolver();
+            List<SequenceAddress> addresses = new ArrayList<>();
+            for (int i = 0; i < 3; ++i)
+                addresses.add(new SequenceAddress("slow://record" + i));
+            List<Future<CachedSequenceProvider<NucleotideSequence>>> futures =
+                    new MultiSequenceResolver(executor, slow).resolveAllAsync(addresses);
+            latch.countDown();
+
+            for (Future<CachedSequenceProvider<NucleotideSequence>> future : futures)
+                Assert.assertEquals(new NucleotideSequence("ATTA"), future.get().getRegion(new Range(0, 4)));
+            Assert.assertEquals(1, slow.batches.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void errorPropagation() throws Exception {
+        SlowResolver slow = new SlowResolver();
+        MultiSequenceResolver resolver = new MultiSequenceResolver(slow);
+        List<SequenceAddress> addresses = new ArrayList<>();
+        addresses.add(new SequenceAddress("slow://record0"));
+        addresses.add(new SequenceAddress("slow://fail"));
+        addresses.add(new SequenceAddress("slow://record1"));
+        try {
+            SequenceResolvers.awaitAll(resolver, addresses);
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertEquals("fail", e.getMessage());
+        }
+        // Other requests are completed before error is reported
+        Assert.assertEquals(2, slow.prepared.get());
+    }
+
+    static final class SlowResolver implements OptionalSequenceResolver, PreparableSequenceResolver,
+            BatchSequenceResolver {
+        static final long DELAY = 200;
+        final AtomicInteger prepared = new AtomicInteger(), batches = new AtomicInteger();
+        final AtomicInteger active = new AtomicInteger(), maxActive = new AtomicInteger();
+
+        @Override
+        public boolean canResolve(SequenceAddress address) {
+            return "slow".equals(address.getUri().getScheme());
+        }
+
+        @Override
+        public CachedSequenceProvider<NucleotideSequence> resolve(SequenceAddress address) {
+            return new CachedSequenceProvider<>(NucleotideSequence.ALPHABET,
+                    SequenceProviderUtils.fromSequence(new NucleotideSequence("ATTAGACA")));
+        }
+
+        @Override
+        public void prepare(SequenceAddress address) {
+            int current = active.incrementAndGet();
+            int max;
+            while ((max = maxActive.get()) < current && !maxActive.compareAndSet(max, current)) ;
+            try {
+                Thread.sleep(DELAY);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                active.decrementAndGet();
+            }
+            if (address.getUri().getHost().equals("fail"))
+                throw new IllegalStateException("fail");
+            prepared.incrementAndGet();
+        }
+
+        @Override
+        public void prefetch(Collection<SequenceAddress> addresses) {
+            batches.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package io.repseq.seqbase;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.test.TestUtil;
+import com.milaboratory.util.TempFileManager;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+public class BGZFFastaResolverTest {
+    @Test
+    public void randomRegions() throws Exception {
+        RandomGenerator rg = new Well19937c(1234);
+        NucleotideSequence[] records = new NucleotideSequence[3];
+        for (int i = 0; i < records.length; ++i)
+            records[i] = TestUtil.randomSequence(NucleotideSequence.ALPHABET, rg, 20000, 40000);
+
+        for (boolean withGZI : new boolean[]{true, false}) {
+            Path file = TempFileManager.getTempDir().toPath().resolve("genome.fa.gz");
+            writeBGZFFasta(file, records, 500, withGZI);
+
+            SequenceResolver resolver = new MultiSequenceResolver(new BGZFFastaResolver(), new LocalFileResolver());
+            for (int t = 0; t < 500; ++t) {
+                int r = rg.nextInt(records.length);
+                int from = rg.nextInt(records[r].size()),
+                        to = Math.min(records[r].size(), from + 1 + rg.nextInt(t % 10 == 0 ? 20000 : 300));
+                String scheme = t % 2 == 0 ? "file://" : "bgzf://";
+                NucleotideSequence seq = resolver.resolve(new SequenceAddress(scheme + file + "#record" + r))
+                        .getRegion(new Range(from, to));
+                Assert.assertEquals(records[r].getRange(from, to), seq);
+            }
+
+            BGZFFastaReader reader = new BGZFFastaReader(file);
+            Assert.assertEquals(records[1].getRange(100, 200).getReverseComplement(),
+                    reader.getSequenceProvider("record1").getRegion(new Range(200, 100)));
+            Assert.assertEquals(records[2].size(), reader.getSequenceProvider("record2").size());
+            reader.close();
+        }
+    }
+
+    /**
+     * Writes records as bgzip-compressed FASTA with lower-case 60-letter lines, together with .fai and (optionally)
+     * .gzi indices
+     */
+    static void writeBGZFFasta(Path file, NucleotideSequence[] records, int blockSize, boolean withGZI)
+            throws IOException {
+        StringBuilder fasta = new StringBuilder(), fai = new StringBuilder();
+        for (int i = 0; i < records.length; ++i) {
+            fasta.append(">record").append(i).append(" description\n");
+            fai.append("record").append(i).append('\t').append(records[i].size()).append('\t')
+                    .append(fasta.length()).append("\t60\t61\n");
+            String seq = records[i].toString().toLowerCase();
+            for (int j = 0; j < seq.length(); j += 60)
+                fasta.append(seq, j, Math.min(seq.length(), j + 60)).append('\n');
+        }
+        byte[] data = fasta.toString().getBytes(StandardCharsets.US_ASCII);
+
+        List<long[]> offsets = new ArrayList<>();
+        try (OutputStream os = Files.newOutputStream(file)) {
+            long compressed = 0;
+            for (int from = 0; from < data.length; from += blockSize) {
+                if (from != 0)
+                    offsets.add(new long[]{compressed, from});
+                compressed += writeBlock(os, data, from, Math.min(data.length, from + blockSize));
+            }
+            // EOF marker
+            writeBlock(os, data, 0, 0);
+        }
+
+        Files.write(file.resolveSibling(file.getFileName() + BGZFFastaReader.FAI_SUFFIX),
+                fai.toString().getBytes(StandardCharsets.US_ASCII));
+        Path gzi = file.resolveSibling(file.getFileName() + BGZFBlockReader.GZI_SUFFIX);
+        if (withGZI) {
+            ByteBuffer buffer = ByteBuffer.allocate(8 + 16 * offsets.size()).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putLong(offsets.size());
+            for (long[] offset : offsets)
+                buffer.putLong(offset[0]).putLong(offset[1]);
+            Files.write(gzi, buffer.array());
+        } else
+            Files.deleteIfExists(gzi);
+    }
+
+    static int writeBlock(OutputStream os, byte[] data, int from, int to) throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data, from, to - from);
+        deflater.finish();
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        byte[] buffer = new byte[65536];
+        while (!deflater.finished())
+            deflated.write(buffer, 0, deflater.deflate(buffer));
+        deflater.end();
+
+        CRC32 crc = new CRC32();
+        crc.update(data, from, to - from);
+
+        int size = 18 + deflated.size() + 8;
+        ByteBuffer block = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        block.put(new byte[]{31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255});
+        block.putShort((short) 6).put((byte) 'B').put((byte) 'C').putShort((short) 2).putShort((short) (size - 1));
+        block.put(deflated.toByteArray());
+        block.putInt((int) crc.getValue()).putInt(to - from);
+        os.write(block.array());
+        return size;
+    }
+}
@@ -0,0 +1,164 @@
+package io.repseq.seqbase;
+
+import com.milaboratory.util.TempFileManager;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class DownloadCacheTest {
+    Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = TempFileManager.getTempDir().toPath().toAbsolutePath();
+    }
+
+    static Path write(DownloadCache cache, String key, String content) throws Exception {
+        Path file = cache.downloadFile(key);
+        Files.write(file, content.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    @Test
+    public void putGet() throws Exception {
+        DownloadCache cache = new DownloadCache(dir);
+        Assert.assertNull(cache.get("http://a"));
+
+        Path file = cache.put("http://a", write(cache, "http://a", "ATTAGACA"));
+        Assert.assertEquals(file, cache.get("http://a"));
+        Assert.assertEquals("ATTAGACA", new String(Files.readAllBytes(file), StandardCharsets.US_ASCII));
+        Assert.assertTrue(new DownloadCache(dir).contains("http://a"));
+
+        // Same content is stored once
+        Path file2 = cache.put("http://b", write(cache, "http://b", "ATTAGACA"));
+        Assert.assertEquals(file, file2);
+        Assert.assertEquals(8, cache.totalSize());
+        Assert.assertEquals(2, cache.entries().size());
+
+        cache.invalidate("http://a");
+        Assert.assertTrue(Files.exists(file));
+        cache.invalidate("http://b");
+        Assert.assertFalse(Files.exists(file));
+        Assert.assertEquals(0, cache.totalSize());
+    }
+
+    @Test
+    public void corruptedEntry() throws Exception {
+        DownloadCache cache = new DownloadCache(dir);
+        Path file = cache.put("http://a", write(cache, "http://a", "ATTAGACA"));
+        Files.write(file.resolveSibling(file.getFileName() + ".mifai"), new byte[10]);
+
+        // Same size, different content and modification time
+        Files.write(file, "ATTAGACC".getBytes(StandardCharsets.US_ASCII));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10000));
+
+        Assert.assertNull(new DownloadCache(dir).get("http://a"));
+        Assert.assertFalse(Files.exists(file));
+        Assert.assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".mifai")));
+
+        file = cache.put("http://a", write(cache, "http://a", "ATTAGACA"));
+        Files.write(file, "ATTAGACC".getBytes(StandardCharsets.US_ASCII));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10000));
+        List<String> removed = cache.verify();
+        Assert.assertEquals(1, removed.size());
+        Assert.assertEquals("http://a", removed.get(0));
+    }
+
+    @Test
+    public void accessTimeUpdates() throws Exception {
+        DownloadCache cache = new DownloadCache(dir);
+        Path file = cache.put("http://a", write(cache, "http://a", "ATTAGACA"));
+        Path manifest = dir.resolve(DownloadCache.MANIFEST_FILE);
+        byte[] written = Files.readAllBytes(manifest);
+        long stored = cache.entries().get(0).getLastAccessTime();
+        Thread.sleep(5);
+
+        // Repeated access to verified entry doesn't rewrite manifest
+        for (int i = 0; i < 10; ++i)
+            Assert.assertEquals(file, cache.get("http://a"));
+        Assert.assertArrayEquals(written, Files.readAllBytes(manifest));
+
+        cache.flush();
+        Assert.assertTrue(new DownloadCache(dir).entries().get(0).getLastAccessTime() > stored);
+
+        // Entry changed outside of the instance is verified again
+        Files.write(file, "ATTAGACC".getBytes(StandardCharsets.US_ASCII));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10000));
+        Assert.assertNull(cache.get("http://a"));
+    }
+
+    @Test
+    public void lruEviction() throws Exception {
+        DownloadCache cache = new DownloadCache(dir);
+        for (int i = 0; i < 5; ++i) {
+            Path file = cache.put("http://" + i, write(cache, "http://" + i, "ACGTACGTA" + i));
+            // Index file is accounted to the entry
+            Files.write(file.resolveSibling(file.getFileName() + ".mifai"), new byte[10]);
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(100, cache.totalSize());
+
+        DownloadCache other = new DownloadCache(dir, 60);
+        Assert.assertNotNull(other.get("http://0"));
+        Thread.sleep(5);
+        Path file = other.put("http://5", write(other, "http://5", "ACGTACGTA5"));
+        Files.write(file.resolveSibling(file.getFileName() + ".mifai"), new byte[10]);
+
+        // 0 and 5 are used by other instance, 1, 2 and 3 are least recently used
+        Assert.assertEquals(60, other.totalSize());
+        for (int i : new int[]{1, 2, 3})
+            Assert.assertFalse(other.contains("http://" + i));
+        for (int i : new int[]{0, 4, 5})
+            Assert.assertTrue(other.contains("http://" + i));
+
+        Assert.assertEquals(1, new DownloadCache(dir).evict(40));
+        Assert.assertFalse(other.contains("http://4"));
+        Assert.assertEquals(0, other.downloadsSize());
+    }
+
+    @Test
+    public void concurrentAccess() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Path>> futures = new ArrayList<>();
+        for (int i = 0; i < 64; ++i) {
+            final int id = i;
+            futures.add(executor.submit(new Callable<Path>() {
+                @Override
+                public Path call() throws Exception {
+                    // Separate instances, as in separate processes
+                    DownloadCache cache = new DownloadCache(dir);
+                    String key = "http://" + (id % 16);
+                    Path file = cache.get(key);
+                    if (file != null)
+                        return file;
+                    Path tmp = cache.downloadFile(key).resolveSibling("tmp" + id);
+                    Files.write(tmp, key.getBytes(StandardCharsets.US_ASCII));
+                    return cache.put(key, tmp);
+                }
+            }));
+        }
+        for (int i = 0; i < futures.size(); ++i)
+            Assert.assertEquals("http://" + (i % 16),
+                    new String(Files.readAllBytes(futures.get(i).get()), StandardCharsets.US_ASCII));
+        executor.shutdown();
+        Assert.assertEquals(16, new DownloadCache(dir).entries().size());
+    }
+
+    @Test
+    public void parseSize() throws Exception {
+        Assert.assertEquals(100, DownloadCache.parseSize("100"));
+        Assert.assertEquals(512L << 20, DownloadCache.parseSize("512M"));
+        Assert.assertEquals(10L << 30, DownloadCache.parseSize("10gb"));
+    }
+}
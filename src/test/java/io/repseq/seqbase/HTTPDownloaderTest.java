@@ -0,0 +1,245 @@
+package io.repseq.seqbase;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.test.TestUtil;
+import com.milaboratory.util.LongProcessReporter;
+import com.milaboratory.util.TempFileManager;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+public class HTTPDownloaderTest {
+    TestHTTPServer server;
+    CloseableHttpClient httpClient;
+    Path cache;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestHTTPServer();
+        PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
+        cm.setDefaultMaxPerRoute(16);
+        httpClient = HttpClients.custom().disableCookieManagement().setConnectionManager(cm).build();
+        cache = TempFileManager.getTempDir().toPath().toAbsolutePath();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        httpClient.close();
+        server.close();
+    }
+
+    static byte[] randomFasta(int records, int length) {
+        Well19937c rg = new Well19937c(records + length);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < records; ++i) {
+            sb.append(">record").append(i).append('\n');
+            String seq = TestUtil.randomSequence(NucleotideSequence.ALPHABET, rg, length, length).toString();
+            for (int j = 0; j < seq.length(); j += 70)
+                sb.append(seq, j, Math.min(seq.length(), j + 70)).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    Path download(HTTPDownloader downloader, String path, String fileName) {
+        return downloader.download(server.uri(path), cache.resolve(fileName), path.endsWith(".gz"),
+                LongProcessReporter.NULL);
+    }
+
+    void assertNoTemporaryFiles() {
+        for (File file : cache.toFile().listFiles())
+            Assert.assertFalse(file.getName(), file.getName().contains(HTTPDownloader.PART_SUFFIX) ||
+                    file.getName().endsWith(HTTPDownloader.TMP_SUFFIX) ||
+                    file.getName().endsWith(HTTPDownloader.LOCK_SUFFIX));
+    }
+
+    @Test
+    public void parallelSegments() throws Exception {
+        byte[] data = randomFasta(10, 20000);
+        server.put("/test.fa", data);
+        HTTPDownloader downloader = new HTTPDownloader(httpClient, 4, 10000, 3);
+
+        Path file = download(downloader, "/test.fa", "parallel");
+        Assert.assertArrayEquals(data, Files.readAllBytes(file));
+        Assert.assertEquals(4, server.rangeRequests.get());
+        Assert.assertEquals(data.length, server.bytesServed.get());
+        assertNoTemporaryFiles();
+
+        // Second request is served from the local file system
+        download(downloader, "/test.fa", "parallel");
+        Assert.assertEquals(4, server.getRequests.get());
+    }
+
+    @Test
+    public void resumeDroppedConnections() throws Exception {
+        byte[] data = randomFasta(10, 20000);
+        server.put("/test.fa", data);
+        server.dropResponses(6, 10000);
+        HTTPDownloader downloader = new HTTPDownloader(httpClient, 2, 10000, 10);
+
+        Path file = download(downloader, "/test.fa", "resumed");
+        Assert.assertArrayEquals(data, Files.readAllBytes(file));
+        // Each resumed request continues from the last received byte
+        Assert.assertEquals(data.length, server.bytesServed.get());
+        Assert.assertTrue(server.rangeRequests.get() > 2);
+        assertNoTemporaryFiles();
+    }
+
+    @Test
+    public void resumePartialFile() throws Exception {
+        byte[] data = randomFasta(3, 10000);
+        server.put("/test.fa", data);
+        Path target = cache.resolve("partial");
+        Files.write(HTTPDownloader.sibling(target, HTTPDownloader.PART_SUFFIX + ".0-" + data.length),
+                Arrays.copyOf(data, 1000));
+        Files.write(HTTPDownloader.sibling(target, HTTPDownloader.PART_SUFFIX + HTTPDownloader.VALIDATOR_SUFFIX),
+                TestHTTPServer.eTag(data).getBytes(StandardCharsets.UTF_8));
+        HTTPDownloader downloader = new HTTPDownloader(httpClient, 4, 1000000, 3);
+
+        Path file = download(downloader, "/test.fa", "partial");
+        Assert.assertArrayEquals(data, Files.readAllBytes(file));
+        Assert.assertEquals(data.length - 1000, server.bytesServed.get());
+        assertNoTemporaryFiles();
+    }
+
+    @Test
+    public void partialFileOfOtherVersion() throws Exception {
+        byte[] data = randomFasta(3, 10000), old = randomFasta(3, 10001);
+        server.put("/test.fa", data);
+        Path target = cache.resolve("otherVersion");
+        Files.write(HTTPDownloader.sibling(target, HTTPDownloader.PART_SUFFIX + ".0-" + data.length),
+                Arrays.copyOf(old, 1000));
+        Files.write(HTTPDownloader.sibling(target, HTTPDownloader.PART_SUFFIX + HTTPDownloader.VALIDATOR_SUFFIX),
+                TestHTTPServer.eTag(old).getBytes(StandardCharsets.UTF_8));
+        HTTPDownloader downloader = new HTTPDownloader(httpClient, 4, 1000000, 3);
+
+        Path file = download(downloader, "/test.fa", "otherVersion");
+        Assert.assertArrayEquals(data, Files.readAllBytes(file));
+        Assert.assertEquals(data.length, server.bytesServed.get());
+        assertNoTemporaryFiles();
+    }
+
+    @Test
+    public void changedDuringDownload() throws Exception {
+        byte[] data = randomFasta(10, 20000), next = randomFasta(10, 20001);
+        server.put("/test.fa", data);
+        server.putNextVersion("/test.fa", next);
+        server.dropResponses(1, 10000);
+        HTTPDownloader downloader = new HTTPDownloader(httpClient, 1, 10000, 3);
+
+        // Resumed request is answered with the whole new file, download is restarted
+        Path file = download(downloader, "/test.fa", "changed");
+        Assert.assertArrayEquals(next, Files.readAllBytes(file));
+        Assert.assertEquals(2, server.headRequests.get());
+        assertNoTemporaryFiles();
+    }
+
+    @Test
+    public void concurrentDownloaders() throws Exception {
+        byte[] data = randomFasta(10, 20000);
+        server.put("/test.fa", data);
+        // Separate downloaders, as in separate processes
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Path>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; ++i)
+            futures.add(executor.submit(new Callable<Path>() {
+                @Override
+                public Path call() throws Exception {
+                    return download(new HTTPDownloader(httpClient, 4, 10000, 3), "/test.fa", "locked");
+                }
+            }));
+        for (Future<Path> future : futures)
+            Assert.assertArrayEquals(data, Files.readAllBytes(future.get()));
+        executor.shutdown();
+
+        Assert.assertEquals(1, server.headRequests.get());
+        Assert.assertEquals(data.length, server.bytesServed.get());
+        assertNoTemporaryFiles();
+        Assert.assertEquals(0, ExclusiveFileLock.lockedFiles());
+    }
+
+    @Test
+    public void noRangeSupport() throws Exception {
+        byte[] data = randomFasta(10, 20000);
+        server.put("/test.fa", data);
+        server.acceptRanges = false;
+        server.dropResponses(1, 10000);
+        HTTPDownloader downloader = new HTTPDownloader(httpClient, 4, 10000, 3);
+
+        Path file = download(downloader, "/test.fa", "noRanges");
+        Assert.assertArrayEquals(data, Files.readAllBytes(file));
+        Assert.assertEquals(0, server.rangeRequests.get());
+        Assert.assertEquals(2, server.getRequests.get());
+        assertNoTemporaryFiles();
+    }
+
+    @Test
+    public void concurrentRequests() throws Exception {
+        byte[] data = randomFasta(10, 20000);
+        server.put("/test.fa", data);
+        final HTTPDownloader downloader = new HTTPDownloader(httpClient, 4, 10000, 3);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Path>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; ++i)
+            futures.add(executor.submit(new Callable<Path>() {
+                @Override
+                public Path call() throws Exception {
+                    return download(downloader, "/test.fa", "concurrent");
+                }
+            }));
+        for (Future<Path> future : futures)
+            Assert.assertArrayEquals(data, Files.readAllBytes(future.get()));
+        executor.shutdown();
+
+        Assert.assertTrue(server.headRequests.get() <= 1);
+        Assert.assertEquals(data.length, server.bytesServed.get());
+    }
+
+    @Test
+    public void resolverWithGZIP() throws Exception {
+        byte[] data = randomFasta(3, 1000);
+        server.put("/test.fa", data);
+        server.put("/test.fa.gz", gzip(data));
+        HTTPResolversContext context = new HTTPResolversContext(cache.resolve("resolverCache"), httpClient,
+                new HTTPDownloader(httpClient, 4, 100, 3));
+        SequenceResolver resolver = new MultiSequenceResolver(new HTTPSequenceResolvers.RAWHTTPResolver(context));
+
+        String fasta = new String(data, StandardCharsets.US_ASCII);
+        NucleotideSequence expected = new NucleotideSequence(fasta.split(">record1\n")[1].split(">")[0]
+                .replace("\n", "")).getRange(10, 100);
+        for (String path : new String[]{"/test.fa", "/test.fa.gz"}) {
+            URI uri = server.uri(path + "#record1");
+            Assert.assertEquals(expected, resolver.resolve(new SequenceAddress(uri)).getRegion(new Range(10, 100)));
+        }
+    }
+
+    static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (GZIPOutputStream os = new GZIPOutputStream(bos)) {
+            os.write(data);
+        }
+        return bos.toByteArray();
+    }
+}
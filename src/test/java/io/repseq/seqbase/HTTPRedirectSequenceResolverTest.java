@@ -0,0 +1,119 @@
+package io.repseq.seqbase;
+
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.provider.CachedSequenceProvider;
+import com.milaboratory.util.TempFileManager;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HTTPRedirectSequenceResolverTest {
+    static final class TestRedirectResolver extends HTTPRedirectSequenceResolver {
+        final AtomicInteger conversions = new AtomicInteger();
+        volatile boolean fail = false;
+
+        TestRedirectResolver(HTTPResolversContext context, long negativeTTL) {
+            super(context, negativeTTL);
+        }
+
+        @Override
+        protected URI resolveHTTPAddress(URI address) {
+            return address;
+        }
+
+        @Override
+        protected URI convertUrl(URI inputUrl) {
+            conversions.incrementAndGet();
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            if (fail)
+                throw new RuntimeException("Conversion failed.");
+            return URI.create("http://target/" + inputUrl.getAuthority());
+        }
+
+        @Override
+        public boolean canResolve(SequenceAddress address) {
+            return "redirect".equals(address.getUri().getScheme());
+        }
+    }
+
+    /**
+     * Records resolved addresses
+     */
+    static final class RecordingResolver implements SequenceResolver {
+        final Map<URI, URI> resolved = new ConcurrentHashMap<>();
+
+        @Override
+        public CachedSequenceProvider<NucleotideSequence> resolve(SequenceAddress address) {
+            resolved.put(address.getUri(), address.getUri());
+            return null;
+        }
+    }
+
+    static TestRedirectResolver create(HTTPResolversContext context, long negativeTTL, SequenceResolver parent) {
+        TestRedirectResolver resolver = new TestRedirectResolver(context, negativeTTL);
+        resolver.registerParent(parent);
+        return resolver;
+    }
+
+    @Test
+    public void concurrentAndPersistent() throws Exception {
+        HTTPResolversContext context = new HTTPResolversContext(TempFileManager.getTempDir().toPath(), null);
+        RecordingResolver parent = new RecordingResolver();
+        final TestRedirectResolver resolver = create(context, 1000, parent);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 64; ++i) {
+            final int id = i % 4;
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    resolver.resolve(new SequenceAddress("redirect://record" + id));
+                }
+            }));
+        }
+        for (Future<?> future : futures)
+            future.get();
+        executor.shutdown();
+
+        Assert.assertEquals(4, resolver.conversions.get());
+        Assert.assertTrue(parent.resolved.containsKey(URI.create("http://target/record3")));
+
+        // Conversion results are loaded from disk by new instance
+        TestRedirectResolver resolver2 = create(context, 1000, parent);
+        for (int i = 0; i < 4; ++i)
+            resolver2.resolve(new SequenceAddress("redirect://record" + i));
+        Assert.assertEquals(0, resolver2.conversions.get());
+    }
+
+    @Test
+    public void negativeCaching() throws Exception {
+        HTTPResolversContext context = new HTTPResolversContext(TempFileManager.getTempDir().toPath(), null);
+        TestRedirectResolver resolver = create(context, 100, new RecordingResolver());
+        resolver.fail = true;
+
+        for (int i = 0; i < 3; ++i)
+            try {
+                resolver.resolve(new SequenceAddress("redirect://record"));
+                Assert.fail();
+            } catch (RuntimeException e) {
+            }
+        Assert.assertEquals(1, resolver.conversions.get());
+
+        // Conversion is retried after TTL expiration
+        Thread.sleep(150);
+        resolver.fail = false;
+        resolver.resolve(new SequenceAddress("redirect://record"));
+        Assert.assertEquals(2, resolver.conversions.get());
+    }
+}
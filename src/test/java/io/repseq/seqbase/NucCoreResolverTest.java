@@ -0,0 +1,112 @@
+package io.repseq.seqbase;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.test.TestUtil;
+import com.milaboratory.util.TempFileManager;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.apache.commons.math3.random.Well19937c;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NucCoreResolverTest {
+    TestHTTPServer server;
+    CloseableHttpClient httpClient;
+    final Map<String, NucleotideSequence> records = new LinkedHashMap<>();
+    final AtomicInteger efetchRequests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        Well19937c rg = new Well19937c(12);
+        for (int i = 0; i < 10; ++i)
+            records.put("AB" + (100000 + i) + ".1",
+                    TestUtil.randomSequence(NucleotideSequence.ALPHABET, rg, 500, 1000));
+
+        server = new TestHTTPServer();
+        server.put("/efetch.fcgi", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if ("HEAD".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                efetchRequests.incrementAndGet();
+                String query = exchange.getRequestURI().getQuery();
+                String ids = query.split("id=")[1].split("&")[0];
+                StringBuilder sb = new StringBuilder();
+                for (String id : ids.split(",")) {
+                    // Versionless request returns versioned record
+                    NucleotideSequence seq = records.get(id);
+                    if (seq == null && (seq = records.get(id + ".1")) != null)
+                        id = id + ".1";
+                    if (seq != null)
+                        sb.append('>').append(id).append(" Some organism, some gene\n")
+                                .append(seq.toString().toLowerCase()).append('\n');
+                }
+                byte[] response = sb.toString().getBytes(StandardCharsets.US_ASCII);
+                exchange.sendResponseHeaders(200, response.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(response);
+                }
+            }
+        });
+        httpClient = HttpClients.createDefault();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        httpClient.close();
+        server.close();
+    }
+
+    @Test
+    public void batchPrefetch() throws Exception {
+        HTTPResolversContext context = new HTTPResolversContext(TempFileManager.getTempDir().toPath(), httpClient);
+        MultiSequenceResolver resolver = new MultiSequenceResolver(new HTTPSequenceResolvers.NucCoreResolver(context,
+                server.uri("/").toString(), 4));
+
+        List<SequenceAddress> addresses = new ArrayList<>();
+        for (String id : records.keySet())
+            addresses.add(new SequenceAddress("nuccore://" + id));
+        // Versionless id and absent record
+        addresses.add(new SequenceAddress("nuccore://AB100003"));
+        addresses.add(new SequenceAddress("nuccore://XX000001.1"));
+
+        resolver.prefetch(addresses);
+        Assert.assertEquals(3, efetchRequests.get());
+
+        for (Map.Entry<String, NucleotideSequence> record : records.entrySet()) {
+            NucleotideSequence seq = resolver.resolve(new SequenceAddress("nuccore://" + record.getKey()))
+                    .getRegion(new Range(10, 100));
+            Assert.assertEquals(record.getValue().getRange(10, 100), seq);
+        }
+        Assert.assertEquals(records.get("AB100003.1").getRange(0, 50),
+                resolver.resolve(new SequenceAddress("nuccore://AB100003")).getRegion(new Range(0, 50)));
+        Assert.assertEquals(3, efetchRequests.get());
+
+        // Repeated prefetch doesn't make any requests
+        resolver.prefetch(addresses.subList(0, 10));
+        Assert.assertEquals(3, efetchRequests.get());
+    }
+
+    @Test
+    public void matchId() throws Exception {
+        Set<String> ids = new HashSet<>(Arrays.asList("EU877942.1", "568815591", "KF684985"));
+        Assert.assertEquals("EU877942.1", HTTPSequenceResolvers.NucCoreResolver.matchId(">EU877942.1 Homo", ids));
+        Assert.assertEquals("568815591", HTTPSequenceResolvers.NucCoreResolver.matchId(">gi|568815591|gb|X.1| H",
+                ids));
+        Assert.assertEquals("KF684985", HTTPSequenceResolvers.NucCoreResolver.matchId(">KF684985.2 Mus", ids));
+        Assert.assertNull(HTTPSequenceResolvers.NucCoreResolver.matchId(">AB000001.1 Mus", ids));
+    }
+}
@@ -0,0 +1,93 @@
+package io.repseq.seqbase;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.util.TempFileManager;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ResolverMetricsTest {
+    @Test
+    public void countersAndListener() throws Exception {
+        Path file = TempFileManager.getTempDir().toPath().resolve("metrics.2bit");
+        NucleotideSequence seq = new NucleotideSequence("ATTAGACAATTAGACAGGGTACCA");
+        TwoBitResolverTest.writeTwoBit(file, new NucleotideSequence[]{seq}, Collections.<Range>emptyList(),
+                ByteOrder.LITTLE_ENDIAN);
+
+        final AtomicLong readBytes = new AtomicLong();
+        final List<ResolverMetrics.Operation> slow = new CopyOnWriteArrayList<>();
+        ResolverMetricsListener listener = new ResolverMetricsListener() {
+            @Override
+            public void operationCompleted(ResolverMetrics.Operation operation, SequenceAddress address,
+                                           long nanos, long bytes) {
+                if (operation == ResolverMetrics.Operation.Read)
+                    readBytes.addAndGet(bytes);
+            }
+
+            @Override
+            public void slowOperation(ResolverMetrics.Operation operation, SequenceAddress address, long nanos) {
+                slow.add(operation);
+            }
+        };
+
+        ResolverMetrics metrics = ResolverMetrics.getDefault();
+        long threshold = metrics.getSlowThreshold();
+        metrics.addListener(listener);
+        // Every operation is slow
+        metrics.setSlowThreshold(-1);
+        try {
+            SequenceAddress address = new SequenceAddress("twobit://" + file + "#chr0");
+            SequenceResolver resolver = new MultiSequenceResolver(new TwoBitResolver());
+            Assert.assertEquals(seq.getRange(2, 12), resolver.resolve(address).getRegion(new Range(2, 12)));
+            Assert.assertEquals(seq.getRange(20, 24), resolver.resolve(address).getRegion(new Range(20, 24)));
+
+            Assert.assertEquals(2, metrics.getByAddress(address, ResolverMetrics.Operation.Resolve).getCount());
+            Assert.assertEquals(1, metrics.getByAddress(address, ResolverMetrics.Operation.Index).getCount());
+            Assert.assertEquals(Files.size(file),
+                    metrics.getByAddress(address, ResolverMetrics.Operation.Index).getBytes());
+            ResolverMetrics.Counter reads = metrics.getByAddress(address, ResolverMetrics.Operation.Read);
+            Assert.assertTrue(reads.getCount() > 0);
+            Assert.assertEquals(reads.getBytes(), readBytes.get());
+            Assert.assertTrue(reads.getMaxNanos() <= reads.getNanos());
+            Assert.assertTrue(metrics.getSchemes().contains("twobit"));
+            Assert.assertTrue(metrics.getByScheme("twobit", ResolverMetrics.Operation.Read).getBytes()
+                    >= reads.getBytes());
+            Assert.assertTrue(slow.contains(ResolverMetrics.Operation.Index));
+        } finally {
+            metrics.removeListener(listener);
+            metrics.setSlowThreshold(threshold);
+        }
+    }
+
+    @Test
+    public void addressKeysAndLimit() throws Exception {
+        ResolverMetrics metrics = new ResolverMetrics(1000, 2);
+        Path dir = TempFileManager.getTempDir().toPath();
+        // The same file addressed relative to context and by absolute path
+        SequenceAddress relative = new SequenceAddress(dir, "file://seq.fa#A"),
+                absolute = new SequenceAddress("file://" + dir.resolve("seq.fa") + "#A");
+        metrics.record(ResolverMetrics.Operation.Index, relative, System.nanoTime(), 10);
+        metrics.record(ResolverMetrics.Operation.Index, absolute, System.nanoTime(), 10);
+        Assert.assertEquals(1, metrics.getAddresses().size());
+        Assert.assertEquals(2, metrics.getByAddress(relative, ResolverMetrics.Operation.Index).getCount());
+        Assert.assertEquals(20, metrics.getByAddress(absolute, ResolverMetrics.Operation.Index).getBytes());
+
+        for (int i = 0; i < 5; ++i)
+            metrics.record(ResolverMetrics.Operation.Resolve, new SequenceAddress("nuccore://N" + i),
+                    System.nanoTime(), 0);
+        Assert.assertEquals(2, metrics.getAddresses().size());
+        Assert.assertEquals(1, metrics.getByAddress(new SequenceAddress("nuccore://N0"),
+                ResolverMetrics.Operation.Resolve).getCount());
+        Assert.assertEquals(0, metrics.getByAddress(new SequenceAddress("nuccore://N4"),
+                ResolverMetrics.Operation.Resolve).getCount());
+        Assert.assertEquals(5, metrics.getByScheme("nuccore", ResolverMetrics.Operation.Resolve).getCount());
+    }
+}
@@ -0,0 +1,86 @@
+package io.repseq.seqbase;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.provider.SequenceProvider;
+import com.milaboratory.core.sequence.provider.SequenceProviderIndexOutOfBoundsException;
+import com.milaboratory.test.TestUtil;
+import com.milaboratory.util.TempFileManager;
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+public class SequenceBundleTest {
+    @Test
+    public void writeAndRead() throws Exception {
+        NucleotideSequence seq = TestUtil.randomSequence(NucleotideSequence.ALPHABET, new Well19937c(321),
+                3000, 3000);
+        SequenceBundle.Writer writer = new SequenceBundle.Writer();
+        writer.add("nuccore://A", seq.size(), new Range(100, 200), seq.getRange(100, 200));
+        writer.add("nuccore://A", seq.size(), new Range(2000, 2500), seq.getRange(2000, 2500));
+        // Overlapping and touching regions are merged
+        writer.add("nuccore://A", seq.size(), new Range(150, 300), seq.getRange(150, 300));
+        writer.add("nuccore://A", seq.size(), new Range(300, 400), seq.getRange(300, 400));
+        writer.add("nuccore://B", -1, new Range(0, 10), seq.getRange(0, 10));
+
+        Path file = TempFileManager.getTempDir().toPath().resolve("test.rsb");
+        writer.write(file);
+
+        try (SequenceBundle bundle = SequenceBundle.open(file)) {
+            Assert.assertTrue(bundle.contains("nuccore://B"));
+            Assert.assertFalse(bundle.contains("nuccore://C"));
+            Assert.assertEquals(Arrays.asList(new Range(100, 400), new Range(2000, 2500)),
+                    bundle.getRegions("nuccore://A"));
+
+            SequenceProvider<NucleotideSequence> provider = bundle.getSequenceProvider("nuccore://A");
+            Assert.assertEquals(seq.size(), provider.size());
+            Assert.assertEquals(seq.getRange(120, 390), provider.getRegion(new Range(120, 390)));
+            Assert.assertEquals(seq.getRange(2100, 2200).getReverseComplement(),
+                    provider.getRegion(new Range(2200, 2100)));
+            try {
+                provider.getRegion(new Range(350, 500));
+                Assert.fail();
+            } catch (SequenceProviderIndexOutOfBoundsException e) {
+                Assert.assertEquals(new Range(350, 400), e.getAvailableRange());
+            }
+            Assert.assertEquals(10, bundle.getSequenceProvider("nuccore://B").size());
+
+            SequenceResolver resolver = new MultiSequenceResolver(new BundleSequenceResolver(bundle),
+                    new AnySequenceResolver());
+            Assert.assertEquals(seq.getRange(2, 8),
+                    resolver.resolve(new SequenceAddress("nuccore://B")).getRegion(new Range(2, 8)));
+        }
+    }
+
+    @Test
+    public void localFileWithAndWithoutContext() throws Exception {
+        NucleotideSequence seq = TestUtil.randomSequence(NucleotideSequence.ALPHABET, new Well19937c(123),
+                1000, 1000);
+        // The same file, relative to context and to working directory
+        SequenceAddress withContext = new SequenceAddress(Paths.get("").toAbsolutePath().resolve("data"),
+                "file://seq.fa#A");
+        SequenceAddress withoutContext = new SequenceAddress("file://data/seq.fa#A");
+        String key = BundleSequenceResolver.key(withContext);
+        Assert.assertEquals(key, BundleSequenceResolver.key(withoutContext));
+        Assert.assertEquals("file://" + Paths.get("data", "seq.fa").toAbsolutePath() + "#A", key);
+
+        for (SequenceAddress bundled : Arrays.asList(withContext, withoutContext)) {
+            SequenceBundle.Writer writer = new SequenceBundle.Writer();
+            writer.add(BundleSequenceResolver.key(bundled), seq.size(), new Range(100, 200), seq.getRange(100, 200));
+            Path file = TempFileManager.getTempDir().toPath().resolve("local.rsb");
+            writer.write(file);
+
+            try (BundleSequenceResolver resolver = new BundleSequenceResolver(file)) {
+                for (SequenceAddress address : Arrays.asList(withContext, withoutContext)) {
+                    Assert.assertTrue(resolver.canResolve(address));
+                    Assert.assertEquals(seq.getRange(120, 180),
+                            resolver.resolve(address).getRegion(new Range(120, 180)));
+                }
+            }
+        }
+    }
+}
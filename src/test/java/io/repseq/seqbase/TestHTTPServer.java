@@ -0,0 +1,158 @@
+package io.repseq.seqbase;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal local HTTP server serving static content, used as a stand-in for remote sequence sources in tests.
+ */
+public final class TestHTTPServer implements AutoCloseable {
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    final HttpServer server;
+    final Map<String, byte[]> content = new ConcurrentHashMap<>();
+    /**
+     * Dynamic content; path -> handler
+     */
+    final Map<String, HttpHandler> handlers = new ConcurrentHashMap<>();
+    /**
+     * Whether to announce and serve range requests
+     */
+    volatile boolean acceptRanges = true;
+    /**
+     * Number of the following GET responses to be dropped after {@link #dropAfter} bytes
+     */
+    final AtomicInteger responsesToDrop = new AtomicInteger();
+    volatile int dropAfter = 0;
+    /**
+     * New content put in place of the old one after a dropped response (i.e. remote file changed during download);
+     * path -> content
+     */
+    final Map<String, byte[]> nextVersions = new ConcurrentHashMap<>();
+
+    final AtomicInteger headRequests = new AtomicInteger();
+    final AtomicInteger getRequests = new AtomicInteger();
+    final AtomicInteger rangeRequests = new AtomicInteger();
+    final AtomicLong bytesServed = new AtomicLong();
+
+    public TestHTTPServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    public URI uri(String path) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    public void put(String path, byte[] data) {
+        content.put(path, data);
+    }
+
+    public void put(String path, HttpHandler handler) {
+        handlers.put(path, handler);
+    }
+
+    public void putNextVersion(String path, byte[] data) {
+        nextVersions.put(path, data);
+    }
+
+    /**
+     * Returns ETag of the content
+     */
+    public static String eTag(byte[] data) {
+        return "\"" + Integer.toHexString(Arrays.hashCode(data)) + "\"";
+    }
+
+    public void dropResponses(int count, int afterBytes) {
+        dropAfter = afterBytes;
+        responsesToDrop.set(count);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+
+        HttpHandler handler = handlers.get(path);
+        if (handler != null) {
+            getRequests.incrementAndGet();
+            handler.handle(exchange);
+            return;
+        }
+
+        byte[] data = content.get(path);
+        if (data == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+
+        if (acceptRanges)
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        String eTag = eTag(data);
+        exchange.getResponseHeaders().set("ETag", eTag);
+
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            headRequests.incrementAndGet();
+            exchange.getResponseHeaders().set("Content-Length", Integer.toString(data.length));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+
+        getRequests.incrementAndGet();
+        int from = 0, to = data.length;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        Matcher matcher = range == null ? null : RANGE_PATTERN.matcher(range);
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        if (acceptRanges && matcher != null && matcher.matches() && (ifRange == null || ifRange.equals(eTag))) {
+            rangeRequests.incrementAndGet();
+            from = Integer.parseInt(matcher.group(1));
+            if (!matcher.group(2).isEmpty())
+                to = Math.min(data.length, Integer.parseInt(matcher.group(2)) + 1);
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + (to - 1) + "/" + data.length);
+            exchange.sendResponseHeaders(206, to - from);
+        } else
+            exchange.sendResponseHeaders(200, data.length);
+
+        int length = to - from;
+        boolean drop = responsesToDrop.getAndDecrement() > 0;
+        if (drop) {
+            length = Math.min(length, dropAfter);
+            byte[] next = nextVersions.remove(path);
+            if (next != null)
+                content.put(path, next);
+        }
+
+        OutputStream os = exchange.getResponseBody();
+        os.write(data, from, length);
+        os.flush();
+        bytesServed.addAndGet(length);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
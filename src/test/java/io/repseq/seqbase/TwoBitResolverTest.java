@@ -0,0 +1,124 @@
+package io.repseq.seqbase;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.test.TestUtil;
+import com.milaboratory.util.TempFileManager;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TwoBitResolverTest {
+    @Test
+    public void randomRegions() throws Exception {
+        RandomGenerator rg = new Well19937c(4321);
+        NucleotideSequence[] records = new NucleotideSequence[3];
+        for (int i = 0; i < records.length; ++i) {
+            StringBuilder sb = new StringBuilder(
+                    TestUtil.randomSequence(NucleotideSequence.ALPHABET, rg, 5000, 10000).toString());
+            // N-blocks, including ones at sequence boundaries
+            for (int j = 0; j < 5; ++j) {
+                int from = j == 0 ? 0 : j == 4 ? sb.length() - 10 : rg.nextInt(sb.length() - 100);
+                for (int k = from; k < Math.min(sb.length(), from + 1 + rg.nextInt(100)); ++k)
+                    sb.setCharAt(k, 'N');
+            }
+            records[i] = new NucleotideSequence(sb.toString());
+        }
+        List<Range> mask = Arrays.asList(new Range(10, 20), new Range(100, 1000));
+
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+            Path file = TempFileManager.getTempDir().toPath().resolve("genome_" + order + ".2bit");
+            writeTwoBit(file, records, mask, order);
+
+            SequenceResolver resolver = new MultiSequenceResolver(new TwoBitResolver(), new LocalFileResolver());
+            for (int t = 0; t < 1000; ++t) {
+                int r = rg.nextInt(records.length);
+                int from = rg.nextInt(records[r].size()),
+                        to = Math.min(records[r].size(), from + rg.nextInt(300));
+                String scheme = t % 2 == 0 ? "file://" : "twobit://";
+                NucleotideSequence seq = resolver.resolve(new SequenceAddress(scheme + file + "#chr" + r))
+                        .getRegion(new Range(from, to));
+                Assert.assertEquals(records[r].getRange(from, to), seq);
+            }
+
+            TwoBitReader reader = new TwoBitReader(file);
+            Assert.assertEquals(Arrays.asList("chr0", "chr1", "chr2"), new ArrayList<>(reader.getNames()));
+            Assert.assertEquals(records[1], reader.getSequenceProvider("chr1")
+                    .getRegion(new Range(0, records[1].size())));
+            Assert.assertEquals(records[2].getRange(100, 200).getReverseComplement(),
+                    reader.getSequenceProvider("chr2").getRegion(new Range(200, 100)));
+            Assert.assertEquals(mask, reader.getMaskBlocks("chr0"));
+            reader.close();
+        }
+    }
+
+    static void writeTwoBit(Path file, NucleotideSequence[] records, List<Range> mask, ByteOrder order)
+            throws IOException {
+        List<byte[]> bodies = new ArrayList<>();
+        int indexSize = 0;
+        for (int i = 0; i < records.length; ++i) {
+            bodies.add(recordBody(records[i], mask, order));
+            indexSize += 1 + ("chr" + i).length() + 4;
+        }
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ByteBuffer header = ByteBuffer.allocate(16 + indexSize).order(order);
+        header.putInt(TwoBitReader.SIGNATURE).putInt(0).putInt(records.length).putInt(0);
+        int offset = 16 + indexSize;
+        for (int i = 0; i < records.length; ++i) {
+            byte[] name = ("chr" + i).getBytes(StandardCharsets.US_ASCII);
+            header.put((byte) name.length).put(name).putInt(offset);
+            offset += bodies.get(i).length;
+        }
+        os.write(header.array());
+        for (byte[] body : bodies)
+            os.write(body);
+        Files.write(file, os.toByteArray());
+    }
+
+    static byte[] recordBody(NucleotideSequence seq, List<Range> mask, ByteOrder order) {
+        String str = seq.toString();
+        List<int[]> nBlocks = new ArrayList<>();
+        for (int i = 0; i < str.length(); ++i)
+            if (str.charAt(i) == 'N') {
+                int j = i;
+                while (j < str.length() && str.charAt(j) == 'N')
+                    ++j;
+                nBlocks.add(new int[]{i, j - i});
+                i = j;
+            }
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 8 * nBlocks.size() + 4 + 8 * mask.size() + 4 +
+                (str.length() + 3) / 4).order(order);
+        buffer.putInt(str.length()).putInt(nBlocks.size());
+        for (int[] block : nBlocks)
+            buffer.putInt(block[0]);
+        for (int[] block : nBlocks)
+            buffer.putInt(block[1]);
+        buffer.putInt(mask.size());
+        for (Range range : mask)
+            buffer.putInt(range.getFrom());
+        for (Range range : mask)
+            buffer.putInt(range.length());
+        buffer.putInt(0);
+        for (int i = 0; i < str.length(); i += 4) {
+            int b = 0;
+            for (int j = 0; j < 4; ++j)
+                b = (b << 2) | (i + j < str.length() ? "TCAG".indexOf(str.charAt(i + j)) & 3 : 0);
+            buffer.put((byte) b);
+        }
+        return buffer.array();
+    }
+}
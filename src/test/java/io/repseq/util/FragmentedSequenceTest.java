@@ -0,0 +1,102 @@
+package io.repseq.util;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.test.TestUtil;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FragmentedSequenceTest {
+    @Test
+    public void touchingFragments() throws Exception {
+        FragmentedSequence seq = new FragmentedSequence();
+        seq.put(10, new NucleotideSequence("ATTA"));
+        seq.put(14, new NucleotideSequence("GACA"));
+        seq.put(20, new NucleotideSequence("TT"));
+        assertEquals(new NucleotideSequence("TAGA"), seq.get(new Range(12, 16)));
+        assertEquals(new Range(10, 18), seq.getAvailableRange(new Range(12, 16)));
+        assertNull(seq.get(new Range(17, 21)));
+
+        seq.put(18, new NucleotideSequence("CC"));
+        assertEquals(new NucleotideSequence("ACCT"), seq.get(new Range(17, 21)));
+
+        List<Map.Entry<Range, NucleotideSequence>> fragments = seq.getMergedFragments();
+        assertEquals(1, fragments.size());
+        assertEquals(new Range(10, 22), fragments.get(0).getKey());
+        assertEquals(new NucleotideSequence("ATTAGACACCTT"), fragments.get(0).getValue());
+    }
+
+    @Test(timeout = 20000)
+    public void manyOverlappingFragments() throws Exception {
+        // Fragments with surroundings overlapping the previous ones, all joined into a single growing run; quadratic
+        // copying of the run (~10^11 nucleotides) would not fit into the timeout
+        NucleotideSequence full = TestUtil.randomSequence(NucleotideSequence.ALPHABET, new Well19937c(1),
+                1000000, 1000000);
+        FragmentedSequence seq = new FragmentedSequence();
+        for (int from = 0; from + 100 <= full.size(); from += 5) {
+            seq.put(from, full.getRange(from, from + 100));
+            if (from % 1000 == 0)
+                assertEquals(full.getRange(from + 50, from + 100), seq.get(new Range(from + 50, from + 100)));
+        }
+        assertEquals(new Range(0, full.size()), seq.getAvailableRange(new Range(10, 20)));
+        List<Map.Entry<Range, NucleotideSequence>> fragments = seq.getMergedFragments();
+        assertEquals(1, fragments.size());
+        assertEquals(full, fragments.get(0).getValue());
+        assertEquals(full.getRange(400, 500).getReverseComplement(), seq.get(new Range(500, 400)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void inconsistentFragments() throws Exception {
+        FragmentedSequence seq = new FragmentedSequence();
+        seq.put(10, new NucleotideSequence("ATTA"));
+        seq.put(20, new NucleotideSequence("ATTA"));
+        seq.put(12, new NucleotideSequence("TAGACACACAAA"));
+    }
+
+    @Test
+    public void randomFragments() throws Exception {
+        RandomGenerator rg = new Well19937c(123);
+        for (int t = 0; t < 100; ++t) {
+            NucleotideSequence full = TestUtil.randomSequence(NucleotideSequence.ALPHABET, rg, 500, 1000);
+            boolean[] known = new boolean[full.size()];
+            FragmentedSequence seq = new FragmentedSequence();
+            for (int i = 0; i < 100; ++i) {
+                int from = rg.nextInt(full.size()), to = Math.min(full.size(), from + 1 + rg.nextInt(30));
+                seq.put(from, full.getRange(from, to));
+                for (int j = from; j < to; ++j)
+                    known[j] = true;
+
+                int a = rg.nextInt(full.size()), b = Math.min(full.size(), a + 1 + rg.nextInt(30));
+                boolean allKnown = true;
+                for (int j = a; j < b; ++j)
+                    allKnown &= known[j];
+                if (allKnown)
+                    assertEquals(full.getRange(a, b), seq.get(new Range(a, b)));
+                else
+                    assertNull(seq.get(new Range(a, b)));
+            }
+
+            int previousEnd = -1;
+            for (Map.Entry<Range, NucleotideSequence> fragment : seq.getMergedFragments()) {
+                Range range = fragment.getKey();
+                Assert.assertTrue(range.getFrom() > previousEnd);
+                assertEquals(full.getRange(range), fragment.getValue());
+                for (int j = range.getFrom(); j < range.getTo(); ++j)
+                    Assert.assertTrue(known[j]);
+                if (range.getFrom() > 0)
+                    Assert.assertFalse(known[range.getFrom() - 1]);
+                if (range.getTo() < full.size())
+                    Assert.assertFalse(known[range.getTo()]);
+                previousEnd = range.getTo();
+            }
+        }
+    }
+}